@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ *
+ */
+
+package gate.plugin.learningframework;
+
+/**
+ * How the training instances are kept.
+ * MALLET uses a ScalingInstanceList, a normal Mallet InstanceList with one object per
+ * instance, COMPACT uses a CompactInstanceList which stores all instances in shared arrays
+ * and DISK uses a DiskInstanceList which stores the instances in a temporary file.
+ */
+public enum InstanceStorage {
+  MALLET,
+  COMPACT,
+  DISK;
+}
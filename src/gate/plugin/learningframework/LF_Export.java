@@ -23,15 +23,21 @@ import gate.creole.metadata.Optional;
 import gate.creole.metadata.RunTime;
 import gate.plugin.learningframework.data.CorpusRepresentation;
 import gate.plugin.learningframework.data.CorpusRepresentationMallet;
+import gate.plugin.learningframework.data.CorpusRepresentationMalletMultiSpec;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
+import gate.plugin.learningframework.data.DocumentProjection;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletSeq;
+import gate.plugin.learningframework.data.StreamingExporter;
 import gate.plugin.learningframework.engines.AlgorithmClassification;
 import gate.plugin.learningframework.engines.Engine;
+import gate.plugin.learningframework.features.FeatureInfo;
 import gate.plugin.learningframework.features.FeatureSpecification;
 import gate.plugin.learningframework.features.TargetType;
 import gate.util.Files;
 import gate.util.GateRuntimeException;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  *
@@ -62,6 +68,22 @@ public class LF_Export extends LF_ExportBase {
     return featureSpecURL;
   }
 
+  private List<URL> additionalFeatureSpecURLs;
+
+  @RunTime
+  @Optional
+  @CreoleParameter(collectionElementType = URL.class, comment = "Additional feature specification "
+          + "files: the features for all specifications are extracted in one pass and the export for "
+          + "each is written to a subdirectory of the data directory named after the specification file. "
+          + "Only for classification or regression and not with streaming export.")
+  public void setAdditionalFeatureSpecURLs(List<URL> urls) {
+    this.additionalFeatureSpecURLs = urls;
+  }
+
+  public List<URL> getAdditionalFeatureSpecURLs() {
+    return additionalFeatureSpecURLs;
+  }
+
 
   protected ScalingMethod scaleFeatures = ScalingMethod.NONE;
 
@@ -110,6 +132,8 @@ public class LF_Export extends LF_ExportBase {
   // Depending on what the user wants, we use one of the two, so we avoid constant casting.
   private CorpusRepresentationMalletTarget corpusRepresentationClass = null;
   private CorpusRepresentationMalletSeq corpusRepresentationSeq = null;
+  // only used if there are additional feature specifications
+  private CorpusRepresentationMalletMultiSpec corpusRepresentationMultiSpec = null;
   
   private FeatureSpecification featureSpec = null;
 
@@ -143,16 +167,32 @@ public class LF_Export extends LF_ExportBase {
 
   private Exporter exporter;
   
+  protected Boolean streamingExport = false;
+  
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "false", comment = "Write the instances of each document as soon "
+          + "as it is processed, only for LibSVM, SVMlight and ARFF exports without scaling")
+  public void setStreamingExport(Boolean value) {
+    streamingExport = value;
+  }
+  
+  public Boolean getStreamingExport() {
+    return streamingExport;
+  }
+  
+  // if not null, the instances get written after each document
+  private StreamingExporter streamingExporter = null;
+  
   // ----------------------------------------------------------------------------
   
   private boolean haveSequenceProblem = false;  // true if a classAnnotationType is specified
   private boolean haveSequenceAlg    = false;  // tue if we export for MALLET_SEQ
   
-  // TODO: 
-  // Some export formats may need to directly write each document at execute time while
-  // others first need the mallet corpus then do the export after the last document.
-  // Make it easier to include either here!
-  // Also: can we get most of what we need to do into the Exporter enum already??
+  // NOTE: in streaming mode, formats which can write each instance on its own directly 
+  // write each document at execute time, all others first need the mallet corpus then do 
+  // the export after the last document.
+  // TODO: can we get most of what we need to do into the Exporter enum already??
 
   @Override
   public void execute(Document doc) {
@@ -180,15 +220,34 @@ public class LF_Export extends LF_ExportBase {
     String nameFeatureName = null;
     if(haveSequenceAlg) {      
       corpusRepresentationSeq.add(instanceAS, sequenceAS, inputAS, classAnnots, null, targetType, nameFeatureName);
+    } else if(corpusRepresentationMultiSpec != null) {
+      corpusRepresentationMultiSpec.add(instanceAS, sequenceAS, inputAS, getTargetFeature(), targetType, nameFeatureName);
     } else {
       corpusRepresentationClass.add(instanceAS, sequenceAS, inputAS, null, getTargetFeature(), targetType, nameFeatureName);
+      if(streamingExporter != null) {
+        streamingExporter.add(corpusRepresentationClass.getRepresentationMallet());
+        corpusRepresentationClass.clear();
+      }
     }
   }
 
   @Override
   public void afterLastDocument(Controller arg0, Throwable t) {
     File outDir = Files.fileFromURL(getDataDirectory());
-    if(!haveSequenceAlg) { 
+    if(streamingExporter != null) {
+      streamingExporter.close();
+      streamingExporter = null;
+    } else if(corpusRepresentationMultiSpec != null) {
+      // the first representation is for the main feature specification
+      List<CorpusRepresentationMalletTarget> crms = corpusRepresentationMultiSpec.getRepresentations();
+      List<File> outDirs = new ArrayList<File>();
+      outDirs.add(outDir);
+      outDirs.addAll(featureSpecDirectories(outDir, getAdditionalFeatureSpecURLs()));
+      for(int i=0; i<crms.size(); i++) {
+        crms.get(i).addScaling(getScaleFeatures());
+        CorpusRepresentation.export(crms.get(i), exporter, outDirs.get(i), getAlgorithmParameters());
+      }
+    } else if(!haveSequenceAlg) { 
       corpusRepresentationClass.addScaling(getScaleFeatures());
       System.err.println("EXPORTING AS CLASS");
       CorpusRepresentation.export(corpusRepresentationClass, exporter, outDir, getAlgorithmParameters());
@@ -241,8 +300,50 @@ public class LF_Export extends LF_ExportBase {
     
     haveSequenceAlg = getSequenceSpan()!=null && !getSequenceSpan().isEmpty();
     
+    corpusRepresentationMultiSpec = null;
+    if(getAdditionalFeatureSpecURLs() != null && !getAdditionalFeatureSpecURLs().isEmpty()) {
+      if(haveSequenceAlg || corpusRepresentationClass == null) {
+        throw new GateRuntimeException("Additional feature specifications can only be used for classification or regression");
+      }
+      if(getStreamingExport() != null && getStreamingExport()) {
+        throw new GateRuntimeException("Additional feature specifications cannot be used with streaming export");
+      }
+      List<FeatureInfo> infos = new ArrayList<FeatureInfo>();
+      infos.add(featureSpec.getFeatureInfo());
+      for(URL url : getAdditionalFeatureSpecURLs()) {
+        infos.add(new FeatureSpecification(url).getFeatureInfo());
+      }
+      corpusRepresentationMultiSpec = new CorpusRepresentationMalletMultiSpec(infos, getInstanceType(), 
+              targetType, scaleFeatures, InstanceStorage.MALLET, null);
+      corpusRepresentationClass = null;
+    }
+    
+    streamingExporter = null;
+    if(getStreamingExport() != null && getStreamingExport()) {
+      if(haveSequenceAlg || corpusRepresentationClass == null) {
+        throw new GateRuntimeException("Streaming export is only possible for classification or regression");
+      }
+      if(getScaleFeatures() != null && getScaleFeatures() != ScalingMethod.NONE) {
+        throw new GateRuntimeException("Streaming export is not possible with scaling");
+      }
+      File outDir = Files.fileFromURL(getDataDirectory());
+      streamingExporter = StreamingExporter.create(getExporter(), outDir, getAlgorithmParameters(), 
+              corpusRepresentationClass.getPipe());
+    }
+    
     
     System.err.println("DEBUG: setup of the export PR complete");
   }
 
+  @Override
+  protected DocumentProjection getDocumentProjection() {
+    DocumentProjection projection = new DocumentProjection(getInputASName());
+    projection.addAttributes(corpusRepresentationMultiSpec != null ? 
+            corpusRepresentationMultiSpec.getFeatureInfo() : featureSpec.getFeatureInfo(), getInstanceType());
+    projection.addType(getInstanceType(), getTargetFeature());
+    projection.addType(getClassAnnotationType());
+    projection.addType(getSequenceSpan());
+    return projection;
+  }
+
 }
@@ -6,6 +6,10 @@
 
 package gate.plugin.learningframework;
 
+import gate.creole.metadata.CreoleParameter;
+import gate.creole.metadata.Optional;
+import gate.creole.metadata.RunTime;
+
 /**
  * Base class for all Training classes, inherits from LF_Base. 
  * This adds the parameters that are common to all training PRs.
@@ -14,5 +18,18 @@ package gate.plugin.learningframework;
  */
 public abstract class LF_ExportBase extends LearningFrameworkPRBase {
   private static final long serialVersionUID = 2484394528950089187L;
-  // TODO
+  
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "NONE", comment = "WRITE also saves a compact projection of each "
+          + "document with just the annotations and features needed to the data directory, "
+          + "READ processes the saved projections instead of the documents of the corpus, "
+          + "which should then contain a single document.")
+  public void setProjectionMode(ProjectionMode mode) {
+    projectionMode = mode;
+  }
+  
+  public ProjectionMode getProjectionMode() {
+    return projectionMode;
+  }
 }
@@ -6,6 +6,26 @@
 
 package gate.plugin.learningframework;
 
+import cc.mallet.types.Alphabet;
+import gate.Resource;
+import gate.creole.ResourceInstantiationException;
+import gate.creole.metadata.CreoleParameter;
+import gate.creole.metadata.Optional;
+import gate.creole.metadata.RunTime;
+import gate.creole.metadata.Sharable;
+import gate.plugin.learningframework.data.CorpusRepresentationMallet;
+import gate.plugin.learningframework.data.CorpusRepresentationMalletMultiSpec;
+import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
+import gate.plugin.learningframework.engines.Info;
+import gate.plugin.learningframework.features.FeatureInfo;
+import gate.plugin.learningframework.features.FeatureSpecification;
+import gate.plugin.learningframework.features.TargetType;
+import gate.plugin.learningframework.mallet.PruningAlphabet;
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Base class for all Training classes, inherits from LF_Base. 
  * This adds the parameters that are common to all training PRs.
@@ -13,5 +33,207 @@ package gate.plugin.learningframework;
  * @author Johann Petrak
  */
 public abstract class LF_TrainBase extends LearningFrameworkPRBase {
-  // TODO
+  
+  protected Integer minFeatureFrequency = 1;
+  
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "1", comment = "Features seen fewer times than this in the "
+          + "training documents are not used. The counts are approximate. The first "
+          + "minFeatureFrequency-1 occurrences of every feature are dropped, also for features "
+          + "which turn out to be frequent.")
+  public void setMinFeatureFrequency(Integer freq) {
+    minFeatureFrequency = freq;
+  }
+  
+  public Integer getMinFeatureFrequency() {
+    return minFeatureFrequency;
+  }
+  
+  protected Boolean sortFeaturesByFrequency = false;
+  
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "false", comment = "Renumber the features before training "
+          + "so that the most frequent ones come first.")
+  public void setSortFeaturesByFrequency(Boolean sort) {
+    sortFeaturesByFrequency = sort;
+  }
+  
+  public Boolean getSortFeaturesByFrequency() {
+    return sortFeaturesByFrequency;
+  }
+  
+  protected InstanceStorage instanceStorage = InstanceStorage.MALLET;
+  
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "MALLET", comment = "How to keep the training instances, "
+          + "COMPACT needs much less memory for large training sets, DISK keeps them in a file in the "
+          + "data directory. Not used for sequence tagging algorithms.")
+  public void setInstanceStorage(InstanceStorage storage) {
+    instanceStorage = storage;
+  }
+  
+  public InstanceStorage getInstanceStorage() {
+    return instanceStorage;
+  }
+  
+  protected Boolean saveCorpus = false;
+  
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "false", comment = "Also save the training instances to the "
+          + "file lf.corpus in the data directory, so that other algorithms can be trained from them "
+          + "with TrainFromCorpus without processing the documents again. Not used for sequence tagging.")
+  public void setSaveCorpus(Boolean save) {
+    saveCorpus = save;
+  }
+  
+  public Boolean getSaveCorpus() {
+    return saveCorpus;
+  }
+  
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "NONE", comment = "WRITE also saves a compact projection of each "
+          + "document with just the annotations and features needed to the data directory, "
+          + "READ processes the saved projections instead of the documents of the corpus, "
+          + "which should then contain a single document.")
+  public void setProjectionMode(ProjectionMode mode) {
+    projectionMode = mode;
+  }
+  
+  public ProjectionMode getProjectionMode() {
+    return projectionMode;
+  }
+  
+  protected List<URL> additionalFeatureSpecURLs;
+  
+  @RunTime
+  @Optional
+  @CreoleParameter(collectionElementType = URL.class, comment = "Additional feature specification "
+          + "files: the features for all specifications are extracted in one pass and for each, "
+          + "the training instances are saved to the file lf.corpus in a subdirectory of the data "
+          + "directory named after the specification file. Not used for sequence tagging.")
+  public void setAdditionalFeatureSpecURLs(List<URL> urls) {
+    additionalFeatureSpecURLs = urls;
+  }
+  
+  public List<URL> getAdditionalFeatureSpecURLs() {
+    return additionalFeatureSpecURLs;
+  }
+  
+  /**
+   * True if additional feature specifications were specified.
+   */
+  protected boolean haveAdditionalFeatureSpecs() {
+    return getAdditionalFeatureSpecURLs() != null && !getAdditionalFeatureSpecURLs().isEmpty();
+  }
+  
+  /**
+   * Create the corpus representation for the FeatureInfo of the main feature specification 
+   * and the additional feature specifications.
+   */
+  protected CorpusRepresentationMalletMultiSpec createMultiSpecRepresentation(FeatureInfo mainInfo, 
+          TargetType targetType, ScalingMethod scaling, File dataDir) {
+    List<FeatureInfo> infos = new ArrayList<FeatureInfo>();
+    infos.add(mainInfo);
+    for(URL url : getAdditionalFeatureSpecURLs()) {
+      infos.add(getTrainingFeatureInfo(new FeatureSpecification(url)));
+    }
+    return new CorpusRepresentationMalletMultiSpec(infos, getInstanceType(), targetType, scaling, 
+            getInstanceStorage(), dataDir);
+  }
+  
+  /**
+   * Save the training instances of the additional feature specifications, which are all 
+   * but the first corpus representation, so they can be used with TrainFromCorpus.
+   */
+  protected void saveAdditionalCorpora(List<CorpusRepresentationMalletTarget> crms, File dataDir, Info info) {
+    List<File> dirs = featureSpecDirectories(dataDir, getAdditionalFeatureSpecURLs());
+    for(int i=0; i<dirs.size(); i++) {
+      CorpusRepresentationMalletTarget crm = crms.get(i+1);
+      finishFeatures(crm);
+      crm.saveCorpus(dirs.get(i), info);
+      System.out.println("LearningFramework: Saved the training instances for " + 
+              getAdditionalFeatureSpecURLs().get(i) + " to " + 
+              new File(dirs.get(i), CorpusRepresentationMalletTarget.FILENAME_CORPUS));
+    }
+  }
+  
+  // shared with all duplicates of this PR, see SharedTrainingData
+  protected transient SharedTrainingData sharedTrainingData;
+  // true once this PR is counted by the shared data, init() also runs for reInit()
+  private transient boolean registered = false;
+  
+  @Sharable
+  public void setSharedTrainingData(SharedTrainingData data) {
+    sharedTrainingData = data;
+  }
+  
+  public SharedTrainingData getSharedTrainingData() {
+    return sharedTrainingData;
+  }
+  
+  @Override
+  public Resource init() throws ResourceInstantiationException {
+    // for a duplicate, the shared data of the original has already been set
+    if(sharedTrainingData == null) {
+      sharedTrainingData = new SharedTrainingData();
+    }
+    if(!registered) {
+      sharedTrainingData.register();
+      registered = true;
+    }
+    return super.init();
+  }
+  
+  @Override
+  protected int getNrDuplicates() {
+    return sharedTrainingData == null ? 1 : sharedTrainingData.getNrDuplicates();
+  }
+  
+  @Override
+  public void cleanup() {
+    if(sharedTrainingData != null && registered) {
+      sharedTrainingData.unregister();
+      registered = false;
+    }
+    super.cleanup();
+  }
+  
+  /**
+   * Get the FeatureInfo to use for training from the feature specification, with the 
+   * settings of the training parameters applied.
+   */
+  protected FeatureInfo getTrainingFeatureInfo(FeatureSpecification spec) {
+    FeatureInfo fi = spec.getFeatureInfo();
+    if(getMinFeatureFrequency() != null) {
+      fi.setMinFeatureFrequency(getMinFeatureFrequency());
+    }
+    return fi;
+  }
+  
+  /**
+   * Prepare the data alphabet of the corpus representation for training: if features were 
+   * pruned, remove the unused features and if requested, sort the features by frequency. 
+   * This must be done before scaling is added.
+   */
+  protected void finishFeatures(CorpusRepresentationMallet crm) {
+    if(getMinFeatureFrequency() != null && getMinFeatureFrequency() > 1) {
+      Alphabet alph = crm.getRepresentationMallet().getDataAlphabet();
+      if(alph instanceof PruningAlphabet) {
+        System.out.println("LearningFramework: Kept about " + ((PruningAlphabet)alph).getEstimatedNrPruned() + 
+                " features seen fewer than minFeatureFrequency times out of the alphabet");
+      }
+      int removed = crm.compactDataAlphabet();
+      System.out.println("LearningFramework: Removed " + removed + " features not used by any instance");
+    }
+    if(getSortFeaturesByFrequency() != null && getSortFeaturesByFrequency()) {
+      if(crm.sortFeaturesByFrequency()) {
+        System.out.println("LearningFramework: Sorted features by frequency");
+      }
+    }
+  }
 }
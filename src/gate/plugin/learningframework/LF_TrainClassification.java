@@ -21,13 +21,16 @@ import gate.creole.metadata.CreoleParameter;
 import gate.creole.metadata.CreoleResource;
 import gate.creole.metadata.Optional;
 import gate.creole.metadata.RunTime;
+import gate.plugin.learningframework.data.CorpusRepresentationMalletMultiSpec;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
+import gate.plugin.learningframework.data.DocumentProjection;
 import gate.plugin.learningframework.engines.AlgorithmClassification;
 import gate.plugin.learningframework.engines.Engine;
 import gate.plugin.learningframework.features.FeatureSpecification;
 import gate.plugin.learningframework.features.TargetType;
 import gate.util.GateRuntimeException;
 import java.io.File;
+import java.util.List;
 
 /**
  *
@@ -63,7 +66,9 @@ public class LF_TrainClassification extends LF_TrainBase {
   @RunTime
   @Optional
   @CreoleParameter(comment = "The algorithm to be used for training. Ignored at "
-          + "application time.")
+          + "application time. Features the model does not use are removed after training "
+          + "for Mallet MaxEnt and C45 and for LibSVM with a linear, polynomial or sigmoid "
+          + "kernel, but not for Weka models like J48 or RandomForest.")
   public void setTrainingAlgorithm(AlgorithmClassification algo) {
     this.trainingAlgorithm = algo;
   }
@@ -112,6 +117,8 @@ public class LF_TrainClassification extends LF_TrainBase {
   }
 
   private CorpusRepresentationMalletTarget corpusRepresentation = null;
+  // only used if there are additional feature specifications
+  private CorpusRepresentationMalletMultiSpec multiSpecRepresentation = null;
   private FeatureSpecification featureSpec = null;
 
   private Engine engine = null;
@@ -156,11 +163,45 @@ public class LF_TrainClassification extends LF_TrainBase {
     // the classAS is always null for the classification task!
     // the nameFeatureName is always null for now!
     String nameFeatureName = null;
-    corpusRepresentation.add(instanceAS, sequenceAS, inputAS, null, getTargetFeature(), TargetType.NOMINAL, nameFeatureName);
+    if(multiSpecRepresentation != null) {
+      multiSpecRepresentation.add(instanceAS, sequenceAS, inputAS, getTargetFeature(), TargetType.NOMINAL, nameFeatureName);
+    } else {
+      corpusRepresentation.add(instanceAS, sequenceAS, inputAS, null, getTargetFeature(), TargetType.NOMINAL, nameFeatureName);
+    }
   }
 
   @Override
   public void afterLastDocument(Controller arg0, Throwable t) {
+    List<CorpusRepresentationMalletTarget> multiSpecRepresentations = null;
+    if(multiSpecRepresentation != null) {
+      // the first representation is the one for the main feature specification
+      multiSpecRepresentations = multiSpecRepresentation.getRepresentations();
+      corpusRepresentation = multiSpecRepresentations.get(0);
+      engine = Engine.createEngine(trainingAlgorithm, getAlgorithmParameters(), corpusRepresentation);
+    } else {
+      // if this PR has duplicates, e.g. running in other threads, only the last one to 
+      // finish trains, on the instances of all of them
+      if(!sharedTrainingData.finish(corpusRepresentation)) {
+        logger.warn("LearningFramework: Not training, the model gets trained by the last of the " + 
+                sharedTrainingData.getNrDuplicates() + " duplicates of this PR to finish");
+        return;
+      }
+      useMergedRepresentation(sharedTrainingData.merge());
+    }
+    train(multiSpecRepresentations);
+  }
+
+  // use the merged instances of all the duplicates for training
+  private void useMergedRepresentation(CorpusRepresentationMalletTarget merged) {
+    if(merged != corpusRepresentation) {
+      corpusRepresentation = merged;
+      dataDir = gate.util.Files.fileFromURL(dataDirectory);
+      engine = Engine.createEngine(trainingAlgorithm, getAlgorithmParameters(), corpusRepresentation);
+    }
+  }
+
+  private void train(List<CorpusRepresentationMalletTarget> multiSpecRepresentations) {
+    finishFeatures(corpusRepresentation);
     System.out.println("LearningFramework: Starting training engine " + engine);
     System.out.println("Training set classes: "
             + corpusRepresentation.getRepresentationMallet().getPipe().getTargetAlphabet().toString().replaceAll("\\n", " "));
@@ -172,22 +213,44 @@ public class LF_TrainClassification extends LF_TrainBase {
     }
       //System.out.println("DEBUG: instances are "+corpusRepresentation.getRepresentationMallet());
 
-    corpusRepresentation.addScaling(getScaleFeatures());
-
     // Store some additional information in the info datastructure which will be saved with the model
     engine.getInfo().nrTrainingDocuments = nrDocuments;
     engine.getInfo().nrTrainingInstances = corpusRepresentation.getRepresentationMallet().size();
     engine.getInfo().targetFeature = getTargetFeature();
-    engine.getInfo().trainingCorpusName = corpus.getName();
+    engine.getInfo().trainingCorpusName = corpus == null ? null : corpus.getName();
+
+    if(getSaveCorpus() != null && getSaveCorpus()) {
+      corpusRepresentation.saveCorpus(dataDir, engine.getInfo());
+      System.out.println("LearningFramework: Saved the training instances to " + 
+              new File(dataDir, CorpusRepresentationMalletTarget.FILENAME_CORPUS));
+    }
+    if(multiSpecRepresentations != null) {
+      saveAdditionalCorpora(multiSpecRepresentations, dataDir, engine.getInfo());
+    }
+    
+    corpusRepresentation.addScaling(getScaleFeatures());
     
     engine.trainModel(getAlgorithmParameters());
+    int removed = engine.compactModel();
+    if(removed > 0) {
+      System.out.println("LearningFramework: Removed features not used by the model: " + removed);
+    }
     logger.info("LearningFramework: Training complete!");
     engine.saveEngine(dataDir);
   }
 
   @Override
   protected void finishedNoDocument(Controller c, Throwable t) {
-    logger.error("Processing finished, but no documents seen, cannot train!");
+    if(sharedTrainingData.finish(null)) {
+      CorpusRepresentationMalletTarget merged = sharedTrainingData.merge();
+      if(merged != null) {
+        // other duplicates of this PR have seen documents
+        useMergedRepresentation(merged);
+        train(null);
+      } else {
+        logger.error("Processing finished, but no documents seen, cannot train!");
+      }
+    }
   }
 
   @Override
@@ -202,6 +265,9 @@ public class LF_TrainClassification extends LF_TrainBase {
       if (getSequenceSpan() == null || getSequenceSpan().isEmpty()) {
         throw new GateRuntimeException("SequenceSpan parameter is required for MALLET_SEQ_CRF");
       }
+      if (sharedTrainingData.getNrDuplicates() > 1) {
+        throw new GateRuntimeException("MALLET_SEQ_CRF cannot be trained with duplicates of the PR");
+      }
     } else {
       if (getSequenceSpan() != null && !getSequenceSpan().isEmpty()) {
         throw new GateRuntimeException("SequenceSpan parameter must not be specified with non-sequence tagging algorithm");
@@ -232,18 +298,46 @@ public class LF_TrainClassification extends LF_TrainBase {
     featureSpec = new FeatureSpecification(featureSpecURL);
     System.err.println("DEBUG Read the feature specification: " + featureSpec);
 
-    // create the corpus representation for creating the training instances
-    corpusRepresentation = new CorpusRepresentationMalletTarget(featureSpec.getFeatureInfo(), scaleFeatures, TargetType.NOMINAL);
-    System.err.println("DEBUG: created the corpusRepresentationMallet: " + corpusRepresentation);
+    if(haveAdditionalFeatureSpecs()) {
+      if(sharedTrainingData.getNrDuplicates() > 1) {
+        throw new GateRuntimeException("Additional feature specifications cannot be used with duplicates of the PR");
+      }
+      if (getTrainingAlgorithm() == AlgorithmClassification.MALLET_SEQ_CRF) {
+        throw new GateRuntimeException("Additional feature specifications cannot be used for sequence tagging");
+      }
+      // the corpus representation and engine for the main feature specification get created
+      // after the last document
+      multiSpecRepresentation = createMultiSpecRepresentation(getTrainingFeatureInfo(featureSpec), 
+              TargetType.NOMINAL, scaleFeatures, dataDir);
+      corpusRepresentation = null;
+      engine = null;
+    } else {
+      multiSpecRepresentation = null;
+      // create the corpus representation for creating the training instances
+      corpusRepresentation = new CorpusRepresentationMalletTarget(getTrainingFeatureInfo(featureSpec), scaleFeatures, TargetType.NOMINAL, getInstanceStorage(), dataDir);
+      System.err.println("DEBUG: created the corpusRepresentationMallet: " + corpusRepresentation);
 
-    // Create the engine from the Algorithm parameter
-    engine = Engine.createEngine(trainingAlgorithm, getAlgorithmParameters(), corpusRepresentation);
+      // Create the engine from the Algorithm parameter
+      engine = Engine.createEngine(trainingAlgorithm, getAlgorithmParameters(), corpusRepresentation);
     
-    System.err.println("DEBUG: created the engine: " + engine);
+      System.err.println("DEBUG: created the engine: " + engine);
+    }
 
     nrDocuments = 0;
     
     System.err.println("DEBUG: setup of the training PR complete");    
   }
 
+  @Override
+  protected DocumentProjection getDocumentProjection() {
+    DocumentProjection projection = new DocumentProjection(getInputASName());
+    projection.addAttributes(multiSpecRepresentation != null ? 
+            multiSpecRepresentation.getFeatureInfo() : featureSpec.getFeatureInfo(), getInstanceType());
+    projection.addType(getInstanceType(), getTargetFeature());
+    if (getTrainingAlgorithm() == AlgorithmClassification.MALLET_SEQ_CRF) {
+      projection.addType(getSequenceSpan());
+    }
+    return projection;
+  }
+
 }
@@ -24,6 +24,7 @@ import gate.creole.metadata.Optional;
 import gate.creole.metadata.RunTime;
 import gate.plugin.learningframework.data.CorpusRepresentationMallet;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
+import gate.plugin.learningframework.data.DocumentProjection;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletSeq;
 import gate.plugin.learningframework.engines.AlgorithmClassification;
 import gate.plugin.learningframework.engines.Engine;
@@ -156,6 +157,7 @@ public class LF_TrainSequenceTagging extends LF_TrainBase {
 
   @Override
   public void afterLastDocument(Controller arg0, Throwable t) {
+    finishFeatures(corpusRepresentation);
     System.out.println("LearningFramework: Starting training engine " + engine);
     System.out.println("Training set classes: "
             + corpusRepresentation.getRepresentationMallet().getPipe().getTargetAlphabet().toString().replaceAll("\\n", " "));
@@ -179,6 +181,10 @@ public class LF_TrainSequenceTagging extends LF_TrainBase {
     engine.getInfo().classAnnotationType = getClassAnnotationType();
     
     engine.trainModel(getAlgorithmParameters());
+    int removed = engine.compactModel();
+    if(removed > 0) {
+      System.out.println("LearningFramework: Removed features not used by the model: " + removed);
+    }
     logger.info("LearningFramework: Training complete!");
     engine.saveEngine(dataDir);
   }
@@ -215,13 +221,22 @@ public class LF_TrainSequenceTagging extends LF_TrainBase {
     // we need to choose our representation based on if we have a classification algorithm or 
     // a sequence tagger
     if(haveSequenceTagger) {
-      corpusRepresentation = new CorpusRepresentationMalletSeq(featureSpec.getFeatureInfo(), scaleFeatures);
+      corpusRepresentation = new CorpusRepresentationMalletSeq(getTrainingFeatureInfo(featureSpec), scaleFeatures);
     } else {
-      corpusRepresentation = new CorpusRepresentationMalletTarget(featureSpec.getFeatureInfo(),scaleFeatures, TargetType.NOMINAL);      
+      corpusRepresentation = new CorpusRepresentationMalletTarget(getTrainingFeatureInfo(featureSpec),scaleFeatures, TargetType.NOMINAL, getInstanceStorage(), dataDir);      
     }
     engine = Engine.createEngine(trainingAlgorithm, getAlgorithmParameters(), corpusRepresentation);
     System.err.println("DEBUG: created the engine: " + engine);  
     nrDocuments = 0;
   }
 
+  @Override
+  protected DocumentProjection getDocumentProjection() {
+    DocumentProjection projection = new DocumentProjection(getInputASName());
+    projection.addAttributes(featureSpec.getFeatureInfo(), getInstanceType());
+    projection.addType(getClassAnnotationType());
+    projection.addType(getSequenceSpan());
+    return projection;
+  }
+
 }
@@ -17,6 +17,7 @@ import org.apache.log4j.Logger;
 
 import gate.Controller;
 import gate.Document;
+import gate.Factory;
 import gate.Resource;
 import gate.creole.ControllerAwarePR;
 import gate.creole.ResourceInstantiationException;
@@ -25,6 +26,13 @@ import gate.creole.ExecutionException;
 import gate.creole.metadata.CreoleParameter;
 import gate.creole.metadata.Optional;
 import gate.creole.metadata.RunTime;
+import gate.plugin.learningframework.data.DocumentProjection;
+import gate.util.GateRuntimeException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Base class for all LearningFramework PRs providing the shared parameters and some shared
@@ -126,6 +134,16 @@ public abstract class LearningFrameworkPRBase
 
   protected Controller controller;
 
+  /**
+   * If document projections are written or read instead of the documents, the PRs which 
+   * support this provide a runtime parameter for it.
+   */
+  protected ProjectionMode projectionMode = ProjectionMode.NONE;
+
+  private DocumentProjection projection;
+  private File projectionDir;
+  private int nrProjections;
+
   protected Throwable throwable;
 
   //===============================================================================
@@ -148,11 +166,103 @@ public abstract class LearningFrameworkPRBase
     if (justStarted) {
       beforeFirstDocument(controller);
       justStarted = false;
+      startProjection();
+    }
+    if (projectionMode == ProjectionMode.READ) {
+      // all the projections get processed for the first document, the documents of the 
+      // corpus are ignored
+      if (!haveSomeDocuments) {
+        for (File file : DocumentProjection.projectionFiles(projectionDir)) {
+          Document doc = DocumentProjection.read(file);
+          try {
+            execute(doc);
+          } finally {
+            Factory.deleteResource(doc);
+          }
+        }
+      }
+    } else {
+      execute(getDocument());
+      if (projectionMode == ProjectionMode.WRITE) {
+        projection.write(getDocument(), DocumentProjection.projectionFile(projectionDir, nrProjections++));
+      }
     }
-    execute(getDocument());
     haveSomeDocuments = true;
   }
 
+  private void startProjection() {
+    if (projectionMode == null || projectionMode == ProjectionMode.NONE) {
+      return;
+    }
+    // all duplicates would write to and read from the same projection files
+    if (getNrDuplicates() > 1) {
+      throw new GateRuntimeException("Document projections cannot be used with duplicates of the PR");
+    }
+    projectionDir = new File(gate.util.Files.fileFromURL(dataDirectory), DocumentProjection.DIRNAME);
+    if (projectionMode == ProjectionMode.READ) {
+      if (!projectionDir.isDirectory()) {
+        throw new GateRuntimeException("No document projections found in " + projectionDir);
+      }
+    } else {
+      projection = getDocumentProjection();
+      if (projection == null) {
+        throw new GateRuntimeException("Document projections not supported by " + getClass().getSimpleName());
+      }
+      if (!projectionDir.exists() && !projectionDir.mkdir()) {
+        throw new GateRuntimeException("Could not create projection directory " + projectionDir);
+      }
+      // remove the projections of an earlier run
+      for (File file : DocumentProjection.projectionFiles(projectionDir)) {
+        if (!file.delete()) {
+          throw new GateRuntimeException("Could not delete old projection file " + file);
+        }
+      }
+      nrProjections = 0;
+    }
+  }
+
+  /**
+   * Return the projection with all the annotation types and features the PR needs from
+   * a document, or null if the PR does not support projections, which is the default. 
+   * This is called after beforeFirstDocument.
+   */
+  protected DocumentProjection getDocumentProjection() {
+    return null;
+  }
+
+  /**
+   * The number of duplicates of this PR, including this PR, which are known to run in the 
+   * same pipeline run. This is 1 unless the PR keeps track of its duplicates.
+   */
+  protected int getNrDuplicates() {
+    return 1;
+  }
+
+  /**
+   * Create the directories in the data directory where the results for additional feature
+   * specifications get saved, one for each specification, named after the specification
+   * file without the extension.
+   */
+  protected static List<File> featureSpecDirectories(File dataDir, List<URL> featureSpecURLs) {
+    List<File> dirs = new ArrayList<File>(featureSpecURLs.size());
+    Set<String> names = new HashSet<String>();
+    for (URL url : featureSpecURLs) {
+      String name = new File(url.getPath()).getName();
+      if (name.lastIndexOf('.') > 0) {
+        name = name.substring(0, name.lastIndexOf('.'));
+      }
+      if (!names.add(name)) {
+        throw new GateRuntimeException("Feature specification files must have different names: " + name);
+      }
+      File dir = new File(dataDir, name);
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new GateRuntimeException("Could not create directory " + dir);
+      }
+      dirs.add(dir);
+    }
+    return dirs;
+  }
+
   @Override
   public void controllerExecutionAborted(Controller arg0, Throwable arg1)
           throws ExecutionException {
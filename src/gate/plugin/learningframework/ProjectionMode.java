@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ *
+ */
+
+package gate.plugin.learningframework;
+
+/**
+ * If the training and export PRs use document projections, see DocumentProjection.
+ * NONE processes the documents of the corpus, WRITE processes them and also saves a projection
+ * of each to the data directory and READ processes the saved projections instead of the 
+ * documents of the corpus.
+ */
+public enum ProjectionMode {
+  NONE,
+  WRITE,
+  READ;
+}
@@ -14,5 +14,18 @@ package gate.plugin.learningframework;
 
 public enum ScalingMethod {
         NONE,
-	MEANVARIANCE_ALL_FEATURES;
+        /**
+         * Subtract the mean and divide by the standard deviation. Only the values present in 
+         * the sparse feature vectors get changed.
+         */
+	MEANVARIANCE_ALL_FEATURES,
+        /**
+         * Divide by the standard deviation, without subtracting the mean, so values of 0.0 stay 0.0.
+         */
+        VARIANCE_ALL_FEATURES,
+        /**
+         * Divide by the maximum absolute value, so all values are between -1.0 and 1.0 and
+         * values of 0.0 stay 0.0.
+         */
+        MAXABS_ALL_FEATURES;
 }
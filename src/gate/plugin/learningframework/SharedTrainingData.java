@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework;
+
+import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The training instances of all the duplicates of a training PR.
+ *
+ * When a pipeline runs in several threads, e.g. in GCP, each thread uses a duplicate of the
+ * training PR, and all duplicates share the same SharedTrainingData object. Each duplicate
+ * extracts the instances of the documents it processes into its own corpus representation,
+ * with its own alphabets, so no locking is needed while the documents get processed.
+ * When a duplicate has finished, it hands its corpus representation over, and the last
+ * duplicate to finish merges all of them and trains the model. All the duplicates
+ * therefore must be run as part of the same run of the pipeline.
+ *
+ * @author Johann Petrak
+ */
+public class SharedTrainingData {
+
+  private int nrDuplicates = 0;
+  private int nrFinished = 0;
+  private final List<CorpusRepresentationMalletTarget> finished = new ArrayList<CorpusRepresentationMalletTarget>();
+
+  /**
+   * Called when a duplicate gets initialized.
+   */
+  public synchronized void register() {
+    nrDuplicates++;
+  }
+
+  /**
+   * Called when a duplicate gets deleted.
+   */
+  public synchronized void unregister() {
+    nrDuplicates--;
+  }
+
+  public synchronized int getNrDuplicates() {
+    return nrDuplicates;
+  }
+
+  /**
+   * Hand over the corpus representation of a duplicate which has finished, or null if it
+   * did not process any documents. Returns true if this was the last duplicate to finish,
+   * which should then train the model from the result of merge.
+   */
+  public synchronized boolean finish(CorpusRepresentationMalletTarget crm) {
+    if(crm != null) {
+      finished.add(crm);
+    }
+    nrFinished++;
+    return nrFinished >= nrDuplicates;
+  }
+
+  /**
+   * Merge the corpus representations of all the duplicates into the one with the most
+   * instances and return it, or return null if no duplicate has processed any documents.
+   * After this, the next run of the pipeline can start.
+   */
+  public synchronized CorpusRepresentationMalletTarget merge() {
+    CorpusRepresentationMalletTarget largest = null;
+    for(CorpusRepresentationMalletTarget crm : finished) {
+      if(largest == null || crm.getRepresentationMallet().size() > largest.getRepresentationMallet().size()) {
+        largest = crm;
+      }
+    }
+    for(CorpusRepresentationMalletTarget crm : finished) {
+      if(crm != largest) {
+        largest.merge(crm);
+      }
+    }
+    if(finished.size() > 1) {
+      System.out.println("LearningFramework: Merged the training instances of "+finished.size()+" duplicates");
+    }
+    finished.clear();
+    nrFinished = 0;
+    return largest;
+  }
+
+}
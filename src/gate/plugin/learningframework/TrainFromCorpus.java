@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework;
+
+import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
+import gate.plugin.learningframework.engines.Algorithm;
+import gate.plugin.learningframework.engines.AlgorithmClassification;
+import gate.plugin.learningframework.engines.AlgorithmRegression;
+import gate.plugin.learningframework.engines.Engine;
+import gate.plugin.learningframework.engines.Info;
+import gate.util.GateRuntimeException;
+import java.io.File;
+
+/**
+ * Train a model from the instances saved by a training PR with the saveCorpus parameter,
+ * without processing the documents again.
+ *
+ * This can be used from the command line with the data directory which contains the file
+ * lf.corpus and the name of the algorithm, e.g. MALLET_CL_MAX_ENT or WEKA_RG_SPECIFY_CLASS,
+ * and the options -p for the algorithm parameters, -c for the trainer class of the
+ * SPECIFY_CLASS algorithms, -s for the scaling method, -i for the instance storage and -o for
+ * the directory where to save the model, which is the data directory by default.
+ * The model is saved like by the training PRs and can be used with the application PRs.
+ *
+ * @author Johann Petrak
+ */
+public class TrainFromCorpus {
+
+  /**
+   * Load the corpus from the data directory, train the algorithm and save the model to
+   * the model directory.
+   */
+  public static Engine train(File dataDirectory, Algorithm algorithm, String parms,
+          ScalingMethod scaling, InstanceStorage storage, File modelDirectory) {
+    if(algorithm == AlgorithmClassification.MALLET_SEQ_CRF) {
+      throw new GateRuntimeException("Cannot train a sequence tagging algorithm from a saved corpus");
+    }
+    Info corpusInfo = new Info();
+    CorpusRepresentationMalletTarget crm =
+            CorpusRepresentationMalletTarget.loadCorpus(dataDirectory, storage, corpusInfo);
+    boolean nominal = crm.getPipe().getTargetAlphabet() != null;
+    if(nominal && algorithm instanceof AlgorithmRegression) {
+      throw new GateRuntimeException("Cannot train regression algorithm "+algorithm+" on a classification corpus");
+    }
+    if(!nominal && algorithm instanceof AlgorithmClassification) {
+      throw new GateRuntimeException("Cannot train classification algorithm "+algorithm+" on a regression corpus");
+    }
+    System.out.println("LearningFramework: Loaded training set size: " + crm.getRepresentationMallet().size());
+    crm.addScaling(scaling);
+    Engine engine = Engine.createEngine(algorithm, parms, crm);
+    engine.getInfo().nrTrainingDocuments = corpusInfo.nrTrainingDocuments;
+    engine.getInfo().nrTrainingInstances = crm.getRepresentationMallet().size();
+    engine.getInfo().targetFeature = corpusInfo.targetFeature;
+    engine.getInfo().trainingCorpusName = corpusInfo.trainingCorpusName;
+    engine.trainModel(parms);
+    int removed = engine.compactModel();
+    if(removed > 0) {
+      System.out.println("LearningFramework: Removed features not used by the model: " + removed);
+    }
+    engine.saveEngine(modelDirectory);
+    return engine;
+  }
+
+  /**
+   * Find the classification or regression algorithm with the name.
+   */
+  public static Algorithm findAlgorithm(String name) {
+    for(AlgorithmClassification alg : AlgorithmClassification.values()) {
+      if(alg.name().equals(name)) return alg;
+    }
+    for(AlgorithmRegression alg : AlgorithmRegression.values()) {
+      if(alg.name().equals(name)) return alg;
+    }
+    throw new GateRuntimeException("Not a known classification or regression algorithm: "+name);
+  }
+
+  private static void usage() {
+    System.err.println("Usage: TrainFromCorpus [-p parms] [-c trainerClass] [-s scalingMethod] "
+            + "[-i instanceStorage] [-o modelDirectory] dataDirectory algorithm");
+    System.exit(1);
+  }
+
+  public static void main(String[] args) {
+    String parms = "";
+    String trainerClass = null;
+    ScalingMethod scaling = ScalingMethod.NONE;
+    InstanceStorage storage = InstanceStorage.MALLET;
+    File modelDirectory = null;
+    int i = 0;
+    while(i < args.length && args[i].startsWith("-")) {
+      if(i + 1 >= args.length) usage();
+      String opt = args[i++];
+      String value = args[i++];
+      if(opt.equals("-p")) {
+        parms = value;
+      } else if(opt.equals("-c")) {
+        trainerClass = value;
+      } else if(opt.equals("-s")) {
+        scaling = ScalingMethod.valueOf(value);
+      } else if(opt.equals("-i")) {
+        storage = InstanceStorage.valueOf(value);
+      } else if(opt.equals("-o")) {
+        modelDirectory = new File(value);
+      } else {
+        usage();
+      }
+    }
+    if(args.length - i != 2) usage();
+    File dataDirectory = new File(args[i]);
+    Algorithm algorithm = findAlgorithm(args[i+1]);
+    if(algorithm.toString().endsWith("SPECIFY_CLASS")) {
+      if(trainerClass == null) {
+        throw new GateRuntimeException("Option -c must be specified for "+algorithm);
+      }
+      try {
+        algorithm.setTrainerClass(Class.forName(trainerClass));
+      } catch (ClassNotFoundException ex) {
+        throw new GateRuntimeException("Could not load algorithm class: " + trainerClass, ex);
+      }
+    }
+    if(modelDirectory == null) modelDirectory = dataDirectory;
+    train(dataDirectory, algorithm, parms, scaling, storage, modelDirectory);
+    System.out.println("LearningFramework: Training complete, model saved to "+modelDirectory);
+  }
+
+}
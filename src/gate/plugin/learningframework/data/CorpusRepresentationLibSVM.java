@@ -11,10 +11,11 @@ import cc.mallet.types.InstanceList;
 import cc.mallet.types.Label;
 import cc.mallet.types.LabelAlphabet;
 import cc.mallet.types.SparseVector;
+import gate.plugin.learningframework.engines.Parms;
+import gate.plugin.learningframework.mallet.RowInstanceList;
 import gate.util.GateRuntimeException;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintStream;
+import java.io.IOException;
 import libsvm.svm_node;
 import libsvm.svm_problem;
 import weka.core.Instances;
@@ -48,67 +49,91 @@ public class CorpusRepresentationLibSVM extends CorpusRepresentation {
     SparseVector data = (SparseVector) malletInstance.getData();
     int[] indices = data.getIndices();
     double[] values = data.getValues();
-    svm_node[] nodearray = new svm_node[indices.length];
-    int index = 0;
-    for (int j = 0; j < indices.length; j++) {
-      svm_node node = new svm_node();
-      node.index = indices[j];
-      node.value = values[j];
-      nodearray[index] = node;
-      index++;
-    }
-    return nodearray;
+    return nodesFromArrays(indices, values, null);
   }
 
   @Override
   /**
-   * Export to file data.libsvm. parms must always be null.
+   * Export to file data.libsvm. 
+   * 
+   * The parameters can be "-gzip" to write a compressed file data.libsvm.gz and "-shards n"
+   * to write the instances to n files data-0.libsvm to data-(n-1).libsvm in parallel.
    */
   public void export(File saveDirectory, String parms) {
     if (data == null) {
       throw new GateRuntimeException("No data");
     }
-    if (parms != null) {
-      throw new GateRuntimeException("No parameters supported, must be null");
-    }
-    svm_problem prob = data;
-    PrintStream out = null;
-    File outFile = new File(saveDirectory, "data.libsvm");
-    try {
-      out = new PrintStream(outFile);
-      for (int i = 0; i < prob.l; i++) {
-        out.print(prob.y[i]);
+    Parms ps = new Parms(parms, "z:gzip:b", "n:shards:i");
+    boolean gzip = (Boolean) ps.getValueOrElse("gzip", false);
+    int shards = (Integer) ps.getValueOrElse("shards", 1);
+    final svm_problem prob = data;
+    ExportWriter.writeSharded(saveDirectory, "data", "libsvm", gzip, shards, prob.l, null, 
+            new ExportWriter.RowWriter() {
+      @Override
+      public void write(ExportWriter out, int i) throws IOException {
+        out.writeDouble(prob.y[i]);
         for (int j = 0; j < prob.x[i].length; j++) {
-          out.print(" ");
-          out.print(prob.x[i][j].index);
-          out.print(":");
-          out.print(prob.x[i][j].value);
+          out.write(' ');
+          out.writeInt(prob.x[i][j].index);
+          out.write(':');
+          out.writeDouble(prob.x[i][j].value);
         }
-        out.println();
+        out.write('\n');
       }
-      out.close();
-    } catch (FileNotFoundException ex) {
-      System.err.println("Could not write training instances to svm format file");
-      ex.printStackTrace(System.out);
-    }
-
+    });
   }
 
   /**
    * Create libsvm representation from Mallet.
+   * 
+   * LibSVM needs one svm_node object for each non-zero feature value of each instance.
+   * To reduce the memory needed for this, all feature values of 1.0, which includes all values
+   * of nominal features coded as one-of-k, are represented by a single node per feature 
+   * which is shared by all the instances, so only nodes for other values get created for each
+   * instance. This gives no benefit for numeric features or for scaled data, where values
+   * are hardly ever 1.0. LibSVM does not change the nodes of a problem, any other code using 
+   * the problem must not change them either.
    *
    * @param instances
    * @return
    */
   public static svm_problem getFromMallet(CorpusRepresentationMallet crm) {
+    return getFromMallet(crm, false);
+  }
+
+  /**
+   * Create libsvm representation from Mallet, optionally releasing the Mallet instances.
+   * 
+   * If release is true, each Mallet instance gets removed from the corpus representation 
+   * as soon as it has been converted, so the memory for the Mallet instances and the nodes 
+   * is not needed at the same time and the corpus representation is empty afterwards.
+   * This is not done for a RowInstanceList, which cannot remove instances and keeps no
+   * Instance objects anyway.
+   */
+  public static svm_problem getFromMallet(CorpusRepresentationMallet crm, boolean release) {
     InstanceList instances = crm.getRepresentationMallet();
+    // the shared nodes with value 1.0, created when first needed
+    svm_node[] unitNodes = new svm_node[instances.getDataAlphabet().size()];
     svm_problem prob = new svm_problem();
     int numTrainingInstances = instances.size();
     prob.l = numTrainingInstances;
     prob.y = new double[prob.l];
     prob.x = new svm_node[prob.l][];
 
-    for (int i = 0; i < numTrainingInstances; i++) {
+    if (instances instanceof RowInstanceList) {
+      // read the stored rows directly instead of creating Mallet instances first
+      RowInstanceList rows = (RowInstanceList) instances;
+      for (int i = 0; i < numTrainingInstances; i++) {
+        prob.y[i] = rows.getTargetValue(i);
+        if (Double.isNaN(prob.y[i])) {
+          throw new GateRuntimeException("Instance without target, cannot convert to LIBSVM: " + i);
+        }
+        prob.x[i] = nodesFromArrays(rows.getIndices(i), rows.getValues(i), unitNodes);
+      }
+      return prob;
+    }
+    // convert from the end, so that removing the converted instance does not move the others
+    for (int i = numTrainingInstances - 1; i >= 0; i--) {
       Instance instance = instances.get(i);
 
       //Labels
@@ -125,19 +150,40 @@ public class CorpusRepresentationLibSVM extends CorpusRepresentation {
 
       //Features
       SparseVector data = (SparseVector) instance.getData();
-      int[] indices = data.getIndices();
-      double[] values = data.getValues();
-      prob.x[i] = new svm_node[indices.length];
-      for (int j = 0; j < indices.length; j++) {
-        svm_node node = new svm_node();
-        node.index = indices[j];
-        node.value = values[j];
-        prob.x[i][j] = node;
+      prob.x[i] = nodesFromArrays(data.getIndices(), data.getValues(), unitNodes);
+      if (release) {
+        instances.remove(i);
       }
     }
     return prob;
   }
 
+  // If unitNodes is not null, it is used to share the nodes with value 1.0 by index.
+  // Mallet uses null values for a vector where all values are 1.0
+  private static svm_node[] nodesFromArrays(int[] indices, double[] values, svm_node[] unitNodes) {
+    svm_node[] nodes = new svm_node[indices.length];
+    for (int j = 0; j < indices.length; j++) {
+      int index = indices[j];
+      double value = values == null ? 1.0 : values[j];
+      svm_node node;
+      if (unitNodes != null && value == 1.0 && index < unitNodes.length) {
+        node = unitNodes[index];
+        if (node == null) {
+          node = new svm_node();
+          node.index = index;
+          node.value = 1.0;
+          unitNodes[index] = node;
+        }
+      } else {
+        node = new svm_node();
+        node.index = index;
+        node.value = value;
+      }
+      nodes[j] = node;
+    }
+    return nodes;
+  }
+
   @Override
   public void clear() {
     // NOTE: ok, for LibSVM there is not much other info that could be kept, we just 
@@ -6,18 +6,29 @@
 
 package gate.plugin.learningframework.data;
 
+import cc.mallet.pipe.Pipe;
 import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.FeatureVectorSequence;
+import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
 import gate.AnnotationSet;
 import gate.plugin.learningframework.ScalingMethod;
 import gate.plugin.learningframework.features.FeatureInfo;
 import gate.plugin.learningframework.features.TargetType;
+import gate.plugin.learningframework.mallet.FeatureVector2NormalizedFeatureVector;
+import gate.plugin.learningframework.mallet.FrozenAlphabet;
+import gate.plugin.learningframework.mallet.HashingAlphabet;
 import gate.plugin.learningframework.mallet.LFPipe;
 import gate.util.GateRuntimeException;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import org.apache.log4j.Logger;
 
 /**
@@ -47,6 +58,7 @@ public abstract class CorpusRepresentationMallet extends CorpusRepresentation {
    * Prevent the addition of new features or feature values when instances are added.
    */
   public void stopGrowth() {
+    freezeDataAlphabet();
     LFPipe pipe = (LFPipe)instances.getPipe();
     pipe.getDataAlphabet().stopGrowth();
     Alphabet ta = pipe.getTargetAlphabet();
@@ -55,6 +67,23 @@ public abstract class CorpusRepresentationMallet extends CorpusRepresentation {
     fi.stopGrowth();
   }
   
+  /**
+   * Replace the data alphabet of the pipe by a read-only FrozenAlphabet, which needs much
+   * less memory and is faster to look up.
+   * This is only done if no instances have been added yet, which is the case when the
+   * representation is used for application. Since the data alphabet cannot grow again
+   * after this, startGrowth() will only re-enable growth of the target alphabet and the 
+   * alphabets of the FeatureInfo.
+   */
+  protected void freezeDataAlphabet() {
+    if(instances.size() > 0) return;
+    LFPipe pipe = (LFPipe)instances.getPipe();
+    if(pipe.freezeDataAlphabet()) {
+      // the instance list remembers the data alphabet it was created with
+      setInstances(newInstanceList(pipe));
+    }
+  }
+  
   /**
    * Enable the addition of new features or feature values when instances are added.
    * After a CorpusRepresentationMallet instance is created, growth is enabled by default.
@@ -68,6 +97,212 @@ public abstract class CorpusRepresentationMallet extends CorpusRepresentation {
     fi.startGrowth();    
   }
     
+  /**
+   * Remove the features which are not used by any of the instances from the data alphabet.
+   * 
+   * The remaining features keep their order but get renumbered, the data alphabet of the 
+   * pipe is replaced by a new Alphabet which contains just the remaining features and 
+   * all instances are changed to use the new alphabet and indices. Features can be in the 
+   * alphabet without being used e.g. if the instance they were extracted for was ignored 
+   * because of a missing value, or if a PruningAlphabet added a feature because the count was
+   * overestimated. 
+   * This should be done after all instances have been added and before scaling is added
+   * or the model is trained. Nothing is done for hashed or frozen alphabets.
+   * 
+   * @return the number of features removed
+   */
+  public int compactDataAlphabet() {
+    LFPipe pipe = (LFPipe)instances.getPipe();
+    Alphabet old = pipe.getDataAlphabet();
+    if(old == null || old instanceof HashingAlphabet || old instanceof FrozenAlphabet) return 0;
+    BitSet used = new BitSet(old.size());
+    for(Instance inst : instances) {
+      Object data = inst.getData();
+      if(data instanceof FeatureVector) {
+        markUsed((FeatureVector)data, used);
+      } else if(data instanceof FeatureVectorSequence) {
+        FeatureVectorSequence fvs = (FeatureVectorSequence)data;
+        for(int i=0; i<fvs.size(); i++) {
+          markUsed(fvs.get(i), used);
+        }
+      }
+    }
+    int[] newIndices = retainFeatures(used);
+    return newIndices == null ? 0 : old.size() - used.cardinality();
+  }
+  
+  /**
+   * Keep only the features with the given indices in the data alphabet.
+   * 
+   * The kept features keep their order but get renumbered and the values of the other 
+   * features get removed from the instances, see remapFeatures.
+   * 
+   * @return the new index for each old index, or -1 if the feature was removed, or null
+   * if all features are kept and nothing was changed.
+   */
+  public int[] retainFeatures(BitSet keep) {
+    int n = getPipe().getDataAlphabet().size();
+    if(keep.nextClearBit(0) >= n) return null;
+    int[] newIndices = new int[n];
+    int next = 0;
+    for(int i=0; i<n; i++) {
+      newIndices[i] = keep.get(i) ? next++ : -1;
+    }
+    remapFeatures(newIndices, next);
+    return newIndices;
+  }
+  
+  /**
+   * Sort the features by the number of instances they occur in, most frequent first.
+   * 
+   * This way, the weights of the most frequent features will be close together in the 
+   * model. Features with the same frequency keep their order. For sequences, each element
+   * of the sequence counts as an instance. Nothing is done for hashed or frozen alphabets.
+   * 
+   * @return true if the order of the features changed.
+   */
+  public boolean sortFeaturesByFrequency() {
+    Alphabet old = getPipe().getDataAlphabet();
+    if(old == null || old instanceof HashingAlphabet || old instanceof FrozenAlphabet) return false;
+    int n = old.size();
+    final int[] counts = new int[n];
+    for(Instance inst : instances) {
+      Object data = inst.getData();
+      if(data instanceof FeatureVector) {
+        count((FeatureVector)data, counts);
+      } else if(data instanceof FeatureVectorSequence) {
+        FeatureVectorSequence fvs = (FeatureVectorSequence)data;
+        for(int i=0; i<fvs.size(); i++) {
+          count(fvs.get(i), counts);
+        }
+      }
+    }
+    Integer[] order = new Integer[n];
+    for(int i=0; i<n; i++) {
+      order[i] = i;
+    }
+    // this is a stable sort, so features with the same count keep their order
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return Integer.compare(counts[o2], counts[o1]);
+      }
+    });
+    int[] newIndices = new int[n];
+    boolean changed = false;
+    for(int i=0; i<n; i++) {
+      newIndices[order[i]] = i;
+      if(order[i] != i) changed = true;
+    }
+    if(changed) remapFeatures(newIndices, n);
+    return changed;
+  }
+  
+  /**
+   * Give the features new indices.
+   * 
+   * The data alphabet of the pipe is replaced by a new Alphabet where each feature which is 
+   * kept has its new index, all instances are changed to use the new alphabet and indices, 
+   * dropping the values of removed features, and the scaling pipe, if there is one, gets 
+   * adapted too. The new indices of the kept features must be exactly 0 to newSize-1.
+   * 
+   * @param newIndices the new index for each old index, or -1 if the feature is removed
+   * @param newSize the number of features which are kept
+   */
+  public void remapFeatures(int[] newIndices, int newSize) {
+    LFPipe pipe = (LFPipe)instances.getPipe();
+    Alphabet old = pipe.getDataAlphabet();
+    Object[] entries = new Object[newSize];
+    for(int i=0; i<newIndices.length; i++) {
+      if(newIndices[i] >= 0) entries[newIndices[i]] = old.lookupObject(i);
+    }
+    Alphabet remapped = new Alphabet(newSize, old.entryClass());
+    for(Object entry : entries) {
+      remapped.lookupIndex(entry, true);
+    }
+    if(old.growthStopped()) remapped.stopGrowth();
+    pipe.replaceDataAlphabet(remapped);
+    for(Pipe p : pipe.pipes()) {
+      if(p instanceof FeatureVector2NormalizedFeatureVector) {
+        ((FeatureVector2NormalizedFeatureVector)p).remapFeatures(newIndices, newSize);
+      }
+    }
+    InstanceList newInstances = newInstanceList(pipe);
+    for(int i=0; i<instances.size(); i++) {
+      Instance inst = instances.get(i);
+      Object data = inst.getData();
+      inst.unLock();
+      if(data instanceof FeatureVector) {
+        inst.setData(remap((FeatureVector)data, remapped, newIndices));
+      } else if(data instanceof FeatureVectorSequence) {
+        FeatureVectorSequence fvs = (FeatureVectorSequence)data;
+        FeatureVector[] fvsNew = new FeatureVector[fvs.size()];
+        for(int j=0; j<fvs.size(); j++) {
+          fvsNew[j] = remap(fvs.get(j), remapped, newIndices);
+        }
+        inst.setData(new FeatureVectorSequence(fvsNew));
+      }
+      newInstances.add(inst, instances.getInstanceWeight(i));
+    }
+    setInstances(newInstances);
+  }
+  
+  private static void count(FeatureVector fv, int[] counts) {
+    for(int l=0; l<fv.numLocations(); l++) {
+      if(fv.valueAtLocation(l) != 0.0) counts[fv.indexAtLocation(l)]++;
+    }
+  }
+  
+  private static void markUsed(FeatureVector fv, BitSet used) {
+    for(int l=0; l<fv.numLocations(); l++) {
+      used.set(fv.indexAtLocation(l));
+    }
+  }
+  
+  private static FeatureVector remap(FeatureVector fv, Alphabet alphabet, int[] newIndices) {
+    int n = fv.numLocations();
+    int[] indices = new int[n];
+    double[] values = new double[n];
+    int k = 0;
+    for(int l=0; l<n; l++) {
+      int index = newIndices[fv.indexAtLocation(l)];
+      if(index >= 0) {
+        indices[k] = index;
+        values[k] = fv.valueAtLocation(l);
+        k++;
+      }
+    }
+    if(k < n) {
+      indices = Arrays.copyOf(indices, k);
+      values = Arrays.copyOf(values, k);
+    }
+    // this sorts the indices again if the order changed
+    return new FeatureVector(alphabet, indices, values);
+  }
+  
+  /**
+   * Create a new empty list of the kind used by this representation for the instances.
+   */
+  protected InstanceList newInstanceList(LFPipe pipe) {
+    return new InstanceList(pipe);
+  }
+  
+  /**
+   * Replace the list of instances. If the old list holds resources, e.g. a DiskInstanceList, 
+   * these are released.
+   */
+  protected void setInstances(InstanceList newInstances) {
+    InstanceList old = instances;
+    instances = newInstances;
+    if(old != newInstances && old instanceof Closeable) {
+      try {
+        ((Closeable)old).close();
+      } catch (IOException ex) {
+        logger.error("Could not close the old instance list", ex);
+      }
+    }
+  }
+  
   public void save(File directory) {
     File outFile = new File(directory,"pipe.pipe");
     ObjectOutputStream oos = null;
@@ -0,0 +1,228 @@
+/*
+ * CorpusRepresentationMalletMultiSpec.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.data;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import gate.AnnotationSet;
+import gate.plugin.learningframework.InstanceStorage;
+import gate.plugin.learningframework.ScalingMethod;
+import gate.plugin.learningframework.features.Attribute;
+import gate.plugin.learningframework.features.FeatureExtraction;
+import gate.plugin.learningframework.features.FeatureInfo;
+import gate.plugin.learningframework.features.TargetType;
+import gate.util.GateRuntimeException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Creates the instances for several feature specifications with a single feature extraction.
+ *
+ * The attributes of all the feature specifications are combined into one FeatureInfo, where
+ * identical attributes from different specifications are only included once, and the features
+ * for this union of attributes are extracted once for each instance. After all instances
+ * have been added, getRepresentations creates a separate CorpusRepresentationMalletTarget
+ * for each feature specification, with its own data alphabet and pipe, which contains
+ * just the features of the attributes of that specification. These are created in parallel
+ * and can be used like any corpus representation created directly for the specification,
+ * e.g. for exporting, training or saving.
+ * <p>
+ * Different attributes which would create features with the same names, e.g. attributes with
+ * the same name or with the same type and feature but a different datatype, cannot be
+ * combined and cause an exception. Hashed features and a minimum feature frequency are
+ * not supported. An instance which gets ignored because of a missing value for one of the
+ * attributes gets ignored for all feature specifications.
+ *
+ * @author Johann Petrak
+ */
+public class CorpusRepresentationMalletMultiSpec {
+
+  private final FeatureInfo unionInfo = new FeatureInfo();
+  // the feature info of each specification, containing copies of the union attributes
+  private final List<FeatureInfo> specInfos = new ArrayList<FeatureInfo>();
+  // for each specification, the ids of the union attributes it uses
+  private final List<BitSet> specAttributes = new ArrayList<BitSet>();
+  // the union attribute for each feature name prefix
+  private final Map<String, Attribute> prefixes = new HashMap<String, Attribute>();
+  private final CorpusRepresentationMalletTarget union;
+  private final ScalingMethod scalingMethod;
+  private final InstanceStorage storage;
+  private final File storageDirectory;
+
+  /**
+   * Create the corpus representation for the feature infos, for instances of the instance
+   * type. The corpus representations for the feature infos get created with the scaling
+   * method and keep their instances as specified by the storage and storage directory.
+   */
+  public CorpusRepresentationMalletMultiSpec(List<FeatureInfo> featureInfos, String instanceType,
+          TargetType targetType, ScalingMethod sm, InstanceStorage storage, File storageDirectory) {
+    this.scalingMethod = sm;
+    this.storage = storage;
+    this.storageDirectory = storageDirectory;
+    Map<String, Attribute> byKey = new HashMap<String, Attribute>();
+    for(FeatureInfo fi : featureInfos) {
+      if(fi.getHashingBuckets() > 0) {
+        throw new GateRuntimeException("Hashed features cannot be used with several feature specifications");
+      }
+      if(fi.getMinFeatureFrequency() > 1) {
+        throw new GateRuntimeException("A minimum feature frequency cannot be used with several feature specifications");
+      }
+      FeatureInfo specInfo = new FeatureInfo();
+      BitSet used = new BitSet();
+      for(Attribute att : fi.getAttributes()) {
+        String key = att.getClass().getName() + ":" + att.toString();
+        Attribute unionAtt = byKey.get(key);
+        if(unionAtt == null) {
+          unionAtt = att.clone();
+          unionInfo.add(unionAtt);
+          byKey.put(key, unionAtt);
+          String type = att.annType == null || att.annType.isEmpty() ? instanceType : att.annType;
+          for(int slot=0; slot<att.nrSlots(); slot++) {
+            String prefix = FeatureExtraction.featureNamePrefix(att, type, slot);
+            Attribute other = prefixes.put(prefix, unionAtt);
+            if(other != null && other != unionAtt) {
+              throw new GateRuntimeException("Attributes "+other+" and "+att+
+                      " create features with the same names and cannot be used together");
+            }
+          }
+        }
+        used.set(unionAtt.attrId);
+        // the copy shares e.g. the alphabet of nominal values coded as numbers with the
+        // union attribute
+        specInfo.add(unionAtt.clone());
+      }
+      specInfos.add(specInfo);
+      specAttributes.add(used);
+    }
+    union = new CorpusRepresentationMalletTarget(unionInfo, ScalingMethod.NONE, targetType, storage, storageDirectory);
+  }
+
+  /**
+   * The FeatureInfo with the attributes of all the feature specifications.
+   */
+  public FeatureInfo getFeatureInfo() {
+    return unionInfo;
+  }
+
+  /**
+   * The representation with the features of all the feature specifications.
+   */
+  public CorpusRepresentationMalletTarget getUnionRepresentation() {
+    return union;
+  }
+
+  /**
+   * Extract the instances, see CorpusRepresentationMalletTarget.add.
+   */
+  public void add(AnnotationSet instancesAS, AnnotationSet sequenceAS, AnnotationSet inputAS,
+          String targetFeatureName, TargetType targetType, String nameFeatureName) {
+    union.add(instancesAS, sequenceAS, inputAS, null, targetFeatureName, targetType, nameFeatureName);
+  }
+
+  /**
+   * Create the corpus representation for each feature specification, in the order the
+   * feature infos were given, from all the instances added so far.
+   */
+  public List<CorpusRepresentationMalletTarget> getRepresentations() {
+    InstanceList instances = union.getRepresentationMallet();
+    Alphabet unionAlph = instances.getDataAlphabet();
+    int nrSpecs = specInfos.size();
+    // the new index of each union feature for each specification, -1 if not used
+    final int[][] newIndices = new int[nrSpecs][unionAlph.size()];
+    final List<CorpusRepresentationMalletTarget> ret = new ArrayList<CorpusRepresentationMalletTarget>(nrSpecs);
+    for(int s=0; s<nrSpecs; s++) {
+      Arrays.fill(newIndices[s], -1);
+      ret.add(new CorpusRepresentationMalletTarget(specInfos.get(s), scalingMethod, new Alphabet(),
+              union.getPipe().getTargetAlphabet(), storage, storageDirectory));
+    }
+    for(int i=0; i<unionAlph.size(); i++) {
+      String name = (String)unionAlph.lookupObject(i);
+      Attribute att = prefixes.get(FeatureExtraction.featureNamePrefix(name));
+      if(att == null) {
+        throw new GateRuntimeException("Cannot find the attribute for feature "+name);
+      }
+      for(int s=0; s<nrSpecs; s++) {
+        if(specAttributes.get(s).get(att.attrId)) {
+          newIndices[s][i] = ret.get(s).getPipe().getDataAlphabet().lookupIndex(name, true);
+        }
+      }
+    }
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nrSpecs);
+    for(int s=0; s<nrSpecs; s++) {
+      final int spec = s;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          project(ret.get(spec), newIndices[spec]);
+          return null;
+        }
+      });
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(nrSpecs, Runtime.getRuntime().availableProcessors()));
+    try {
+      List<Future<Void>> results = executor.invokeAll(tasks);
+      for(Future<Void> result : results) {
+        try {
+          result.get();
+        } catch (ExecutionException ex) {
+          throw new GateRuntimeException("Error creating the instances for a feature specification", ex.getCause());
+        }
+      }
+    } catch (InterruptedException ex) {
+      throw new GateRuntimeException("Interrupted while creating the instances for the feature specifications", ex);
+    } finally {
+      executor.shutdownNow();
+    }
+    return ret;
+  }
+
+  // add the instances with just the features which have a new index
+  private void project(CorpusRepresentationMalletTarget crm, int[] newIndices) {
+    InstanceList instances = union.getRepresentationMallet();
+    Alphabet alph = crm.getPipe().getDataAlphabet();
+    for(int i=0; i<instances.size(); i++) {
+      Instance inst = instances.get(i);
+      FeatureVector fv = (FeatureVector)inst.getData();
+      int n = 0;
+      for(int l=0; l<fv.numLocations(); l++) {
+        if(newIndices[fv.indexAtLocation(l)] >= 0) n++;
+      }
+      int[] indices = new int[n];
+      double[] values = new double[n];
+      int j = 0;
+      for(int l=0; l<fv.numLocations(); l++) {
+        int index = newIndices[fv.indexAtLocation(l)];
+        if(index >= 0) {
+          indices[j] = index;
+          values[j] = fv.valueAtLocation(l);
+          j++;
+        }
+      }
+      crm.addInstance(new Instance(new FeatureVector(alph, indices, values), inst.getTarget(),
+              inst.getName(), inst.getSource()), instances.getInstanceWeight(i));
+    }
+  }
+
+}
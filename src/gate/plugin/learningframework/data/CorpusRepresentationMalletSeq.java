@@ -29,6 +29,7 @@ import cc.mallet.types.InstanceList;
 import cc.mallet.types.Label;
 import cc.mallet.types.LabelAlphabet;
 import gate.plugin.learningframework.ScalingMethod;
+import gate.plugin.learningframework.features.ExtractionContext;
 import gate.plugin.learningframework.features.FeatureExtraction;
 import gate.plugin.learningframework.features.FeatureInfo;
 import gate.plugin.learningframework.features.TargetType;
@@ -49,7 +50,7 @@ public class CorpusRepresentationMalletSeq extends CorpusRepresentationMallet {
     featureInfo = fi;
     scalingMethod = sm;
 
-    Pipe innerPipe = new Noop(new Alphabet(), new LabelAlphabet());
+    Pipe innerPipe = new Noop(fi.newDataAlphabet(), new LabelAlphabet());
     List<Pipe> pipes = new ArrayList<Pipe>();
     pipes.add(innerPipe);
     pipe = new LFPipe(pipes);
@@ -95,6 +96,7 @@ public class CorpusRepresentationMalletSeq extends CorpusRepresentationMallet {
       }
     }
     CorpusRepresentationMalletSeq crms = new CorpusRepresentationMalletSeq(lfpipe);
+    crms.freezeDataAlphabet();
     return crms;
   }
 
@@ -128,11 +130,14 @@ public class CorpusRepresentationMalletSeq extends CorpusRepresentationMallet {
     // Instance and record them all in an array, then create a featuresequence and a labelsequence
     // from the array of instances and create a final Mallet instance with the featuresequence
     // as data and the labelsequence as target
+    ExtractionContext ctx = new ExtractionContext(inputAS);
     for (Annotation sequenceAnnotation : sequenceAS.inDocumentOrder()) {
       List<Instance> instanceList = new ArrayList<Instance>(sequenceAS.size());
       List<Annotation> instanceAnnotations = gate.Utils.getContainedAnnotations(instancesAS, sequenceAnnotation).inDocumentOrder();
       for (Annotation instanceAnnotation : instanceAnnotations) {
-        Instance inst = extractIndependentFeaturesHelper(instanceAnnotation, inputAS, featureInfo, pipe);
+        Instance inst = extractIndependentFeaturesHelper(instanceAnnotation, ctx, featureInfo, pipe, true);
+        // the instance has a missing value and should get ignored
+        if (inst == null) continue;
         if (classAS != null) {
           // extract the target as required for sequence tagging
           FeatureExtraction.extractClassForSeqTagging(inst, pipe.getTargetAlphabet(), classAS, instanceAnnotation);
@@ -141,9 +146,7 @@ public class CorpusRepresentationMalletSeq extends CorpusRepresentationMallet {
         } else if (targetType == TargetType.NUMERIC) {
           FeatureExtraction.extractNumericTarget(inst, targetFeatureName, instanceAnnotation, inputAS);
         }
-        if (!FeatureExtraction.ignoreInstanceWithMV(inst)) {
-          instanceList.add(inst);
-        }
+        instanceList.add(inst);
       }
       // create a feature sequence from all the feature vectors in each of the instances in instanceList
       // create a label index sequence from all the labels of the instances in instance list
@@ -193,8 +196,9 @@ public class CorpusRepresentationMalletSeq extends CorpusRepresentationMallet {
       throw new GateRuntimeException("LF invalid call to CorpusRepresentationMallet.add: sequenceAS must not be null "
               + " for document " + inputAS.getDocument().getName());
     }
+    ExtractionContext ctx = new ExtractionContext(inputAS);
     for (Annotation sequenceAnnotation : sequenceAS.inDocumentOrder()) {
-      Instance inst = getInstanceForSequence(instancesAS, sequenceAnnotation, inputAS, classAS, targetFeatureName, targetType, nameFeatureName);
+      Instance inst = getInstanceForSequence(instancesAS, sequenceAnnotation, ctx, classAS, targetFeatureName, targetType, nameFeatureName);
         instances.add(inst);
     }
   }
@@ -225,11 +229,29 @@ public class CorpusRepresentationMalletSeq extends CorpusRepresentationMallet {
           String targetFeatureName,
           TargetType targetType,
           String nameFeatureName) {
-
+    return getInstanceForSequence(instancesAS, sequenceAnnotation, new ExtractionContext(inputAS), 
+            classAS, targetFeatureName, targetType, nameFeatureName);
+  }
+  
+  /**
+   * Get a single Instance for a sequence annotation, using the extraction context for 
+   * the document.
+   */
+  public Instance getInstanceForSequence(
+          AnnotationSet instancesAS,
+          Annotation sequenceAnnotation,
+          ExtractionContext ctx,
+          AnnotationSet classAS,
+          String targetFeatureName,
+          TargetType targetType,
+          String nameFeatureName) {
+    AnnotationSet inputAS = ctx.getInputAS();
     List<Annotation> instanceAnnotations = gate.Utils.getContainedAnnotations(instancesAS, sequenceAnnotation).inDocumentOrder();
     List<Instance> instanceList = new ArrayList<Instance>(instanceAnnotations.size());
     for (Annotation instanceAnnotation : instanceAnnotations) {
-      Instance inst = extractIndependentFeaturesHelper(instanceAnnotation, inputAS, featureInfo, pipe);
+      Instance inst = extractIndependentFeaturesHelper(instanceAnnotation, ctx, featureInfo, pipe, true);
+      // the instance has a missing value and should get ignored
+      if (inst == null) continue;
       if (targetType != TargetType.NONE) {
         if (classAS != null) {
           // extract the target as required for sequence tagging
@@ -240,9 +262,7 @@ public class CorpusRepresentationMalletSeq extends CorpusRepresentationMallet {
           FeatureExtraction.extractNumericTarget(inst, targetFeatureName, instanceAnnotation, inputAS);
         }
       }
-      if (!FeatureExtraction.ignoreInstanceWithMV(inst)) {
-        instanceList.add(inst);
-      }
+      instanceList.add(inst);
     }
     FeatureVector[] vectors = new FeatureVector[instanceList.size()];
     for (int i = 0; i < vectors.length; i++) {
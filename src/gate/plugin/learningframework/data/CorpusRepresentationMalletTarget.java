@@ -20,23 +20,44 @@ import java.util.List;
 import cc.mallet.pipe.Noop;
 import cc.mallet.pipe.Pipe;
 import cc.mallet.types.Alphabet;
-import cc.mallet.types.AugmentableFeatureVector;
 import cc.mallet.types.FeatureVector;
 import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
+import cc.mallet.types.Label;
 import cc.mallet.types.LabelAlphabet;
+import gate.plugin.learningframework.InstanceStorage;
+import gate.plugin.learningframework.engines.Info;
 import gate.plugin.learningframework.ScalingMethod;
+import gate.plugin.learningframework.mallet.CompactInstanceList;
+import gate.plugin.learningframework.mallet.DiskInstanceList;
+import gate.plugin.learningframework.mallet.RowInstanceList;
+import gate.plugin.learningframework.mallet.FeatureStatistics;
 import gate.plugin.learningframework.mallet.FeatureVector2NormalizedFeatureVector;
+import gate.plugin.learningframework.mallet.FeatureVectorBuilder;
+import gate.plugin.learningframework.mallet.HashingAlphabet;
+import gate.plugin.learningframework.mallet.PruningAlphabet;
+import gate.plugin.learningframework.mallet.ScalingInstanceList;
 import gate.plugin.learningframework.features.Attribute;
+import gate.plugin.learningframework.features.ExtractionContext;
 import gate.plugin.learningframework.features.FeatureExtraction;
+import gate.plugin.learningframework.features.FeatureExtractor;
 import gate.plugin.learningframework.features.FeatureInfo;
+import gate.plugin.learningframework.features.SimpleAttribute;
 import gate.plugin.learningframework.features.TargetType;
 import gate.plugin.learningframework.mallet.LFPipe;
 import gate.util.GateRuntimeException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import org.apache.log4j.Logger;
 
@@ -54,22 +75,68 @@ public class CorpusRepresentationMalletTarget extends CorpusRepresentationMallet
   static final Logger logger = Logger.getLogger("CorpusRepresentationMallet");
 
 
+  protected InstanceStorage instanceStorage = InstanceStorage.MALLET;
+  protected File storageDirectory;
+
+  /**
+   * The name of the file written by saveCorpus.
+   */
+  public static final String FILENAME_CORPUS = "lf.corpus";
+  // the first bytes of the corpus file, "LFCP", followed by the format version
+  private static final int CORPUS_MAGIC = 0x4C464350;
+  private static final int CORPUS_VERSION = 1;
+  // collected while instances get added if a scaling method is known in advance
+  protected FeatureStatistics featureStatistics;
+
   /**
    * Constructor for creating a new CorpusRepresentation from a FeatureInfo. 
    * @param fi
    * @param sm 
    */
   public CorpusRepresentationMalletTarget(FeatureInfo fi, ScalingMethod sm, TargetType targetType) {
+    this(fi, sm, targetType, InstanceStorage.MALLET);
+  }
+  
+  /**
+   * Constructor for creating a new CorpusRepresentation from a FeatureInfo which keeps 
+   * the instances as specified by the InstanceStorage.
+   * @param fi
+   * @param sm 
+   */
+  public CorpusRepresentationMalletTarget(FeatureInfo fi, ScalingMethod sm, TargetType targetType, InstanceStorage storage) {
+    this(fi, sm, targetType, storage, null);
+  }
+  
+  /**
+   * Constructor for creating a new CorpusRepresentation from a FeatureInfo which keeps 
+   * the instances as specified by the InstanceStorage. For InstanceStorage.DISK, the 
+   * instance file is created in the storageDirectory, or in the default temporary directory
+   * if that is null.
+   * @param fi
+   * @param sm 
+   */
+  public CorpusRepresentationMalletTarget(FeatureInfo fi, ScalingMethod sm, TargetType targetType, InstanceStorage storage, File storageDirectory) {
+    this(fi, sm, fi.newDataAlphabet(), (targetType == TargetType.NOMINAL) ? new LabelAlphabet() : null, 
+            storage, storageDirectory);
+  }
+  
+  /**
+   * Non-public constructor for a corpus representation which uses the given alphabets.
+   */
+  CorpusRepresentationMalletTarget(FeatureInfo fi, ScalingMethod sm, Alphabet dataAlphabet, Alphabet targetAlphabet, 
+          InstanceStorage storage, File storageDirectory) {
     featureInfo = fi;
     scalingMethod = sm;
+    if(sm != null && sm != ScalingMethod.NONE) featureStatistics = new FeatureStatistics();
+    if(storage != null) instanceStorage = storage;
+    this.storageDirectory = storageDirectory;
 
-    LabelAlphabet targetAlphabet = (targetType == TargetType.NOMINAL) ? new LabelAlphabet() : null;
-    Pipe innerPipe = new Noop(new Alphabet(), targetAlphabet);
+    Pipe innerPipe = new Noop(dataAlphabet, targetAlphabet);
     List<Pipe> pipes = new ArrayList<Pipe>();
     pipes.add(innerPipe);
     pipe = new LFPipe(pipes);
     pipe.setFeatureInfo(fi);
-    instances = new InstanceList(pipe);
+    instances = newInstanceList(pipe);
   }
   
   /**
@@ -83,6 +150,18 @@ public class CorpusRepresentationMalletTarget extends CorpusRepresentationMallet
     this.instances = new InstanceList(pipe);
   }
 
+  /**
+   * Non-public constructor for use when the instances for training get loaded.
+   */
+  CorpusRepresentationMalletTarget(LFPipe pipe, InstanceStorage storage, File storageDirectory) {
+    this.pipe = pipe;
+    this.featureInfo = pipe.getFeatureInfo();
+    this.scalingMethod = null;
+    if(storage != null) instanceStorage = storage;
+    this.storageDirectory = storageDirectory;
+    this.instances = newInstanceList(pipe);
+  }
+
   /**
    * Create a new instance based on the pipe stored in directory.
    * @param directory
@@ -106,6 +185,7 @@ public class CorpusRepresentationMalletTarget extends CorpusRepresentationMallet
       }
     }
     CorpusRepresentationMalletTarget crmc = new CorpusRepresentationMalletTarget(lfpipe);
+    crmc.freezeDataAlphabet();
     return crmc;
   }
   
@@ -113,9 +193,308 @@ public class CorpusRepresentationMalletTarget extends CorpusRepresentationMallet
   
   
   
+  /**
+   * Save the pipe and all the instances to the file lf.corpus in the directory, so that 
+   * models can be trained from them later without extracting the features from the documents
+   * again, see loadCorpus.
+   * <p>
+   * The pipe with the alphabets and the FeatureInfo is stored in serialized form, followed
+   * by the targetFeature, trainingCorpusName and nrTrainingDocuments of the info if it is 
+   * not null, and then each instance as its target, weight and sparse features, where the 
+   * indices are stored as variable length encoded differences and the values are only 
+   * stored if they are not all 1.0. This must be done before scaling is added.
+   */
+  public void saveCorpus(File directory, Info info) {
+    for(Pipe p : pipe.pipes()) {
+      if(p instanceof FeatureVector2NormalizedFeatureVector) {
+        throw new GateRuntimeException("Cannot save the corpus after scaling has been added");
+      }
+    }
+    File outFile = new File(directory, FILENAME_CORPUS);
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16));
+      out.writeInt(CORPUS_MAGIC);
+      out.writeInt(CORPUS_VERSION);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(bytes);
+      oos.writeObject(pipe);
+      oos.close();
+      out.writeInt(bytes.size());
+      bytes.writeTo(out);
+      writeString(out, info == null ? null : info.targetFeature);
+      writeString(out, info == null ? null : info.trainingCorpusName);
+      out.writeInt(info == null ? 0 : info.nrTrainingDocuments);
+      int n = instances.size();
+      out.writeInt(n);
+      RowInstanceList rows = instances instanceof RowInstanceList ? (RowInstanceList)instances : null;
+      for(int i=0; i<n; i++) {
+        int[] indices;
+        double[] values;
+        double target;
+        if(rows != null) {
+          indices = rows.getIndices(i);
+          values = rows.getValues(i);
+          target = rows.getTargetValue(i);
+        } else {
+          Instance inst = instances.get(i);
+          FeatureVector fv = (FeatureVector)inst.getData();
+          indices = new int[fv.numLocations()];
+          values = new double[indices.length];
+          for(int l=0; l<indices.length; l++) {
+            indices[l] = fv.indexAtLocation(l);
+            values[l] = fv.valueAtLocation(l);
+          }
+          target = corpusTargetValue(inst.getTarget());
+        }
+        out.writeDouble(target);
+        out.writeDouble(instances.getInstanceWeight(i));
+        out.writeInt(indices.length);
+        boolean binary = true;
+        for(double v : values) {
+          if(v != 1.0) {
+            binary = false;
+            break;
+          }
+        }
+        out.writeBoolean(binary);
+        int prev = 0;
+        for(int index : indices) {
+          int v = index - prev;
+          while((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+          }
+          out.writeByte(v);
+          prev = index;
+        }
+        if(!binary) {
+          for(double v : values) {
+            out.writeDouble(v);
+          }
+        }
+      }
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not save the corpus to "+outFile, ex);
+    } finally {
+      if(out != null) try {
+        out.close();
+      } catch (IOException ex) {
+        logger.error("Could not close stream after saving the corpus to "+outFile, ex);
+      }
+    }
+  }
+
+  /**
+   * Load a corpus saved with saveCorpus from the directory into a new corpus representation 
+   * which keeps the instances as specified by the InstanceStorage. For InstanceStorage.DISK,
+   * the instance file is created in the directory. If info is not null, the targetFeature, 
+   * trainingCorpusName and nrTrainingDocuments saved with the corpus are set in it.
+   */
+  public static CorpusRepresentationMalletTarget loadCorpus(File directory, InstanceStorage storage, Info info) {
+    File inFile = new File(directory, FILENAME_CORPUS);
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile), 1 << 16));
+      if(in.readInt() != CORPUS_MAGIC) {
+        throw new GateRuntimeException("Not a LearningFramework corpus file: "+inFile);
+      }
+      int version = in.readInt();
+      if(version != CORPUS_VERSION) {
+        throw new GateRuntimeException("Unsupported version "+version+" of corpus file "+inFile);
+      }
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      LFPipe lfpipe;
+      try {
+        lfpipe = (LFPipe)new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+      } catch (ClassNotFoundException ex) {
+        throw new GateRuntimeException("Could not read the pipe from "+inFile, ex);
+      }
+      String targetFeature = readString(in);
+      String corpusName = readString(in);
+      int nrDocuments = in.readInt();
+      if(info != null) {
+        info.targetFeature = targetFeature;
+        info.trainingCorpusName = corpusName;
+        info.nrTrainingDocuments = nrDocuments;
+      }
+      CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(lfpipe, storage, directory);
+      Alphabet dataAlph = lfpipe.getDataAlphabet();
+      Alphabet targetAlph = lfpipe.getTargetAlphabet();
+      int n = in.readInt();
+      for(int i=0; i<n; i++) {
+        double target = in.readDouble();
+        double weight = in.readDouble();
+        int[] indices = new int[in.readInt()];
+        boolean binary = in.readBoolean();
+        int prev = 0;
+        for(int l=0; l<indices.length; l++) {
+          int v = 0;
+          int shift = 0;
+          byte b;
+          do {
+            b = in.readByte();
+            v |= (b & 0x7f) << shift;
+            shift += 7;
+          } while(b < 0);
+          prev += v;
+          indices[l] = prev;
+        }
+        double[] values = new double[indices.length];
+        for(int l=0; l<values.length; l++) {
+          values[l] = binary ? 1.0 : in.readDouble();
+        }
+        Object targetObj = null;
+        if(!Double.isNaN(target)) {
+          if(targetAlph instanceof LabelAlphabet) {
+            targetObj = ((LabelAlphabet)targetAlph).lookupLabel((int)target);
+          } else {
+            targetObj = target;
+          }
+        }
+        crm.instances.add(new Instance(new FeatureVector(dataAlph, indices, values), targetObj, null, null), weight);
+      }
+      return crm;
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not load the corpus from "+inFile, ex);
+    } finally {
+      if(in != null) try {
+        in.close();
+      } catch (IOException ex) {
+        logger.error("Could not close stream after loading the corpus from "+inFile, ex);
+      }
+    }
+  }
+
+  private static double corpusTargetValue(Object target) {
+    if(target == null) {
+      return Double.NaN;
+    } else if(target instanceof Label) {
+      return ((Label)target).getIndex();
+    } else if(target instanceof Number) {
+      return ((Number)target).doubleValue();
+    } else {
+      throw new GateRuntimeException("Cannot save target of class "+target.getClass());
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if(s != null) out.writeUTF(s);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+  
   public void clear() {
     LFPipe pipe = (LFPipe)instances.getPipe();
-    instances = new InstanceList(pipe);
+    setInstances(newInstanceList(pipe));
+    if(featureStatistics != null) featureStatistics = new FeatureStatistics();
+  }
+  
+  /**
+   * The statistics of the feature values of the instances added so far, or null if the
+   * corpus representation was created without a scaling method.
+   */
+  public FeatureStatistics getFeatureStatistics() {
+    return featureStatistics;
+  }
+  
+  @Override
+  public void remapFeatures(int[] newIndices, int newSize) {
+    super.remapFeatures(newIndices, newSize);
+    if(featureStatistics != null) featureStatistics.remapFeatures(newIndices, newSize);
+  }
+  
+  /**
+   * Add an instance which has already been created, e.g. from the instances of another 
+   * corpus representation. The data must be a FeatureVector which uses the data alphabet
+   * of the pipe.
+   */
+  void addInstance(Instance inst, double weight) {
+    if(featureStatistics != null) featureStatistics.add((FeatureVector)inst.getData());
+    instances.add(inst, weight);
+  }
+
+  /**
+   * Add all the instances of the other corpus representation, e.g. one created by a duplicate
+   * of the same training PR in another thread.
+   *
+   * The other representation must have been created for the same feature specification,
+   * target type and scaling method, but has its own data and target alphabets: its features
+   * and labels get mapped to the ones of this representation, adding those which are not
+   * known yet, and the feature statistics collected for scaling get merged. This must be
+   * done before scaling is added. Features which were pruned because of the minimum feature
+   * frequency were only counted in the other representation. Nominal attributes coded as
+   * numbers cannot be merged because each FeatureInfo has its own alphabet for their values.
+   * The other representation cannot be used any more after this.
+   */
+  public void merge(CorpusRepresentationMalletTarget other) {
+    for(LFPipe p : new LFPipe[]{pipe, other.pipe}) {
+      for(Pipe sub : p.pipes()) {
+        if(sub instanceof FeatureVector2NormalizedFeatureVector) {
+          throw new GateRuntimeException("Cannot merge corpus representations after scaling has been added");
+        }
+      }
+    }
+    for(Attribute att : other.featureInfo.getAttributes()) {
+      if(att instanceof SimpleAttribute && ((SimpleAttribute)att).alphabet != null) {
+        throw new GateRuntimeException("Cannot merge corpus representations with nominal attributes coded as numbers: "+att);
+      }
+    }
+    Alphabet dataAlph = pipe.getDataAlphabet();
+    Alphabet otherAlph = other.pipe.getDataAlphabet();
+    int[] newIndices = new int[otherAlph.size()];
+    for(int i=0; i<newIndices.length; i++) {
+      if(dataAlph instanceof HashingAlphabet) {
+        // the same buckets for the same feature specification
+        newIndices[i] = i;
+      } else if(dataAlph instanceof PruningAlphabet) {
+        // the feature was seen often enough in the other representation
+        newIndices[i] = ((PruningAlphabet)dataAlph).lookupIndexNoPruning(otherAlph.lookupObject(i));
+      } else {
+        newIndices[i] = dataAlph.lookupIndex(otherAlph.lookupObject(i), true);
+      }
+    }
+    if(featureStatistics != null && other.featureStatistics != null) {
+      other.featureStatistics.remapFeatures(newIndices, dataAlph.size());
+      featureStatistics.merge(other.featureStatistics);
+    }
+    LabelAlphabet targetAlph = (LabelAlphabet)pipe.getTargetAlphabet();
+    FeatureVectorBuilder fvb = FeatureVectorBuilder.forCurrentThread();
+    InstanceList otherInstances = other.instances;
+    for(int i=0; i<otherInstances.size(); i++) {
+      Instance inst = otherInstances.get(i);
+      if(!(inst.getData() instanceof FeatureVector)) {
+        throw new GateRuntimeException("Can only merge instances with a FeatureVector, not "+inst.getData().getClass());
+      }
+      FeatureVector fv = (FeatureVector)inst.getData();
+      fvb.reset(dataAlph);
+      for(int l=0; l<fv.numLocations(); l++) {
+        fvb.add(newIndices[fv.indexAtLocation(l)], fv.valueAtLocation(l));
+      }
+      Object target = inst.getTarget();
+      if(target instanceof Label) {
+        target = targetAlph.lookupLabel(((Label)target).getEntry(), true);
+      }
+      instances.add(new Instance(fvb.toFeatureVector(), target, inst.getName(), inst.getSource()),
+              otherInstances.getInstanceWeight(i));
+    }
+    if(otherInstances instanceof DiskInstanceList) {
+      ((DiskInstanceList)otherInstances).close();
+    }
+  }
+
+  @Override
+  protected InstanceList newInstanceList(LFPipe pipe) {
+    if(instanceStorage == InstanceStorage.COMPACT) {
+      return new CompactInstanceList(pipe);
+    } else if(instanceStorage == InstanceStorage.DISK) {
+      return new DiskInstanceList(pipe, storageDirectory);
+    }
+    return new ScalingInstanceList(pipe);
   }
   
   // NOTE: at application time we do not explicitly create a CorpusRepresentatioMallet object.
@@ -127,14 +506,31 @@ public class CorpusRepresentationMalletTarget extends CorpusRepresentationMallet
   // to get the instances.
 
 
+  /**
+   * Extract the independent features for a single instance annotation.
+   * NOTE: this creates a new extraction context for the document with each call, so 
+   * when extracting the features of all instances in a document, the method that takes an
+   * ExtractionContext should be used.
+   */
   public Instance extractIndependentFeatures(
           Annotation instanceAnnotation,
           AnnotationSet inputAS)
+  {
+    return extractIndependentFeatures(instanceAnnotation, new ExtractionContext(inputAS));
+  }
+
+  /**
+   * Extract the independent features for a single instance annotation, using the 
+   * extraction context for the document.
+   */
+  public Instance extractIndependentFeatures(
+          Annotation instanceAnnotation,
+          ExtractionContext ctx)
   {
     LFPipe pipe = (LFPipe)instances.getPipe();
     FeatureInfo featureInfo = pipe.getFeatureInfo();
-    return extractIndependentFeaturesHelper(instanceAnnotation, inputAS,
-            featureInfo, pipe);
+    return extractIndependentFeaturesHelper(instanceAnnotation, ctx,
+            featureInfo, pipe, false);
   }
   
   /**
@@ -143,28 +539,45 @@ public class CorpusRepresentationMalletTarget extends CorpusRepresentationMallet
    * in the featureInfo object. The information in the featureInfo instance gets updated 
    * by this. 
    * NOTE: this method is static so that it can be used in the CorpusRepresentationMalletSeq class too.
+   * After this returns, the instance status of the context tells if there were missing values.
    * @param instanceAnnotation
-   * @param inputAS
-   * @param targetFeatureName
+   * @param ctx the extraction context for the document
    * @param featureInfo
    * @param pipe
-   * @param nameFeature
+   * @param skipIgnored if true, extraction stops as soon as a missing value is found which 
+   * means that the instance should get ignored, and null is returned for such an instance.
    * @return 
    */
   static Instance extractIndependentFeaturesHelper(
           Annotation instanceAnnotation,
-          AnnotationSet inputAS,
+          ExtractionContext ctx,
           FeatureInfo featureInfo,
-          Pipe pipe) {
+          Pipe pipe,
+          boolean skipIgnored) {
     
-    AugmentableFeatureVector afv = new AugmentableFeatureVector(pipe.getDataAlphabet());
-    Instance inst = new Instance(afv, null, null, null);
-    for(Attribute attr : featureInfo.getAttributes()) {
-      FeatureExtraction.extractFeature(inst, attr, inputAS, instanceAnnotation);
+    // the features are collected in the reusable builder of the context and the 
+    // FeatureVector gets created from it in one go at the end
+    FeatureVectorBuilder fvb = ctx.getFeatureVectorBuilder();
+    fvb.reset(pipe.getDataAlphabet());
+    ctx.resetInstanceStatus();
+    // use the extractors compiled for the feature info of the pipe, if we can
+    FeatureExtractor[] extractors;
+    if(pipe instanceof LFPipe && ((LFPipe)pipe).getFeatureInfo() == featureInfo) {
+      extractors = ((LFPipe)pipe).getFeatureExtractors();
+    } else {
+      extractors = FeatureExtractor.compile(featureInfo);
+    }
+    for(FeatureExtractor extractor : extractors) {
+      extractor.extract(ctx, instanceAnnotation);
+      if(skipIgnored && ctx.ignoreInstance()) {
+        return null;
+      }
+    }
+    Instance inst = new Instance(fvb.toFeatureVector(), null, null, null);
+    // only if there is a missing value, set the properties for code which still relies on them
+    if(ctx.getInstanceStatus() != 0) {
+      FeatureExtraction.setMVProperties(inst, ctx);
     }
-    // TODO: we destructively replace the AugmentableFeatureVector by a FeatureVector here,
-    // but it is not clear if this is beneficial - our assumption is that yes.
-    inst.setData(((AugmentableFeatureVector)inst.getData()).toFeatureVector());
     return inst;
   }
 
@@ -189,8 +602,11 @@ public class CorpusRepresentationMalletTarget extends CorpusRepresentationMallet
               " for document "+inputAS.getDocument().getName());
     }
     List<Annotation> instanceAnnotations = instancesAS.inDocumentOrder();
+    ExtractionContext ctx = new ExtractionContext(inputAS);
     for (Annotation instanceAnnotation : instanceAnnotations) {
-      Instance inst = extractIndependentFeaturesHelper(instanceAnnotation, inputAS, featureInfo, pipe);
+      Instance inst = extractIndependentFeaturesHelper(instanceAnnotation, ctx, featureInfo, pipe, true);
+      // the instance has a missing value and should get ignored
+      if(inst == null) continue;
       if (classAS != null) {
         // extract the target as required for sequence tagging
         FeatureExtraction.extractClassForSeqTagging(inst, pipe.getTargetAlphabet(), classAS, instanceAnnotation);
@@ -205,62 +621,49 @@ public class CorpusRepresentationMalletTarget extends CorpusRepresentationMallet
       if(nameFeatureName != null) {
         FeatureExtraction.extractName(inst, instanceAnnotation, inputAS.getDocument());
       }
-      if(!FeatureExtraction.ignoreInstanceWithMV(inst)) {
-        instances.add(inst);
-      }
+      if(featureStatistics != null) featureStatistics.add((FeatureVector)inst.getData());
+      instances.add(inst);
     }
   }
 
   /**
    * Add scale features and add a pipe for that scaling to the end of the current SerialPipes.
    * If the ScalingMethod is NONE, this does nothing.
+   * <p>
+   * The statistics needed are normally collected while the instances get added, if the
+   * corpus representation was created with a scaling method, otherwise they are collected
+   * now. For a RowInstanceList, the stored instances are not changed, the list scales 
+   * the values when they are read. A ScalingInstanceList scales each instance in place when
+   * it is first read, any other list gets all its instances scaled in place now.
    * @param scaleFeatures 
    */
   @Override
   public void addScaling(ScalingMethod scaleFeatures) {
-    if(scaleFeatures == ScalingMethod.NONE) return;
-    System.out.println("DEBUG normalize: getDataAlphabet=" + instances.getDataAlphabet());
-    System.out.println("DEBUG normalize: size=" + instances.getDataAlphabet().size());
-    double[] sums = new double[instances.getDataAlphabet().size()];
-    double[] sumsofsquares = new double[instances.getDataAlphabet().size()];
-    //double[] numvals = new double[instances.getDataAlphabet().size()];
-    double[] means = new double[instances.getDataAlphabet().size()];
-    double[] variances = new double[instances.getDataAlphabet().size()];
-
-    for (int i = 0; i < instances.size(); i++) {
-      FeatureVector data = (FeatureVector) instances.get(i).getData();
-      int[] indices = data.getIndices();
-      double[] values = data.getValues();
-      for (int j = 0; j < indices.length; j++) {
-        int index = indices[j];
-        double value = values[j];
-        sums[index] += value;
-        sumsofsquares[index] += (value * value);
-        //numvals[index]++;
+    if(scaleFeatures == null || scaleFeatures == ScalingMethod.NONE) return;
+    FeatureStatistics stats = featureStatistics;
+    if(stats == null || stats.getNrInstances() != instances.size()) {
+      stats = new FeatureStatistics();
+      for(Instance inst : instances) {
+        stats.add((FeatureVector)inst.getData());
       }
     }
-
-    //Now use the accumulators to prepare means and variances
-    //for each feature in the alphabet, to be used for scaling.
-    for (int i = 0; i < sums.length; i++) {
-      means[i] = sums[i] / instances.getDataAlphabet().size();
-      variances[i] = sumsofsquares[i] / instances.getDataAlphabet().size();
-    }
-
-    //We make a new pipe and apply it to all the instances
-    FeatureVector2NormalizedFeatureVector normalizer
-            = new FeatureVector2NormalizedFeatureVector(means, variances, instances.getDataAlphabet());
+    FeatureVector2NormalizedFeatureVector normalizer = 
+            FeatureVector2NormalizedFeatureVector.fromStatistics(stats, scaleFeatures, instances.getDataAlphabet());
     
-    // Run all the instances through this pipe
-    for(Instance inst : instances) {
-      inst = normalizer.pipe(inst);
+    if(instances instanceof RowInstanceList) {
+      ((RowInstanceList)instances).setScaling(normalizer.getShifts(), normalizer.getFactors());
+    } else if(instances instanceof ScalingInstanceList) {
+      ((ScalingInstanceList)instances).setScaling(normalizer);
+    } else {
+      for(Instance inst : instances) {
+        normalizer.pipe(inst);
+      }
     }
 
     //Add the pipe to the pipes so application time data will go through it
     ArrayList<Pipe> pipeList = pipe.pipes();
     pipeList.add(normalizer);
-    System.out.println("DEBUG normalize: added normalizer pipe " + normalizer);
-    System.out.println("DEBUG pipes after normalization: " + pipe);
+    logger.debug("Added scaling pipe for "+scaleFeatures+", pipes now: "+pipe);
   }
 
   @Override
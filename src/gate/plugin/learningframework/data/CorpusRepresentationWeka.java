@@ -10,16 +10,17 @@ import cc.mallet.types.Alphabet;
 import cc.mallet.types.FeatureVector;
 import cc.mallet.types.InstanceList;
 import cc.mallet.types.Label;
-import cc.mallet.types.LabelAlphabet;
 import gate.plugin.learningframework.engines.Parms;
 import gate.plugin.learningframework.features.CodeAs;
 import gate.plugin.learningframework.features.Datatype;
 import gate.plugin.learningframework.features.FeatureExtraction;
+import gate.plugin.learningframework.mallet.RowInstanceList;
 import gate.plugin.learningframework.mallet.LFPipe;
 import gate.util.GateRuntimeException;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,12 +28,9 @@ import org.apache.commons.lang.NotImplementedException;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
-import weka.core.converters.ArffSaver;
 import weka.core.converters.CSVSaver;
 import weka.core.converters.JSONSaver;
-import weka.core.converters.LibSVMSaver;
 import weka.core.converters.MatlabSaver;
-import weka.core.converters.SVMLightSaver;
 
 /**
  *
@@ -73,31 +71,29 @@ public class CorpusRepresentationWeka extends CorpusRepresentation {
    * <ul>
    * <li> "csv": -F fieldSeparator (default is tab) -M missingValueString (default is ?) -N
    * (suppress header row, default is no)
-   * <li> "
+   * <li> "json", "matlab": no additional parameters
+   * <li> "libsvm", "svmlight": the same additional parameters as for ARFF
+   * </ul>
+   * For ARFF, libsvm and svmlight, -gzip writes a compressed file with the additional extension
+   * ".gz" and -shards n writes the instances to n files in parallel, e.g. data-0.arff to 
+   * data-(n-1).arff, where each ARFF file gets the header. The files are written the same way 
+   * as by the Weka savers, but faster.
    *
    * @param directory
    * @param format
    */
   public void export(File directory, String parms) {
-    if (parms == null || parms.isEmpty()) {
-      System.err.println("EXPORTING using ArffSaver");
-      ArffSaver saver = new ArffSaver();
-      saver.setInstances(data);
-      File outFile = new File(directory, "data.arff");
-      try {
-        saver.setFile(outFile);
-      } catch (IOException ex) {
-        throw new GateRuntimeException("Error exporting Weka data to " + outFile, ex);
-      }
-      try {
-        saver.writeBatch();
-      } catch (IOException ex) {
-        throw new GateRuntimeException("Error exporting Weka data to " + outFile, ex);
-      }
+    // first parse the parms to see if we have a -format value
+    Parms ps = new Parms(parms, "f:format:s", "z:gzip:b", "n:shards:i");
+    String format = (String) ps.getValueOrElse("format", "");
+    boolean gzip = (Boolean) ps.getValueOrElse("gzip", false);
+    int shards = (Integer) ps.getValueOrElse("shards", 1);
+    if ((gzip || shards != 1) && !(format.isEmpty() || format.equals("libsvm") || format.equals("svmlight"))) {
+      throw new GateRuntimeException("Parameters -gzip and -shards only supported for ARFF, libsvm and svmlight formats");
+    }
+    if (format.isEmpty()) {
+      exportArff(directory, gzip, shards);
     } else {
-      // first parse the parms to see if we have a -format value
-      Parms ps = new Parms(parms, "f:format:s");
-      String format = (String) ps.getValueOrElse("format", "");
       if (format.equals("csv")) {
         ps = new Parms(parms, "F:F:s", "M:M:s", "N:N:b");
         String fieldSep = gate.util.Strings.unescape((String) ps.getValueOrElse("F", "\\t"));
@@ -131,33 +127,9 @@ public class CorpusRepresentationWeka extends CorpusRepresentation {
           throw new GateRuntimeException("Error exporting Weka data to " + outFile, ex);
         }
       } else if (format.equals("libsvm")) {
-        File outFile = new File(directory, "data.libsvm");
-        LibSVMSaver saver = new LibSVMSaver();
-        saver.setInstances(data);
-        try {
-          saver.setFile(outFile);
-        } catch (IOException ex) {
-          throw new GateRuntimeException("Error exporting Weka data to " + outFile, ex);
-        }
-        try {
-          saver.writeBatch();
-        } catch (IOException ex) {
-          throw new GateRuntimeException("Error exporting Weka data to " + outFile, ex);
-        }
+        exportLibSVM(directory, gzip, shards);
       } else if (format.equals("svmlight")) {
-        File outFile = new File(directory, "data.svmlight");
-        SVMLightSaver saver = new SVMLightSaver();
-        saver.setInstances(data);
-        try {
-          saver.setFile(outFile);
-        } catch (IOException ex) {
-          throw new GateRuntimeException("Error exporting Weka data to " + outFile, ex);
-        }
-        try {
-          saver.writeBatch();
-        } catch (IOException ex) {
-          throw new GateRuntimeException("Error exporting Weka data to " + outFile, ex);
-        }
+        exportSVMLight(directory, gzip, shards);
       } else if (format.equals("matlab")) {
         File outFile = new File(directory, "data.m");
         MatlabSaver saver = new MatlabSaver();
@@ -178,6 +150,99 @@ public class CorpusRepresentationWeka extends CorpusRepresentation {
     }
   }
   
+  private void exportArff(File directory, boolean gzip, int shards) {
+    final Instances instances = data;
+    // the same as what the ArffSaver writes
+    String header = new Instances(instances, 0).toString();
+    ExportWriter.writeSharded(directory, "data", "arff", gzip, shards, instances.numInstances(), header,
+            new ExportWriter.RowWriter() {
+      @Override
+      public void write(ExportWriter out, int row) throws IOException {
+        out.write(instances.instance(row).toString());
+        out.write('\n');
+      }
+    });
+  }
+
+  // Like the LibSVMSaver: the class value as a double, then index:value with 1-based indices
+  // for all non-zero values
+  private void exportLibSVM(File directory, boolean gzip, int shards) {
+    final Instances instances = data;
+    final int classIndex = checkSparseExport(instances, "libsvm");
+    ExportWriter.writeSharded(directory, "data", "libsvm", gzip, shards, instances.numInstances(), null,
+            new ExportWriter.RowWriter() {
+      @Override
+      public void write(ExportWriter out, int row) throws IOException {
+        Instance inst = instances.instance(row);
+        out.writeDouble(nonMissing(inst.classValue()));
+        writeSparseValues(out, inst, classIndex, false);
+      }
+    });
+  }
+
+  // Like the SVMLightSaver: for classification, the first class is 1 and the second -1,
+  // all values are written in plain notation
+  private void exportSVMLight(File directory, boolean gzip, int shards) {
+    final Instances instances = data;
+    final int classIndex = checkSparseExport(instances, "svmlight");
+    final boolean nominal = instances.classAttribute().isNominal();
+    if (nominal && instances.classAttribute().numValues() > 2) {
+      throw new GateRuntimeException("Cannot export to svmlight format, more than two classes");
+    }
+    ExportWriter.writeSharded(directory, "data", "svmlight", gzip, shards, instances.numInstances(), null,
+            new ExportWriter.RowWriter() {
+      @Override
+      public void write(ExportWriter out, int row) throws IOException {
+        Instance inst = instances.instance(row);
+        double target = nonMissing(inst.classValue());
+        if (nominal) {
+          out.write(target == 0.0 ? "1" : "-1");
+        } else {
+          out.writePlainDouble(target);
+        }
+        writeSparseValues(out, inst, classIndex, true);
+      }
+    });
+  }
+
+  private static int checkSparseExport(Instances instances, String format) {
+    int classIndex = instances.classIndex();
+    if (classIndex != instances.numAttributes() - 1) {
+      throw new GateRuntimeException("Cannot export to " + format + " format, class must be the last attribute");
+    }
+    return classIndex;
+  }
+
+  private static double nonMissing(double value) {
+    if (weka.core.Utils.isMissingValue(value)) {
+      throw new GateRuntimeException("Cannot export missing values to libsvm or svmlight format");
+    }
+    return value;
+  }
+
+  private static void writeSparseValues(ExportWriter out, Instance inst, int classIndex, boolean plain)
+          throws IOException {
+    for (int l = 0; l < inst.numValues(); l++) {
+      int index = inst.index(l);
+      if (index == classIndex) {
+        continue;
+      }
+      double value = nonMissing(inst.valueSparse(l));
+      if (value == 0.0) {
+        continue;
+      }
+      out.write(' ');
+      out.writeInt(index + 1);
+      out.write(':');
+      if (plain) {
+        out.writePlainDouble(value);
+      } else {
+        out.writeDouble(value);
+      }
+    }
+    out.write('\n');
+  }
+
   /**
    * Create a Weka dataset from just the meta-information of the Mallet representation.
    * This creates an empty Instances object that has all the attributes constructed from 
@@ -213,28 +278,7 @@ public class CorpusRepresentationWeka extends CorpusRepresentation {
       // of the featuers are either boolean ore nominals coded as number
       for (int i = 0; i < dataAlph.size(); i++) {
         String malletFeatureName = (String) dataAlph.lookupObject(i);
-        gate.plugin.learningframework.features.Attribute lfatt
-                = FeatureExtraction.lookupAttributeForFeatureName(lfpipe.getFeatureInfo().getAttributes(), malletFeatureName);
-        Alphabet alphToUse = null;
-        if (lfatt instanceof gate.plugin.learningframework.features.AttributeList) {
-          if (((gate.plugin.learningframework.features.AttributeList) lfatt).datatype == Datatype.bool) {
-            alphToUse = booleanAlph;
-          } else {
-            if (((gate.plugin.learningframework.features.AttributeList) lfatt).datatype == Datatype.nominal
-                    && ((gate.plugin.learningframework.features.AttributeList) lfatt).codeas == CodeAs.number) {
-              alphToUse = ((gate.plugin.learningframework.features.AttributeList) lfatt).alphabet;
-            }
-          }
-        } else if (lfatt instanceof gate.plugin.learningframework.features.SimpleAttribute) {
-          if (((gate.plugin.learningframework.features.SimpleAttribute) lfatt).datatype == Datatype.bool) {
-            alphToUse = booleanAlph;
-          } else {
-            if (((gate.plugin.learningframework.features.SimpleAttribute) lfatt).datatype == Datatype.nominal
-                    && ((gate.plugin.learningframework.features.SimpleAttribute) lfatt).codeas == CodeAs.number) {
-              alphToUse = ((gate.plugin.learningframework.features.SimpleAttribute) lfatt).alphabet;
-            }
-          }
-        }
+        Alphabet alphToUse = nominalValues(lfpipe.getFeatureInfo().getAttributes(), malletFeatureName, booleanAlph);
         // if alphToUse is not null, add it to the map
         if (alphToUse != null) {
           name2lfalph.put(malletFeatureName, alphToUse);
@@ -283,55 +327,81 @@ public class CorpusRepresentationWeka extends CorpusRepresentation {
     return insts;
   }
   
-  public static weka.core.Instance wekaInstanceFromMalletInstance(Instances wekaDataset, 
-          cc.mallet.types.Instance malletInstance) {
-      FeatureVector fv = (FeatureVector) malletInstance.getData();
-      int size = fv.numLocations();
-      int wekaTargetIndex = wekaDataset.classIndex();
-      // TODO: for now we just directly copy over the mallet values to the weka values
-      // We may need to handle certain cases with missing values separately!
-
-      // create  the arrays with one more entry which will be the target, if we have a target
-      
-      //int indices[] = haveTarget ? new int[size + 1] : new int[size];
-      // experimental change: always allocate the space for the class attribute! 
-      // We do this because Weka Random Forest threw an exception and complained about a missing
-      // class. 
-      int indices[] = new int[size+1];
-      double values[] = new double[size+1];
-      for (int i = 0; i < size; i++) {
-        indices[i] = fv.indexAtLocation(i);
-        values[i] = fv.valueAtLocation(i);
+  /**
+   * Return the alphabet of the nominal values to use for the weka attribute of a mallet 
+   * feature. This is booleanAlph for a boolean feature, the alphabet of the LF attribute for 
+   * a nominal feature coded as a number and null for all other features, which become 
+   * numeric weka attributes.
+   */
+  static Alphabet nominalValues(List<gate.plugin.learningframework.features.Attribute> attributes, 
+          String malletFeatureName, Alphabet booleanAlph) {
+    gate.plugin.learningframework.features.Attribute lfatt
+            = FeatureExtraction.lookupAttributeForFeatureName(attributes, malletFeatureName);
+    Alphabet alphToUse = null;
+    if (lfatt instanceof gate.plugin.learningframework.features.AttributeList) {
+      if (((gate.plugin.learningframework.features.AttributeList) lfatt).datatype == Datatype.bool) {
+        alphToUse = booleanAlph;
+      } else {
+        if (((gate.plugin.learningframework.features.AttributeList) lfatt).datatype == Datatype.nominal
+                && ((gate.plugin.learningframework.features.AttributeList) lfatt).codeas == CodeAs.number) {
+          alphToUse = ((gate.plugin.learningframework.features.AttributeList) lfatt).alphabet;
+        }
       }
-      // now set the target, if we have one 
-      Object malletValue = malletInstance.getTarget();
-      if(malletValue != null) {  // we do have a target value, could be a class label or a numeric value
-        indices[size] = wekaTargetIndex;
-        // if we have a target alphabet, convert the label to a class index, otherwise expect
-        // a double value directly
-        if(malletInstance.getTargetAlphabet() == null) {
-          values[size] = (double) malletInstance.getTarget();
-        } else {
-          LabelAlphabet la = (LabelAlphabet)malletInstance.getTargetAlphabet();
-          Label malletLabel = (Label)malletInstance.getTarget();
-          int targetIndex = malletLabel.getIndex();
-          String targetString = malletLabel.toString();
-          int wekaIndex = wekaDataset.classAttribute().indexOfValue(targetString);
-          values[size] = (double)wekaIndex;
-          if(targetIndex != wekaIndex) {
-            System.err.println("DEBUG ASSERTION FAILED: malletIndex for target is not equal to wekaIndex");
-          }
+    } else if (lfatt instanceof gate.plugin.learningframework.features.SimpleAttribute) {
+      if (((gate.plugin.learningframework.features.SimpleAttribute) lfatt).datatype == Datatype.bool) {
+        alphToUse = booleanAlph;
+      } else {
+        if (((gate.plugin.learningframework.features.SimpleAttribute) lfatt).datatype == Datatype.nominal
+                && ((gate.plugin.learningframework.features.SimpleAttribute) lfatt).codeas == CodeAs.number) {
+          alphToUse = ((gate.plugin.learningframework.features.SimpleAttribute) lfatt).alphabet;
         }
-      } else {  // we do not have a target value, so lets create a missing value target for weka
-        indices[size] = wekaDataset.classIndex();
-        values[size] = Double.NaN;
       }
-      weka.core.SparseInstance wekaInstance = new weka.core.SparseInstance(1.0, values, indices, values.length);
-      // TODO: is this necessary, is this useful?
-      // What does this actually do? Hopefully not actually add or modify anything in the wekaDataset
-      // and just give the instance a chance to know about the attributes?
-      wekaInstance.setDataset(wekaDataset);
-      return wekaInstance;
+    }
+    return alphToUse;
+  }
+  
+  /**
+   * Create a weka instance for the mallet instance, which uses the arrays of the mallet feature 
+   * vector without copying them. The weka class values are in the same order as the labels in
+   * the target alphabet, so the label index is used directly for the class value.
+   * If the mallet instance does not have a target, the class value is missing.
+   */
+  public static weka.core.Instance wekaInstanceFromMalletInstance(Instances wekaDataset, 
+          cc.mallet.types.Instance malletInstance) {
+    FeatureVector fv = (FeatureVector) malletInstance.getData();
+    int size = fv.numLocations();
+    int[] indices = fv.getIndices();
+    double[] values = fv.getValues();
+    // the arrays of a feature vector can be longer than the number of locations
+    if (indices.length != size) {
+      indices = Arrays.copyOf(indices, size);
+      if (values != null) {
+        values = Arrays.copyOf(values, size);
+      }
+    }
+    // we always have a class value, otherwise e.g. Weka Random Forest complains about a missing
+    // class, if there is no target, it is a missing value
+    Object malletValue = malletInstance.getTarget();
+    double classValue;
+    if (malletValue == null) {
+      classValue = Double.NaN;
+    } else if (malletValue instanceof Label) {
+      classValue = ((Label) malletValue).getIndex();
+    } else {
+      classValue = (Double) malletValue;
+    }
+    return new WekaMalletInstance(wekaDataset, indices, values, classValue, 1.0);
+  }
+
+  /**
+   * Create a weka instance from a row of a RowInstanceList, without creating the Mallet 
+   * instance first. The weka class values are in the same order as the labels in the target
+   * alphabet, so the stored label index can be used directly.
+   */
+  public static weka.core.Instance wekaInstanceFromRow(Instances wekaDataset, RowInstanceList rows, int row) {
+    // the arrays are created for this instance, so they can be used directly
+    return new WekaMalletInstance(wekaDataset, rows.getIndices(row), rows.getValues(row), 
+            rows.getTargetValue(row), rows.getInstanceWeight(row));
   }
 
   /**
@@ -351,6 +421,16 @@ public class CorpusRepresentationWeka extends CorpusRepresentation {
     Instances wekaInstances =  emptyDatasetFromMallet(cr);
 
     InstanceList malletInstances = cr.getRepresentationMallet();
+    if (malletInstances instanceof RowInstanceList) {
+      // read the stored rows directly instead of creating Mallet instances first
+      RowInstanceList rows = (RowInstanceList) malletInstances;
+      for (int i = 0; i < rows.size(); i++) {
+        wekaInstances.add(wekaInstanceFromRow(wekaInstances, rows, i));
+      }
+      return wekaInstances;
+    }
+    // the weka instances share the arrays of the mallet feature vectors, so there is only one
+    // copy of the data
     for (cc.mallet.types.Instance malletInstance : malletInstances) {
       weka.core.Instance wekaInstance = wekaInstanceFromMalletInstance(wekaInstances, malletInstance);
       wekaInstances.add(wekaInstance);
@@ -0,0 +1,364 @@
+/*
+ * DocumentProjection.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.data;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.creole.ResourceInstantiationException;
+import gate.plugin.learningframework.features.Attribute;
+import gate.plugin.learningframework.features.FeatureInfo;
+import gate.plugin.learningframework.features.Ngram;
+import gate.util.GateRuntimeException;
+import gate.util.InvalidOffsetException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.log4j.Logger;
+
+/**
+ * A compact copy of just the parts of a document needed for feature extraction.
+ *
+ * The projection of a document contains its name, the length of its content and, from one
+ * annotation set, the annotations of the types which were added to the projection with their 
+ * id, offsets and the values of the features which were added for the type, but not any
+ * other annotations and features. The document text is only kept where it is covered by an
+ * annotation of a type which was added with its text, e.g. the type of an n-gram attribute
+ * without a feature, which uses the text instead. Each projection is stored in its own
+ * binary file and can be read back as a new transient document with the same annotations
+ * and a content of blanks, except for the kept text, which gives the same instances as the
+ * original document for any feature specification which only uses the projected types,
+ * features and text. 
+ * <p>
+ * Feature values which are Strings, Integers, Longs, Doubles, Floats or Booleans are stored 
+ * as such, other values are stored as their toString() value.
+ *
+ * @author Johann Petrak
+ */
+public class DocumentProjection {
+
+  private static final Logger logger = Logger.getLogger(DocumentProjection.class);
+
+  /**
+   * The name of the directory in the data directory where the projection files are stored.
+   */
+  public static final String DIRNAME = "projection";
+  public static final String EXTENSION = ".lfp";
+
+  // the first bytes of each file, "LFDP", followed by the format version
+  private static final int MAGIC = 0x4C464450;
+  private static final int VERSION = 2;
+
+  private static final int NULL = 0;
+  private static final int STRING = 1;
+  private static final int INTEGER = 2;
+  private static final int LONG = 3;
+  private static final int DOUBLE = 4;
+  private static final int FLOAT = 5;
+  private static final int BOOLEAN = 6;
+
+  private final String annotationSetName;
+  // the features to keep for each annotation type
+  private final Map<String, Set<String>> types = new LinkedHashMap<String, Set<String>>();
+  // the types for which the covered text is kept
+  private final Set<String> textTypes = new HashSet<String>();
+
+  /**
+   * Create a projection of the annotation set with the name, or of the default annotation 
+   * set if the name is null or empty.
+   */
+  public DocumentProjection(String annotationSetName) {
+    this.annotationSetName = annotationSetName == null ? "" : annotationSetName;
+  }
+
+  /**
+   * Add the annotation type with the features, empty or null feature names are ignored.
+   * The annotations of the type are kept even if no features are added.
+   */
+  public void addType(String type, String... features) {
+    if(type == null || type.isEmpty()) return;
+    Set<String> feats = types.get(type);
+    if(feats == null) {
+      feats = new LinkedHashSet<String>();
+      types.put(type, feats);
+    }
+    for(String feature : features) {
+      if(feature != null && !feature.isEmpty()) {
+        feats.add(feature);
+      }
+    }
+  }
+
+  /**
+   * Add the annotation type like addType and also keep the document text covered by its 
+   * annotations.
+   */
+  public void addTypeWithText(String type, String... features) {
+    if(type == null || type.isEmpty()) return;
+    addType(type, features);
+    textTypes.add(type);
+  }
+
+  /**
+   * Add the types and features used by all the attributes, attributes without a type use 
+   * the instance type. For n-gram attributes without a feature the covered text is kept.
+   */
+  public void addAttributes(FeatureInfo featureInfo, String instanceType) {
+    addType(instanceType);
+    for(Attribute att : featureInfo.getAttributes()) {
+      String type = att.annType == null || att.annType.isEmpty() ? instanceType : att.annType;
+      if(att instanceof Ngram && (att.feature == null || att.feature.isEmpty())) {
+        addTypeWithText(type);
+      } else {
+        addType(type, att.feature);
+      }
+    }
+  }
+
+  public Map<String, Set<String>> getTypes() {
+    return types;
+  }
+
+  public Set<String> getTextTypes() {
+    return textTypes;
+  }
+
+  /**
+   * The file for the nr-th projection in the directory.
+   */
+  public static File projectionFile(File directory, int nr) {
+    return new File(directory, String.format("doc%08d", nr) + EXTENSION);
+  }
+
+  /**
+   * All the projection files in the directory, in the order they were written.
+   */
+  public static File[] projectionFiles(File directory) {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(EXTENSION);
+      }
+    });
+    if(files == null) {
+      throw new GateRuntimeException("Cannot read projection directory "+directory);
+    }
+    Arrays.sort(files);
+    return files;
+  }
+
+  /**
+   * Write the projection of the document to the file.
+   */
+  public void write(Document doc, File file) {
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(doc.getName() == null ? "" : doc.getName());
+      out.writeLong(doc.getContent().size());
+      out.writeUTF(annotationSetName);
+      AnnotationSet set = annotationSetName.isEmpty() ? doc.getAnnotations() : doc.getAnnotations(annotationSetName);
+      out.writeInt(types.size());
+      for(Map.Entry<String, Set<String>> entry : types.entrySet()) {
+        out.writeUTF(entry.getKey());
+        boolean withText = textTypes.contains(entry.getKey());
+        out.writeBoolean(withText);
+        List<Annotation> anns = set.get(entry.getKey()).inDocumentOrder();
+        out.writeInt(anns.size());
+        for(Annotation ann : anns) {
+          out.writeInt(ann.getId());
+          out.writeLong(ann.getStartNode().getOffset());
+          out.writeLong(ann.getEndNode().getOffset());
+          if(withText) {
+            writeLongString(out, gate.Utils.stringFor(doc, ann));
+          }
+          FeatureMap fm = ann.getFeatures();
+          int n = 0;
+          for(String feature : entry.getValue()) {
+            if(fm.containsKey(feature)) n++;
+          }
+          out.writeInt(n);
+          for(String feature : entry.getValue()) {
+            if(fm.containsKey(feature)) {
+              out.writeUTF(feature);
+              writeValue(out, fm.get(feature));
+            }
+          }
+        }
+      }
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not write the projection of document "+doc.getName()+" to "+file, ex);
+    } finally {
+      if(out != null) try {
+        out.close();
+      } catch (IOException ex) {
+        logger.error("Could not close projection file "+file, ex);
+      }
+    }
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if(value == null) {
+      out.writeByte(NULL);
+    } else if(value instanceof Integer) {
+      out.writeByte(INTEGER);
+      out.writeInt((Integer)value);
+    } else if(value instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long)value);
+    } else if(value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double)value);
+    } else if(value instanceof Float) {
+      out.writeByte(FLOAT);
+      out.writeFloat((Float)value);
+    } else if(value instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean)value);
+    } else {
+      out.writeByte(STRING);
+      writeLongString(out, value.toString());
+    }
+  }
+
+  // writeUTF is limited to 65535 bytes
+  private static void writeLongString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readLongString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException {
+    int tag = in.readByte();
+    switch(tag) {
+      case NULL: return null;
+      case STRING: return readLongString(in);
+      case INTEGER: return in.readInt();
+      case LONG: return in.readLong();
+      case DOUBLE: return in.readDouble();
+      case FLOAT: return in.readFloat();
+      case BOOLEAN: return in.readBoolean();
+      default: throw new IOException("Unknown value type "+tag);
+    }
+  }
+
+  /**
+   * Read a projection file and create a new transient document from it. The document should
+   * be deleted with Factory.deleteResource when it is not needed any more.
+   */
+  public static Document read(File file) {
+    DataInputStream in = null;
+    Document doc = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+      if(in.readInt() != MAGIC) {
+        throw new GateRuntimeException("Not a document projection file: "+file);
+      }
+      int version = in.readInt();
+      if(version != VERSION) {
+        throw new GateRuntimeException("Unsupported version "+version+" of document projection file "+file);
+      }
+      String name = in.readUTF();
+      long size = in.readLong();
+      String setName = in.readUTF();
+      char[] content = new char[(int)size];
+      Arrays.fill(content, ' ');
+      // the annotations can only be added once the document has been created with the 
+      // kept text
+      List<ProjectedAnnotation> anns = new ArrayList<ProjectedAnnotation>();
+      int nrTypes = in.readInt();
+      for(int t=0; t<nrTypes; t++) {
+        String type = in.readUTF();
+        boolean withText = in.readBoolean();
+        int nrAnns = in.readInt();
+        for(int a=0; a<nrAnns; a++) {
+          ProjectedAnnotation ann = new ProjectedAnnotation();
+          ann.type = type;
+          ann.id = in.readInt();
+          ann.start = in.readLong();
+          ann.end = in.readLong();
+          if(withText) {
+            String text = readLongString(in);
+            if(ann.start < 0 || ann.start + text.length() > size) {
+              throw new IOException("Text of annotation "+ann.id+" outside of the document");
+            }
+            text.getChars(0, text.length(), content, (int)ann.start);
+          }
+          ann.features = Factory.newFeatureMap();
+          int nrFeatures = in.readInt();
+          for(int f=0; f<nrFeatures; f++) {
+            String feature = in.readUTF();
+            ann.features.put(feature, readValue(in));
+          }
+          anns.add(ann);
+        }
+      }
+      doc = Factory.newDocument(new String(content));
+      doc.setName(name);
+      AnnotationSet set = setName.isEmpty() ? doc.getAnnotations() : doc.getAnnotations(setName);
+      for(ProjectedAnnotation ann : anns) {
+        set.add(ann.id, ann.start, ann.end, ann.type, ann.features);
+      }
+      Document ret = doc;
+      doc = null;
+      return ret;
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not read document projection "+file, ex);
+    } catch (ResourceInstantiationException ex) {
+      throw new GateRuntimeException("Could not create document for projection "+file, ex);
+    } catch (InvalidOffsetException ex) {
+      throw new GateRuntimeException("Invalid annotation offsets in document projection "+file, ex);
+    } finally {
+      // only set if reading failed
+      if(doc != null) Factory.deleteResource(doc);
+      if(in != null) try {
+        in.close();
+      } catch (IOException ex) {
+        logger.error("Could not close projection file "+file, ex);
+      }
+    }
+  }
+
+  private static class ProjectedAnnotation {
+    String type;
+    int id;
+    long start;
+    long end;
+    FeatureMap features;
+  }
+
+}
@@ -0,0 +1,314 @@
+/*
+ * ExportWriter.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.data;
+
+import gate.util.GateRuntimeException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A fast writer for the text export formats.
+ *
+ * This writes UTF-8 text through a large byte buffer directly to a file, optionally
+ * gzip-compressed, and formats numbers without creating a String for each of them. Doubles
+ * are written in the same notation as Double.toString, using the shortest decimal which
+ * reads back as the same double: this is done directly for all values between 0.001 and 10^7
+ * with up to 15 significant digits, which covers most feature values, only other values
+ * get converted with Double.toString.
+ * <p>
+ * The static method writeSharded can be used to write the rows of a dataset to several files
+ * in parallel, one thread per file.
+ * <p>
+ * An ExportWriter is not thread-safe.
+ *
+ * @author Johann Petrak
+ */
+public class ExportWriter implements Closeable {
+
+  public static final int BUFFER_SIZE = 1 << 20;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final double[] POW10 = new double[16];
+  static {
+    POW10[0] = 1.0;
+    for(int i=1; i<POW10.length; i++) {
+      POW10[i] = POW10[i-1] * 10.0;
+    }
+  }
+
+  private final File file;
+  private final OutputStream out;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int pos = 0;
+  // for formatting numbers, digits are put in here from the right
+  private final byte[] digits = new byte[20];
+
+  /**
+   * Create a writer for the file, if gzip is true, the content written gets compressed.
+   * Any existing file is overwritten.
+   */
+  public ExportWriter(File file, boolean gzip) {
+    this(file, gzip, false);
+  }
+
+  /**
+   * Create a writer for the file which appends to the file if append is true.
+   */
+  public ExportWriter(File file, boolean gzip, boolean append) {
+    this.file = file;
+    try {
+      OutputStream fos = new FileOutputStream(file, append);
+      if(gzip) {
+        // the data is usually very repetitive, so the fastest compression is good enough
+        fos = new GZIPOutputStream(fos, 1 << 16) {
+          {
+            def.setLevel(Deflater.BEST_SPEED);
+          }
+        };
+      }
+      out = fos;
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not open file for exporting "+file, ex);
+    }
+  }
+
+  /**
+   * Return the file for the name in the directory, with the extension ".gz" added if gzip is true.
+   */
+  public static File exportFile(File directory, String name, boolean gzip) {
+    return new File(directory, gzip ? name + ".gz" : name);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  private void flushBuffer() throws IOException {
+    out.write(buffer, 0, pos);
+    pos = 0;
+  }
+
+  /**
+   * Write a character, this must be an ASCII character.
+   */
+  public void write(char c) throws IOException {
+    if(pos == buffer.length) flushBuffer();
+    buffer[pos++] = (byte)c;
+  }
+
+  public void write(String s) throws IOException {
+    int n = s.length();
+    for(int i=0; i<n; i++) {
+      if(s.charAt(i) >= 0x80) {
+        write(s.getBytes(UTF8));
+        return;
+      }
+    }
+    int i = 0;
+    while(i < n) {
+      if(pos == buffer.length) flushBuffer();
+      int end = Math.min(n, i + buffer.length - pos);
+      for(; i<end; i++) {
+        buffer[pos++] = (byte)s.charAt(i);
+      }
+    }
+  }
+
+  private void write(byte[] bytes) throws IOException {
+    if(bytes.length > buffer.length - pos) {
+      flushBuffer();
+      if(bytes.length > buffer.length) {
+        out.write(bytes);
+        return;
+      }
+    }
+    System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+    pos += bytes.length;
+  }
+
+  public void writeInt(long value) throws IOException {
+    if(value < 0) {
+      if(value == Long.MIN_VALUE) {
+        write(Long.toString(value));
+        return;
+      }
+      write('-');
+      value = -value;
+    }
+    int d = digits.length;
+    do {
+      digits[--d] = (byte)('0' + (value % 10));
+      value /= 10;
+    } while(value != 0);
+    if(digits.length - d > buffer.length - pos) flushBuffer();
+    System.arraycopy(digits, d, buffer, pos, digits.length - d);
+    pos += digits.length - d;
+  }
+
+  /**
+   * Write a double like Double.toString.
+   */
+  public void writeDouble(double value) throws IOException {
+    double abs = Math.abs(value);
+    if(abs < 1e7 && abs >= 1e-3) {
+      // find the fewest decimal places for which the decimal number is read as the same double
+      for(int k=0; k<POW10.length; k++) {
+        double scaled = Math.rint(abs * POW10[k]);
+        if(scaled >= 1e15) break;
+        if(scaled / POW10[k] == abs) {
+          long m = (long)scaled;
+          if(value < 0) write('-');
+          long intPart = m / (long)POW10[k];
+          writeInt(intPart);
+          write('.');
+          if(k == 0) {
+            write('0');
+          } else {
+            long frac = m - intPart * (long)POW10[k];
+            // leading zeros of the fraction
+            for(long p = (long)POW10[k-1]; p > frac && p > 1; p /= 10) {
+              write('0');
+            }
+            writeInt(frac);
+          }
+          return;
+        }
+      }
+    } else if(value == 0.0) {
+      write(Double.doubleToRawLongBits(value) == 0L ? "0.0" : "-0.0");
+      return;
+    }
+    write(Double.toString(value));
+  }
+
+  /**
+   * Write a double in plain notation without an exponent and without trailing zeros
+   * after the decimal point, e.g. 3 instead of 3.0 or 0.00001 instead of 1.0E-5.
+   */
+  public void writePlainDouble(double value) throws IOException {
+    if(value == Math.rint(value) && Math.abs(value) < 1e15) {
+      writeInt((long)value);
+    } else if(Double.isNaN(value) || Double.isInfinite(value)) {
+      write(Double.toString(value));
+    } else {
+      write(new BigDecimal(Double.toString(value)).stripTrailingZeros().toPlainString());
+    }
+  }
+
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  @Override
+  public void close() {
+    try {
+      flushBuffer();
+      out.close();
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Error closing export file "+file, ex);
+    }
+  }
+
+  /**
+   * Writes one row of a dataset.
+   */
+  public static interface RowWriter {
+    public void write(ExportWriter out, int row) throws IOException;
+  }
+
+  /**
+   * Write rows 0 to nrRows-1 to nrShards files in parallel.
+   *
+   * If nrShards is 1, the rows are written to the file name.extension in the directory,
+   * otherwise to the files name-0.extension, name-1.extension etc., where each file gets
+   * the next range of rows, so concatenating the files gives the same rows in the same order
+   * as writing a single file. If the header is not null, it is written at the start of each file.
+   * If gzip is true, each file is gzip-compressed and gets the additional extension ".gz".
+   *
+   * @return the files written
+   */
+  public static List<File> writeSharded(File directory, String name, String extension,
+          boolean gzip, int nrShards, final int nrRows, final String header, final RowWriter rowWriter) {
+    if(nrShards < 1) {
+      throw new GateRuntimeException("Number of shards must be at least 1, not "+nrShards);
+    }
+    final List<File> files = new ArrayList<File>(nrShards);
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nrShards);
+    for(int s=0; s<nrShards; s++) {
+      final File file = exportFile(directory,
+              nrShards == 1 ? name + "." + extension : name + "-" + s + "." + extension, gzip);
+      final boolean compress = gzip;
+      final int from = (int)((long)nrRows * s / nrShards);
+      final int to = (int)((long)nrRows * (s+1) / nrShards);
+      files.add(file);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          ExportWriter out = new ExportWriter(file, compress);
+          try {
+            if(header != null) {
+              out.write(header);
+            }
+            for(int row=from; row<to; row++) {
+              rowWriter.write(out, row);
+            }
+          } finally {
+            out.close();
+          }
+          return null;
+        }
+      });
+    }
+    if(nrShards == 1) {
+      try {
+        tasks.get(0).call();
+      } catch (Exception ex) {
+        throw new GateRuntimeException("Error exporting to "+files.get(0), ex);
+      }
+      return files;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(nrShards);
+    try {
+      List<Future<Void>> results = executor.invokeAll(tasks);
+      for(int s=0; s<nrShards; s++) {
+        try {
+          results.get(s).get();
+        } catch (ExecutionException ex) {
+          throw new GateRuntimeException("Error exporting to "+files.get(s), ex.getCause());
+        }
+      }
+    } catch (InterruptedException ex) {
+      throw new GateRuntimeException("Interrupted while exporting", ex);
+    } finally {
+      executor.shutdownNow();
+    }
+    return files;
+  }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * StreamingExporter.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.data;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.Label;
+import gate.plugin.learningframework.Exporter;
+import gate.plugin.learningframework.engines.Parms;
+import gate.plugin.learningframework.mallet.LFPipe;
+import gate.util.GateRuntimeException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.apache.log4j.Logger;
+import weka.core.Attribute;
+import weka.core.Utils;
+
+/**
+ * Writes instances to the export files as they get created, instead of collecting all of
+ * them in a corpus representation first.
+ *
+ * This is used by LF_Export in streaming mode: after each document, the instances of the
+ * document are written and removed from the corpus representation, so the memory needed
+ * does not depend on the size of the corpus. The files are written with an ExportWriter.
+ * Only the formats where each instance can be written on its own are supported: LibSVM
+ * and, for the Weka exporters, sparse ARFF, LibSVM and SVMlight. As for the normal export,
+ * the parameter -gzip can be used to compress the files, but the instances cannot be
+ * written to several files in parallel.
+ * Since the ARFF header depends on all the features and classes seen, the instances are
+ * written to a temporary body file and the final file is created after the last document
+ * from the header followed by the body. The class is the last attribute, as for the normal
+ * export, but its index is not known before the last document, so each line of the body 
+ * file ends with the class value after a tab and the class index gets inserted when the 
+ * body is copied to the final file.
+ *
+ * @author Johann Petrak
+ */
+public abstract class StreamingExporter {
+
+  private static final Logger logger = Logger.getLogger(StreamingExporter.class);
+
+  protected LFPipe pipe;
+
+  /**
+   * Create the streaming exporter for the export and parameters, which writes to files
+   * in the directory. Throws an exception if the export cannot be done in streaming mode.
+   */
+  public static StreamingExporter create(Exporter exporter, File directory, String parms, LFPipe pipe) {
+    StreamingExporter ret;
+    Parms ps = new Parms(parms, "f:format:s", "z:gzip:b", "n:shards:i");
+    boolean gzip = (Boolean) ps.getValueOrElse("gzip", false);
+    if(ps.getValue("shards") != null && (Integer)ps.getValue("shards") != 1) {
+      throw new GateRuntimeException("Parameter -shards not supported for streaming export");
+    }
+    if(exporter == Exporter.EXPORTER_LIBSVM_CLASS || exporter == Exporter.EXPORTER_LIBSVM_REGRESSION) {
+      ret = new SparseLines(ExportWriter.exportFile(directory, "data.libsvm", gzip), gzip, 0, false, false);
+    } else if(exporter == Exporter.EXPORTER_WEKA_CLASS || exporter == Exporter.EXPORTER_WEKA_REGRESSION) {
+      String format = (String) ps.getValueOrElse("format", "");
+      if(format.isEmpty()) {
+        ret = new Arff(directory, gzip);
+      } else if(format.equals("libsvm")) {
+        ret = new SparseLines(ExportWriter.exportFile(directory, "data.libsvm", gzip), gzip, 1, false, true);
+      } else if(format.equals("svmlight")) {
+        ret = new SparseLines(ExportWriter.exportFile(directory, "data.svmlight", gzip), gzip, 1, true, true);
+      } else {
+        throw new GateRuntimeException("Format not supported for streaming export: "+format);
+      }
+    } else {
+      throw new GateRuntimeException("Streaming export not supported for "+exporter);
+    }
+    ret.pipe = pipe;
+    return ret;
+  }
+
+  /**
+   * Write all the instances in the list.
+   */
+  public void add(InstanceList instances) {
+    try {
+      for(int i=0; i<instances.size(); i++) {
+        write(instances.get(i));
+      }
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Error writing exported instances", ex);
+    }
+  }
+
+  protected abstract void write(Instance inst) throws IOException;
+
+  /**
+   * Finish the export, after this no more instances can be added.
+   */
+  public abstract void close();
+
+  /**
+   * One line per instance with the target and index:value pairs.
+   */
+  static class SparseLines extends StreamingExporter {
+    private final ExportWriter out;
+    private final int indexOffset;
+    private final boolean svmlight;
+    private final boolean skipZeros;
+
+    SparseLines(File file, boolean gzip, int indexOffset, boolean svmlight, boolean skipZeros) {
+      this.indexOffset = indexOffset;
+      this.svmlight = svmlight;
+      this.skipZeros = skipZeros;
+      out = new ExportWriter(file, gzip);
+    }
+
+    @Override
+    protected void write(Instance inst) throws IOException {
+      Object target = inst.getTarget();
+      if(target instanceof Label) {
+        int index = ((Label)target).getIndex();
+        if(svmlight) {
+          // SVMlight only knows two classes, the first is +1, the second -1
+          if(index > 1) {
+            throw new GateRuntimeException("SVMlight export only supports two classes, got "+target);
+          }
+          out.write(index == 0 ? "1" : "-1");
+        } else {
+          out.writeDouble(index);
+        }
+      } else if(target instanceof Number) {
+        out.writeDouble(((Number)target).doubleValue());
+      } else {
+        throw new GateRuntimeException("Odd target in mallet instance, cannot export: " + target);
+      }
+      FeatureVector fv = (FeatureVector)inst.getData();
+      for(int l=0; l<fv.numLocations(); l++) {
+        double value = fv.valueAtLocation(l);
+        if(skipZeros && value == 0.0) continue;
+        out.write(' ');
+        out.writeInt(fv.indexAtLocation(l) + indexOffset);
+        out.write(':');
+        out.writeDouble(value);
+      }
+      out.write('\n');
+    }
+
+    @Override
+    public void close() {
+      out.close();
+    }
+  }
+
+  /**
+   * Sparse ARFF with the class as the last attribute.
+   */
+  static class Arff extends StreamingExporter {
+    private final File file;
+    private final File bodyFile;
+    private final boolean gzip;
+    private final ExportWriter body;
+    private final Alphabet booleanAlph = new Alphabet();
+    // the alphabet of nominal values for each feature index, found when first needed
+    private final List<Alphabet> nominalValues = new ArrayList<Alphabet>();
+    private final BitSet haveNominalValues = new BitSet();
+
+    Arff(File directory, boolean gzip) {
+      booleanAlph.lookupIndex("false");
+      booleanAlph.lookupIndex("true");
+      this.gzip = gzip;
+      file = ExportWriter.exportFile(directory, "data.arff", gzip);
+      bodyFile = new File(directory, "data.arff.body");
+      body = new ExportWriter(bodyFile, gzip);
+    }
+
+    private Alphabet nominalValues(int index) {
+      if(!haveNominalValues.get(index)) {
+        while(nominalValues.size() <= index) {
+          nominalValues.add(null);
+        }
+        String name = (String)pipe.getDataAlphabet().lookupObject(index);
+        nominalValues.set(index, CorpusRepresentationWeka.nominalValues(pipe.getFeatureInfo().getAttributes(), name, booleanAlph));
+        haveNominalValues.set(index);
+      }
+      return nominalValues.get(index);
+    }
+
+    // Each line of the body has the index value pairs of the features, then a tab and the 
+    // class value. A tab cannot occur anywhere else, as Utils.quote escapes it in values.
+    @Override
+    protected void write(Instance inst) throws IOException {
+      FeatureVector fv = (FeatureVector)inst.getData();
+      boolean first = true;
+      for(int l=0; l<fv.numLocations(); l++) {
+        double value = fv.valueAtLocation(l);
+        if(value == 0.0) continue;
+        int index = fv.indexAtLocation(l);
+        if(!first) body.write(',');
+        first = false;
+        body.writeInt(index);
+        body.write(' ');
+        Alphabet alph = nominalValues(index);
+        if(alph == null) {
+          body.writeDouble(value);
+        } else {
+          body.write(Utils.quote((String)alph.lookupObject((int)value)));
+        }
+      }
+      body.write('\t');
+      Object target = inst.getTarget();
+      if(target == null) {
+        body.write('?');
+      } else if(target instanceof Label) {
+        body.write(Utils.quote(target.toString()));
+      } else {
+        body.writeDouble(((Number)target).doubleValue());
+      }
+      body.write('\n');
+    }
+
+    @Override
+    public void close() {
+      body.close();
+      ExportWriter out = new ExportWriter(file, gzip);
+      Alphabet dataAlph = pipe.getDataAlphabet();
+      try {
+        out.write("@relation GATELearningFramework\n\n");
+        for(int i=0; i<dataAlph.size(); i++) {
+          String name = (String)dataAlph.lookupObject(i);
+          Alphabet alph = nominalValues(i);
+          if(alph == null) {
+            out.write(new Attribute(name).toString());
+          } else {
+            List<String> vals = new ArrayList<String>(alph.size());
+            for(int j=0; j<alph.size(); j++) {
+              vals.add((String)alph.lookupObject(j));
+            }
+            out.write(new Attribute(name, vals).toString());
+          }
+          out.write('\n');
+        }
+        Alphabet targetAlph = pipe.getTargetAlphabet();
+        if(targetAlph != null) {
+          List<String> classVals = new ArrayList<String>();
+          for(int i=0; i<targetAlph.size(); i++) {
+            classVals.add((String)targetAlph.lookupObject(i));
+          }
+          out.write(new Attribute("class", classVals).toString());
+        } else {
+          out.write(new Attribute("target").toString());
+        }
+        out.write('\n');
+        out.write("\n@data\n");
+      } catch (IOException ex) {
+        out.close();
+        throw new GateRuntimeException("Error writing export file "+file, ex);
+      }
+      // copy the body to the file, with the index of the class inserted before its value
+      String classIndex = Integer.toString(dataAlph.size());
+      BufferedReader in = null;
+      try {
+        InputStream is = new FileInputStream(bodyFile);
+        if(gzip) is = new GZIPInputStream(is);
+        in = new BufferedReader(new InputStreamReader(is, "UTF-8"), ExportWriter.BUFFER_SIZE);
+        String line;
+        while((line = in.readLine()) != null) {
+          int tab = line.lastIndexOf('\t');
+          out.write('{');
+          out.write(line.substring(0, tab));
+          if(tab > 0) out.write(',');
+          out.write(classIndex);
+          out.write(' ');
+          out.write(line.substring(tab + 1));
+          out.write("}\n");
+        }
+      } catch (IOException ex) {
+        throw new GateRuntimeException("Error appending the instances to export file "+file, ex);
+      } finally {
+        out.close();
+        if(in != null) {
+          try {
+            in.close();
+          } catch (IOException ex) {
+            logger.error("Error closing export file "+bodyFile, ex);
+          }
+        }
+      }
+      if(!bodyFile.delete()) {
+        logger.warn("Could not delete temporary export file "+bodyFile);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,359 @@
+/*
+ * WekaMalletInstance.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.data;
+
+import java.util.Arrays;
+import weka.core.AbstractInstance;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+/**
+ * A sparse weka instance which uses the index and value arrays of a Mallet feature vector
+ * without copying them.
+ *
+ * Weka expects the class value to be stored like any other attribute value, but the Mallet
+ * arrays only contain the features. This instance keeps the class value separately and
+ * makes it appear as the last sparse value, so the class attribute must be the last
+ * attribute of the dataset, which is always the case for the datasets created from
+ * a Mallet corpus representation. Like for a SparseInstance created from arrays, values
+ * which are 0.0 are not stored: if the feature vector contains any, the arrays get copied
+ * without them, and a class value of 0.0 is not included in the sparse values.
+ * <p>
+ * Copies of the instance, e.g. those created by Weka when the instance gets added to a dataset,
+ * share the arrays as well. The arrays only get copied before an instance gets changed,
+ * so the Mallet feature vector never gets changed through an instance. Since Weka code
+ * sometimes accesses the fields of a SparseInstance directly, this is not a subclass of
+ * SparseInstance: Weka code which needs a SparseInstance creates one from the values.
+ *
+ * @author Johann Petrak
+ */
+public class WekaMalletInstance extends AbstractInstance {
+
+  private static final long serialVersionUID = 1L;
+
+  // the sorted attribute indices of the values in m_AttValues, without the class
+  // as long as classSeparate is true
+  protected int[] m_Indices;
+  protected int m_NumAttributes;
+  // the class value, if classSeparate is true
+  protected double classValue;
+  protected boolean classSeparate;
+  // true if the arrays may be used by something else and need to get copied before a change
+  protected boolean shared;
+
+  /**
+   * Create an instance for the dataset from the sorted feature indices and their values
+   * and the class value, which can be a missing value. The arrays are not copied.
+   * If values is null, all the values are 1.0.
+   */
+  public WekaMalletInstance(Instances dataset, int[] indices, double[] values, double classValue, double weight) {
+    if (dataset.classIndex() != dataset.numAttributes() - 1) {
+      throw new IllegalArgumentException("The class must be the last attribute of the dataset");
+    }
+    if (values == null) {
+      values = new double[indices.length];
+      Arrays.fill(values, 1.0);
+    }
+    if (values.length != indices.length) {
+      throw new IllegalArgumentException("Different number of indices and values");
+    }
+    int nrZeros = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == 0.0) {
+        nrZeros++;
+      }
+    }
+    if (nrZeros > 0) {
+      int[] newIndices = new int[indices.length - nrZeros];
+      double[] newValues = new double[newIndices.length];
+      int j = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != 0.0) {
+          newIndices[j] = indices[i];
+          newValues[j] = values[i];
+          j++;
+        }
+      }
+      indices = newIndices;
+      values = newValues;
+    }
+    m_Indices = indices;
+    m_AttValues = values;
+    m_NumAttributes = dataset.numAttributes();
+    m_Weight = weight;
+    m_Dataset = dataset;
+    this.classValue = classValue;
+    classSeparate = true;
+    shared = true;
+  }
+
+  protected WekaMalletInstance(WekaMalletInstance other) {
+    m_Indices = other.m_Indices;
+    m_AttValues = other.m_AttValues;
+    m_NumAttributes = other.m_NumAttributes;
+    m_Weight = other.m_Weight;
+    m_Dataset = other.m_Dataset;
+    classValue = other.classValue;
+    classSeparate = other.classSeparate;
+    shared = true;
+    other.shared = true;
+  }
+
+  // true if the class value is a sparse value after the ones in the arrays
+  private boolean classStored() {
+    return classSeparate && classValue != 0.0;
+  }
+
+  // make sure the arrays can be changed
+  private void unshare() {
+    if (shared) {
+      m_Indices = m_Indices.clone();
+      m_AttValues = m_AttValues.clone();
+      shared = false;
+    }
+  }
+
+  // store the class value in the arrays like a normal sparse instance
+  private void mergeClass() {
+    if (classStored()) {
+      int n = m_Indices.length;
+      m_Indices = Arrays.copyOf(m_Indices, n + 1);
+      m_AttValues = Arrays.copyOf(m_AttValues, n + 1);
+      m_Indices[n] = m_NumAttributes - 1;
+      m_AttValues[n] = classValue;
+      classSeparate = false;
+      shared = false;
+    } else {
+      classSeparate = false;
+      unshare();
+    }
+  }
+
+  /**
+   * Create a normal weka SparseInstance with the same values.
+   */
+  public SparseInstance toSparseInstance() {
+    int n = numValues();
+    int[] indices = new int[n];
+    double[] values = new double[n];
+    for (int i = 0; i < n; i++) {
+      indices[i] = index(i);
+      values[i] = valueSparse(i);
+    }
+    SparseInstance ret = new SparseInstance(m_Weight, values, indices, m_NumAttributes);
+    ret.setDataset(m_Dataset);
+    return ret;
+  }
+
+  @Override
+  public Object copy() {
+    return new WekaMalletInstance(this);
+  }
+
+  @Override
+  public int numAttributes() {
+    return m_NumAttributes;
+  }
+
+  @Override
+  public int numValues() {
+    return classStored() ? m_Indices.length + 1 : m_Indices.length;
+  }
+
+  @Override
+  public int index(int position) {
+    return classStored() && position == m_Indices.length ? m_NumAttributes - 1 : m_Indices[position];
+  }
+
+  @Override
+  public double valueSparse(int position) {
+    return classStored() && position == m_Indices.length ? classValue : m_AttValues[position];
+  }
+
+  @Override
+  public boolean isMissingSparse(int position) {
+    return Utils.isMissingValue(valueSparse(position));
+  }
+
+  @Override
+  public Attribute attributeSparse(int position) {
+    return m_Dataset.attribute(index(position));
+  }
+
+  /**
+   * Like SparseInstance.locateIndex, the position of the attribute index or of the closest 
+   * smaller attribute index in the sparse values, or -1 if there is none.
+   */
+  public int locateIndex(int attIndex) {
+    if (classSeparate && attIndex >= m_NumAttributes - 1) {
+      return classStored() ? m_Indices.length : m_Indices.length - 1;
+    }
+    int pos = Arrays.binarySearch(m_Indices, attIndex);
+    return pos >= 0 ? pos : -pos - 2;
+  }
+
+  @Override
+  public double value(int attIndex) {
+    if (classSeparate && attIndex == m_NumAttributes - 1) {
+      return classValue;
+    }
+    int pos = Arrays.binarySearch(m_Indices, attIndex);
+    return pos >= 0 ? m_AttValues[pos] : 0.0;
+  }
+
+  @Override
+  public boolean hasMissingValue() {
+    int classIndex = classIndex();
+    for (int i = 0; i < numValues(); i++) {
+      if (index(i) != classIndex && isMissingSparse(i)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public double[] toDoubleArray() {
+    double[] ret = new double[m_NumAttributes];
+    for (int i = 0; i < m_Indices.length; i++) {
+      ret[m_Indices[i]] = m_AttValues[i];
+    }
+    if (classSeparate) {
+      ret[m_NumAttributes - 1] = classValue;
+    }
+    return ret;
+  }
+
+  @Override
+  public void setValue(int attIndex, double value) {
+    if (classSeparate && attIndex == m_NumAttributes - 1) {
+      classValue = value;
+      return;
+    }
+    int pos = Arrays.binarySearch(m_Indices, attIndex);
+    if (pos >= 0) {
+      unshare();
+      if (value != 0.0) {
+        m_AttValues[pos] = value;
+      } else {
+        // like SparseInstance, do not keep zero values
+        int n = m_Indices.length;
+        System.arraycopy(m_Indices, pos + 1, m_Indices, pos, n - pos - 1);
+        System.arraycopy(m_AttValues, pos + 1, m_AttValues, pos, n - pos - 1);
+        m_Indices = Arrays.copyOf(m_Indices, n - 1);
+        m_AttValues = Arrays.copyOf(m_AttValues, n - 1);
+      }
+    } else if (value != 0.0) {
+      int insert = -pos - 1;
+      int n = m_Indices.length;
+      int[] indices = new int[n + 1];
+      double[] values = new double[n + 1];
+      System.arraycopy(m_Indices, 0, indices, 0, insert);
+      System.arraycopy(m_AttValues, 0, values, 0, insert);
+      indices[insert] = attIndex;
+      values[insert] = value;
+      System.arraycopy(m_Indices, insert, indices, insert + 1, n - insert);
+      System.arraycopy(m_AttValues, insert, values, insert + 1, n - insert);
+      m_Indices = indices;
+      m_AttValues = values;
+      shared = false;
+    }
+  }
+
+  @Override
+  public void setValueSparse(int position, double value) {
+    if (classStored() && position == m_Indices.length) {
+      classValue = value;
+    } else {
+      unshare();
+      m_AttValues[position] = value;
+    }
+  }
+
+  @Override
+  public void replaceMissingValues(double[] array) {
+    for (int i = 0; i < numValues(); i++) {
+      if (isMissingSparse(i)) {
+        setValueSparse(i, array[index(i)]);
+      }
+    }
+  }
+
+  @Override
+  public Instance mergeInstance(Instance inst) {
+    return toSparseInstance().mergeInstance(inst);
+  }
+
+  @Override
+  public String toStringNoWeight() {
+    return toSparseInstance().toStringNoWeight();
+  }
+
+  @Override
+  public String toStringNoWeight(int afterDecimalPoint) {
+    return toSparseInstance().toStringNoWeight(afterDecimalPoint);
+  }
+
+  @Override
+  protected void forceDeleteAttributeAt(int position) {
+    mergeClass();
+    int pos = Arrays.binarySearch(m_Indices, position);
+    int n = m_Indices.length;
+    if (pos >= 0) {
+      System.arraycopy(m_Indices, pos + 1, m_Indices, pos, n - pos - 1);
+      System.arraycopy(m_AttValues, pos + 1, m_AttValues, pos, n - pos - 1);
+      n--;
+      m_Indices = Arrays.copyOf(m_Indices, n);
+      m_AttValues = Arrays.copyOf(m_AttValues, n);
+    }
+    for (int i = 0; i < n; i++) {
+      if (m_Indices[i] > position) {
+        m_Indices[i]--;
+      }
+    }
+    m_NumAttributes--;
+  }
+
+  @Override
+  protected void forceInsertAttributeAt(int position) {
+    mergeClass();
+    int n = m_Indices.length;
+    // like SparseInstance, the new attribute gets a missing value
+    int insert = Arrays.binarySearch(m_Indices, position);
+    if (insert < 0) {
+      insert = -insert - 1;
+    }
+    int[] indices = new int[n + 1];
+    double[] values = new double[n + 1];
+    System.arraycopy(m_Indices, 0, indices, 0, insert);
+    System.arraycopy(m_AttValues, 0, values, 0, insert);
+    indices[insert] = position;
+    values[insert] = Utils.missingValue();
+    for (int i = insert; i < n; i++) {
+      indices[i + 1] = m_Indices[i] + 1;
+      values[i + 1] = m_AttValues[i];
+    }
+    m_Indices = indices;
+    m_AttValues = values;
+    m_NumAttributes++;
+  }
+
+  @Override
+  public String getRevision() {
+    return "1";
+  }
+
+}
@@ -11,10 +11,14 @@ import cc.mallet.types.InstanceList;
 import gate.AnnotationSet;
 import gate.plugin.learningframework.GateClassification;
 import gate.plugin.learningframework.data.CorpusRepresentationMallet;
+import gate.plugin.learningframework.features.FeatureExtraction;
+import gate.plugin.learningframework.features.FeatureInfo;
+import gate.plugin.learningframework.mallet.HashingAlphabet;
 import gate.plugin.learningframework.mallet.LFPipe;
 import gate.util.GateRuntimeException;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import org.apache.log4j.Logger;
 
@@ -190,12 +194,25 @@ public abstract class Engine {
    * This always takes our own representation of instances (which is a Mallet InstanceList ATM).
    * The Engine instance should know best how to use or convert that representation to its own
    * format, using one of the CorpusRepresentationXXX classes.
+   * Engines may remove the instances from the corpus representation while training, if
+   * they are converted to some other representation, e.g. EngineLibSVM does.
    */
   public abstract void trainModel(String parms);
   
   protected void updateInfo() {
-    info.nrTrainingInstances = corpusRepresentationMallet.getRepresentationMallet().size();
+    // keep the number of instances if the engine has released them for training
+    int nrInstances = corpusRepresentationMallet.getRepresentationMallet().size();
+    if(nrInstances > 0) info.nrTrainingInstances = nrInstances;
     info.nrTrainingDimensions = corpusRepresentationMallet.getRepresentationMallet().getDataAlphabet().size();    
+    Alphabet dataAlph = corpusRepresentationMallet.getRepresentationMallet().getDataAlphabet();
+    if(dataAlph instanceof HashingAlphabet) {
+      HashingAlphabet ha = (HashingAlphabet)dataAlph;
+      info.hashingBuckets = ha.getBuckets();
+      info.hashingSigned = ha.isSigned();
+      info.hashingBucketsUsed = ha.getNrBucketsUsed();
+      info.hashingEstimatedFeatures = ha.getEstimatedNrFeatures();
+      info.hashingEstimatedCollisions = ha.getEstimatedNrCollisions();
+    }
     LFPipe pipe = (LFPipe)corpusRepresentationMallet.getPipe();
     Alphabet targetAlph = pipe.getTargetAlphabet();
     if(targetAlph == null) {
@@ -211,6 +228,59 @@ public abstract class Engine {
     
   }
   
+  /**
+   * Remove the features which the trained model does not use.
+   * 
+   * The features get removed from the data alphabet and the training instances, the 
+   * model is changed to use the new feature indices and the attributes which do not 
+   * create any of the remaining features get marked as unused, so that they do not get 
+   * extracted at application time. This should be done after training and before the
+   * engine is saved. It does nothing for engines or models which do not support it: this 
+   * is supported for Mallet MaxEnt and C45 models and for LibSVM models with a linear, 
+   * polynomial or sigmoid kernel. Weka models, e.g. J48 or RandomForest, refer to the 
+   * features by their attribute index in the Weka dataset the model was trained on,
+   * which cannot be changed, so their features are never removed.
+   * 
+   * @return the number of features removed
+   */
+  public int compactModel() {
+    if(model == null) return 0;
+    BitSet used = getUsedFeatures();
+    if(used == null) return 0;
+    int nrBefore = corpusRepresentationMallet.getRepresentationMallet().getDataAlphabet().size();
+    int[] newIndices = corpusRepresentationMallet.retainFeatures(used);
+    if(newIndices == null) return 0;
+    LFPipe pipe = corpusRepresentationMallet.getPipe();
+    remapModel(newIndices, pipe.getDataAlphabet().size());
+    FeatureInfo fi = pipe.getFeatureInfo();
+    int nrUnused = FeatureExtraction.markUnusedAttributes(fi.getAttributes(), pipe.getDataAlphabet());
+    if(nrUnused > 0) {
+      // make the pipe compile the feature extractors again without the unused attributes
+      pipe.setFeatureInfo(fi);
+      logger.info("LearningFramework: attributes not used by the model: "+nrUnused);
+    }
+    updateInfo();
+    return nrBefore - pipe.getDataAlphabet().size();
+  }
+  
+  /**
+   * Return the indices of the features the trained model uses, or null if this is not known
+   * for the model, which is the default. 
+   */
+  protected BitSet getUsedFeatures() {
+    return null;
+  }
+  
+  /**
+   * Change the model to use the new feature indices after the features which were not 
+   * used have been removed. 
+   * @param newIndices the new index for each old index, or -1 for removed features
+   * @param newSize the number of features after removal
+   */
+  protected void remapModel(int[] newIndices, int newSize) {
+    throw new GateRuntimeException("Engine "+this.getClass()+" cannot remap the features of its model");
+  }
+  
   /**
    * Classify all instance annotations.
    * If the algorithm is a sequence tagger, the sequence annotations must be given, otherwise
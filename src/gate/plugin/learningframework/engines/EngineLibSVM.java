@@ -10,6 +10,7 @@ import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
 import gate.Annotation;
 import gate.AnnotationSet;
+import gate.plugin.learningframework.features.ExtractionContext;
 import gate.plugin.learningframework.GateClassification;
 import gate.plugin.learningframework.data.CorpusRepresentationLibSVM;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
@@ -17,6 +18,7 @@ import gate.plugin.learningframework.mallet.LFPipe;
 import gate.util.GateRuntimeException;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import libsvm.svm;
 import static libsvm.svm.svm_set_print_string_function;
@@ -151,11 +153,16 @@ public class EngineLibSVM extends Engine {
     libsvm.svm.rand.setSeed(seed);
 
     // convert the mallet instances to svm problem. For this we can simply use the static method,
-    // no need really to create an instance of CorpusRepresentationLibSVM for now
-    svm_problem svmprob = CorpusRepresentationLibSVM.getFromMallet(corpusRepresentationMallet);
+    // no need really to create an instance of CorpusRepresentationLibSVM for now.
+    // The mallet instances are not needed after training, so they get released while they
+    // are converted to keep only one copy of the training data in memory
+    int nrInstances = corpusRepresentationMallet.getRepresentationMallet().size();
+    svm_problem svmprob = CorpusRepresentationLibSVM.getFromMallet(corpusRepresentationMallet, true);
 
     svm_model svmModel = libsvm.svm.svm_train(svmprob, svmparms);
     model = svmModel;
+    updateInfo();
+    info.nrTrainingInstances = nrInstances;
   }
 
   @Override
@@ -176,8 +183,9 @@ public class EngineLibSVM extends Engine {
     svm_model svmModel = (svm_model) model;
     // iterate over all the mallet instances
     List<GateClassification> gcs = new ArrayList<GateClassification>();
+    ExtractionContext ctx = new ExtractionContext(inputAS);
     for (Annotation instAnn : instanceAS.inDocumentOrder()) {
-      Instance malletInstance = data.extractIndependentFeatures(instAnn, inputAS);
+      Instance malletInstance = data.extractIndependentFeatures(instAnn, ctx);
       malletInstance = pipe.instanceFrom(malletInstance);
       svm_node[] svmInstance = CorpusRepresentationLibSVM.libSVMInstanceIndepFromMalletInstance(malletInstance);
       int bestLabel = (new Double(svm.svm_predict(svmModel, svmInstance))).intValue();
@@ -228,6 +236,44 @@ public class EngineLibSVM extends Engine {
     }
   }
 
+  /**
+   * For kernels which only depend on the dot product of the instance and the support 
+   * vectors, the features are used which occur in at least one support vector. For the RBF
+   * kernel, all features influence the distance, so this is not known.
+   */
+  @Override
+  protected BitSet getUsedFeatures() {
+    svm_model svmModel = (svm_model) model;
+    int kernel = svmModel.param.kernel_type;
+    if(kernel != svm_parameter.LINEAR && kernel != svm_parameter.POLY && kernel != svm_parameter.SIGMOID) {
+      return null;
+    }
+    BitSet used = new BitSet();
+    for(svm_node[] sv : svmModel.SV) {
+      for(svm_node node : sv) {
+        used.set(node.index);
+      }
+    }
+    return used;
+  }
+  
+  @Override
+  protected void remapModel(int[] newIndices, int newSize) {
+    svm_model svmModel = (svm_model) model;
+    // the support vectors may share their nodes with the training problem, so we create
+    // new ones
+    for(int i=0; i<svmModel.SV.length; i++) {
+      svm_node[] sv = svmModel.SV[i];
+      svm_node[] newSv = new svm_node[sv.length];
+      for(int j=0; j<sv.length; j++) {
+        newSv[j] = new svm_node();
+        newSv[j].index = newIndices[sv[j].index];
+        newSv[j].value = sv[j].value;
+      }
+      svmModel.SV[i] = newSv;
+    }
+  }
+  
   @Override
   protected void loadMalletCorpusRepresentation(File directory) {
     corpusRepresentationMallet = CorpusRepresentationMalletTarget.load(directory);
@@ -5,26 +5,33 @@
  */
 package gate.plugin.learningframework.engines;
 
+import cc.mallet.classify.C45;
 import cc.mallet.classify.C45Trainer;
 import cc.mallet.classify.Classification;
 import cc.mallet.classify.Classifier;
 import cc.mallet.classify.ClassifierTrainer;
+import cc.mallet.classify.MaxEnt;
+import cc.mallet.types.Alphabet;
 import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
 import cc.mallet.types.LabelVector;
 import cc.mallet.types.Labeling;
 import gate.Annotation;
 import gate.AnnotationSet;
+import gate.plugin.learningframework.features.ExtractionContext;
 import gate.plugin.learningframework.GateClassification;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
 import static gate.plugin.learningframework.engines.Engine.FILENAME_MODEL;
 import gate.plugin.learningframework.mallet.LFPipe;
+import gate.plugin.learningframework.mallet.RemappedGainRatio;
 import gate.util.GateRuntimeException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import org.apache.log4j.Logger;
 
@@ -60,8 +67,9 @@ public class EngineMalletClass extends EngineMallet {
     LFPipe pipe = (LFPipe)data.getRepresentationMallet().getPipe();
     Classifier classifier = (Classifier)model;
     // iterate over the instance annotations and create mallet instances 
+    ExtractionContext ctx = new ExtractionContext(inputAS);
     for(Annotation instAnn : instanceAS.inDocumentOrder()) {
-      Instance inst = data.extractIndependentFeatures(instAnn, inputAS);
+      Instance inst = data.extractIndependentFeatures(instAnn, ctx);
       inst = pipe.instanceFrom(inst);
       Classification classification = classifier.classify(inst);
       Labeling labeling = classification.getLabeling();
@@ -126,9 +134,94 @@ public class EngineMalletClass extends EngineMallet {
     throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
   }
 
+  /**
+   * For a MaxEnt model, the features are used which have a non-zero weight for at least 
+   * one of the classes, for a C45 model the features used for splitting a node. For other 
+   * models, or if the MaxEnt model does feature selection, this is not known.
+   */
+  @Override
+  protected BitSet getUsedFeatures() {
+    if(model instanceof C45) {
+      BitSet used = new BitSet();
+      addSplitFeatures(((C45)model).getRoot(), used);
+      return used;
+    }
+    if(!(model instanceof MaxEnt)) return null;
+    MaxEnt me = (MaxEnt)model;
+    if(me.getFeatureSelection() != null || me.getPerClassFeatureSelection() != null) return null;
+    double[] parameters = me.getParameters();
+    int nrFeatures = me.getDefaultFeatureIndex();
+    int nrLabels = parameters.length / (nrFeatures+1);
+    BitSet used = new BitSet(nrFeatures);
+    for(int l=0; l<nrLabels; l++) {
+      int offset = l*(nrFeatures+1);
+      for(int f=0; f<nrFeatures; f++) {
+        if(parameters[offset+f] != 0.0) used.set(f);
+      }
+    }
+    return used;
+  }
+  
+  private static void addSplitFeatures(C45.Node node, BitSet used) {
+    if(node == null || node.isLeaf()) return;
+    used.set(node.getGainRatio().getMaxValuedIndex());
+    addSplitFeatures(node.getLeftChild(), used);
+    addSplitFeatures(node.getRightChild(), used);
+  }
+  
+  @Override
+  protected void remapModel(int[] newIndices, int newSize) {
+    if(model instanceof C45) {
+      // Mallet does not allow to change the nodes of a tree, so the fields get set directly
+      try {
+        Field gainRatioField = C45.Node.class.getDeclaredField("m_gainRatio");
+        gainRatioField.setAccessible(true);
+        Field dataDictField = C45.Node.class.getDeclaredField("m_dataDict");
+        dataDictField.setAccessible(true);
+        remapNode(((C45)model).getRoot(), newIndices, corpusRepresentationMallet.getPipe().getDataAlphabet(), 
+                gainRatioField, dataDictField);
+      } catch (Exception ex) {
+        throw new GateRuntimeException("Could not change the features of the C45 model", ex);
+      }
+      return;
+    }
+    MaxEnt me = (MaxEnt)model;
+    double[] parameters = me.getParameters();
+    int nrFeatures = me.getDefaultFeatureIndex();
+    int nrLabels = parameters.length / (nrFeatures+1);
+    double[] newParameters = new double[nrLabels*(newSize+1)];
+    for(int l=0; l<nrLabels; l++) {
+      int offset = l*(nrFeatures+1);
+      int newOffset = l*(newSize+1);
+      for(int f=0; f<nrFeatures; f++) {
+        if(newIndices[f] >= 0) newParameters[newOffset+newIndices[f]] = parameters[offset+f];
+      }
+      // the bias weight is stored after the feature weights for each class
+      newParameters[newOffset+newSize] = parameters[offset+nrFeatures];
+    }
+    me.setParameters(newParameters);
+    me.setDefaultFeatureIndex(newSize);
+  }
+  
+  private static void remapNode(C45.Node node, int[] newIndices, Alphabet alphabet, 
+          Field gainRatioField, Field dataDictField) throws IllegalAccessException {
+    if(node == null) return;
+    gainRatioField.set(node, RemappedGainRatio.remap(node.getGainRatio(), !node.isLeaf(), newIndices, alphabet));
+    dataDictField.set(node, alphabet);
+    remapNode(node.getLeftChild(), newIndices, alphabet, gainRatioField, dataDictField);
+    remapNode(node.getRightChild(), newIndices, alphabet, gainRatioField, dataDictField);
+  }
+  
   @Override
   protected void loadMalletCorpusRepresentation(File directory) {
     corpusRepresentationMallet = CorpusRepresentationMalletTarget.load(directory);
+    // Loading replaces the data alphabet of the pipe by a FrozenAlphabet. The classifier only
+    // uses that alphabet too because Mallet resolves the loaded pipe to the instance pipe of 
+    // the classifier, which was loaded before with the same instance id.
+    if(model instanceof Classifier && ((Classifier)model).getInstancePipe() != null &&
+            ((Classifier)model).getAlphabet() != corpusRepresentationMallet.getPipe().getDataAlphabet()) {
+      throw new GateRuntimeException("The model and the loaded pipe do not use the same data alphabet");
+    }
   }
   
   @Override
@@ -19,6 +19,7 @@ import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
 import gate.Annotation;
 import gate.AnnotationSet;
+import gate.plugin.learningframework.features.ExtractionContext;
 import gate.plugin.learningframework.GateClassification;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletSeq;
 import static gate.plugin.learningframework.engines.Engine.FILENAME_MODEL;
@@ -171,10 +172,11 @@ public class EngineMalletSeq extends EngineMallet {
 
     Transducer crf = (Transducer)model;
     
+    ExtractionContext ctx = new ExtractionContext(inputAS);
     for(Annotation sequenceAnn : sequenceAS) {
       int sequenceSpanId = sequenceAnn.getId();
       Instance inst = data.getInstanceForSequence( 
-              instanceAS, sequenceAnn, inputAS, null, null, TargetType.NONE, null);
+              instanceAS, sequenceAnn, ctx, null, null, TargetType.NONE, null);
 
       //Always put the instance through the same pipe used for training.
       inst = crf.getInputPipe().instanceFrom(inst);
@@ -10,10 +10,12 @@ import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
 import gate.Annotation;
 import gate.AnnotationSet;
+import gate.plugin.learningframework.features.ExtractionContext;
 import gate.plugin.learningframework.GateClassification;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
 import gate.plugin.learningframework.data.CorpusRepresentationWeka;
 import gate.plugin.learningframework.mallet.LFPipe;
+import gate.plugin.learningframework.mallet.RowInstanceList;
 import gate.util.GateRuntimeException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -28,6 +30,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import weka.classifiers.Classifier;
 import weka.classifiers.evaluation.Evaluation;
+import weka.classifiers.UpdateableClassifier;
 import weka.core.Instances;
 
 /**
@@ -139,6 +142,23 @@ public class EngineWeka extends Engine {
       throw new GateRuntimeException("Cannot train Weka model, not trainer initialized");
     }
     Classifier alg = (Classifier)trainer;
+    InstanceList malletInstances = corpusRepresentationMallet.getRepresentationMallet();
+    if(alg instanceof UpdateableClassifier && malletInstances instanceof RowInstanceList) {
+      // train incrementally from the stored rows, so the weka dataset never holds all instances
+      RowInstanceList rows = (RowInstanceList)malletInstances;
+      Instances header = CorpusRepresentationWeka.emptyDatasetFromMallet(corpusRepresentationMallet);
+      try {
+        alg.buildClassifier(header);
+        for(int i=0; i<rows.size(); i++) {
+          ((UpdateableClassifier)alg).updateClassifier(CorpusRepresentationWeka.wekaInstanceFromRow(header, rows, i));
+        }
+        model = alg;
+      } catch (Exception ex) {
+        throw new GateRuntimeException("Error during training of Weka algorithm "+alg.getClass(),ex);
+      }
+      updateInfo();
+      return;
+    }
     // convert the Mallet representation to Weka instances
     CorpusRepresentationWeka crw = new CorpusRepresentationWeka(corpusRepresentationMallet);
     
@@ -182,8 +202,9 @@ public class EngineWeka extends Engine {
     LFPipe pipe = (LFPipe)data.getRepresentationMallet().getPipe();
     Classifier wekaClassifier = (Classifier)model;
     // iterate over the instance annotations and create mallet instances 
+    ExtractionContext ctx = new ExtractionContext(inputAS);
     for(Annotation instAnn : instanceAS.inDocumentOrder()) {
-      Instance inst = data.extractIndependentFeatures(instAnn, inputAS);
+      Instance inst = data.extractIndependentFeatures(instAnn, ctx);
       inst = pipe.instanceFrom(inst);
       // Convert to weka Instance
       weka.core.Instance wekaInstance = CorpusRepresentationWeka.wekaInstanceFromMalletInstance(instances, inst);
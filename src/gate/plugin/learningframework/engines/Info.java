@@ -17,7 +17,10 @@ import java.util.List;
 import java.util.Objects;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.introspector.Property;
+import org.yaml.snakeyaml.nodes.NodeTuple;
 import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.representer.Representer;
 
 /**
  * A class that represents the information stored in the info file.
@@ -40,6 +43,14 @@ public class Info {
   public String trainingCorpusName;
   public String targetFeature;
   public String classAnnotationType;  // classAnnotationType 
+  // only set if the hashing trick is used: number of buckets, if signed, the number of 
+  // buckets used and the estimated number of distinct features and of collisions.
+  // These are null otherwise and then not written to the info file.
+  public Integer hashingBuckets;
+  public Boolean hashingSigned;
+  public Integer hashingBucketsUsed;
+  public Long hashingEstimatedFeatures;
+  public Long hashingEstimatedCollisions;
   
   /**
    * TODO: NOTE: this is incomplete!! Should contain all fields that are also in the hashCode method!
@@ -73,7 +84,15 @@ public class Info {
   }
   
   public void save(File directory) {
-    String dump = new Yaml().dumpAs(this,Tag.MAP,DumperOptions.FlowStyle.BLOCK);
+    // leave out the hashing fields if they are not set
+    Representer representer = new Representer() {
+      @Override
+      protected NodeTuple representJavaBeanProperty(Object bean, Property property, Object value, Tag customTag) {
+        if(value == null && property.getName().startsWith("hashing")) return null;
+        return super.representJavaBeanProperty(bean, property, value, customTag);
+      }
+    };
+    String dump = new Yaml(representer).dumpAs(this,Tag.MAP,DumperOptions.FlowStyle.BLOCK);
     File infoFile = new File(directory,FILENAME_INFO);
     OutputStreamWriter out = null;
     try {
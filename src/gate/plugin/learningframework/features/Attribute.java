@@ -6,6 +6,7 @@
 
 package gate.plugin.learningframework.features;
 
+import cc.mallet.types.Alphabet;
 import java.io.Serializable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,13 +23,63 @@ public abstract class Attribute implements Serializable, Cloneable {
   public String feature;
   public String name;
   
+  /**
+   * The position of this attribute in the FeatureInfo, assigned when the attribute gets 
+   * added to it. Together with a value this forms the structured key of a feature.
+   */
+  public int attrId = -1;
+  
+  /**
+   * True if none of the features this attribute creates is used by the trained model.
+   * Such attributes do not get extracted at all, see FeatureExtraction.markUnusedAttributes.
+   */
+  public boolean unused = false;
+  
+  // the dictionary of (slot,value) keys to feature indices for each thread, created when 
+  // first needed
+  private transient volatile ThreadLocal<AttributeValueIndex> valueIndex;
+  
   public abstract void stopGrowth();
   public abstract void startGrowth();
   
+  /**
+   * The number of different positions for which this attribute creates features.
+   * This is 1 except for attribute lists. 
+   */
+  public int nrSlots() {
+    return 1;
+  }
+  
+  /**
+   * Return the value index of this attribute for the current thread, prepared for the given 
+   * data alphabet and annotation type.
+   */
+  public AttributeValueIndex getValueIndex(Alphabet alphabet, String forAnnType) {
+    ThreadLocal<AttributeValueIndex> indices = valueIndex;
+    if(indices == null) {
+      synchronized(this) {
+        if(valueIndex == null) {
+          valueIndex = new ThreadLocal<AttributeValueIndex>();
+        }
+        indices = valueIndex;
+      }
+    }
+    AttributeValueIndex index = indices.get();
+    if(index == null) {
+      index = new AttributeValueIndex(nrSlots());
+      indices.set(index);
+    }
+    index.checkFor(alphabet, forAnnType);
+    return index;
+  }
+  
   @Override
   public Attribute clone()  {
     try {
-      return (Attribute) super.clone();
+      Attribute ret = (Attribute) super.clone();
+      // the clone must never share the cached indices with the original
+      ret.valueIndex = null;
+      return ret;
     } catch (CloneNotSupportedException ex) {
       throw new RuntimeException("Could not clone Attribute",ex);
     }
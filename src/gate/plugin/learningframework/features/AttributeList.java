@@ -38,6 +38,11 @@ public class AttributeList extends SimpleAttribute implements Serializable, Clon
   // NOTE: this inherits the alphabet from SimpleAttribute: even though this object represents a 
   // whole set of features, the alphabet gets shared by all of them!
 
+  @Override
+  public int nrSlots() {
+    return to - from + 1;
+  }
+
   
   @Override
   public String toString() {
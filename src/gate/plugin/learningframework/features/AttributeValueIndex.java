@@ -0,0 +1,118 @@
+/*
+ * AttributeValueIndex.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.features;
+
+import cc.mallet.types.Alphabet;
+import gnu.trove.TObjectIntHashMap;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-attribute dictionary that maps structured feature keys to data alphabet indices.
+ *
+ * A feature is identified by the attribute it comes from, the slot within the attribute (the
+ * position relative to the instance for an attribute list, 0 otherwise) and the value (the nominal
+ * value or n-gram for one-of-k coded features, nothing for features which have a single feature
+ * name per slot). Once the index for such a key has been found in the data alphabet, it is
+ * remembered here so that the feature name string does not have to be built and hashed again.
+ * The feature names in the Mallet alphabet are still the same as before, they are only created
+ * when a key is seen for the first time.
+ * <p>
+ * The cached indices are only valid for one specific data alphabet and one specific
+ * annotation type (an attribute without a TYPE uses the type of the instance annotation in the
+ * feature name), so the index is cleared whenever either of those changes. This object is not
+ * thread-safe and does not get serialized: Attribute.getValueIndex returns a separate
+ * index for each thread, since the attributes of a loaded model can be shared by the
+ * duplicated PRs running in several threads.
+ *
+ * @author Johann Petrak
+ */
+public class AttributeValueIndex {
+
+  /**
+   * Returned by get if the key has not been looked up in the alphabet yet.
+   */
+  public static final int UNKNOWN = -2;
+
+  /**
+   * Returned by get if the key has been looked up but is not in the alphabet.
+   */
+  public static final int NOT_IN_ALPHABET = -1;
+
+  /**
+   * The maximum number of keys we remember as not being in the alphabet for each slot. This
+   * prevents unbounded growth at application time where new values will keep showing up.
+   */
+  private static final int MAX_MISSES = 100000;
+
+  // used as the map key for features which do not have a value part
+  private static final Object NOVALUE = new Object();
+
+  private Alphabet alphabet;
+  private String annType;
+  private final List<TObjectIntHashMap<Object>> maps;
+  private final int[] misses;
+
+  public AttributeValueIndex(int nrSlots) {
+    maps = new ArrayList<TObjectIntHashMap<Object>>(nrSlots);
+    for(int i=0; i<nrSlots; i++) {
+      maps.add(null);
+    }
+    misses = new int[nrSlots];
+  }
+
+  /**
+   * Make sure the cached indices are for the given alphabet and annotation type.
+   * If not, everything cached so far is discarded.
+   */
+  public void checkFor(Alphabet forAlphabet, String forAnnType) {
+    if(forAlphabet != alphabet || (forAnnType != annType && !forAnnType.equals(annType))) {
+      for(int i=0; i<misses.length; i++) {
+        maps.set(i, null);
+        misses[i] = 0;
+      }
+      alphabet = forAlphabet;
+      annType = forAnnType;
+    }
+  }
+
+  /**
+   * Get the cached alphabet index for the key.
+   * @param slot the slot within the attribute
+   * @param value the value part of the feature or null if there is no value part
+   * @return the index, or NOT_IN_ALPHABET or UNKNOWN
+   */
+  public int get(int slot, Object value) {
+    TObjectIntHashMap<Object> map = maps.get(slot);
+    if(map == null) return UNKNOWN;
+    // we store index+2 so that the 0 returned for missing keys can be told apart
+    return map.get(value == null ? NOVALUE : value) - 2;
+  }
+
+  /**
+   * Remember the alphabet index for the key.
+   */
+  public void put(int slot, Object value, int index) {
+    TObjectIntHashMap<Object> map = maps.get(slot);
+    if(map == null) {
+      map = new TObjectIntHashMap<Object>();
+      maps.set(slot, map);
+    }
+    if(index < 0) {
+      if(misses[slot] >= MAX_MISSES) return;
+      misses[slot]++;
+    }
+    map.put(value == null ? NOVALUE : value, index + 2);
+  }
+
+}
@@ -0,0 +1,405 @@
+/*
+ * ExtractionContext.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.features;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.plugin.learningframework.mallet.FeatureVectorBuilder;
+import gnu.trove.TIntObjectHashMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Everything feature extraction needs to know about the document currently processed.
+ *
+ * An instance of this should get created once per document for the input annotation set,
+ * and then be used for extracting the features of all the instances in that document.
+ * This holds indices over the annotations of the types referenced by the attributes, which
+ * get built the first time they are needed, so that feature extraction does not have to
+ * query and sort the annotation set again for each instance.
+ * <p>
+ * The context assumes that the input annotation set does not change while it is in use.
+ * It is not thread-safe.
+ *
+ * @author Johann Petrak
+ */
+public class ExtractionContext {
+
+  private final AnnotationSet inputAS;
+  private final Document doc;
+  private final long docSize;
+  private final Map<String,TypeIndex> typeIndices = new HashMap<String,TypeIndex>();
+  private final FeatureVectorBuilder builder = FeatureVectorBuilder.forCurrentThread();
+  
+  /**
+   * Status bit which is set if the current instance has a missing value.
+   */
+  public static final int STATUS_HAVE_MV = 1;
+  /**
+   * Status bit which is set if the current instance has a missing value for an attribute 
+   * with the missing value treatment ignore_instance.
+   */
+  public static final int STATUS_IGNORE_HAS_MV = 2;
+  
+  // the status bits for the instance currently extracted
+  private int instanceStatus = 0;
+  
+  // the cleaned and trimmed document text of annotations, by annotation id
+  private final TIntObjectHashMap<String> cleanTexts = new TIntObjectHashMap<String>();
+  
+  // the source annotations already resolved for the current instance annotation, by type
+  private Annotation resolvedFor;
+  private final Map<String,Annotation> resolvedSources = new HashMap<String,Annotation>();
+
+  private static final Logger logger = Logger.getLogger(ExtractionContext.class.getName());
+
+  // identifies the context, e.g. for data which is only valid for one context
+  private static final AtomicLong nrContexts = new AtomicLong();
+  private final long id = nrContexts.incrementAndGet();
+
+  public ExtractionContext(AnnotationSet inputAS) {
+    this.inputAS = inputAS;
+    this.doc = inputAS.getDocument();
+    this.docSize = doc.getContent().size();
+  }
+
+  public AnnotationSet getInputAS() { return inputAS; }
+
+  /**
+   * A number which is different for each context created.
+   */
+  public long getId() { return id; }
+
+  public Document getDocument() { return doc; }
+
+  public long getDocumentSize() { return docSize; }
+
+  /**
+   * The builder where the features of the instance currently extracted get collected.
+   * This is the builder of the thread which created the context.
+   */
+  public FeatureVectorBuilder getFeatureVectorBuilder() { return builder; }
+  
+  /**
+   * Return the cleaned and trimmed document text covered by the annotation.
+   * The text is cached for the annotation id, so each annotation only gets processed once
+   * per document, no matter how many instances or attributes use it.
+   */
+  public String getCleanText(Annotation ann) {
+    String ret = cleanTexts.get(ann.getId());
+    if(ret == null) {
+      ret = gate.Utils.cleanStringFor(doc, ann).trim();
+      cleanTexts.put(ann.getId(), ret);
+    }
+    return ret;
+  }
+  
+  /**
+   * Clear the status of the instance, this must be done before the extraction for a new
+   * instance starts.
+   */
+  public void resetInstanceStatus() { instanceStatus = 0; }
+  
+  /**
+   * Add status bits for the current instance. Once a bit is set, it stays set until
+   * the status gets reset for the next instance.
+   */
+  public void addInstanceStatus(int status) { instanceStatus |= status; }
+  
+  public int getInstanceStatus() { return instanceStatus; }
+  
+  /**
+   * True if any of the attributes had a missing value for the current instance.
+   */
+  public boolean instanceHasMV() { return (instanceStatus & STATUS_HAVE_MV) != 0; }
+  
+  /**
+   * True if the current instance should get ignored because of a missing value.
+   */
+  public boolean ignoreInstance() { return (instanceStatus & STATUS_IGNORE_HAS_MV) != 0; }
+
+  /**
+   * Return the index for all annotations of the given type in the input set.
+   * The index gets created the first time it is requested.
+   */
+  public TypeIndex getTypeIndex(String type) {
+    TypeIndex index = typeIndices.get(type);
+    if(index == null) {
+      index = new TypeIndex(inputAS.get(type));
+      typeIndices.put(type, index);
+    }
+    return index;
+  }
+
+  /**
+   * Return the annotation of the given type that overlaps with the instance annotation.
+   * 
+   * If there is more than one, a warning is logged and the first longest one in document 
+   * order is used, if there is none, null is returned. The result is remembered, so all 
+   * attributes which need an annotation of the same type for the same instance annotation
+   * share the lookup.
+   */
+  public Annotation getOverlappingSource(Annotation instanceAnnotation, String type) {
+    if(instanceAnnotation != resolvedFor) {
+      resolvedSources.clear();
+      resolvedFor = instanceAnnotation;
+    } else if(resolvedSources.containsKey(type)) {
+      return resolvedSources.get(type);
+    }
+    TypeIndex index = getTypeIndex(type);
+    long from = instanceAnnotation.getStartNode().getOffset();
+    long to = instanceAnnotation.getEndNode().getOffset();
+    int nr = index.countOverlapping(from, to);
+    Annotation ret = null;
+    if(nr > 1) {
+      logger.warn("More than one overlapping annotation of type "+type+" for instance annotation at offset "+
+              from+" in document "+doc.getName());
+      ret = index.longestOverlapping(from, to);
+    } else if(nr == 1) {
+      ret = index.longestOverlapping(from, to);
+    }
+    resolvedSources.put(type, ret);
+    return ret;
+  }
+  
+  private static final Comparator<Annotation> ORDER = new Comparator<Annotation>() {
+    @Override
+    public int compare(Annotation a1, Annotation a2) {
+      int ret = a1.getStartNode().getOffset().compareTo(a2.getStartNode().getOffset());
+      if(ret == 0) {
+        ret = a1.getEndNode().getOffset().compareTo(a2.getEndNode().getOffset());
+      }
+      if(ret == 0) {
+        ret = a1.getId().compareTo(a2.getId());
+      }
+      return ret;
+    }
+  };
+
+  /**
+   * The annotations of one type in document order, together with their offsets.
+   *
+   * In addition to the start and end offsets, we store for each position the largest end
+   * offset of all annotations up to that position. This allows to find all annotations
+   * which start before some offset and end after it by going backwards from the first
+   * annotation that starts at or after the offset, and stopping as soon as no earlier
+   * annotation can reach that far. For non-overlapping annotations like tokens, this stops
+   * right away.
+   */
+  public static class TypeIndex {
+    private final Annotation[] anns;
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] maxEnds;
+
+    // the window around the centre offset we looked at last: the index of the first annotation
+    // that starts at or after the centre and the indices of the annotations that start
+    // before and end after the centre, in document order.
+    private long lastCentre = -1;
+    private int lastFirst;
+    private int[] lastSpanning = new int[4];
+    private int lastNrSpanning;
+
+    // the coded values of attributes for the annotations in this index, by position
+    private final Map<Attribute,FeatureExtraction.CodedValue[]> codedValues = 
+            new IdentityHashMap<Attribute,FeatureExtraction.CodedValue[]>();
+    // the n-gram token ids for the annotations in this index, by position
+    private final Map<Attribute,int[]> tokenIds = new IdentityHashMap<Attribute,int[]>();
+
+    TypeIndex(AnnotationSet set) {
+      anns = set.toArray(new Annotation[set.size()]);
+      Arrays.sort(anns, ORDER);
+      starts = new long[anns.length];
+      ends = new long[anns.length];
+      maxEnds = new long[anns.length];
+      long maxEnd = -1;
+      for(int i=0; i<anns.length; i++) {
+        starts[i] = anns[i].getStartNode().getOffset();
+        ends[i] = anns[i].getEndNode().getOffset();
+        if(ends[i] > maxEnd) maxEnd = ends[i];
+        maxEnds[i] = maxEnd;
+      }
+    }
+
+    /**
+     * Number of annotations in the index.
+     */
+    public int size() { return anns.length; }
+
+    /**
+     * The annotation at the given position in document order.
+     */
+    public Annotation get(int pos) { return anns[pos]; }
+
+    /**
+     * The position of the first annotation which starts at or after the offset.
+     */
+    public int firstStartingAtOrAfter(long offset) {
+      int lo = 0;
+      int hi = starts.length;
+      while(lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if(starts[mid] < offset) lo = mid + 1; else hi = mid;
+      }
+      return lo;
+    }
+
+    /**
+     * Count the annotations which overlap the range from..to in the same way as 
+     * inputAS.get(type, from, to): they either start before from and end after it, or they
+     * start at or after from and before to.
+     */
+    public int countOverlapping(long from, long to) {
+      int first = firstStartingAtOrAfter(from);
+      int nr = 0;
+      for(int k = first - 1; k >= 0 && maxEnds[k] > from; k--) {
+        if(ends[k] > from) nr++;
+      }
+      for(int k = first; k < starts.length && starts[k] < to; k++) {
+        nr++;
+      }
+      return nr;
+    }
+    
+    /**
+     * Return the first of the longest annotations in document order that overlap the
+     * range from..to, or null if there is no overlapping annotation.
+     */
+    public Annotation longestOverlapping(long from, long to) {
+      int first = firstStartingAtOrAfter(from);
+      int best = -1;
+      long bestLength = -1;
+      // we go backwards here, so for equal lengths we prefer the later match, which is 
+      // earlier in document order
+      for(int k = first - 1; k >= 0 && maxEnds[k] > from; k--) {
+        if(ends[k] > from && ends[k] - starts[k] >= bestLength) {
+          best = k;
+          bestLength = ends[k] - starts[k];
+        }
+      }
+      for(int k = first; k < starts.length && starts[k] < to; k++) {
+        if(ends[k] - starts[k] > bestLength) {
+          best = k;
+          bestLength = ends[k] - starts[k];
+        }
+      }
+      return best < 0 ? null : anns[best];
+    }
+    
+    /**
+     * The position of the first annotation contained in the range from..to, or -1.
+     * Contained annotations are those returned by gate.Utils.getContainedAnnotations: 
+     * they start at or after from, before to, and end at or before to. The next one can 
+     * be found with nextContained.
+     */
+    public int firstContained(long from, long to) {
+      return nextContained(firstStartingAtOrAfter(from) - 1, to);
+    }
+    
+    /**
+     * The position of the next annotation after position pos which is contained in the 
+     * range from..to, or -1.
+     */
+    public int nextContained(int pos, long to) {
+      for(int k = pos + 1; k < starts.length && starts[k] < to; k++) {
+        if(ends[k] <= to) return k;
+      }
+      return -1;
+    }
+
+    /**
+     * The array where the coded values of the attribute for the annotations in this index
+     * can be stored, by position. Since the index only lives as long as the document is 
+     * processed, so does the array.
+     */
+    FeatureExtraction.CodedValue[] getCodedValues(Attribute att) {
+      FeatureExtraction.CodedValue[] ret = codedValues.get(att);
+      if(ret == null) {
+        ret = new FeatureExtraction.CodedValue[anns.length];
+        codedValues.put(att, ret);
+      }
+      return ret;
+    }
+
+    /**
+     * The array where the n-gram token ids of the annotations in this index can be stored
+     * for an n-gram attribute, by position. 
+     */
+    int[] getTokenIds(Attribute att) {
+      int[] ret = tokenIds.get(att);
+      if(ret == null) {
+        ret = new int[anns.length];
+        tokenIds.put(att, ret);
+      }
+      return ret;
+    }
+
+    private void prepareWindow(long centre) {
+      if(centre == lastCentre) return;
+      lastFirst = firstStartingAtOrAfter(centre);
+      lastNrSpanning = 0;
+      int k = lastFirst - 1;
+      while(k >= 0 && maxEnds[k] > centre) {
+        if(ends[k] > centre) {
+          if(lastNrSpanning == lastSpanning.length) {
+            lastSpanning = Arrays.copyOf(lastSpanning, lastNrSpanning*2);
+          }
+          lastSpanning[lastNrSpanning++] = k;
+        }
+        k--;
+      }
+      // we collected them backwards, but need them in document order
+      for(int i=0, j=lastNrSpanning-1; i<j; i++, j--) {
+        int tmp = lastSpanning[i];
+        lastSpanning[i] = lastSpanning[j];
+        lastSpanning[j] = tmp;
+      }
+      lastCentre = centre;
+    }
+
+    /**
+     * Return the position of the i-th annotation relative to the centre offset, or -1 if
+     * there is no such annotation.
+     *
+     * For i &gt;= 0 this is the i-th annotation (counting from 0) of the annotations which
+     * overlap the range from the centre to the end of the document, for i &lt; 0 it is the -i-th
+     * annotation counting backwards of those which start before the centre. These are the
+     * same annotations we would get from inputAS.get(type, centre, docSize) and
+     * inputAS.get(type, 0, centre) in document order.
+     */
+    public int windowPosition(long centre, int i, long docSize) {
+      prepareWindow(centre);
+      if(i < 0) {
+        // all annotations before the first one starting at the centre start before the centre
+        int pos = lastFirst + i;
+        return pos >= 0 ? pos : -1;
+      } else if(i < lastNrSpanning) {
+        return lastSpanning[i];
+      } else {
+        int pos = lastFirst + i - lastNrSpanning;
+        if(pos < starts.length && starts[pos] < docSize) {
+          return pos;
+        } else {
+          return -1;
+        }
+      }
+    }
+  }
+
+}
@@ -14,9 +14,15 @@ import gate.Annotation;
 import gate.AnnotationSet;
 import gate.Document;
 import gate.Utils;
+import gate.plugin.learningframework.mallet.FeatureVectorBuilder;
+import gate.plugin.learningframework.mallet.HashingAlphabet;
 import gate.util.GateRuntimeException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.log4j.Logger;
 
@@ -78,7 +84,7 @@ public class FeatureExtraction {
    */
   private static final String VALSEP = "=";
   
-  private static final String MVVALUE = "%%%NA%%%";
+  static final String MVVALUE = "%%%NA%%%";
   
   public static final String SEQ_INSIDE = "I";
   public static final String SEQ_BEGINNING = "B";
@@ -89,315 +95,90 @@ public class FeatureExtraction {
   
   private static Logger logger = Logger.getLogger(FeatureExtraction.class.getName());
 
+  /**
+   * Extract the features for a single attribute and instance annotation.
+   * 
+   * NOTE: this creates a new ExtractionContext for each call, so when the features for
+   * many instances of the same document are needed, the method that takes an ExtractionContext
+   * should be used instead.
+   */
   public static void extractFeature(        
           Instance inst,
           Attribute att,
           AnnotationSet inputAS, 
           Annotation instanceAnnotation) {
-    if(att instanceof AttributeList) extractFeature(inst,(AttributeList)att,inputAS,instanceAnnotation);
-    else if(att instanceof SimpleAttribute) extractFeature(inst,(SimpleAttribute)att,inputAS,instanceAnnotation);
-    else if(att instanceof Ngram) extractFeature(inst,(Ngram)att,inputAS,instanceAnnotation);
-    else {
-      throw new GateRuntimeException("Attempt to call extractFeature with type "+att.getClass());
-    }
+    extractFeature(inst, att, new ExtractionContext(inputAS), instanceAnnotation);
   }
   
-  
   /**
-   * Extract the instance features for a simple attribute.
-   * 
-   * This adds the internal features to the inst object and also updates any 
- alphabets, if they allow growth.
- If the annotation types of the instance annotation and the annotation specified for the attribute
- are the same, then the instance annotation is directly used, otherwise, if there is a single
- overlapping annotation of the annType specified in the attribute, that one is used.
- If there is no overlapping annotation, nothing is extracted for that instance and implicitly,
- all features are set to 0.0 (TODO: this should probably get treated inputAS if all features were
- missing so that for each featureName, the proper missing value treatment can be applied!)
- If there are several overlapping annotations, an exception is thrown, this should not happen.
- 
- If no featureName is specified, we give an indicator of the presence, artificial featureName name 
- for binary featureName. 
-   * 
+   * Extract the features for a single attribute and instance annotation, using the 
+   * context for the current document.
    * 
-   * @param inst
-   * @param att
-   * @param inputASname
-   * @param instanceAnnotation
-   * @param doc
+   * The data of the instance must be an AugmentableFeatureVector, the features get added to it.
+   * NOTE: this compiles the extractor for the attribute on each call, the extractors
+   * cached in the LFPipe should be used instead where possible, see 
+   * LFPipe.getFeatureExtractors().
    */
-  private static void extractFeature(
+  public static void extractFeature(        
           Instance inst,
-          SimpleAttribute att,
-          AnnotationSet inputAS, 
+          Attribute att,
+          ExtractionContext ctx, 
           Annotation instanceAnnotation) {
-    Document doc = inputAS.getDocument();
-    /*Although the user needn't specify the annotation annType if it's the
-     * same inputAS the instance, they may do so. It's intuitive that if they
-     * do so, they mean to extract the featureName from the instance, not just
-     * the first colocated same annType annotation. This matters in
-     * disambiguation, where we have many colocated same annType annotations.
-     * Fix it up front by wiping out annType if it's the same inputAS the instance.
-     */
-    AugmentableFeatureVector fv = (AugmentableFeatureVector) inst.getData();
-    String annType = att.annType;
-    String featureName = att.feature;
-    MissingValueTreatment mvt = att.missingValueTreatment;
-    CodeAs codeas = att.codeas;
-    Datatype dt = att.datatype;
-    Alphabet alphabet = att.alphabet;
-    // first of all get the annotation from where we want to construct the annotation.
-    // If annType is the same type as the annType of the instance annotation, use the 
-    // instance annotation directly. Otherwise, use an annotation of type annType that overlaps
-    // with the instance annotation.
-    // TODO: what do if there are several such overlapping annotations?
-    // For now, we log a warning and use the longest!
-    // Throwing an exception could be too harsh since there may be cases 
-    // where this could occur, e.g. when the instance is a token and the 
-    // type for which we construct features is Person. Normally, one would 
-    // expect each person to be made up of several tokens, but it could e.g.
-    // happen that Marie-Luise is annotated as a single token but Marie and 
-    // Luise end up being annotated as separate Person annotations.
-    
-    Annotation sourceAnnotation = null;
-    if (annType.isEmpty() || instanceAnnotation.getType().equals(annType)) {
-      sourceAnnotation = instanceAnnotation;
-      annType = sourceAnnotation.getType();
-    } else {
-      AnnotationSet overlappings = gate.Utils.getOverlappingAnnotations(inputAS, instanceAnnotation, annType);
-      if(overlappings.size() > 1) {
-        logger.warn("More than one overlapping annotation of type "+annType+" for instance annotation at offset "+
-                gate.Utils.start(instanceAnnotation)+" in document "+doc.getName());
-        // find the last longest (try to make this deterministic, there is 
-        // still a small chance of non-determinism if there are more than one
-        // overlapping annotations of the same length in the last position 
-        // where a longest annotation occurs.
-        int maxSize = 0;
-        for(Annotation ann : overlappings.inDocumentOrder()) {
-          if(gate.Utils.length(ann)>maxSize) {
-            maxSize = gate.Utils.length(ann);
-            sourceAnnotation = ann;
-          }
-        }
-      } else if(overlappings.size() == 0) {
-        // if there is no overlapping annotation of annType annType, we simply do nothing
-        // TODO: handle this inputAS if all features have missing values!!!!!!
-        return;
-      } else {
-        // we have exactly one annotation, use that one
-        sourceAnnotation = gate.Utils.getOnlyAnn(overlappings);
-      }
+    AugmentableFeatureVector fv = (AugmentableFeatureVector)inst.getData();
+    FeatureVectorBuilder fvb = ctx.getFeatureVectorBuilder();
+    fvb.reset(fv.getAlphabet());
+    // the missing value status from earlier attributes for this instance is kept in the
+    // instance properties
+    ctx.resetInstanceStatus();
+    if(instanceHasMV(inst)) ctx.addInstanceStatus(ExtractionContext.STATUS_HAVE_MV);
+    if(ignoreInstanceWithMV(inst)) ctx.addInstanceStatus(ExtractionContext.STATUS_IGNORE_HAS_MV);
+    FeatureExtractor.compile(att).extract(ctx, instanceAnnotation);
+    fvb.addTo(fv);
+    setMVProperties(inst, ctx);
+  }
+  
+  /**
+   * Set the missing value properties of the instance from the instance status in the context.
+   * This is only needed for code which uses ignoreInstanceWithMV(Instance) or 
+   * instanceHasMV(Instance), the status in the context should be used instead.
+   */
+  public static void setMVProperties(Instance inst, ExtractionContext ctx) {
+    inst.setProperty(PROP_HAVE_MV, ctx.instanceHasMV());
+    inst.setProperty(PROP_IGNORE_HAS_MV, ctx.ignoreInstance());
+  }
+  
+  
+  /**
+   * The result of coding the value of one attribute for one annotation.
+   * 
+   * This is everything that does not depend on the position of the annotation relative to
+   * the instance, so it can be re-used for all the positions of an attribute list window
+   * in which the same annotation appears.
+   */
+  static final class CodedValue {
+    // the instance status bits for the value: STATUS_HAVE_MV if the value is missing and
+    // in addition STATUS_IGNORE_HAS_MV if this means the instance should get ignored
+    int status = 0;
+    // true if a feature should get added for value and val
+    boolean add = false;
+    String value = null;
+    double val = 0.0;
+    void set(String value, double val) {
+      this.add = true;
+      this.value = value;
+      this.val = val;
     }
-    // NOTE: there should be no way of how a featureName we encounter now is already in the featureName
-    // vector, so we do not even check, we simply add the featureName.
-    // How we add the featureName depends on the datatype, on the codeas setting if it is nominal,
-    // and also on how we treat missing values.
-    extractFeatureWorker(att.name,"A",inst,sourceAnnotation,doc,annType,featureName,alphabet,dt,mvt,codeas);
   }
-    
-  private static void extractFeatureWorker(
-          String name,
-          String internalFeatureIndicator,
-          Instance inst,
-          Annotation sourceAnnotation,
-          Document doc,
-          String annType,
-          String featureName,
-          Alphabet alphabet,
-          Datatype dt,
-          MissingValueTreatment mvt,
-          CodeAs codeas)  {
-    
-    AugmentableFeatureVector fv = (AugmentableFeatureVector)inst.getData();
-    // create the default feature name prefix: this is either "A"+NAMESEP+type+NAMESEP+featureName
-    // or just the name give in the attribute
-    String internalFeatureNamePrefix;
-    if(name.isEmpty()) {
-      internalFeatureNamePrefix = internalFeatureIndicator+NAMESEP+annType+NAMESEP+featureName;
-    } else {
-      internalFeatureNamePrefix = name;
+  
+  static void addCodedValue(ExtractionContext ctx, Attribute att, String annType, int slot, CodedValue cv) {
+    if(cv.status != 0) {
+      ctx.addInstanceStatus(cv.status);
     }
-    // if the featureName name is empty, then all we want is indicate the presence of the annotation
-    // inputAS a boolean. No matter what the datatype is, this is always indicated by setting the
-    // featureName to 1.0 (while for all instances, where the annotation is missing, the value will
-    // implicitly be set to 0.0). 
-    if(featureName==null||featureName.isEmpty()) {
-      // construct the featureName name and set to 1.0
-      // however, only add the featureName if the featureName alphabet is allowed to grow.
-      String fname = internalFeatureNamePrefix;
-      addToFeatureVector(fv, fname, 1.0);
-    } else {    
-      // First get the value inputAS an Object, if there is no value, we have an Object that is null
-      Object valObj = sourceAnnotation.getFeatures().get(featureName);
-      // no matter what the datatype is, a null is always a missing value, so we set the 
-      // property that indicates the existence of a missing valuein the instance right here
-      if(valObj == null) {
-        inst.setProperty(PROP_HAVE_MV, true);
-      } else {
-        inst.setProperty(PROP_HAVE_MV,false);
-      }
-      // initialize the PROP_IGNORE_HAS_MV property to be false, if we have a MV which
-      // causes the instance to get ignored we set it to true below
-      inst.setProperty(PROP_IGNORE_HAS_MV,false);
-      // if the datatype is nominal, we have to first check what the codeas setting is.
-      if(dt==Datatype.nominal) {
-        if(codeas==CodeAs.one_of_k) {
-          if(valObj != null) {
-            // it is not a missing value
-            String val = valObj.toString();
-            // TODO: do we have to escape the featureName name in some way here?
-            // TODO: if we want to store a count rather than 1.0, we would need to make use
-            // of a pre-calculated feature vector here which should contain the count for 
-            // this feature over all instances in the document (or whatever the counting strategy is)
-            // For this we would have to modify this and the calling method to also take 
-            // an optional feature vector and use it if it is non-null
-            addToFeatureVector(fv, internalFeatureNamePrefix+VALSEP+val, 1.0);
-          } else {
-            // we have a missing value, check the missing value treatment for what to do now
-            switch(mvt) {
-              case ignore_instance: 
-                inst.setProperty(PROP_IGNORE_HAS_MV,true);
-                break;
-              case keep:  // this represents the MV by not setting any indicator featureName, so nothing to do
-                break;
-              case zero_value: // for one-of-k we treat this identically to keep, nothing to do
-                break;
-              case special_value: // we use the predefined special value
-                addToFeatureVector(fv,internalFeatureNamePrefix+VALSEP+MVVALUE,1.0);
-                break; 
-              default:
-                throw new NotImplementedException("MV-Handling");
-            }                      
-          }
-        } else if(codeas==CodeAs.number) {
-          if(valObj!=null) {
-            // For this representation, we need to maintain a dictionary that maps values to 
-            // numbers! This is also done using an Alphabet, and if a value is not in the alphabet,
-            // then if the alphabet is allowed to grow, we simply get the new value. But if the 
-            // alphabet is not allowed to grow (at application time), finding a new value is an 
-            // error and causes an exception
-            // The alphabet for an number-coded attribute is stored in the SimpleAttribute object.
-            // before we handle the value, we need to convert it to a string
-            String val = valObj.toString();
-            if(alphabet.contains(val)) {
-              // add the featureName, using the value we have stored for it, but only if the featureName
-              // itself can be added
-              addToFeatureVector(fv, internalFeatureNamePrefix, alphabet.lookupIndex(val));
-            } else {
-              // we have not seen this value: if the alphabet is allowed to grow add it and
-              // then try to add the featureName, otherwise, do nothing
-              if(!alphabet.growthStopped()) {
-                // the lookupIndex method automatically adds the value if it is not there yet
-                addToFeatureVector(fv, internalFeatureNamePrefix, alphabet.lookupIndex(val));
-              }
-            }
-          } else {
-            // we have a nominal value that should get coded numeric but it is a missing value
-            switch(mvt) {
-              case ignore_instance: 
-                inst.setProperty(PROP_IGNORE_HAS_MV, true);
-                break;
-              case keep:  // for this kind of codeas, we use the value NaN
-                addToFeatureVector(fv,internalFeatureNamePrefix, Double.NaN );
-                break;
-              case zero_value: // use the first value, does not make much sense really, but ...
-                // TODO: document that this combination should be avoided, probably
-                addToFeatureVector(fv,internalFeatureNamePrefix, 0.0 );
-                break;
-              case special_value: // we use the special value -1.0 which should get handled by Mallet somehow
-                addToFeatureVector(fv,internalFeatureNamePrefix,-1.0);
-                break; 
-              default:
-                throw new NotImplementedException("MV-Handling");
-            }                                  
-          } // if valObj != null .. else
-        } else {  // codeas setting for the nominal attribute
-          throw new NotImplementedException("CodeAs method not implemented");
-        }
-      } else if(dt == Datatype.numeric) {
-        if(valObj != null) {
-          // just add the value, if possible and if the object can be interpreted inputAS a number
-          double val = 0.0;
-          if(valObj instanceof Number) {
-            val = ((Number)valObj).doubleValue();
-          } else if(valObj instanceof Boolean) {
-            if((Boolean)valObj)  { val = 1.0; } else {val = 0.0;}
-          } else {
-            // try to convert the string to a number. If that fails, just use 0.0 but log a warning
-            try {
-              val = Double.parseDouble(valObj.toString());
-            } catch (Exception ex) {
-              val = 0.0;
-              logger.warn("Cannot parse String "+valObj+" as a number, using 0.0 for annotation of type "+annType+ 
-                      " at offset "+gate.Utils.start(sourceAnnotation)+" in document "+doc.getName());
-            }
-          }        
-          addToFeatureVector(fv,internalFeatureNamePrefix,val);
-        } else {
-            // we have a numeric missing value!
-            switch(mvt) {
-              case ignore_instance: 
-                inst.setProperty(PROP_IGNORE_HAS_MV, true);
-                break;
-              case keep:  // for this kind of codeas, we use the value NaN
-                addToFeatureVector(fv,internalFeatureNamePrefix, Double.NaN );
-                break;
-              case zero_value: // use the first value, does not make much sense really, but ...
-                // TODO: document that this combination should be avoided, probably
-                addToFeatureVector(fv,internalFeatureNamePrefix, 0.0 );
-                break;
-              case special_value: // we use the special value -1.0 which should get handled by Mallet somehow
-                addToFeatureVector(fv,internalFeatureNamePrefix,-1.0);
-                break; 
-              default:
-                throw new NotImplementedException("MV-Handling");
-            }                                  
-        }
-      } else if(dt == Datatype.bool) {
-        if(valObj != null) {
-          double val = 0.0;
-          if(valObj instanceof Boolean) {
-            if((Boolean)valObj) val = 1.0;
-          } else if(valObj instanceof Number) {
-            if(((Number)valObj).doubleValue() != 0) val = 1.0;
-          } else {
-            try {
-              boolean tmp = Boolean.parseBoolean(valObj.toString());
-              if(tmp) val = 1.0;
-            } catch (Exception ex) {
-              // value is already 0.0
-              logger.warn("Cannot parse String "+valObj+" as a boolean, using 0.0 for annotation of type "+annType+ 
-                      " at offset "+gate.Utils.start(sourceAnnotation)+" in document "+doc.getName());              
-            }
-          }
-          addToFeatureVector(fv,internalFeatureNamePrefix,val);
-        } else {
-            // we have a missing boolean value
-            switch(mvt) {
-              case ignore_instance: 
-                inst.setProperty(PROP_IGNORE_HAS_MV, true);
-                break;
-              case keep:  // for this kind of codeas, we use the value NaN
-                addToFeatureVector(fv,internalFeatureNamePrefix, Double.NaN );
-                break;
-              case zero_value: // use the first value, does not make much sense really, but ...
-                // TODO: document that this combination should be avoided, probably
-                addToFeatureVector(fv,internalFeatureNamePrefix, 0.0 );
-                break;
-              case special_value: // we use the special value -1.0 which should get handled by Mallet somehow
-                addToFeatureVector(fv,internalFeatureNamePrefix,0.5);
-                break; 
-              default:
-                throw new NotImplementedException("MV-Handling");
-            }                                  
-          
-        }
-      } else {
-        throw new NotImplementedException("Datatype!");
-      }
-    
+    if(cv.add) {
+      addToFeatureVector(ctx.getFeatureVectorBuilder(), att, annType, slot, cv.value, cv.val);
     }
-  } // extractFeature (SimpleAttribute)
+  }
+
 
   
   /*
@@ -415,52 +196,37 @@ public class FeatureExtraction {
   // create an ngram if the second annotations starts before the end of the first or even at the same 
   // offset inputAS the first? If that is the case, what should the order of the annotations then be?
   // NOTE: if the featureName is missing, i.e. it is null or the empty string, then the whole annotation gets ignored
-  private static void extractFeature(
-          Instance inst,
+  static void extractFeature(
           Ngram ng, 
-          AnnotationSet inputAS, 
+          ExtractionContext ctx, 
           Annotation instanceAnnotation
           ) {
-    Document doc = inputAS.getDocument();
-    AugmentableFeatureVector fv = (AugmentableFeatureVector) inst.getData();
+    FeatureVectorBuilder fv = ctx.getFeatureVectorBuilder();
     int number = ng.number;
     String annType = ng.annType;
-    String featureName = ng.feature;
     // TODO: this we rely on the ngram only having allowed field values, e.g. annType
     // has to be non-null and non-empty and number has to be > 0.
     // If featureName is null, then for ngrams, the string comes from the covered document
-      String[] gram = new String[number];
-      List<Annotation> al = Utils.getContainedAnnotations(inputAS, instanceAnnotation, annType).inDocumentOrder();
-      // If we have less annotations than our n for n-gram, there is certainly nothing to do, 
-      // leave the featureName vector untouched.
-      if (al.size() < number) return;
+    // The annotations contained in the instance annotation, in document order, come from
+    // the index for the type
+    ExtractionContext.TypeIndex index = ctx.getTypeIndex(annType);
+    long to = instanceAnnotation.getEndNode().getOffset();
+    int first = index.firstContained(instanceAnnotation.getStartNode().getOffset(), to);
+    // If the n-grams are short enough, we can identify them by their token ids instead 
+    // of building the strings. This does not work with the hashing trick, where the 
+    // feature index must not depend on the ids assigned in this run.
+    if(number <= NgramIndex.MAX_PACKED_N && !(fv.getAlphabet() instanceof HashingAlphabet)) {
+      if(extractPackedNgrams(ng, ctx, index, first, to)) return;
+    }
         // this will hold the actual token strings to use for creating the n-grams
         List<String> strings = new ArrayList<String>();
-        for(Annotation ann : al) {
-          // for ngrams we either have a featureName name 
-          if(featureName != null) {
-            // NOTE: if the featureName is not a string, we convert it to string
-            Object obj = ann.getFeatures().get(featureName);
-            // if there is no value at all, then the annotation is ignored
-            if(obj!=null) {
-              String tmp =obj.toString().trim();
-              // if the resulting string is empty, it is also ignored 
-              if(!tmp.isEmpty()) {
-                strings.add(tmp);
-              }
-            }
-          } else {
-            // if the featureName is null, we get the string from the cleaned document text
-            String tmp = gate.Utils.cleanStringFor(doc, ann).trim();
-            if(!tmp.isEmpty()) {
-              strings.add(tmp);
-            }
+        for(int pos = first; pos >= 0; pos = index.nextContained(pos, to)) {
+          String tmp = ngramString(ng, index.get(pos), ctx);
+          if(tmp != null) {
+            strings.add(tmp);
           }
         } // for Annotation ann : al
-        // Now construct the actual ngrams and add them to the augmentable featureName vector. 
-        // In the process, check first if such a featureName is already there, and if yes, just 
-        // increment the value.
-        // To avoid overhead, we only create the ngrams on the fly// Now construct the actual ngrams and add them to the augmentable feature vector. 
+        // Now construct the actual ngrams and add them to the augmentable feature vector. 
         // In the process, check first if such a feature is already there, and if yes, just 
         // increment the value.
         // To avoid overhead, we only create the ngrams on the fly
@@ -481,12 +247,6 @@ public class FeatureExtraction {
           }
           String ngram = sb.toString();
           // we have got our ngram now, count it, but only add if we are allowed to!
-          String prefix;
-          if(ng.name.isEmpty()) {
-            prefix = "N"+number+NAMESEP+annType+NAMESEP+featureName;
-          } else {
-            prefix = ng.name;
-          }
           // NOTE: if the key is already in the feature vector, then 
           // this will increment the current count by one!
           // This means that the number of times the ngram is contained within the 
@@ -499,60 +259,102 @@ public class FeatureExtraction {
           // feature vector here.
           // So this method would get the "global feature vector"  as an additional parameter
           // which would be used that way if it is non-null
-          addToFeatureVector(fv, prefix+VALSEP+ngram, 1.0);
+          addToFeatureVector(fv, ng, annType, 0, ngram, 1.0);
         }
   } // extractFeature(NGram)
   
+  // the values stored in the per-document token id array of the type index for annotations 
+  // which have not been looked at yet, are ignored, or for which no token id could be assigned 
+  private static final int TOKEN_UNKNOWN = 0;
+  private static final int TOKEN_IGNORED = -1;
+  private static final int TOKEN_NO_ID = -2;
   
-  private static void extractFeature(
-          Instance inst, 
-          AttributeList al, 
-          AnnotationSet inputAS, 
-          Annotation instanceAnnotation
-          ) {
-
-    Document doc = inputAS.getDocument();
-    AugmentableFeatureVector fv = (AugmentableFeatureVector) inst.getData();
-
-    Datatype dt = al.datatype;
-    String annType = al.annType;
-    String featureName = al.feature;
-    int from = al.from;
-    int to = al.to;
-    Alphabet alphabet = al.alphabet;
-    MissingValueTreatment mvt = al.missingValueTreatment;
-    CodeAs codeas = al.codeas;
-    if(annType.isEmpty()) {
-      annType = instanceAnnotation.getType();
+  /**
+   * Get the string to use as a gram for an n-gram attribute from an annotation.
+   * This is the value of the feature, or the cleaned document text if the attribute has no 
+   * feature, trimmed. If there is no value or it is empty, null is returned and the annotation
+   * should be ignored.
+   */
+  private static String ngramString(Ngram ng, Annotation ann, ExtractionContext ctx) {
+    String tmp;
+    // for ngrams we either have a featureName name 
+    if(ng.feature != null && !ng.feature.isEmpty()) {
+      // NOTE: if the featureName is not a string, we convert it to string
+      Object obj = ann.getFeatures().get(ng.feature);
+      // if there is no value at all, then the annotation is ignored
+      if(obj == null) return null;
+      tmp = obj.toString().trim();
+    } else {
+      // if the featureName is null, we get the string from the cleaned document text,
+      // which the context caches for the document
+      tmp = ctx.getCleanText(ann);
     }
-    long centre = instanceAnnotation.getStartNode().getOffset();
-    List<Annotation> annlistforward = inputAS.get(annType, centre, doc.getContent().size()).inDocumentOrder();
-    List<Annotation> annlistbackward = inputAS.get(annType, 0L, centre).inDocumentOrder();
-    // go through each of the members in the attribute list and get the annotation
-    // then process each annotation just like a simple annotation, only that the name of 
-    // featureName gets derived from this list attribute plus the location in the list.
-    for (int i = from; i <= to; i++) {
-      Annotation ann = null;
-      if (i < 0) {
-        if (-i <= annlistbackward.size()) {
-          ann = annlistbackward.get(annlistbackward.size() + i);
+    // if the resulting string is empty, it is also ignored 
+    return tmp.isEmpty() ? null : tmp;
+  }
+  
+  /**
+   * Add the n-grams for the contained annotations starting at position first, using the 
+   * token ids and packed n-gram keys of the n-gram index of the attribute. 
+   * The token id of each annotation is remembered in the type index, so the string for an 
+   * annotation is only needed once per document, and the string of an n-gram only when it 
+   * is not known yet. If some annotation cannot get a token id, nothing is added and false 
+   * is returned.
+   */
+  private static boolean extractPackedNgrams(Ngram ng, ExtractionContext ctx, 
+          ExtractionContext.TypeIndex index, int first, long to) {
+    int number = ng.number;
+    FeatureVectorBuilder fv = ctx.getFeatureVectorBuilder();
+    Alphabet a = fv.getAlphabet();
+    NgramIndex ngramIndex = ng.getNgramIndex(a, ng.annType);
+    ngramIndex.checkForContext(ctx.getId());
+    int[] ids = index.getTokenIds(ng);
+    // first make sure we have the ids for all the annotations
+    for(int pos = first; pos >= 0; pos = index.nextContained(pos, to)) {
+      if(ids[pos] == TOKEN_UNKNOWN) {
+        String tmp = ngramString(ng, index.get(pos), ctx);
+        if(tmp == null) {
+          ids[pos] = TOKEN_IGNORED;
+        } else {
+          int id = ngramIndex.tokenId(tmp);
+          ids[pos] = id < 0 ? TOKEN_NO_ID : id;
         }
-      } else if (i < annlistforward.size()) {
-          ann = annlistforward.get(i);
-          // make compiler happy for now
-          //textToReturn = textToReturn + separator + annType + ":" + featureName + ":r" + i + ":" + extractFeature(annType, featureName, datatype, inputASname, ann, doc);
       }
-      // If we specify a name explicitly, we still need to add the element number to it.
-      // If no name is specified, we leave it empty.
-      if(ann != null) {        
-        String tmpName = "";
-        if(!al.name.isEmpty()) {
-          tmpName =  al.name + "#" + i;
+      if(ids[pos] == TOKEN_NO_ID) return false;
+    }
+    long key = 0;
+    int nrGrams = 0;
+    for(int pos = first; pos >= 0; pos = index.nextContained(pos, to)) {
+      int id = ids[pos];
+      if(id == TOKEN_IGNORED) continue;
+      key = NgramIndex.shift(key, id, number);
+      nrGrams++;
+      if(nrGrams < number) continue;
+      // the last number ids form an n-gram
+      int featureIndex = ngramIndex.get(key);
+      // an n-gram which was not in the alphabet earlier may have been added since if 
+      // growth is possible now, so in that case we have to check again
+      if(featureIndex == NgramIndex.UNKNOWN || (featureIndex < 0 && !a.growthStopped())) {
+        StringBuilder sb = new StringBuilder(featureNamePrefix(ng, ng.annType, 0));
+        sb.append(VALSEP);
+        for(int j = number-1; j >= 0; j--) {
+          if(j != number-1) sb.append(NGRAMSEP);
+          sb.append(ngramIndex.token((int)(key >>> (NgramIndex.BITS*j)) & NgramIndex.ID_MASK));
         }
-        extractFeatureWorker(tmpName,"L"+i,inst,ann,doc,annType,featureName,alphabet,dt,mvt,codeas);    
+        featureIndex = a.lookupIndex(sb.toString(), !a.growthStopped());
+        ngramIndex.put(key, featureIndex);
+      }
+      // NOTE: if the key is already in the feature vector, then this will increment the 
+      // current count by one, so the number of times the ngram is contained within the
+      // instance annotation is counted!
+      if(featureIndex >= 0) {
+        fv.add(featureIndex, 1.0);
       }
     }
-  } // extractFeature (AttributeList)
+    return true;
+  }
+  
+  
 
   
   
@@ -678,6 +480,12 @@ public class FeatureExtraction {
       inst.setTarget(labelalph.lookupLabel(target));
   }
   
+  /**
+   * True if the missing value properties of the instance say it should get ignored.
+   * These properties are only set by the extractFeature methods which take an Instance,
+   * and by the extraction of instances in the corpus representations if there is a 
+   * missing value.
+   */
   public static boolean ignoreInstanceWithMV(Instance inst) {
     Object val = inst.getProperty(PROP_IGNORE_HAS_MV);
     if(val == null) return false;
@@ -765,21 +573,131 @@ public class FeatureExtraction {
   }
 
   
+  /**
+   * Mark the attributes which do not create any of the features in the data alphabet as 
+   * unused, so they do not get extracted any more.
+   * 
+   * Unlike lookupAttributeForFeatureName, this uses the exact feature name prefixes each 
+   * attribute creates, so e.g. an n-gram attribute and a simple attribute for the same 
+   * type and feature are told apart. Attributes for which the prefix is not known in 
+   * advance, because they have neither a name nor a type, and attributes which can cause 
+   * an instance to get ignored because of a missing value are never marked. 
+   * Nothing is done for a HashingAlphabet.
+   * 
+   * @return the number of attributes which were marked
+   */
+  public static int markUnusedAttributes(List<Attribute> attributes, Alphabet alphabet) {
+    if(alphabet instanceof HashingAlphabet) return 0;
+    Map<String,List<Attribute>> byPrefix = new HashMap<String,List<Attribute>>();
+    for(Attribute att : attributes) {
+      if(att.name.isEmpty() && att.annType.isEmpty()) continue;
+      for(int slot=0; slot<att.nrSlots(); slot++) {
+        String prefix = featureNamePrefix(att, att.annType, slot);
+        List<Attribute> atts = byPrefix.get(prefix);
+        if(atts == null) {
+          atts = new ArrayList<Attribute>();
+          byPrefix.put(prefix, atts);
+        }
+        atts.add(att);
+      }
+    }
+    Set<Attribute> used = new HashSet<Attribute>();
+    for(int i=0; i<alphabet.size(); i++) {
+      String featureName = alphabet.lookupObject(i).toString();
+      int valsepIdx = featureName.indexOf(VALSEP);
+      String prefix = valsepIdx < 0 ? featureName : featureName.substring(0, valsepIdx);
+      List<Attribute> atts = byPrefix.get(prefix);
+      if(atts != null) used.addAll(atts);
+    }
+    int marked = 0;
+    for(List<Attribute> atts : byPrefix.values()) {
+      for(Attribute att : atts) {
+        if(att.unused || used.contains(att)) continue;
+        if(att instanceof SimpleAttribute && 
+           ((SimpleAttribute)att).missingValueTreatment == MissingValueTreatment.ignore_instance) {
+          continue;
+        }
+        att.unused = true;
+        marked++;
+      }
+    }
+    return marked;
+  }
+  
   
   ///=======================================
   /// HELPER AND UTILITY METHODS
   ///=======================================
   
   /** 
-   * Same inputAS the method, but makes sure a non-growable Alphabet is considered.
-   * @param fv
-   * @param key
-   * @param val 
+   * Add the value for the feature identified by attribute, slot and value to the vector.
+   * 
+   * If the alphabet is a HashingAlphabet, the index is the bucket the key gets hashed to.
+   * Otherwise the alphabet index of the feature is looked up in the value index of the attribute first,
+   * only if it is not known there, the feature name is created and looked up in (or added to)
+   * the alphabet. This makes sure a non-growable Alphabet is considered.
+   * 
+   * @param fv the builder for the feature vector
+   * @param att the attribute the feature comes from
+   * @param annType the annotation type used for the feature name
+   * @param slot the slot within the attribute, the list position minus the from value for lists
+   * @param value the value part of the feature name for one-of-k coded features or null
+   * @param val the value to add to the feature
    */
-  private static void addToFeatureVector(AugmentableFeatureVector fv, Object key, double val) {
+  private static void addToFeatureVector(FeatureVectorBuilder fv, Attribute att, String annType, int slot, String value, double val) {
     Alphabet a = fv.getAlphabet();
-    if(!a.contains(key) && a.growthStopped()) return;
-    fv.add(key,val);
+    if(a instanceof HashingAlphabet) {
+      // with the hashing trick, the index comes directly from the key, no names involved
+      HashingAlphabet ha = (HashingAlphabet)a;
+      int hash = ha.hash(att.attrId, slot, value);
+      fv.add(ha.bucket(hash), val * ha.sign(hash));
+      return;
+    }
+    AttributeValueIndex valueIndex = att.getValueIndex(a, annType);
+    int index = valueIndex.get(slot, value);
+    // a feature which was not in the alphabet earlier may have been added since if growth is 
+    // possible now, so in that case we have to check again
+    if(index == AttributeValueIndex.UNKNOWN || (index < 0 && !a.growthStopped())) {
+      String key = featureNamePrefix(att, annType, slot);
+      if(value != null) {
+        key = key + VALSEP + value;
+      }
+      index = a.lookupIndex(key, !a.growthStopped());
+      valueIndex.put(slot, value, index);
+    }
+    if(index < 0) return;
+    fv.add(index,val);
+  }
+  
+  /**
+   * Return the part of a feature name which comes from the attribute and slot, i.e. the 
+   * feature name without the value for one-of-k coded features.
+   */
+  public static String featureNamePrefix(String featureName) {
+    int idx = featureName.indexOf(VALSEP);
+    return idx < 0 ? featureName : featureName.substring(0, idx);
+  }
+  
+  /**
+   * Create the feature name prefix for a feature from the given attribute and slot.
+   * This is either the name given in the attribute (plus "#" and the position for lists) 
+   * or it gets made up from the feature indicator, the type and the feature name.
+   */
+  public static String featureNamePrefix(Attribute att, String annType, int slot) {
+    if(att instanceof AttributeList) {
+      int i = ((AttributeList)att).from + slot;
+      if(att.name.isEmpty()) {
+        return "L"+i+NAMESEP+annType+NAMESEP+att.feature;
+      } else {
+        return att.name + "#" + i;
+      }
+    } else if(!att.name.isEmpty()) {
+      return att.name;
+    } else if(att instanceof Ngram) {
+      return "N"+((Ngram)att).number+NAMESEP+annType+NAMESEP+att.feature;
+    } else {
+      return "A"+NAMESEP+annType+NAMESEP+att.feature;
+    }
   }
         
   
@@ -0,0 +1,372 @@
+/*
+ * FeatureExtractor.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.features;
+
+import cc.mallet.types.Alphabet;
+import gate.Annotation;
+import gate.Document;
+import gate.plugin.learningframework.features.FeatureExtraction.CodedValue;
+import gate.util.GateRuntimeException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang.NotImplementedException;
+import org.apache.log4j.Logger;
+
+/**
+ * Extracts the features for one attribute of the feature specification.
+ *
+ * The extractors get created from the attributes by compile: everything which only depends
+ * on the attribute, like the kind of attribute, the datatype, the way how nominal values are
+ * coded and what to do with missing values, is decided once at that time, by choosing
+ * the specialised class to use. This way there is nothing left to check for each instance
+ * and value but the value itself.
+ * <p>
+ * The extractors keep references to the attributes they were created from and their
+ * alphabets, so the compiled extractors must be used with the same FeatureInfo.
+ * LFPipe caches the extractors for its FeatureInfo, see LFPipe.getFeatureExtractors().
+ *
+ * @author Johann Petrak
+ */
+public abstract class FeatureExtractor {
+
+  private static final Logger logger = Logger.getLogger(FeatureExtractor.class.getName());
+
+  /**
+   * Extract the features for the instance annotation.
+   * The features get added to the feature vector builder of the context, missing values
+   * are recorded in the instance status of the context.
+   */
+  public abstract void extract(ExtractionContext ctx, Annotation instanceAnnotation);
+
+  /**
+   * Create the extractors for all the attributes of the FeatureInfo, in the order
+   * of the attributes. Attributes which are marked as unused are left out.
+   */
+  public static FeatureExtractor[] compile(FeatureInfo featureInfo) {
+    List<FeatureExtractor> ret = new ArrayList<FeatureExtractor>();
+    for(Attribute att : featureInfo.getAttributes()) {
+      if(!att.unused) {
+        ret.add(compile(att));
+      }
+    }
+    return ret.toArray(new FeatureExtractor[ret.size()]);
+  }
+
+  /**
+   * Create the extractor for a single attribute.
+   */
+  public static FeatureExtractor compile(Attribute att) {
+    if(att instanceof AttributeList) {
+      return new ListExtractor((AttributeList)att);
+    } else if(att instanceof SimpleAttribute) {
+      return new SimpleExtractor((SimpleAttribute)att);
+    } else if(att instanceof Ngram) {
+      return new NgramExtractor((Ngram)att);
+    } else {
+      throw new GateRuntimeException("Cannot compile a feature extractor for attribute type "+att.getClass());
+    }
+  }
+
+  /**
+   * Extractor for a simple attribute.
+   * If the annotation types of the instance annotation and the annotation specified for the
+   * attribute are the same, or no type is specified, the instance annotation is directly used,
+   * otherwise the first longest overlapping annotation of that type is used. If there is none,
+   * nothing is extracted.
+   */
+  static final class SimpleExtractor extends FeatureExtractor {
+    private final SimpleAttribute att;
+    private final String annType;
+    private final ValueCoder coder;
+    SimpleExtractor(SimpleAttribute att) {
+      this.att = att;
+      this.annType = att.annType;
+      this.coder = coderFor(att);
+    }
+    @Override
+    public void extract(ExtractionContext ctx, Annotation instanceAnnotation) {
+      String type = annType;
+      Annotation sourceAnnotation;
+      if(type.isEmpty() || instanceAnnotation.getType().equals(type)) {
+        sourceAnnotation = instanceAnnotation;
+        type = sourceAnnotation.getType();
+      } else {
+        // the context finds the first longest overlapping annotation and logs the warning if
+        // there is more than one. It remembers this for the other attributes of the same type.
+        sourceAnnotation = ctx.getOverlappingSource(instanceAnnotation, type);
+        if(sourceAnnotation == null) {
+          // if there is no overlapping annotation of annType annType, we simply do nothing
+          return;
+        }
+      }
+      FeatureExtraction.addCodedValue(ctx, att, type, 0, coder.code(sourceAnnotation, ctx.getDocument(), type));
+    }
+  }
+
+  /**
+   * Extractor for an attribute list.
+   * The annotations at positions i &gt;= 0 are those we would get from
+   * inputAS.get(annType, centre, docSize) in document order, those at positions i &lt; 0 are
+   * the ones from inputAS.get(annType, 0, centre), counted backwards from the end, where
+   * centre is the start offset of the instance annotation. The coded value of each annotation
+   * is remembered in the type index of the document, since it only depends on the annotation
+   * and not on the position in the window.
+   */
+  static final class ListExtractor extends FeatureExtractor {
+    private final AttributeList att;
+    private final String annType;
+    private final int from;
+    private final int to;
+    private final ValueCoder coder;
+    ListExtractor(AttributeList att) {
+      this.att = att;
+      this.annType = att.annType;
+      this.from = att.from;
+      this.to = att.to;
+      this.coder = coderFor(att);
+    }
+    @Override
+    public void extract(ExtractionContext ctx, Annotation instanceAnnotation) {
+      String type = annType.isEmpty() ? instanceAnnotation.getType() : annType;
+      long centre = instanceAnnotation.getStartNode().getOffset();
+      ExtractionContext.TypeIndex index = ctx.getTypeIndex(type);
+      CodedValue[] codedValues = index.getCodedValues(att);
+      long docSize = ctx.getDocumentSize();
+      for(int i = from; i <= to; i++) {
+        int pos = index.windowPosition(centre, i, docSize);
+        if(pos >= 0) {
+          CodedValue cv = codedValues[pos];
+          if(cv == null) {
+            cv = coder.code(index.get(pos), ctx.getDocument(), type);
+            codedValues[pos] = cv;
+          }
+          FeatureExtraction.addCodedValue(ctx, att, type, i-from, cv);
+          // no need to go on if the instance gets ignored anyway
+          if((cv.status & ExtractionContext.STATUS_IGNORE_HAS_MV) != 0) return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Extractor for an n-gram attribute.
+   */
+  static final class NgramExtractor extends FeatureExtractor {
+    private final Ngram ng;
+    NgramExtractor(Ngram ng) {
+      this.ng = ng;
+    }
+    @Override
+    public void extract(ExtractionContext ctx, Annotation instanceAnnotation) {
+      FeatureExtraction.extractFeature(ng, ctx, instanceAnnotation);
+    }
+  }
+
+  // ***************************************************************************
+  // Value coders
+  // ***************************************************************************
+
+  /**
+   * Codes the value of the feature of an annotation.
+   * There is one subclass for each datatype and way of coding nominal values, the
+   * treatment of missing values is decided when the coder is created and represented by a
+   * pre-made CodedValue.
+   */
+  abstract static class ValueCoder {
+    abstract CodedValue code(Annotation sourceAnnotation, Document doc, String annType);
+  }
+
+  /**
+   * Create the value coder for a simple attribute or attribute list.
+   */
+  static ValueCoder coderFor(SimpleAttribute att) {
+    // if the feature name is empty, then all we want is indicate the presence of the
+    // annotation as a boolean. No matter what the datatype is, this is always indicated by
+    // setting the feature to 1.0 (while for all instances, where the annotation is missing,
+    // the value will implicitly be set to 0.0).
+    if(att.feature == null || att.feature.isEmpty()) {
+      CodedValue present = new CodedValue();
+      present.set(null, 1.0);
+      return new ConstantCoder(present);
+    }
+    CodedValue missing = missingValue(att);
+    if(att.datatype == Datatype.nominal) {
+      if(att.codeas == CodeAs.one_of_k) {
+        return new OneOfKCoder(att.feature, missing);
+      } else if(att.codeas == CodeAs.number) {
+        return new NumberCoder(att.feature, att.alphabet, missing);
+      } else {
+        throw new NotImplementedException("CodeAs method not implemented");
+      }
+    } else if(att.datatype == Datatype.numeric) {
+      return new NumericCoder(att.feature, missing);
+    } else if(att.datatype == Datatype.bool) {
+      return new BoolCoder(att.feature, missing);
+    } else {
+      throw new NotImplementedException("Datatype!");
+    }
+  }
+
+  /**
+   * The coded value to use for a missing value of the attribute.
+   */
+  static CodedValue missingValue(SimpleAttribute att) {
+    CodedValue ret = new CodedValue();
+    // no matter what the datatype is, a null is always a missing value
+    ret.status = ExtractionContext.STATUS_HAVE_MV;
+    boolean oneOfK = att.datatype == Datatype.nominal && att.codeas == CodeAs.one_of_k;
+    switch(att.missingValueTreatment) {
+      case ignore_instance:
+        ret.status |= ExtractionContext.STATUS_IGNORE_HAS_MV;
+        break;
+      case keep:
+        // for one-of-k this represents the MV by not setting any indicator feature,
+        // otherwise we use the value NaN
+        if(!oneOfK) ret.set(null, Double.NaN);
+        break;
+      case zero_value:
+        // for one-of-k we treat this identically to keep, otherwise use 0.0
+        // TODO: document that this combination should be avoided, probably
+        if(!oneOfK) ret.set(null, 0.0);
+        break;
+      case special_value:
+        // we use the predefined special value for one-of-k, for boolean the value 0.5,
+        // and the special value -1.0 which should get handled by Mallet somehow otherwise
+        if(oneOfK) {
+          ret.set(FeatureExtraction.MVVALUE, 1.0);
+        } else if(att.datatype == Datatype.bool) {
+          ret.set(null, 0.5);
+        } else {
+          ret.set(null, -1.0);
+        }
+        break;
+      default:
+        throw new NotImplementedException("MV-Handling");
+    }
+    return ret;
+  }
+
+  static final class ConstantCoder extends ValueCoder {
+    private final CodedValue value;
+    ConstantCoder(CodedValue value) {
+      this.value = value;
+    }
+    @Override
+    CodedValue code(Annotation sourceAnnotation, Document doc, String annType) {
+      return value;
+    }
+  }
+
+  static final class OneOfKCoder extends ValueCoder {
+    private final String feature;
+    private final CodedValue missing;
+    OneOfKCoder(String feature, CodedValue missing) {
+      this.feature = feature;
+      this.missing = missing;
+    }
+    @Override
+    CodedValue code(Annotation sourceAnnotation, Document doc, String annType) {
+      Object valObj = sourceAnnotation.getFeatures().get(feature);
+      if(valObj == null) return missing;
+      CodedValue ret = new CodedValue();
+      ret.set(valObj.toString(), 1.0);
+      return ret;
+    }
+  }
+
+  /**
+   * For a nominal value coded as number, we need to maintain a dictionary that maps values to
+   * numbers. This is done using the Alphabet stored in the attribute: if a value is not in
+   * the alphabet and the alphabet is allowed to grow, we simply add it, otherwise nothing
+   * gets added for the value.
+   */
+  static final class NumberCoder extends ValueCoder {
+    private final String feature;
+    private final Alphabet alphabet;
+    private final CodedValue missing;
+    NumberCoder(String feature, Alphabet alphabet, CodedValue missing) {
+      this.feature = feature;
+      this.alphabet = alphabet;
+      this.missing = missing;
+    }
+    @Override
+    CodedValue code(Annotation sourceAnnotation, Document doc, String annType) {
+      Object valObj = sourceAnnotation.getFeatures().get(feature);
+      if(valObj == null) return missing;
+      CodedValue ret = new CodedValue();
+      int index = alphabet.lookupIndex(valObj.toString(), !alphabet.growthStopped());
+      if(index >= 0) {
+        ret.set(null, index);
+      }
+      return ret;
+    }
+  }
+
+  static final class NumericCoder extends ValueCoder {
+    private final String feature;
+    private final CodedValue missing;
+    NumericCoder(String feature, CodedValue missing) {
+      this.feature = feature;
+      this.missing = missing;
+    }
+    @Override
+    CodedValue code(Annotation sourceAnnotation, Document doc, String annType) {
+      Object valObj = sourceAnnotation.getFeatures().get(feature);
+      if(valObj == null) return missing;
+      double val = 0.0;
+      if(valObj instanceof Number) {
+        val = ((Number)valObj).doubleValue();
+      } else if(valObj instanceof Boolean) {
+        if((Boolean)valObj) { val = 1.0; } else { val = 0.0; }
+      } else {
+        // try to convert the string to a number. If that fails, just use 0.0 but log a warning
+        try {
+          val = Double.parseDouble(valObj.toString());
+        } catch (Exception ex) {
+          val = 0.0;
+          logger.warn("Cannot parse String "+valObj+" as a number, using 0.0 for annotation of type "+annType+
+                  " at offset "+gate.Utils.start(sourceAnnotation)+" in document "+doc.getName());
+        }
+      }
+      CodedValue ret = new CodedValue();
+      ret.set(null, val);
+      return ret;
+    }
+  }
+
+  static final class BoolCoder extends ValueCoder {
+    private final String feature;
+    private final CodedValue missing;
+    BoolCoder(String feature, CodedValue missing) {
+      this.feature = feature;
+      this.missing = missing;
+    }
+    @Override
+    CodedValue code(Annotation sourceAnnotation, Document doc, String annType) {
+      Object valObj = sourceAnnotation.getFeatures().get(feature);
+      if(valObj == null) return missing;
+      double val = 0.0;
+      if(valObj instanceof Boolean) {
+        if((Boolean)valObj) val = 1.0;
+      } else if(valObj instanceof Number) {
+        if(((Number)valObj).doubleValue() != 0) val = 1.0;
+      } else {
+        if(Boolean.parseBoolean(valObj.toString())) val = 1.0;
+      }
+      CodedValue ret = new CodedValue();
+      ret.set(null, val);
+      return ret;
+    }
+  }
+
+}
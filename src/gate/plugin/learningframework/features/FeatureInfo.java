@@ -5,6 +5,11 @@
  */
 package gate.plugin.learningframework.features;
 
+import cc.mallet.types.Alphabet;
+import gate.plugin.learningframework.mallet.HashingAlphabet;
+import gate.plugin.learningframework.mallet.PruningAlphabet;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -36,12 +41,23 @@ public class FeatureInfo implements Serializable {
    */
   public FeatureInfo(FeatureInfo other) {
     this.growthStopped = other.growthStopped;
+    this.hashingBuckets = other.hashingBuckets;
+    this.hashingSigned = other.hashingSigned;
+    this.minFeatureFrequency = other.minFeatureFrequency;
     attributes = new ArrayList<Attribute>();
     for(Attribute attr : other.getAttributes()) {
-      attributes.add(attr.clone());
+      add(attr.clone());
     }
   }
   
+  /**
+   * Add an attribute and assign it the next attribute id.
+   */
+  public void add(Attribute attr) {
+    attr.attrId = attributes.size();
+    attributes.add(attr);
+  }
+  
   public void stopGrowth() {
     // make sure that all alphabets we have stored with some of the attributes are
     // locked too!
@@ -60,10 +76,58 @@ public class FeatureInfo implements Serializable {
   }
 
   protected List<Attribute> attributes;
+  
+  /**
+   * If this is larger than 0, the features are not stored in the data alphabet but
+   * hashed into this many buckets.
+   */
+  protected int hashingBuckets = 0;
+  
+  /**
+   * If the hashing trick is used, if the hashed feature values should also get a hashed sign.
+   */
+  protected boolean hashingSigned = false;
+  
+  public int getHashingBuckets() { return hashingBuckets; }
+  public void setHashingBuckets(int buckets) { hashingBuckets = buckets; }
+  public boolean getHashingSigned() { return hashingSigned; }
+  public void setHashingSigned(boolean signed) { hashingSigned = signed; }
+  
+  /**
+   * If this is larger than 1, features which are seen fewer times than this while the 
+   * training data is collected do not get added to the data alphabet.
+   */
+  protected int minFeatureFrequency = 1;
+  
+  public int getMinFeatureFrequency() { return minFeatureFrequency; }
+  public void setMinFeatureFrequency(int freq) { minFeatureFrequency = freq; }
+  
+  /**
+   * Create a new, empty data alphabet for features extracted according to this FeatureInfo.
+   * This is a HashingAlphabet if the hashing trick is used, a PruningAlphabet if there is 
+   * a minimum feature frequency and a normal Alphabet otherwise.
+   */
+  public Alphabet newDataAlphabet() {
+    if(hashingBuckets > 0) {
+      return new HashingAlphabet(hashingBuckets, hashingSigned);
+    } else if(minFeatureFrequency > 1) {
+      return new PruningAlphabet(minFeatureFrequency);
+    } else {
+      return new Alphabet();
+    }
+  }
 
 
   public List<Attribute> getAttributes() { return attributes; }
   
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    // attributes saved before we had attribute ids all come back with id 0
+    for(int i=0; i<attributes.size(); i++) {
+      attributes.get(i).attrId = i;
+    }
+  }
+  
 
 
 
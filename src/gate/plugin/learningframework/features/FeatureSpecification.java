@@ -93,23 +93,24 @@ public class FeatureSpecification {
 
     List<Element> elements = rootElement.getChildren();
 
-    // In this method, we directly modify the attributes list from the featureinfo we have 
-    // stored. 
-    List<Attribute> attributes = featureInfo.getAttributes();
+    // In this method, we directly add to the featureinfo we have stored, which also assigns
+    // the attribute ids.
     
     int n = 0;
     for (Element element : elements) {
       n++;
       String elementName = element.getName().toLowerCase();
       if (elementName.equals("attribute")) {
-        attributes.add(parseSimpleAttribute(element, n));
+        featureInfo.add(parseSimpleAttribute(element, n));
       } else if (elementName.equals("attributelist")) {
         SimpleAttribute att = parseSimpleAttribute(element, n);
         int from = Integer.parseInt(element.getChildText("FROM"));
         int to = Integer.parseInt(element.getChildText("TO"));
-        attributes.add(new AttributeList(att, from, to));
+        featureInfo.add(new AttributeList(att, from, to));
       } else if (elementName.equals("ngram")) {
-        attributes.add(parseNgramAttribute(element, n));
+        featureInfo.add(parseNgramAttribute(element, n));
+      } else if (elementName.equals("hashing")) {
+        parseHashing(element, n);
       } else {
         throw new GateRuntimeException("Not a recognized element name for the LearningFramework config file: " + elementName);
       }
@@ -185,10 +186,8 @@ public class FeatureSpecification {
       throw new GateRuntimeException("TYPE in NGRAM " + i + " must not be missing or empty");
     }
     
+    // if there is no FEATURE, the grams are the cleaned document text of the annotations
     String feature = getChildTextOrElse(ngramElement,"FEATURE","").trim();
-    if (feature.isEmpty()) {
-      throw new GateRuntimeException("TYPE in NGRAM " + i + " must not be missing or empty");
-    }
     Ngram ng = new Ngram(
             aname,
             Integer.parseInt(ngramElement.getChildText("NUMBER")),
@@ -198,6 +197,43 @@ public class FeatureSpecification {
     return ng;
   }
 
+  /**
+   * Parse the HASHING element which switches on the hashing trick for all features.
+   * The number of buckets can be given as a number or as a power of two, e.g. "2^22", 
+   * either as the attribute "buckets" or as a nested BUCKETS element. Signed hashing is
+   * enabled in the same way with "signed" or SIGNED set to true. 
+   */
+  private void parseHashing(Element hashingElement, int i) {
+    String bucketsStr = hashingElement.getAttributeValue("buckets");
+    if(bucketsStr == null) {
+      bucketsStr = getChildTextOrElse(hashingElement, "BUCKETS", "");
+    }
+    bucketsStr = bucketsStr.trim();
+    int buckets;
+    try {
+      if(bucketsStr.startsWith("2^")) {
+        int exp = Integer.parseInt(bucketsStr.substring(2).trim());
+        if(exp < 0 || exp > 30) {
+          throw new GateRuntimeException("Exponent for the number of buckets in HASHING element "+i+" must be between 0 and 30");
+        }
+        buckets = 1 << exp;
+      } else {
+        buckets = Integer.parseInt(bucketsStr);
+      }
+    } catch (NumberFormatException ex) {
+      throw new GateRuntimeException("Not a valid number of buckets in HASHING element "+i+": "+bucketsStr);
+    }
+    if(buckets <= 0) {
+      throw new GateRuntimeException("Number of buckets in HASHING element "+i+" must be > 0");
+    }
+    String signedStr = hashingElement.getAttributeValue("signed");
+    if(signedStr == null) {
+      signedStr = getChildTextOrElse(hashingElement, "SIGNED", "false");
+    }
+    featureInfo.setHashingBuckets(buckets);
+    featureInfo.setHashingSigned(Boolean.parseBoolean(signedStr.trim()));
+  }
+
   private FeatureInfo featureInfo = new FeatureInfo();
   
   /**
@@ -6,6 +6,7 @@
 
 package gate.plugin.learningframework.features;
 
+import cc.mallet.types.Alphabet;
 import java.io.Serializable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -16,6 +17,8 @@ import java.util.logging.Logger;
  */
 public class Ngram extends Attribute implements Serializable, Cloneable {
 
+  private static final long serialVersionUID = -2662742214771876467L;
+
   public Ngram(String aname, int number, String type, String feature) {
     this.name = aname;
     this.number = number;
@@ -23,6 +26,32 @@ public class Ngram extends Attribute implements Serializable, Cloneable {
     this.feature = feature;
   }
   int number = -1;
+  
+  // the dictionary of token ids and packed n-grams for each thread, created when first needed
+  private transient volatile ThreadLocal<NgramIndex> ngramIndex;
+  
+  /**
+   * Return the n-gram index of this attribute for the current thread, prepared for the given
+   * data alphabet and annotation type.
+   */
+  public NgramIndex getNgramIndex(Alphabet alphabet, String forAnnType) {
+    ThreadLocal<NgramIndex> indices = ngramIndex;
+    if(indices == null) {
+      synchronized(this) {
+        if(ngramIndex == null) {
+          ngramIndex = new ThreadLocal<NgramIndex>();
+        }
+        indices = ngramIndex;
+      }
+    }
+    NgramIndex index = indices.get();
+    if(index == null) {
+      index = new NgramIndex();
+      indices.set(index);
+    }
+    index.checkFor(alphabet, forAnnType);
+    return index;
+  }
 
   @Override
   public void stopGrowth() {
@@ -44,7 +73,9 @@ public class Ngram extends Attribute implements Serializable, Cloneable {
   
   @Override
   public Ngram clone() {
-      return (Ngram) super.clone();
+      Ngram ret = (Ngram) super.clone();
+      ret.ngramIndex = null;
+      return ret;
   }
   
 }
@@ -0,0 +1,204 @@
+/*
+ * NgramIndex.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.features;
+
+import cc.mallet.types.Alphabet;
+import gnu.trove.TLongIntHashMap;
+import gnu.trove.TObjectIntHashMap;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-attribute dictionary for n-grams which avoids building n-gram strings.
+ *
+ * Each gram string gets a token id the first time it is seen. An n-gram of up to
+ * MAX_PACKED_N grams is then identified by the token ids shifted into a single long, which
+ * can be updated when moving along the grams by shifting in the next id. That long is
+ * mapped to the index of the n-gram feature in the data alphabet, so the feature name of an
+ * n-gram only needs to be created when the n-gram is seen for the first time. The feature
+ * names in the alphabet are the same as before.
+ * <p>
+ * There are two kinds of token ids: a string first gets a document id, which is only valid
+ * for the current extraction context, usually one document, and all document ids are 
+ * discarded when the next context starts. Once the string is part of an n-gram which is 
+ * in the alphabet, it also gets a known id, which is kept and never changed. Only n-grams
+ * made of known ids are cached across contexts, so the cache and the known ids are 
+ * bounded by the n-grams in the alphabet, no matter how many other strings are seen at 
+ * application time. The cached alphabet indices are only valid for one data alphabet and 
+ * annotation type and get cleared when either changes, just like for AttributeValueIndex. 
+ * This object is not thread-safe and does not get serialized:
+ * Ngram.getNgramIndex returns a separate index for each thread.
+ *
+ * @author Johann Petrak
+ */
+public class NgramIndex {
+
+  /**
+   * The number of bits used for each token id in the packed key.
+   */
+  public static final int BITS = 21;
+
+  /**
+   * The largest n for which n-grams can be packed into a long.
+   */
+  public static final int MAX_PACKED_N = 64 / BITS;
+
+  /**
+   * The mask for getting one token id out of a packed key.
+   */
+  public static final int ID_MASK = (1 << BITS) - 1;
+
+  // known ids are below FIRST_DOC_ID, document ids from FIRST_DOC_ID to ID_MASK
+  private static final int FIRST_DOC_ID = 1 << (BITS - 1);
+  // the bits of a packed key which are only set for document ids
+  private static final long DOC_ID_BITS;
+  static {
+    long bits = 0;
+    for(int j = 0; j < MAX_PACKED_N; j++) {
+      bits |= ((long)FIRST_DOC_ID) << (BITS*j);
+    }
+    DOC_ID_BITS = bits;
+  }
+
+  /**
+   * Returned by get if the n-gram has not been looked up in the alphabet yet.
+   */
+  public static final int UNKNOWN = AttributeValueIndex.UNKNOWN;
+
+  /**
+   * Returned by get if the n-gram has been looked up but is not in the alphabet.
+   */
+  public static final int NOT_IN_ALPHABET = AttributeValueIndex.NOT_IN_ALPHABET;
+
+  // the maximum number of n-grams we remember as not being in the alphabet
+  private static final int MAX_MISSES = 100000;
+
+  // the known token ids and strings, id 0 is not used
+  private final TObjectIntHashMap<String> tokenIds = new TObjectIntHashMap<String>();
+  private final List<String> tokens = new ArrayList<String>();
+  // the document token ids and strings of the current context, by id-FIRST_DOC_ID
+  private final TObjectIntHashMap<String> docTokenIds = new TObjectIntHashMap<String>();
+  private final List<String> docTokens = new ArrayList<String>();
+  private long contextId = -1;
+
+  private Alphabet alphabet;
+  private String annType;
+  // the cached indices for keys of known ids and for keys with document ids
+  private final TLongIntHashMap indices = new TLongIntHashMap();
+  private final TLongIntHashMap docIndices = new TLongIntHashMap();
+  private int misses = 0;
+
+  public NgramIndex() {
+    tokens.add(null);
+  }
+
+  /**
+   * Make sure the cached indices are for the given alphabet and annotation type.
+   * If not, the cached indices are discarded, the token ids are kept.
+   */
+  public void checkFor(Alphabet forAlphabet, String forAnnType) {
+    if(forAlphabet != alphabet || (forAnnType != annType && !forAnnType.equals(annType))) {
+      indices.clear();
+      docIndices.clear();
+      misses = 0;
+      alphabet = forAlphabet;
+      annType = forAnnType;
+    }
+  }
+
+  /**
+   * Make sure the document ids are for the extraction context with the id, if not, all 
+   * document ids and the indices cached for them are discarded.
+   */
+  public void checkForContext(long forContextId) {
+    if(forContextId != contextId) {
+      if(!docTokens.isEmpty()) {
+        docTokenIds.clear();
+        docTokens.clear();
+        docIndices.clear();
+      }
+      contextId = forContextId;
+    }
+  }
+
+  /**
+   * Return the id of the token string, the known id if there is one, otherwise the document
+   * id, if necessary a new one. Ids start at 1. If all document ids have been used, -1 is
+   * returned for a new string.
+   */
+  public int tokenId(String token) {
+    // Trove returns 0 for a missing key, which is never a valid id
+    int id = tokenIds.get(token);
+    if(id == 0) {
+      id = docTokenIds.get(token);
+      if(id == 0) {
+        if(FIRST_DOC_ID + docTokens.size() > ID_MASK) return -1;
+        id = FIRST_DOC_ID + docTokens.size();
+        docTokens.add(token);
+        docTokenIds.put(token, id);
+      }
+    }
+    return id;
+  }
+
+  /**
+   * The token string for an id.
+   */
+  public String token(int id) {
+    return id >= FIRST_DOC_ID ? docTokens.get(id - FIRST_DOC_ID) : tokens.get(id);
+  }
+
+  /**
+   * Shift the token id into the key, keeping only the last n ids.
+   */
+  public static long shift(long key, int id, int n) {
+    return ((key << BITS) | id) & ((1L << (BITS*n)) - 1);
+  }
+
+  /**
+   * Get the cached alphabet index for the packed n-gram key, or NOT_IN_ALPHABET or UNKNOWN.
+   */
+  public int get(long key) {
+    // we store index+2 so that the 0 returned for missing keys can be told apart
+    return ((key & DOC_ID_BITS) == 0 ? indices.get(key) : docIndices.get(key)) - 2;
+  }
+
+  /**
+   * Remember the alphabet index for the packed n-gram key. If the n-gram is in the 
+   * alphabet, its tokens get known ids, which are used from the next lookup of the strings.
+   */
+  public void put(long key, int index) {
+    if((key & DOC_ID_BITS) != 0) {
+      if(index >= 0) {
+        for(int j = 0; j < MAX_PACKED_N; j++) {
+          int id = (int)(key >>> (BITS*j)) & ID_MASK;
+          if(id >= FIRST_DOC_ID && tokens.size() < FIRST_DOC_ID) {
+            String token = docTokens.get(id - FIRST_DOC_ID);
+            if(!tokenIds.containsKey(token)) {
+              tokenIds.put(token, tokens.size());
+              tokens.add(token);
+            }
+          }
+        }
+      }
+      docIndices.put(key, index + 2);
+      return;
+    }
+    if(index < 0) {
+      if(misses >= MAX_MISSES) return;
+      misses++;
+    }
+    indices.put(key, index + 2);
+  }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * CompactInstanceList.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.mallet;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import gate.util.GateRuntimeException;
+import java.util.Arrays;
+
+/**
+ * An InstanceList which stores the feature vectors of all its instances in a few shared
+ * arrays instead of one Instance and FeatureVector object per instance.
+ *
+ * The features of all instances are stored in compressed sparse row format: the indices of
+ * each row are stored as variable length encoded differences to the previous index in a single
+ * byte array and the values as floats in a single float array. If all the values of a row are
+ * 1.0, which is the case for most rows with only nominal features, no values are stored for
+ * it. Per instance, only the start of its indices and values and the target are stored,
+ * the target as the label index for classification or the target value for regression.
+ * Since values are stored as floats, they lose some precision.
+ * <p>
+ * See RowInstanceList for how the instances can be accessed.
+ *
+ * @author Johann Petrak
+ */
+public class CompactInstanceList extends RowInstanceList {
+
+  private static final long serialVersionUID = 1L;
+
+  private int nrRows = 0;
+  // the indices of row i are in indexBytes[indexStart[i]] to indexBytes[indexStart[i+1]-1]
+  private int[] indexStart = new int[17];
+  private byte[] indexBytes = new byte[1024];
+  // the values of row i are values[valueStart[i]] to values[valueStart[i+1]-1], none if binary
+  private int[] valueStart = new int[17];
+  private float[] values = new float[256];
+  // label index, target value or NaN if there is no target
+  private double[] targets = new double[16];
+  // only allocated once a weight other than 1.0 is set
+  private float[] weights;
+
+  public CompactInstanceList(Pipe pipe) {
+    super(pipe);
+  }
+
+  @Override
+  public int size() {
+    return nrRows;
+  }
+
+  @Override
+  public boolean add(Instance inst, double weight) {
+    FeatureVector fv = rowFeatureVector(inst);
+    int n = fv.numLocations();
+    if(nrRows + 1 == indexStart.length) {
+      int capacity = grow(indexStart.length);
+      indexStart = Arrays.copyOf(indexStart, capacity);
+      valueStart = Arrays.copyOf(valueStart, capacity);
+      targets = Arrays.copyOf(targets, capacity - 1);
+      if(weights != null) weights = Arrays.copyOf(weights, capacity - 1);
+    }
+    // at most 5 bytes per index
+    ensureIndexCapacity(indexStart[nrRows] + 5L * n);
+    int pos = indexStart[nrRows];
+    int prev = 0;
+    boolean binary = true;
+    for(int l=0; l<n; l++) {
+      int index = fv.indexAtLocation(l);
+      pos = writeVarint(index - prev, pos);
+      prev = index;
+      if(fv.valueAtLocation(l) != 1.0) binary = false;
+    }
+    indexStart[nrRows+1] = pos;
+    int vpos = valueStart[nrRows];
+    if(!binary) {
+      if((long)vpos + n > Integer.MAX_VALUE - 8) {
+        throw new GateRuntimeException("Too many values for a CompactInstanceList");
+      }
+      if(vpos + n > values.length) {
+        values = Arrays.copyOf(values, Math.max(vpos + n, grow(values.length)));
+      }
+      for(int l=0; l<n; l++) {
+        values[vpos++] = (float)fv.valueAtLocation(l);
+      }
+    }
+    valueStart[nrRows+1] = vpos;
+    targets[nrRows] = rowTargetValue(inst.getTarget());
+    if(weight != 1.0) {
+      if(weights == null) {
+        weights = new float[targets.length];
+        Arrays.fill(weights, 1.0f);
+      }
+      weights[nrRows] = (float)weight;
+    } else if(weights != null) {
+      weights[nrRows] = 1.0f;
+    }
+    nrRows++;
+    return true;
+  }
+
+  private static int grow(int capacity) {
+    long newCapacity = capacity + (capacity >> 1) + 16L;
+    return (int)Math.min(newCapacity, Integer.MAX_VALUE - 8);
+  }
+
+  private void ensureIndexCapacity(long needed) {
+    if(needed > Integer.MAX_VALUE - 8) {
+      throw new GateRuntimeException("Too many indices for a CompactInstanceList");
+    }
+    if(needed > indexBytes.length) {
+      indexBytes = Arrays.copyOf(indexBytes, Math.max((int)needed, grow(indexBytes.length)));
+    }
+  }
+
+  private int writeVarint(int v, int pos) {
+    while((v & ~0x7f) != 0) {
+      indexBytes[pos++] = (byte)((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    indexBytes[pos++] = (byte)v;
+    return pos;
+  }
+
+  @Override
+  public int numLocations(int row) {
+    checkRow(row);
+    int n = 0;
+    // the last byte of each index is the one with the high bit not set
+    for(int p=indexStart[row]; p<indexStart[row+1]; p++) {
+      if(indexBytes[p] >= 0) n++;
+    }
+    return n;
+  }
+
+  @Override
+  public int[] getIndices(int row) {
+    int[] ret = new int[numLocations(row)];
+    int p = indexStart[row];
+    int prev = 0;
+    for(int l=0; l<ret.length; l++) {
+      int v = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = indexBytes[p++];
+        v |= (b & 0x7f) << shift;
+        shift += 7;
+      } while(b < 0);
+      prev += v;
+      ret[l] = prev;
+    }
+    return ret;
+  }
+
+  /**
+   * Check if all feature values of an instance are 1.0.
+   */
+  public boolean isBinary(int row) {
+    checkRow(row);
+    return valueStart[row+1] == valueStart[row];
+  }
+
+  @Override
+  protected double[] getStoredValues(int row) {
+    int n = numLocations(row);
+    double[] ret = new double[n];
+    if(isBinary(row)) {
+      Arrays.fill(ret, 1.0);
+    } else {
+      int start = valueStart[row];
+      for(int l=0; l<n; l++) {
+        ret[l] = values[start + l];
+      }
+    }
+    return ret;
+  }
+
+  @Override
+  public double getTargetValue(int row) {
+    checkRow(row);
+    return targets[row];
+  }
+
+  @Override
+  public double getInstanceWeight(int row) {
+    checkRow(row);
+    return weights == null ? 1.0 : weights[row];
+  }
+
+  @Override
+  public void setInstanceWeight(int row, double weight) {
+    checkRow(row);
+    if(weights == null) {
+      if(weight == 1.0) return;
+      weights = new float[targets.length];
+      Arrays.fill(weights, 1.0f);
+    }
+    weights[row] = (float)weight;
+  }
+
+  @Override
+  public void clear() {
+    nrRows = 0;
+    indexStart = new int[17];
+    indexBytes = new byte[1024];
+    valueStart = new int[17];
+    values = new float[256];
+    targets = new double[16];
+    weights = null;
+  }
+
+}
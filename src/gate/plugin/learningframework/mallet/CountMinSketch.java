@@ -0,0 +1,126 @@
+/*
+ * CountMinSketch.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.mallet;
+
+/**
+ * Approximate counts of strings in a fixed amount of memory.
+ *
+ * This is a count-min sketch with conservative update: each string is hashed to one counter
+ * in each of DEPTH rows, the estimate is the smallest of these counters and when a string is
+ * counted, only the counters which are equal to that smallest value get incremented.
+ * The estimate is never smaller than the true count, it can only be larger if other strings
+ * hash to the same counters in all rows.
+ * <p>
+ * The counters saturate at a maximum count given when the sketch is created, so they can be
+ * stored as chars: for deciding if something has been seen at least n times, the counts
+ * above n do not matter.
+ * <p>
+ * This object is not thread-safe.
+ *
+ * @author Johann Petrak
+ */
+public class CountMinSketch {
+
+  /**
+   * The number of rows, i.e. the number of counters used for each string.
+   */
+  public static final int DEPTH = 4;
+
+  /**
+   * The default number of counters per row.
+   */
+  public static final int DEFAULT_WIDTH = 1 << 21;
+
+  private final char[] counters;
+  private final int mask;
+  private final int maxCount;
+  // the counter positions of the string being added
+  private final int[] slots = new int[DEPTH];
+
+  /**
+   * Create a sketch with the default width which counts up to maxCount.
+   */
+  public CountMinSketch(int maxCount) {
+    this(DEFAULT_WIDTH, maxCount);
+  }
+
+  /**
+   * Create a sketch with the given number of counters per row, which gets rounded up to a
+   * power of two, and which counts up to maxCount.
+   */
+  public CountMinSketch(int width, int maxCount) {
+    if(width <= 0) {
+      throw new IllegalArgumentException("Width of a CountMinSketch must be > 0 but is "+width);
+    }
+    if(maxCount <= 0 || maxCount > Character.MAX_VALUE) {
+      throw new IllegalArgumentException("Maximum count must be between 1 and "+(int)Character.MAX_VALUE+" but is "+maxCount);
+    }
+    int w = Integer.highestOneBit(width);
+    if(w < width) w <<= 1;
+    counters = new char[w * DEPTH];
+    mask = w - 1;
+    this.maxCount = maxCount;
+  }
+
+  /**
+   * Count one more occurrence of the string and return the new estimated count.
+   */
+  public int add(String s) {
+    long h = hash(s);
+    int h1 = (int)h;
+    int h2 = (int)(h >>> 32) | 1;
+    int min = Integer.MAX_VALUE;
+    for(int i=0; i<DEPTH; i++) {
+      slots[i] = i * (mask + 1) + ((h1 + i * h2) & mask);
+      min = Math.min(min, counters[slots[i]]);
+    }
+    if(min >= maxCount) return maxCount;
+    for(int i=0; i<DEPTH; i++) {
+      if(counters[slots[i]] == min) {
+        counters[slots[i]] = (char)(min + 1);
+      }
+    }
+    return min + 1;
+  }
+
+  /**
+   * Return the estimated count of the string.
+   */
+  public int estimate(String s) {
+    long h = hash(s);
+    int h1 = (int)h;
+    int h2 = (int)(h >>> 32) | 1;
+    int min = Integer.MAX_VALUE;
+    for(int i=0; i<DEPTH; i++) {
+      min = Math.min(min, counters[i * (mask + 1) + ((h1 + i * h2) & mask)]);
+    }
+    return min;
+  }
+
+  // a 64 bit hash of the chars of the string, the rows use different combinations of the
+  // two halves
+  private static long hash(String s) {
+    long h = 0xcbf29ce484222325L;
+    for(int i=0; i<s.length(); i++) {
+      h ^= s.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+}
@@ -0,0 +1,340 @@
+/*
+ * DiskInstanceList.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.mallet;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import gate.util.GateRuntimeException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.apache.log4j.Logger;
+
+/**
+ * An InstanceList which stores its instances in a file instead of the heap.
+ *
+ * Each instance added is appended to a temporary file as a record with its weight, target,
+ * the feature indices as variable length encoded differences and, unless all values are 1.0,
+ * the feature values as floats. The file is written through a large buffer and read back
+ * through memory mapped buffers, so the operating system decides how much of it is
+ * kept in memory and the number of instances is not limited by the heap size. Only the
+ * position of each record is kept in the heap, 8 bytes per instance.
+ * <p>
+ * The file is mapped in segments of at most SEGMENT_SIZE bytes and a record never crosses
+ * the boundary between two segments. Reading from the list is best done after all instances
+ * have been added, since the buffered data has to be written out before it can be read.
+ * The list is not thread-safe while instances are added, once that is done, it can be read
+ * from several threads.
+ * <p>
+ * The file is deleted by close() or when the JVM exits. See RowInstanceList for how the
+ * instances can be accessed.
+ *
+ * @author Johann Petrak
+ */
+public class DiskInstanceList extends RowInstanceList implements Closeable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final Logger logger = Logger.getLogger(DiskInstanceList.class);
+
+  /**
+   * The maximum number of bytes mapped into one buffer.
+   */
+  public static final int SEGMENT_SIZE = 1 << 30;
+
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+  // record layout: float weight, double target, int number of indices, byte binary flag,
+  // the varint encoded index differences, the values as floats if not binary
+  private static final int WEIGHT = 0;
+  private static final int TARGET = 4;
+  private static final int NRINDICES = 12;
+  private static final int BINARY = 16;
+  private static final int HEADER_SIZE = 17;
+
+  private transient File file;
+  private transient RandomAccessFile raf;
+  private transient FileChannel channel;
+  private transient ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+  private transient ByteBuffer record = ByteBuffer.allocate(1024);
+  // the number of bytes added, including what is still in the write buffer
+  private long written = 0;
+  // the number of bytes written to the file
+  private long flushed = 0;
+  private transient MappedByteBuffer[] segments = new MappedByteBuffer[0];
+  private long mapped = 0;
+  private int nrRows = 0;
+  private long[] offsets = new long[16];
+
+  /**
+   * Create a list which stores the instances in a new temporary file in the given directory,
+   * or in the default temporary directory if directory is null.
+   */
+  public DiskInstanceList(Pipe pipe, File directory) {
+    super(pipe);
+    try {
+      file = File.createTempFile("lf-instances", ".bin", directory);
+      file.deleteOnExit();
+      raf = new RandomAccessFile(file, "rw");
+      channel = raf.getChannel();
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not create the instance file in "+directory, ex);
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public int size() {
+    return nrRows;
+  }
+
+  @Override
+  public boolean add(Instance inst, double weight) {
+    if(channel == null) {
+      throw new GateRuntimeException("DiskInstanceList has been closed");
+    }
+    FeatureVector fv = rowFeatureVector(inst);
+    int n = fv.numLocations();
+    boolean binary = true;
+    for(int l=0; l<n; l++) {
+      if(fv.valueAtLocation(l) != 1.0) {
+        binary = false;
+        break;
+      }
+    }
+    long maxSize = HEADER_SIZE + 5L * n + (binary ? 0 : 4L * n);
+    if(maxSize > SEGMENT_SIZE) {
+      throw new GateRuntimeException("Instance too large for a DiskInstanceList: "+n+" features");
+    }
+    if(maxSize > record.capacity()) {
+      record = ByteBuffer.allocate((int)Math.max(maxSize, 2L * record.capacity()));
+    }
+    record.clear();
+    record.putFloat((float)weight);
+    record.putDouble(rowTargetValue(inst.getTarget()));
+    record.putInt(n);
+    record.put(binary ? (byte)1 : (byte)0);
+    int prev = 0;
+    for(int l=0; l<n; l++) {
+      int index = fv.indexAtLocation(l);
+      int v = index - prev;
+      while((v & ~0x7f) != 0) {
+        record.put((byte)((v & 0x7f) | 0x80));
+        v >>>= 7;
+      }
+      record.put((byte)v);
+      prev = index;
+    }
+    if(!binary) {
+      for(int l=0; l<n; l++) {
+        record.putFloat((float)fv.valueAtLocation(l));
+      }
+    }
+    record.flip();
+    // do not let the record cross a segment boundary, leave a gap instead
+    if(written / SEGMENT_SIZE != (written + record.remaining() - 1) / SEGMENT_SIZE) {
+      flush();
+      written = flushed = (written / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+    }
+    if(record.remaining() > writeBuffer.remaining()) {
+      flush();
+    }
+    if(record.remaining() > writeBuffer.remaining()) {
+      writeFully(record, written);
+      flushed += record.limit();
+    } else {
+      writeBuffer.put(record);
+    }
+    if(nrRows == offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length + (offsets.length >> 1));
+    }
+    offsets[nrRows] = written;
+    written += record.limit();
+    nrRows++;
+    return true;
+  }
+
+  private void writeFully(ByteBuffer buf, long position) {
+    try {
+      while(buf.hasRemaining()) {
+        position += channel.write(buf, position);
+      }
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not write to the instance file "+file, ex);
+    }
+  }
+
+  private void flush() {
+    if(writeBuffer.position() == 0) return;
+    writeBuffer.flip();
+    int n = writeBuffer.remaining();
+    writeFully(writeBuffer, flushed);
+    flushed += n;
+    writeBuffer.clear();
+  }
+
+  // write out what is buffered and map everything that has not been mapped yet
+  private synchronized void ensureMapped() {
+    if(channel == null) {
+      throw new GateRuntimeException("DiskInstanceList has been closed");
+    }
+    flush();
+    if(mapped >= flushed) return;
+    int nrSegments = (int)((flushed + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+    MappedByteBuffer[] newSegments = Arrays.copyOf(segments, nrSegments);
+    try {
+      // the last segment mapped before may have been only partially filled
+      for(int s=(int)(mapped / SEGMENT_SIZE); s<nrSegments; s++) {
+        long start = (long)s * SEGMENT_SIZE;
+        newSegments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, flushed - start));
+      }
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not map the instance file "+file, ex);
+    }
+    segments = newSegments;
+    mapped = flushed;
+  }
+
+  // a buffer positioned at the start of the record for the row
+  private ByteBuffer recordBuffer(int row) {
+    checkRow(row);
+    long offset = offsets[row];
+    if(offset + HEADER_SIZE > mapped) {
+      ensureMapped();
+    }
+    ByteBuffer buf = segments[(int)(offset / SEGMENT_SIZE)].duplicate();
+    buf.position((int)(offset % SEGMENT_SIZE));
+    return buf;
+  }
+
+  @Override
+  public int numLocations(int row) {
+    ByteBuffer buf = recordBuffer(row);
+    return buf.getInt(buf.position() + NRINDICES);
+  }
+
+  @Override
+  public int[] getIndices(int row) {
+    ByteBuffer buf = recordBuffer(row);
+    int[] ret = new int[buf.getInt(buf.position() + NRINDICES)];
+    buf.position(buf.position() + HEADER_SIZE);
+    readIndices(buf, ret);
+    return ret;
+  }
+
+  private static void readIndices(ByteBuffer buf, int[] indices) {
+    int prev = 0;
+    for(int l=0; l<indices.length; l++) {
+      int v = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buf.get();
+        v |= (b & 0x7f) << shift;
+        shift += 7;
+      } while(b < 0);
+      prev += v;
+      indices[l] = prev;
+    }
+  }
+
+  @Override
+  protected double[] getStoredValues(int row) {
+    ByteBuffer buf = recordBuffer(row);
+    int start = buf.position();
+    int n = buf.getInt(start + NRINDICES);
+    double[] ret = new double[n];
+    if(buf.get(start + BINARY) != 0) {
+      Arrays.fill(ret, 1.0);
+    } else {
+      // skip the indices
+      buf.position(start + HEADER_SIZE);
+      for(int l=0; l<n; l++) {
+        while(buf.get() < 0) { }
+      }
+      for(int l=0; l<n; l++) {
+        ret[l] = buf.getFloat();
+      }
+    }
+    return ret;
+  }
+
+  @Override
+  public double getTargetValue(int row) {
+    ByteBuffer buf = recordBuffer(row);
+    return buf.getDouble(buf.position() + TARGET);
+  }
+
+  @Override
+  public double getInstanceWeight(int row) {
+    ByteBuffer buf = recordBuffer(row);
+    return buf.getFloat(buf.position() + WEIGHT);
+  }
+
+  @Override
+  public void setInstanceWeight(int row, double weight) {
+    checkRow(row);
+    if(channel == null) {
+      throw new GateRuntimeException("DiskInstanceList has been closed");
+    }
+    flush();
+    ByteBuffer buf = ByteBuffer.allocate(4);
+    buf.putFloat(0, (float)weight);
+    // the mapped buffers see this change
+    writeFully(buf, offsets[row] + WEIGHT);
+  }
+
+  @Override
+  public void clear() {
+    if(channel == null) return;
+    try {
+      channel.truncate(0);
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not truncate the instance file "+file, ex);
+    }
+    writeBuffer.clear();
+    written = flushed = mapped = 0;
+    segments = new MappedByteBuffer[0];
+    nrRows = 0;
+    offsets = new long[16];
+  }
+
+  /**
+   * Close and delete the file. The list cannot be used any more after this.
+   */
+  @Override
+  public synchronized void close() {
+    if(channel == null) return;
+    segments = null;
+    try {
+      channel.close();
+      raf.close();
+    } catch (IOException ex) {
+      logger.error("Could not close the instance file "+file, ex);
+    }
+    channel = null;
+    if(!file.delete()) {
+      logger.debug("Could not delete the instance file "+file+" now, will try on exit");
+    }
+  }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * FeatureStatistics.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.mallet;
+
+import cc.mallet.types.FeatureVector;
+import java.util.Arrays;
+
+/**
+ * Statistics of the feature values of a set of instances, collected one instance at a time.
+ *
+ * For each feature, only the values actually present in the sparse feature vectors are
+ * looked at: the number of non-zero values, their mean and sum of squared differences
+ * from the mean, updated with Welford's method, and the maximum absolute value. The mean
+ * and variance over all instances are derived from these and the total number of instances,
+ * treating all values which are not present as 0.0, so the cost of adding an instance only
+ * depends on the number of its non-zero features.
+ * <p>
+ * Statistics collected separately, e.g. for parts of the corpus processed in parallel,
+ * can be combined with merge. A FeatureStatistics object is not thread-safe.
+ *
+ * @author Johann Petrak
+ */
+public class FeatureStatistics {
+
+  private long nrInstances = 0;
+  // per feature index: number of non-zero values, their mean and sum of squared differences
+  private long[] counts = new long[16];
+  private double[] means = new double[16];
+  private double[] m2s = new double[16];
+  private double[] maxAbs = new double[16];
+
+  private void ensureCapacity(int size) {
+    if(size > counts.length) {
+      int capacity = Math.max(size, counts.length + (counts.length >> 1));
+      counts = Arrays.copyOf(counts, capacity);
+      means = Arrays.copyOf(means, capacity);
+      m2s = Arrays.copyOf(m2s, capacity);
+      maxAbs = Arrays.copyOf(maxAbs, capacity);
+    }
+  }
+
+  /**
+   * Add the values of the feature vector of one instance.
+   */
+  public void add(FeatureVector fv) {
+    nrInstances++;
+    int n = fv.numLocations();
+    for(int l=0; l<n; l++) {
+      double value = fv.valueAtLocation(l);
+      if(value == 0.0) continue;
+      int index = fv.indexAtLocation(l);
+      if(index >= counts.length) ensureCapacity(index + 1);
+      long c = ++counts[index];
+      double delta = value - means[index];
+      means[index] += delta / c;
+      m2s[index] += delta * (value - means[index]);
+      double abs = Math.abs(value);
+      if(abs > maxAbs[index]) maxAbs[index] = abs;
+    }
+  }
+
+  /**
+   * Add the statistics collected for other instances to this one.
+   */
+  public void merge(FeatureStatistics other) {
+    ensureCapacity(other.counts.length);
+    for(int i=0; i<other.counts.length; i++) {
+      long cb = other.counts[i];
+      if(cb == 0) continue;
+      long ca = counts[i];
+      long c = ca + cb;
+      double delta = other.means[i] - means[i];
+      means[i] += delta * cb / c;
+      m2s[i] += other.m2s[i] + delta * delta * ((double)ca * cb / c);
+      counts[i] = c;
+      maxAbs[i] = Math.max(maxAbs[i], other.maxAbs[i]);
+    }
+    nrInstances += other.nrInstances;
+  }
+
+  public long getNrInstances() {
+    return nrInstances;
+  }
+
+  /**
+   * The number of instances where the feature has a non-zero value.
+   */
+  public long getCount(int index) {
+    return index < counts.length ? counts[index] : 0;
+  }
+
+  /**
+   * The mean of the feature over all instances.
+   */
+  public double getMean(int index) {
+    if(nrInstances == 0 || index >= counts.length) return 0.0;
+    return counts[index] * means[index] / nrInstances;
+  }
+
+  /**
+   * The population variance of the feature over all instances.
+   */
+  public double getVariance(int index) {
+    if(nrInstances == 0 || index >= counts.length) return 0.0;
+    double c = counts[index];
+    double n = nrInstances;
+    // the squared differences of the non-zero values from their own mean, corrected for 
+    // the difference of that mean to the overall mean, plus those of the n-c zero values
+    double m2 = m2s[index] + means[index] * means[index] * c * (n - c) / n;
+    return Math.max(0.0, m2 / n);
+  }
+
+  /**
+   * The maximum absolute value of the feature.
+   */
+  public double getMaxAbs(int index) {
+    return index < counts.length ? maxAbs[index] : 0.0;
+  }
+
+  /**
+   * Adapt the statistics after features have been removed or renumbered, see 
+   * CorpusRepresentationMallet.remapFeatures.
+   */
+  public void remapFeatures(int[] newIndices, int newSize) {
+    long[] newCounts = new long[newSize];
+    double[] newMeans = new double[newSize];
+    double[] newM2s = new double[newSize];
+    double[] newMaxAbs = new double[newSize];
+    for(int i=0; i<newIndices.length && i<counts.length; i++) {
+      if(newIndices[i] >= 0) {
+        newCounts[newIndices[i]] = counts[i];
+        newMeans[newIndices[i]] = means[i];
+        newM2s[newIndices[i]] = m2s[i];
+        newMaxAbs[newIndices[i]] = maxAbs[i];
+      }
+    }
+    counts = newCounts;
+    means = newMeans;
+    m2s = newM2s;
+    maxAbs = newMaxAbs;
+  }
+
+}
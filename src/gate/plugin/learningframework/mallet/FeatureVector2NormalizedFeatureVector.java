@@ -15,60 +15,150 @@ import cc.mallet.pipe.Pipe;
 import cc.mallet.types.Alphabet;
 import cc.mallet.types.FeatureVector;
 import cc.mallet.types.Instance;
+import gate.plugin.learningframework.ScalingMethod;
 import gate.util.GateRuntimeException;
 import java.io.Serializable;
-import java.util.Arrays;
 
 /**
- *
- *
+ * Scales the values of the feature vector: each value present in the sparse vector is 
+ * replaced by (value-shift)*factor, using the shift and factor of its feature. 
+ * 
+ * The shifts and factors are calculated once when the pipe is created, see 
+ * fromStatistics. Pipes saved by older versions only contain the means and variances, 
+ * the shifts and factors for them are calculated when first needed.
  */
 public class FeatureVector2NormalizedFeatureVector extends Pipe implements Serializable {
 
   double[] means;
   double[] variances;
+  double[] shifts;
+  double[] factors;
 
   public FeatureVector2NormalizedFeatureVector(double[] means, double[] variances,
           Alphabet alphabet) {
     super(alphabet, null);
     this.means = means;
     this.variances = variances;
-    System.err.println("Creating FV2NF instance with means="+Arrays.toString(means)+",variances="+Arrays.toString(variances));
   }
 
+  private FeatureVector2NormalizedFeatureVector(Alphabet alphabet, double[] shifts, double[] factors) {
+    super(alphabet, null);
+    this.shifts = shifts;
+    this.factors = factors;
+  }
+
+  /**
+   * Create the pipe for the scaling method from the statistics of the training instances.
+   * Features with a standard deviation or maximum absolute value of 0 are not scaled.
+   */
+  public static FeatureVector2NormalizedFeatureVector fromStatistics(FeatureStatistics stats, 
+          ScalingMethod method, Alphabet alphabet) {
+    int n = alphabet.size();
+    double[] shifts = new double[n];
+    double[] factors = new double[n];
+    for(int i=0; i<n; i++) {
+      double scale;
+      if(method == ScalingMethod.MEANVARIANCE_ALL_FEATURES) {
+        shifts[i] = stats.getMean(i);
+        scale = Math.sqrt(stats.getVariance(i));
+      } else if(method == ScalingMethod.VARIANCE_ALL_FEATURES) {
+        scale = Math.sqrt(stats.getVariance(i));
+      } else if(method == ScalingMethod.MAXABS_ALL_FEATURES) {
+        scale = stats.getMaxAbs(i);
+      } else {
+        throw new GateRuntimeException("Cannot create a scaling pipe for scaling method "+method);
+      }
+      factors[i] = scale > 0.0 ? 1.0 / scale : 1.0;
+    }
+    return new FeatureVector2NormalizedFeatureVector(alphabet, shifts, factors);
+  }
+
+  /**
+   * The value which gets subtracted for each feature.
+   */
+  public double[] getShifts() {
+    initShiftsAndFactors();
+    return shifts;
+  }
+
+  /**
+   * The factor each feature value gets multiplied with after subtracting the shift.
+   */
+  public double[] getFactors() {
+    initShiftsAndFactors();
+    return factors;
+  }
+
+  private void initShiftsAndFactors() {
+    if(factors != null) return;
+    // a pipe saved by an older version: value-mean divided by the standard deviation
+    double[] newShifts = means.clone();
+    double[] newFactors = new double[variances.length];
+    for(int i=0; i<variances.length; i++) {
+      newFactors[i] = 1.0 / Math.sqrt(variances[i]);
+    }
+    shifts = newShifts;
+    factors = newFactors;
+  }
+
+  /**
+   * Adapt the scaling after features have been removed from the data alphabet 
+   * or renumbered, see CorpusRepresentationMallet.remapFeatures.
+   */
+  public void remapFeatures(int[] newIndices, int newSize) {
+    initShiftsAndFactors();
+    shifts = remap(shifts, newIndices, newSize);
+    factors = remap(factors, newIndices, newSize);
+    if(means != null) {
+      means = remap(means, newIndices, newSize);
+      variances = remap(variances, newIndices, newSize);
+    }
+  }
+
+  private static double[] remap(double[] values, int[] newIndices, int newSize) {
+    double[] ret = new double[newSize];
+    for(int i=0; i<newIndices.length && i<values.length; i++) {
+      if(newIndices[i] >= 0) {
+        ret[newIndices[i]] = values[i];
+      }
+    }
+    return ret;
+  }
+
+  @Override
   public Instance pipe(Instance carrier) {
     if (!(carrier.getData() instanceof FeatureVector)) {
-      System.out.println(carrier.getData().getClass());
       throw new IllegalArgumentException("Data must be of type FeatureVector not " + carrier.getData().getClass() + " we got " + carrier.getData());
     }
-
-    if (this.means.length != this.getDataAlphabet().size()
-            || this.variances.length != this.getDataAlphabet().size()) {
+    initShiftsAndFactors();
+    if (factors.length != this.getDataAlphabet().size()) {
       throw new GateRuntimeException("Alphabet has grown, this should not happen!");
     }
 
     FeatureVector fv = (FeatureVector) carrier.getData();
-    int[] indices = fv.getIndices();
+    int n = fv.numLocations();
     double[] values = fv.getValues();
-    for (int i = 0; i < indices.length; i++) {
-      int index = indices[i];
-      double value = values[i];
-      if (index < means.length) {
-        double mean = means[index];
-        double variance = variances[index];
-        double newvalue = (value - mean) / Math.sqrt(variance);
-        fv.setValue(index, newvalue);
+    if (values == null) {
+      // a binary feature vector, all values are 1.0: create one which has values
+      int[] indices = new int[n];
+      values = new double[n];
+      for (int l = 0; l < n; l++) {
+        indices[l] = fv.indexAtLocation(l);
+        values[l] = 1.0;
+      }
+      fv = new FeatureVector(fv.getAlphabet(), indices, values);
+      boolean isLocked = carrier.isLocked();
+      carrier.unLock();
+      carrier.setData(fv);
+      if(isLocked) carrier.lock();
+    }
+    // the values array is the one of the feature vector, so this changes the vector directly
+    for (int l = 0; l < n; l++) {
+      int index = fv.indexAtLocation(l);
+      if (index < factors.length) {
+        values[l] = (values[l] - shifts[index]) * factors[index];
       }
     }
-    // TODO: JP: this was here before but I think it is not needed, the code above should 
-    // already destructively modify the feature vector inside the instance?
-    /*
-    boolean isLocked = carrier.isLocked();
-    carrier.unLock();
-    carrier.setData(fv);
-    if(isLocked) carrier.lock();
-    */
-
     return carrier;
   }
 
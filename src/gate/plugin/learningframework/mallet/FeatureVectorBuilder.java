@@ -0,0 +1,179 @@
+/*
+ * FeatureVectorBuilder.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.mallet;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.AugmentableFeatureVector;
+import cc.mallet.types.FeatureVector;
+import java.util.Arrays;
+
+/**
+ * Collects the features of one instance in reusable primitive arrays.
+ *
+ * This replaces creating an AugmentableFeatureVector for each instance and then copying it
+ * into a FeatureVector: features get added to the builder in any order, and possibly
+ * more than once for the same index, in which case the values are summed, just like
+ * AugmentableFeatureVector does. The final FeatureVector is then created in one step
+ * from the sorted and de-duplicated buffers, so the only per-instance allocation is the
+ * result itself. The buffers grow as needed and are kept for the next instance.
+ * <p>
+ * A builder is not thread-safe, there is one for each thread, see forCurrentThread().
+ *
+ * @author Johann Petrak
+ */
+public class FeatureVectorBuilder {
+
+  private static final ThreadLocal<FeatureVectorBuilder> BUILDERS = new ThreadLocal<FeatureVectorBuilder>() {
+    @Override
+    protected FeatureVectorBuilder initialValue() {
+      return new FeatureVectorBuilder();
+    }
+  };
+
+  /**
+   * Return the builder for the current thread.
+   */
+  public static FeatureVectorBuilder forCurrentThread() {
+    return BUILDERS.get();
+  }
+
+  // below this size, we use insertion sort
+  private static final int SMALL = 16;
+
+  private Alphabet alphabet;
+  private int[] indices = new int[64];
+  private double[] values = new double[64];
+  private int size = 0;
+
+  /**
+   * Start building a new vector for the given alphabet. Everything added before is
+   * discarded.
+   */
+  public void reset(Alphabet alphabet) {
+    this.alphabet = alphabet;
+    size = 0;
+  }
+
+  public Alphabet getAlphabet() { return alphabet; }
+
+  /**
+   * The number of entries added since the last reset, including duplicates.
+   */
+  public int size() { return size; }
+
+  /**
+   * Add a value for the feature index. If the index has been added before, the values
+   * will get summed.
+   */
+  public void add(int index, double value) {
+    if(size == indices.length) {
+      indices = Arrays.copyOf(indices, size*2);
+      values = Arrays.copyOf(values, size*2);
+    }
+    indices[size] = index;
+    values[size] = value;
+    size++;
+  }
+
+  /**
+   * Create the FeatureVector for everything added since the last reset.
+   */
+  public FeatureVector toFeatureVector() {
+    int n = sortAndMerge();
+    return new BuiltFeatureVector(alphabet, Arrays.copyOf(indices, n), Arrays.copyOf(values, n));
+  }
+
+  /**
+   * Add everything added since the last reset to an existing AugmentableFeatureVector.
+   */
+  public void addTo(AugmentableFeatureVector fv) {
+    for(int i=0; i<size; i++) {
+      fv.add(indices[i], values[i]);
+    }
+  }
+
+  // sort the entries by index and sum the values of identical indices, returns the new size
+  private int sortAndMerge() {
+    sort(0, size-1);
+    int n = 0;
+    for(int i=0; i<size; i++) {
+      if(n > 0 && indices[n-1] == indices[i]) {
+        values[n-1] += values[i];
+      } else {
+        indices[n] = indices[i];
+        values[n] = values[i];
+        n++;
+      }
+    }
+    size = n;
+    return n;
+  }
+
+  private void sort(int lo, int hi) {
+    while(hi - lo >= SMALL) {
+      int pivot = indices[(lo + hi) >>> 1];
+      int i = lo;
+      int j = hi;
+      while(i <= j) {
+        while(indices[i] < pivot) i++;
+        while(indices[j] > pivot) j--;
+        if(i <= j) {
+          swap(i, j);
+          i++;
+          j--;
+        }
+      }
+      // recurse into the smaller part, loop over the larger
+      if(j - lo < hi - i) {
+        sort(lo, j);
+        lo = i;
+      } else {
+        sort(i, hi);
+        hi = j;
+      }
+    }
+    for(int i = lo + 1; i <= hi; i++) {
+      int idx = indices[i];
+      double val = values[i];
+      int j = i - 1;
+      while(j >= lo && indices[j] > idx) {
+        indices[j+1] = indices[j];
+        values[j+1] = values[j];
+        j--;
+      }
+      indices[j+1] = idx;
+      values[j+1] = val;
+    }
+  }
+
+  private void swap(int i, int j) {
+    int ti = indices[i];
+    indices[i] = indices[j];
+    indices[j] = ti;
+    double tv = values[i];
+    values[i] = values[j];
+    values[j] = tv;
+  }
+
+  /**
+   * A FeatureVector which uses the arrays it gets without copying, sorting or checking
+   * them again.
+   */
+  private static class BuiltFeatureVector extends FeatureVector {
+    private static final long serialVersionUID = 1L;
+    BuiltFeatureVector(Alphabet alphabet, int[] indices, double[] values) {
+      super(alphabet, indices, values, indices.length, indices.length, false, false, false);
+    }
+  }
+
+}
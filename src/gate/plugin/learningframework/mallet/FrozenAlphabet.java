@@ -0,0 +1,314 @@
+/*
+ * FrozenAlphabet.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.mallet;
+
+import cc.mallet.types.Alphabet;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A read-only data alphabet with a small memory footprint for application time.
+ *
+ * Once no new features get added any more, the feature names of a Mallet Alphabet are only
+ * looked up. This alphabet contains the same entries with the same indices as the Alphabet
+ * it is created from, but stores all the names in a single packed byte array and finds
+ * them with an open addressing hash table of ints. So there is no String object and no map
+ * entry per feature and a lookup only needs to check the name for the table slots which have
+ * the same full hash code, which is almost always exactly one.
+ * <p>
+ * The names are stored as UTF-8, except that characters outside the basic multilingual plane
+ * are stored as their two surrogates with three bytes each (CESU-8), so that the
+ * names can be compared char by char without decoding them.
+ * <p>
+ * Growth of this alphabet is always stopped, startGrowth() has no effect and lookupIndex
+ * returns -1 for all names which are not already in the alphabet. All entries must be
+ * Strings. This alphabet is immutable and can be shared between threads.
+ *
+ * @author Johann Petrak
+ */
+public class FrozenAlphabet extends Alphabet {
+
+  private static final long serialVersionUID = 1L;
+
+  // the names of all entries, entry i is in bytes offsets[i] to offsets[i+1]-1
+  private final byte[] keys;
+  private final int[] offsets;
+  // the String hash code of the name of each entry
+  private final int[] hashes;
+  // the hash table, contains entry index + 1 or 0 for an empty slot
+  private final int[] table;
+  private final int mask;
+
+  /**
+   * Create a frozen copy of the given alphabet. The alphabet must only contain Strings.
+   */
+  public FrozenAlphabet(Alphabet from) {
+    super(String.class);
+    int n = from.size();
+    long nrBytes = 0;
+    for(int i=0; i<n; i++) {
+      nrBytes += encodedLength(name(from, i));
+    }
+    if(nrBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Feature names too long for a FrozenAlphabet: "+nrBytes+" bytes");
+    }
+    keys = new byte[(int)nrBytes];
+    offsets = new int[n+1];
+    hashes = new int[n];
+    // keep the table at most three quarters full
+    int capacity = 2;
+    while(capacity * 3L < n * 4L) {
+      capacity <<= 1;
+    }
+    table = new int[capacity];
+    mask = capacity - 1;
+    int pos = 0;
+    for(int i=0; i<n; i++) {
+      String name = name(from, i);
+      offsets[i] = pos;
+      pos = encode(name, keys, pos);
+      int h = name.hashCode();
+      hashes[i] = h;
+      int slot = spread(h) & mask;
+      while(table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = i + 1;
+    }
+    offsets[n] = pos;
+    stopGrowth();
+  }
+
+  // for clone(): all the arrays are never changed, so they can be shared
+  private FrozenAlphabet(FrozenAlphabet other) {
+    super(String.class);
+    keys = other.keys;
+    offsets = other.offsets;
+    hashes = other.hashes;
+    table = other.table;
+    mask = other.mask;
+    stopGrowth();
+  }
+
+  private static String name(Alphabet from, int i) {
+    Object entry = from.lookupObject(i);
+    if(!(entry instanceof String)) {
+      throw new IllegalArgumentException("Cannot create a FrozenAlphabet, entry "+i+" is not a String but "+
+              (entry == null ? "null" : entry.getClass()));
+    }
+    return (String)entry;
+  }
+
+  private static int spread(int h) {
+    h *= 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  private static int encodedLength(String s) {
+    int len = 0;
+    for(int i=0; i<s.length(); i++) {
+      char c = s.charAt(i);
+      if(c < 0x80) {
+        len += 1;
+      } else if(c < 0x800) {
+        len += 2;
+      } else {
+        len += 3;
+      }
+    }
+    return len;
+  }
+
+  private static int encode(String s, byte[] buf, int pos) {
+    for(int i=0; i<s.length(); i++) {
+      char c = s.charAt(i);
+      if(c < 0x80) {
+        buf[pos++] = (byte)c;
+      } else if(c < 0x800) {
+        buf[pos++] = (byte)(0xc0 | (c >> 6));
+        buf[pos++] = (byte)(0x80 | (c & 0x3f));
+      } else {
+        buf[pos++] = (byte)(0xe0 | (c >> 12));
+        buf[pos++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+        buf[pos++] = (byte)(0x80 | (c & 0x3f));
+      }
+    }
+    return pos;
+  }
+
+  private String decode(int index) {
+    int pos = offsets[index];
+    int end = offsets[index+1];
+    char[] chars = new char[end - pos];
+    int n = 0;
+    while(pos < end) {
+      int b = keys[pos++] & 0xff;
+      if(b < 0x80) {
+        chars[n++] = (char)b;
+      } else if(b < 0xe0) {
+        chars[n++] = (char)(((b & 0x1f) << 6) | (keys[pos++] & 0x3f));
+      } else {
+        chars[n++] = (char)(((b & 0x0f) << 12) | ((keys[pos++] & 0x3f) << 6) | (keys[pos++] & 0x3f));
+      }
+    }
+    return new String(chars, 0, n);
+  }
+
+  // check if the name of entry index is s, without decoding it
+  private boolean matches(int index, String s) {
+    int pos = offsets[index];
+    int end = offsets[index+1];
+    int len = s.length();
+    // every char needs at least one and at most three bytes
+    if(end - pos < len || end - pos > 3*len) return false;
+    for(int i=0; i<len; i++) {
+      char c = s.charAt(i);
+      if(c < 0x80) {
+        if(pos >= end || keys[pos++] != (byte)c) return false;
+      } else if(c < 0x800) {
+        if(pos + 2 > end ||
+           keys[pos++] != (byte)(0xc0 | (c >> 6)) ||
+           keys[pos++] != (byte)(0x80 | (c & 0x3f))) return false;
+      } else {
+        if(pos + 3 > end ||
+           keys[pos++] != (byte)(0xe0 | (c >> 12)) ||
+           keys[pos++] != (byte)(0x80 | ((c >> 6) & 0x3f)) ||
+           keys[pos++] != (byte)(0x80 | (c & 0x3f))) return false;
+      }
+    }
+    return pos == end;
+  }
+
+  /**
+   * Return the index of the name or -1 if it is not in the alphabet.
+   */
+  public int indexOf(String name) {
+    int h = name.hashCode();
+    int slot = spread(h) & mask;
+    int entry;
+    while((entry = table[slot]) != 0) {
+      int index = entry - 1;
+      if(hashes[index] == h && matches(index, name)) {
+        return index;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  @Override
+  public int size() {
+    return hashes.length;
+  }
+
+  @Override
+  public int lookupIndex(Object entry, boolean addIfNotPresent) {
+    if(entry instanceof String) {
+      return indexOf((String)entry);
+    }
+    return -1;
+  }
+
+  @Override
+  public int lookupIndex(Object entry) {
+    return lookupIndex(entry, true);
+  }
+
+  @Override
+  public int[] lookupIndices(Object[] objects, boolean addIfNotPresent) {
+    int[] ret = new int[objects.length];
+    for(int i=0; i<objects.length; i++) {
+      ret[i] = lookupIndex(objects[i], addIfNotPresent);
+    }
+    return ret;
+  }
+
+  @Override
+  public boolean contains(Object entry) {
+    return lookupIndex(entry, false) >= 0;
+  }
+
+  @Override
+  public Object lookupObject(int index) {
+    if(index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index "+index+" not in FrozenAlphabet of size "+size());
+    }
+    return decode(index);
+  }
+
+  @Override
+  public Object[] toArray() {
+    return toArray(new Object[size()]);
+  }
+
+  @Override
+  public Object[] toArray(Object[] in) {
+    int n = size();
+    Object[] ret = in.length >= n ? in :
+            (Object[])java.lang.reflect.Array.newInstance(in.getClass().getComponentType(), n);
+    for(int i=0; i<n; i++) {
+      ret[i] = decode(i);
+    }
+    return ret;
+  }
+
+  @Override
+  public Iterator<Object> iterator() {
+    return Arrays.asList(toArray()).iterator();
+  }
+
+  @Override
+  public Object[] lookupObjects(int[] indices) {
+    return lookupObjects(indices, new Object[indices.length]);
+  }
+
+  @Override
+  public Object[] lookupObjects(int[] indices, Object[] buf) {
+    for(int i=0; i<indices.length; i++) {
+      buf[i] = lookupObject(indices[i]);
+    }
+    return buf;
+  }
+
+  /**
+   * Does nothing: a FrozenAlphabet can never grow.
+   */
+  @Override
+  public void startGrowth() {
+  }
+
+  @Override
+  public Object clone() {
+    return new FrozenAlphabet(this);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for(int i=0; i<size(); i++) {
+      sb.append(decode(i));
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public void dump(PrintWriter out) {
+    for(int i=0; i<size(); i++) {
+      out.println(" "+i+" => "+decode(i));
+    }
+    out.flush();
+  }
+
+}
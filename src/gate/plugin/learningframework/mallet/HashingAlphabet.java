@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ *
+ */
+package gate.plugin.learningframework.mallet;
+
+import cc.mallet.types.Alphabet;
+import gate.util.GateRuntimeException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+
+/**
+ * A data alphabet for the hashing trick.
+ *
+ * Instead of storing every feature name, the features are mapped to a fixed number of buckets
+ * by hashing the structured key of the feature (attribute id, slot and value) with the 32 bit
+ * MurmurHash3 function. The alphabet always has exactly as many entries as there are buckets,
+ * independent of how many different features are seen, and the entries have the artificial
+ * names "hash:[i]".
+ * <p>
+ * If signed hashing is used, one bit of the hash is used to decide if the value of the feature
+ * gets added or subtracted, so that collisions cancel out in expectation. This should only
+ * be used with algorithms which can deal with negative feature values.
+ * <p>
+ * While the growth of the alphabet is not stopped, the buckets which are used get recorded
+ * so we can estimate the number of distinct features and collisions for the info file.
+ * This information is not saved with the alphabet.
+ *
+ * @author Johann Petrak
+ */
+public class HashingAlphabet extends Alphabet {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final String NAMEPREFIX = "hash:";
+
+  private final int buckets;
+  private final boolean signed;
+  private transient BitSet used;
+
+  public HashingAlphabet(int buckets, boolean signed) {
+    super(String.class);
+    if(buckets <= 0) {
+      throw new IllegalArgumentException("Number of hashing buckets must be > 0 but is "+buckets);
+    }
+    this.buckets = buckets;
+    this.signed = signed;
+  }
+
+  public int getBuckets() { return buckets; }
+
+  public boolean isSigned() { return signed; }
+
+  /**
+   * Calculate the hash for the feature identified by attribute id, slot and value.
+   * The value can be null for features which only have a name.
+   */
+  public int hash(int attrId, int slot, String value) {
+    int h = mix(0x9747b28c, attrId);
+    h = mix(h, slot);
+    int len = 8;
+    if(value != null) {
+      int n = value.length();
+      int i = 0;
+      for(; i+1 < n; i += 2) {
+        h = mix(h, value.charAt(i) | (value.charAt(i+1) << 16));
+      }
+      if(i < n) {
+        int k = value.charAt(i) * 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15) * 0x1b873593;
+        h ^= k;
+      }
+      len += 2*n;
+    }
+    // finalization mix of MurmurHash3
+    h ^= len;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private static int mix(int h, int k) {
+    k *= 0xcc9e2d51;
+    k = Integer.rotateLeft(k, 15);
+    k *= 0x1b873593;
+    h ^= k;
+    h = Integer.rotateLeft(h, 13);
+    return h * 5 + 0xe6546b64;
+  }
+
+  /**
+   * Return the bucket (the feature index) for a hash.
+   * If growth is not stopped, this also records the bucket as used.
+   */
+  public int bucket(int hash) {
+    int bucket = (hash >>> 1) % buckets;
+    if(!growthStopped()) {
+      if(used == null) { used = new BitSet(); }
+      used.set(bucket);
+    }
+    return bucket;
+  }
+
+  /**
+   * Return the factor to multiply the feature value with for a hash: -1.0 or +1.0 for signed
+   * hashing, always +1.0 otherwise.
+   */
+  public double sign(int hash) {
+    if(signed && (hash & 1) != 0) {
+      return -1.0;
+    } else {
+      return 1.0;
+    }
+  }
+
+  /**
+   * The number of buckets which have been used since the alphabet was created or loaded.
+   */
+  public int getNrBucketsUsed() {
+    return used == null ? 0 : used.cardinality();
+  }
+
+  /**
+   * Estimate of the number of distinct features seen from the number of used buckets
+   * (linear counting).
+   */
+  public long getEstimatedNrFeatures() {
+    int nrUsed = getNrBucketsUsed();
+    if(nrUsed >= buckets) {
+      // the estimate is not defined if all buckets are full, this is a lower bound
+      return (long)Math.ceil(buckets * Math.log(buckets));
+    }
+    return Math.round(-buckets * Math.log(1.0 - ((double)nrUsed / buckets)));
+  }
+
+  /**
+   * Estimate of the number of features which ended up in a bucket that was already used
+   * by another feature.
+   */
+  public long getEstimatedNrCollisions() {
+    return Math.max(0, getEstimatedNrFeatures() - getNrBucketsUsed());
+  }
+
+  @Override
+  public int size() {
+    return buckets;
+  }
+
+  @Override
+  public int lookupIndex(Object entry, boolean addIfNotPresent) {
+    int index = parseName(entry);
+    if(index < 0 && addIfNotPresent) {
+      throw new GateRuntimeException("Cannot add feature "+entry+
+              " to a HashingAlphabet, only feature names of the form "+NAMEPREFIX+"[i] are known");
+    }
+    return index;
+  }
+
+  @Override
+  public int lookupIndex(Object entry) {
+    return lookupIndex(entry, true);
+  }
+
+  @Override
+  public boolean contains(Object entry) {
+    return parseName(entry) >= 0;
+  }
+
+  @Override
+  public Object lookupObject(int index) {
+    if(index < 0 || index >= buckets) {
+      throw new IndexOutOfBoundsException("Index "+index+" not in HashingAlphabet of size "+buckets);
+    }
+    return NAMEPREFIX+index;
+  }
+
+  @Override
+  public Object[] toArray() {
+    Object[] ret = new Object[buckets];
+    for(int i=0; i<buckets; i++) {
+      ret[i] = NAMEPREFIX+i;
+    }
+    return ret;
+  }
+
+  @Override
+  public Object[] toArray(Object[] in) {
+    Object[] ret = in.length >= buckets ? in :
+            (Object[])java.lang.reflect.Array.newInstance(in.getClass().getComponentType(), buckets);
+    for(int i=0; i<buckets; i++) {
+      ret[i] = NAMEPREFIX+i;
+    }
+    return ret;
+  }
+
+  @Override
+  public Iterator<Object> iterator() {
+    return Arrays.asList(toArray()).iterator();
+  }
+
+  @Override
+  public Object[] lookupObjects(int[] indices) {
+    return lookupObjects(indices, new Object[indices.length]);
+  }
+
+  @Override
+  public Object[] lookupObjects(int[] indices, Object[] buf) {
+    for(int i=0; i<indices.length; i++) {
+      buf[i] = lookupObject(indices[i]);
+    }
+    return buf;
+  }
+
+  @Override
+  public Object clone() {
+    HashingAlphabet ret = new HashingAlphabet(buckets, signed);
+    if(growthStopped()) ret.stopGrowth();
+    return ret;
+  }
+
+  @Override
+  public String toString() {
+    return "HashingAlphabet(buckets="+buckets+",signed="+signed+")";
+  }
+
+  @Override
+  public void dump(PrintWriter out) {
+    out.println(toString());
+    out.flush();
+  }
+
+  private int parseName(Object entry) {
+    if(entry instanceof String) {
+      String name = (String)entry;
+      if(name.startsWith(NAMEPREFIX)) {
+        try {
+          int index = Integer.parseInt(name.substring(NAMEPREFIX.length()));
+          if(index >= 0 && index < buckets) return index;
+        } catch (NumberFormatException ex) {
+          // not one of our names
+        }
+      }
+    }
+    return -1;
+  }
+
+}
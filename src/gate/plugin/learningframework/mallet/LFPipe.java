@@ -8,9 +8,17 @@ package gate.plugin.learningframework.mallet;
 
 import cc.mallet.pipe.Pipe;
 import cc.mallet.pipe.SerialPipes;
+import cc.mallet.types.Alphabet;
+import gate.plugin.learningframework.features.FeatureExtractor;
 import gate.plugin.learningframework.features.FeatureInfo;
+import gate.util.GateRuntimeException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.lang.reflect.Field;
 import java.util.Collection;
+import java.util.Map;
+import org.apache.log4j.Logger;
 
 /**
  * An extended version of the Mallet SerialPipes class which allows us to store
@@ -28,13 +36,97 @@ import java.util.Collection;
  */
 public class LFPipe extends SerialPipes implements Serializable {
   private static final long serialVersionUID = 1;
+  private static final Logger logger = Logger.getLogger(LFPipe.class);
   public LFPipe(Collection<Pipe> pipes) {
     super(pipes);
   }
   protected FeatureInfo featureInfo;
-  public void setFeatureInfo(FeatureInfo info) { featureInfo = info; }
+  public void setFeatureInfo(FeatureInfo info) { featureInfo = info; featureExtractors = null; }
   public FeatureInfo getFeatureInfo() { return featureInfo; }
   
+  // the extractors compiled from the feature info. These are not saved, but get created 
+  // again when the pipe is loaded.
+  private transient FeatureExtractor[] featureExtractors;
+  
+  /**
+   * Return the feature extractors for the attributes of the FeatureInfo of this pipe.
+   * The extractors get compiled from the FeatureInfo the first time they are needed 
+   * and then cached.
+   */
+  public FeatureExtractor[] getFeatureExtractors() {
+    if(featureExtractors == null && featureInfo != null) {
+      featureExtractors = FeatureExtractor.compile(featureInfo);
+    }
+    return featureExtractors;
+  }
+  
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    getFeatureExtractors();
+  }
+  
+  /**
+   * Replace the data alphabet by a FrozenAlphabet with the same entries.
+   * 
+   * Any InstanceList or instance created with this pipe before still uses the original 
+   * alphabet, so this should only be done when no instances have been created yet, i.e. 
+   * right after the pipe has been loaded for application. Once frozen, the data alphabet 
+   * cannot grow again.
+   * <p>
+   * Nothing is done for a hashing alphabet or an alphabet that is already frozen.
+   * <p>
+   * A Mallet classifier keeps its own reference to the pipe it was trained with. After
+   * loading, this is the same object as the loaded pipe only because Mallet resolves a
+   * de-serialized pipe to the one already loaded with the same instance id, so the classifier
+   * sees the new alphabet as well. EngineMalletClass checks this after loading a model.
+   * Both this and replaceDataAlphabet set private Mallet fields by reflection and may need
+   * to be adapted for a different Mallet version.
+   * 
+   * @return true if the data alphabet was replaced
+   */
+  public boolean freezeDataAlphabet() {
+    Alphabet old = getDataAlphabet();
+    if(old == null || old instanceof FrozenAlphabet || old instanceof HashingAlphabet) {
+      return false;
+    }
+    replaceDataAlphabet(new FrozenAlphabet(old));
+    // Mallet remembers every alphabet it creates or reads by its instance id, so that 
+    // de-serializing the same alphabet again gives the same object. We remove the original
+    // alphabet there so it can be garbage collected once no trained model uses it.
+    try {
+      Field entriesField = Alphabet.class.getDeclaredField("deserializedEntries");
+      entriesField.setAccessible(true);
+      ((Map<?,?>)entriesField.get(null)).remove(old.getInstanceId());
+    } catch (Exception ex) {
+      logger.debug("Could not remove the original data alphabet from the Mallet alphabet cache", ex);
+    }
+    return true;
+  }
+  
+  /**
+   * Replace the data alphabet of this pipe and of all the pipes it contains which use the 
+   * same data alphabet. 
+   * 
+   * Mallet does not allow to change the data alphabet of a pipe once it is set, so this is 
+   * done by setting the field directly. Whoever calls this is responsible for making
+   * sure that the instances used with this pipe afterwards use the new alphabet.
+   */
+  public void replaceDataAlphabet(Alphabet newAlphabet) {
+    Alphabet old = getDataAlphabet();
+    try {
+      Field field = Pipe.class.getDeclaredField("dataAlphabet");
+      field.setAccessible(true);
+      field.set(this, newAlphabet);
+      for(Pipe p : pipes()) {
+        if(p.getDataAlphabet() == old) {
+          field.set(p, newAlphabet);
+        }
+      }
+    } catch (Exception ex) {
+      throw new GateRuntimeException("Could not replace the data alphabet of the pipe", ex);
+    }
+  }
+  
   /**
    * Add another pipe at the end of this SerialPipes.
    * @param pipe 
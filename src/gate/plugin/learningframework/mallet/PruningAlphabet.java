@@ -0,0 +1,92 @@
+/*
+ * PruningAlphabet.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.mallet;
+
+import cc.mallet.types.Alphabet;
+
+/**
+ * A data alphabet which only adds features that have been seen a minimum number of times.
+ *
+ * While growth is not stopped, each lookup of a name which is not in the alphabet yet
+ * with addIfNotPresent true counts the name in a CountMinSketch and the name is only added
+ * once its estimated count reaches the minimum frequency, before that -1 is returned.
+ * Since extraction never adds a feature with an index of -1 to the feature vector, rare
+ * features do not end up in the alphabet or in any feature vector. This also means that
+ * the first minFrequency-1 occurrences of a feature which does get added are not
+ * represented in the instances where they occurred. The sketch can overestimate counts,
+ * so occasionally a rarer feature can get added too.
+ * <p>
+ * Names which are already in the alphabet are looked up as usual. The sketch and the
+ * number of pruned names are not saved with the alphabet.
+ *
+ * @author Johann Petrak
+ */
+public class PruningAlphabet extends Alphabet {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int minFrequency;
+  private transient CountMinSketch counts;
+  // the number of names counted for the first time and of those added because of the count
+  private transient int nrCounted;
+  private transient int nrAddedByCount;
+
+  public PruningAlphabet(int minFrequency) {
+    super();
+    if(minFrequency < 1) {
+      throw new IllegalArgumentException("Minimum feature frequency must be >= 1 but is "+minFrequency);
+    }
+    this.minFrequency = minFrequency;
+  }
+
+  public int getMinFrequency() { return minFrequency; }
+
+  @Override
+  public int lookupIndex(Object entry, boolean addIfNotPresent) {
+    if(!addIfNotPresent || minFrequency <= 1 || growthStopped()) {
+      return super.lookupIndex(entry, addIfNotPresent);
+    }
+    int index = super.lookupIndex(entry, false);
+    if(index >= 0) return index;
+    synchronized(this) {
+      // the sketch cannot count higher than this
+      int threshold = Math.min(minFrequency, Character.MAX_VALUE);
+      if(counts == null) {
+        counts = new CountMinSketch(threshold);
+      }
+      int count = counts.add(entry.toString());
+      if(count == 1) nrCounted++;
+      if(count < threshold) return -1;
+      nrAddedByCount++;
+    }
+    return super.lookupIndex(entry, true);
+  }
+
+  /**
+   * Estimate of the number of different names which were kept out of the alphabet because
+   * they were seen fewer than minFrequency times. This is approximate, since the sketch
+   * can overestimate counts.
+   */
+  public synchronized int getEstimatedNrPruned() {
+    return Math.max(0, nrCounted - nrAddedByCount);
+  }
+
+  /**
+   * Look up the name and add it if it is not in the alphabet yet, no matter how often it 
+   * has been seen, e.g. for a feature which was seen often enough in another alphabet.
+   */
+  public int lookupIndexNoPruning(Object entry) {
+    return super.lookupIndex(entry, true);
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * RemappedGainRatio.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.mallet;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.GainRatio;
+import java.util.Arrays;
+
+/**
+ * The gain ratio of a node of a Mallet C45 tree after the features of the data alphabet
+ * have been renumbered.
+ *
+ * A C45 tree only uses the gain ratio of a node for classification to find the split
+ * feature, which has the largest gain ratio, and its threshold, and for the label
+ * distribution at the leaves. So only the gain ratio and threshold of the split feature
+ * are kept, with its new index, all other features get a gain ratio of negative infinity.
+ * The minimum number of instances, which is only needed for growing the tree, is not kept.
+ *
+ * @author Johann Petrak
+ */
+public class RemappedGainRatio extends GainRatio {
+
+  private static final long serialVersionUID = 1L;
+
+  private RemappedGainRatio(Alphabet dict, double[] gainRatios, double[] splitPoints, GainRatio old) {
+    super(dict, gainRatios, splitPoints, old.getBaseEntropy(), old.getBaseLabelDistribution(),
+            old.getNumSplitPointsForBestFeature(), 0);
+  }
+
+  /**
+   * Create the gain ratio for the new alphabet from the gain ratio of a node, which is a
+   * split node if split is true.
+   * @param newIndices the new index for each old index, or -1 for removed features
+   */
+  public static GainRatio remap(GainRatio old, boolean split, int[] newIndices, Alphabet newAlphabet) {
+    int size = newAlphabet.size();
+    double[] gainRatios = new double[size];
+    double[] splitPoints = new double[size];
+    if(split) {
+      Arrays.fill(gainRatios, Double.NEGATIVE_INFINITY);
+      int index = old.getMaxValuedIndex();
+      int newIndex = newIndices[index];
+      if(newIndex < 0) {
+        throw new IllegalArgumentException("The split feature "+index+" of a node has been removed");
+      }
+      gainRatios[newIndex] = old.getMaxValue();
+      splitPoints[newIndex] = old.getMaxValuedThreshold();
+    }
+    return new RemappedGainRatio(newAlphabet, gainRatios, splitPoints, old);
+  }
+
+}
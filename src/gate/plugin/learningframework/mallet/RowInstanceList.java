@@ -0,0 +1,340 @@
+/*
+ * RowInstanceList.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.mallet;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.Label;
+import cc.mallet.types.LabelAlphabet;
+import gate.util.GateRuntimeException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Base class for InstanceLists which do not keep Instance objects but store the feature
+ * vectors, targets and weights of their instances in some other way.
+ *
+ * Each instance is a row with sorted feature indices, values, a target value which is
+ * the label index for classification or the value for regression, and a weight.
+ * All the methods which access instances, like get or iterator, create a new Instance
+ * with a FeatureVector from the stored row each time, so these lists can be used wherever
+ * an InstanceList of FeatureVector instances is expected, e.g. by the Mallet trainers.
+ * Code which converts the instances to some other representation can avoid creating the
+ * Mallet objects by using numLocations, getIndices, getValues and getTargetValue instead.
+ * Changing the returned instances or their feature vectors has no effect on the stored data.
+ * <p>
+ * Scaling factors can be set with setScaling: the stored values are not changed, instead
+ * the values get scaled each time they are read, so scaling does not need another pass
+ * over the instances and the stored rows stay as sparse as before.
+ * <p>
+ * Instances can only be added to the end of the list, they cannot be replaced or removed.
+ * The name, source and properties of the instances added are not stored.
+ *
+ * @author Johann Petrak
+ */
+public abstract class RowInstanceList extends InstanceList {
+
+  private static final long serialVersionUID = 1L;
+
+  private double[] scalingShifts;
+  private double[] scalingFactors;
+
+  public RowInstanceList(Pipe pipe) {
+    super(pipe);
+  }
+
+  @Override
+  public abstract int size();
+
+  @Override
+  public abstract boolean add(Instance inst, double weight);
+
+  /**
+   * The number of non-zero features of an instance.
+   */
+  public abstract int numLocations(int row);
+
+  /**
+   * The feature indices of an instance, in ascending order.
+   */
+  public abstract int[] getIndices(int row);
+
+  /**
+   * The feature values of an instance, in the order of the indices returned by getIndices.
+   * If scaling has been set, these are the scaled values.
+   */
+  public double[] getValues(int row) {
+    double[] values = getStoredValues(row);
+    if(scalingFactors != null) {
+      scale(getIndices(row), values);
+    }
+    return values;
+  }
+
+  /**
+   * The feature values of an instance as they were added.
+   */
+  protected abstract double[] getStoredValues(int row);
+
+  /**
+   * Scale the values of all instances, including those added later: each value is replaced 
+   * by (value-shifts[index])*factors[index] when it is read. Features with an index
+   * beyond the end of the arrays are not scaled. If factors is null, the scaling is removed.
+   */
+  public void setScaling(double[] shifts, double[] factors) {
+    if(factors != null && (shifts == null || shifts.length != factors.length)) {
+      throw new IllegalArgumentException("Need the same number of shifts and factors");
+    }
+    scalingShifts = shifts;
+    scalingFactors = factors;
+  }
+
+  private void scale(int[] indices, double[] values) {
+    for(int l=0; l<indices.length; l++) {
+      int index = indices[l];
+      if(index < scalingFactors.length) {
+        values[l] = (values[l] - scalingShifts[index]) * scalingFactors[index];
+      }
+    }
+  }
+
+  /**
+   * The label index of the target for classification or the target value for regression.
+   * This is NaN if the instance does not have a target.
+   */
+  public abstract double getTargetValue(int row);
+
+  @Override
+  public abstract double getInstanceWeight(int row);
+
+  @Override
+  public abstract void setInstanceWeight(int row, double weight);
+
+  protected void checkRow(int row) {
+    if(row < 0 || row >= size()) {
+      throw new IndexOutOfBoundsException("Index "+row+" not in "+getClass().getSimpleName()+" of size "+size());
+    }
+  }
+
+  /**
+   * Return the feature vector of an instance which gets added, with the indices sorted.
+   */
+  protected FeatureVector rowFeatureVector(Instance inst) {
+    if(!(inst.getData() instanceof FeatureVector)) {
+      throw new GateRuntimeException(getClass().getSimpleName()+" can only store FeatureVector instances, not "+
+              (inst.getData() == null ? "null" : inst.getData().getClass()));
+    }
+    FeatureVector fv = (FeatureVector)inst.getData();
+    if(fv.getAlphabet() != getDataAlphabet()) {
+      throw new IllegalArgumentException("Alphabet of the instance does not match the alphabet of the list");
+    }
+    for(int i=1; i<fv.numLocations(); i++) {
+      if(fv.indexAtLocation(i) < fv.indexAtLocation(i-1)) {
+        // this sorts the indices
+        return fv.getValues() == null ? new FeatureVector(fv.getAlphabet(), fv.getIndices()) :
+                new FeatureVector(fv.getAlphabet(), fv.getIndices(), fv.getValues());
+      }
+    }
+    return fv;
+  }
+
+  /**
+   * Return the target value to store for the target of an instance which gets added.
+   */
+  protected static double rowTargetValue(Object target) {
+    if(target == null) {
+      return Double.NaN;
+    } else if(target instanceof Label) {
+      return ((Label)target).getIndex();
+    } else if(target instanceof Number) {
+      return ((Number)target).doubleValue();
+    } else {
+      throw new GateRuntimeException("Cannot store target of class "+target.getClass());
+    }
+  }
+
+  @Override
+  public boolean add(Instance inst) {
+    return add(inst, 1.0);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public Instance get(int row) {
+    int[] indices = getIndices(row);
+    double[] vals = getStoredValues(row);
+    if(scalingFactors != null) {
+      scale(indices, vals);
+    }
+    Object target = null;
+    double t = getTargetValue(row);
+    if(!Double.isNaN(t)) {
+      Alphabet ta = getTargetAlphabet();
+      if(ta instanceof LabelAlphabet) {
+        target = ((LabelAlphabet)ta).lookupLabel((int)t);
+      } else {
+        target = t;
+      }
+    }
+    return new RowInstance(new RowFeatureVector(getDataAlphabet(), indices, vals), target, this, row);
+  }
+
+  /**
+   * Return the weight of an instance which was returned by this list, or 1.0 for any other
+   * instance.
+   */
+  @Override
+  public double getInstanceWeight(Instance inst) {
+    if(inst instanceof RowInstance && ((RowInstance)inst).list == this) {
+      return getInstanceWeight(((RowInstance)inst).row);
+    }
+    return 1.0;
+  }
+
+  @Override
+  public void setInstanceWeight(Instance inst, double weight) {
+    if(inst instanceof RowInstance && ((RowInstance)inst).list == this) {
+      setInstanceWeight(((RowInstance)inst).row, weight);
+    } else {
+      throw new IllegalArgumentException("Instance is not from this list");
+    }
+  }
+
+  @Override
+  public Iterator<Instance> iterator() {
+    return new Iterator<Instance>() {
+      int next = 0;
+      @Override
+      public boolean hasNext() {
+        return next < size();
+      }
+      @Override
+      public Instance next() {
+        if(next >= size()) throw new NoSuchElementException();
+        return get(next++);
+      }
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Cannot remove from a "+getClass().getSimpleName());
+      }
+    };
+  }
+
+  @Override
+  public Object[] toArray() {
+    Object[] ret = new Object[size()];
+    for(int i=0; i<ret.length; i++) {
+      ret[i] = get(i);
+    }
+    return ret;
+  }
+
+  @Override
+  public <T> T[] toArray(T[] a) {
+    int n = size();
+    T[] ret = a.length >= n ? a : Arrays.copyOf(a, n);
+    // storing through Object[] checks the element type at runtime, as the contract requires
+    Object[] elements = ret;
+    for(int i=0; i<n; i++) {
+      elements[i] = get(i);
+    }
+    if(ret.length > n) ret[n] = null;
+    return ret;
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends Instance> instances) {
+    for(Instance inst : instances) {
+      add(inst);
+    }
+    return !instances.isEmpty();
+  }
+
+  @Override
+  public Instance set(int row, Instance inst) {
+    throw new UnsupportedOperationException("Cannot replace instances in a "+getClass().getSimpleName());
+  }
+
+  @Override
+  public void add(int row, Instance inst) {
+    throw new UnsupportedOperationException("Can only add instances at the end of a "+getClass().getSimpleName());
+  }
+
+  @Override
+  public Instance remove(int row) {
+    throw new UnsupportedOperationException("Cannot remove from a "+getClass().getSimpleName());
+  }
+
+  @Override
+  public boolean remove(Instance inst) {
+    throw new UnsupportedOperationException("Cannot remove from a "+getClass().getSimpleName());
+  }
+
+  @Override
+  public ListIterator<Instance> listIterator() {
+    throw new UnsupportedOperationException("No list iterator for a "+getClass().getSimpleName());
+  }
+
+  @Override
+  public ListIterator<Instance> listIterator(int index) {
+    throw new UnsupportedOperationException("No list iterator for a "+getClass().getSimpleName());
+  }
+
+  /**
+   * Save a normal InstanceList with the same instances and weights instead of this one.
+   */
+  protected Object writeReplace() {
+    InstanceList ret = new InstanceList(getPipe());
+    for(int i=0; i<size(); i++) {
+      ret.add(get(i), getInstanceWeight(i));
+    }
+    return ret;
+  }
+
+  /**
+   * An instance created from a row of the list, which remembers where it came from so that
+   * its weight can be found.
+   */
+  private static class RowInstance extends Instance {
+    private static final long serialVersionUID = 1L;
+    private final transient RowInstanceList list;
+    private final int row;
+    RowInstance(FeatureVector data, Object target, RowInstanceList list, int row) {
+      super(data, target, null, null);
+      this.list = list;
+      this.row = row;
+    }
+  }
+
+  /**
+   * A FeatureVector which uses the arrays it gets without copying, sorting or checking
+   * them again.
+   */
+  private static class RowFeatureVector extends FeatureVector {
+    private static final long serialVersionUID = 1L;
+    RowFeatureVector(Alphabet alphabet, int[] indices, double[] values) {
+      super(alphabet, indices, values, indices.length, indices.length, false, false, false);
+    }
+  }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * ScalingInstanceList.java
+ *
+ * Copyright (c) 1995-2015, The University of Sheffield. See the file
+ * COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ * Copyright 2015 South London and Maudsley NHS Trust and King's College London
+ *
+ * This file is part of GATE (see http://gate.ac.uk/), and is free software,
+ * licenced under the GNU Library General Public License, Version 2, June 1991
+ * (in the distribution as file licence.html, and also available at
+ * http://gate.ac.uk/gate/licence.html).
+ */
+package gate.plugin.learningframework.mallet;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import gate.util.GateRuntimeException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A normal Mallet InstanceList which scales the feature vectors of its instances in place
+ * when they are first read, once scaling has been set with setScaling.
+ * <p>
+ * This avoids another pass over all the instances just for scaling: each instance gets
+ * scaled when the trainer reads it for the first time, through get or iterator.
+ * Methods which reorder, remove or copy out the instances in some other way, like shuffle,
+ * toArray or remove other than of the last instance, first scale all instances which have
+ * not been scaled yet.
+ * Instances added to the end of the list after scaling has been set get scaled too when
+ * they are first read, but instances put into the list with set are taken as they are,
+ * like instances which have been read from the list already.
+ * The stream methods and the methods which take a function, added to lists in Java 8,
+ * do not scale the instances and should not be used.
+ *
+ * @author Johann Petrak
+ */
+public class ScalingInstanceList extends InstanceList {
+
+  private static final long serialVersionUID = 1L;
+
+  private FeatureVector2NormalizedFeatureVector scaling;
+  // the rows which have already been scaled, only used once scaling has been set
+  private BitSet scaled = new BitSet();
+
+  public ScalingInstanceList(Pipe pipe) {
+    super(pipe);
+  }
+
+  /**
+   * Scale all instances with the given pipe when they are read.
+   * Scaling can only be set once.
+   */
+  public void setScaling(FeatureVector2NormalizedFeatureVector scaling) {
+    if(this.scaling != null) {
+      throw new GateRuntimeException("Scaling has already been set for this list");
+    }
+    this.scaling = scaling;
+    scaled.clear();
+  }
+
+  private void scale(int row) {
+    if(scaling != null && !scaled.get(row)) {
+      scaling.pipe(super.get(row));
+      scaled.set(row);
+    }
+  }
+
+  // scale all rows not scaled yet, before anything which bypasses get
+  private void scaleAll() {
+    if(scaling != null) {
+      for(int i=0; i<size(); i++) {
+        scale(i);
+      }
+    }
+  }
+
+  // after all rows have been scaled and then reordered or removed, all rows are scaled
+  private void setAllScaled() {
+    if(scaling != null) {
+      scaled.clear();
+      scaled.set(0, size());
+    }
+  }
+
+  @Override
+  public Instance get(int row) {
+    scale(row);
+    return super.get(row);
+  }
+
+  @Override
+  public Iterator<Instance> iterator() {
+    return new Iterator<Instance>() {
+      int next = 0;
+      @Override
+      public boolean hasNext() {
+        return next < size();
+      }
+      @Override
+      public Instance next() {
+        if(next >= size()) throw new NoSuchElementException();
+        return get(next++);
+      }
+      @Override
+      public void remove() {
+        if(next == 0) throw new IllegalStateException();
+        ScalingInstanceList.this.remove(--next);
+      }
+    };
+  }
+
+  @Override
+  public Instance set(int row, Instance inst) {
+    Instance ret = super.set(row, inst);
+    if(scaling != null) scaled.set(row);
+    return ret;
+  }
+
+  @Override
+  public Instance remove(int row) {
+    // removing the last instance does not move any others
+    if(row == size()-1) {
+      Instance ret = super.remove(row);
+      scaled.clear(row);
+      return ret;
+    }
+    scaleAll();
+    Instance ret = super.remove(row);
+    setAllScaled();
+    return ret;
+  }
+
+  @Override
+  public boolean remove(Instance inst) {
+    scaleAll();
+    boolean ret = super.remove(inst);
+    setAllScaled();
+    return ret;
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    scaleAll();
+    boolean ret = super.removeAll(c);
+    setAllScaled();
+    return ret;
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    scaleAll();
+    boolean ret = super.retainAll(c);
+    setAllScaled();
+    return ret;
+  }
+
+  @Override
+  protected void removeRange(int from, int to) {
+    scaleAll();
+    super.removeRange(from, to);
+    setAllScaled();
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    scaled.clear();
+  }
+
+  @Override
+  public void shuffle(Random r) {
+    // shuffling moves the instances with set, which takes them as they are
+    scaleAll();
+    super.shuffle(r);
+  }
+
+  @Override
+  public Object[] toArray() {
+    scaleAll();
+    return super.toArray();
+  }
+
+  @Override
+  public <T> T[] toArray(T[] a) {
+    scaleAll();
+    return super.toArray(a);
+  }
+
+  @Override
+  public ListIterator<Instance> listIterator() {
+    scaleAll();
+    return super.listIterator();
+  }
+
+  @Override
+  public ListIterator<Instance> listIterator(int index) {
+    scaleAll();
+    return super.listIterator(index);
+  }
+
+  /**
+   * Scale all instances before the list gets serialized.
+   */
+  protected Object writeReplace() {
+    scaleAll();
+    return this;
+  }
+
+}
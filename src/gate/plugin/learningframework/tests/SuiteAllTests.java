@@ -15,7 +15,8 @@ import org.junit.runners.Suite;
   TestEngineWeka.class,
   TestEngineLibSVM.class,
   TestEngineMalletSeq.class,
-  TestFeatureScaling.class
+  TestFeatureScaling.class,
+  TestExport.class
 })
 public class SuiteAllTests {
   // so we can run this test from the command line 
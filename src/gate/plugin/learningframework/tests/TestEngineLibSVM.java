@@ -2,12 +2,16 @@
 package gate.plugin.learningframework.tests;
 
 import cc.mallet.pipe.Pipe;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.Label;
 import gate.Annotation;
 import gate.AnnotationSet;
 import gate.Document;
 import gate.creole.ResourceInstantiationException;
 import gate.plugin.learningframework.GateClassification;
 import gate.plugin.learningframework.ScalingMethod;
+import gate.plugin.learningframework.data.CorpusRepresentationLibSVM;
 import gate.plugin.learningframework.data.CorpusRepresentationMallet;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
 import gate.plugin.learningframework.engines.AlgorithmClassification;
@@ -21,7 +25,11 @@ import static gate.plugin.learningframework.tests.Utils.loadDocument;
 import gate.util.GateException;
 import java.io.File;
 import java.net.MalformedURLException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import libsvm.svm_node;
+import libsvm.svm_problem;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 import org.junit.BeforeClass;
@@ -185,6 +193,66 @@ public class TestEngineLibSVM {
     
   }
 
+  @Test
+  public void testLibSVMSharedNodes1() throws MalformedURLException, ResourceInstantiationException {
+    // the converted problem has the same values as the mallet instances and shares the 
+    // nodes for values of 1.0
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    FeatureInfo featureInfo = new FeatureSpecification(configFile).getFeatureInfo();
+    CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(featureInfo, ScalingMethod.NONE,TargetType.NOMINAL);
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    crm.add(instanceAS, null, doc.getAnnotations(), null, "class", TargetType.NOMINAL, null);
+    InstanceList instances = crm.getRepresentationMallet();
+    svm_problem prob = CorpusRepresentationLibSVM.getFromMallet(crm);
+    assertEquals(instances.size(), prob.l);
+    Map<Integer,svm_node> unitNodes = new HashMap<Integer,svm_node>();
+    int nrUnit = 0;
+    for(int i=0; i<prob.l; i++) {
+      FeatureVector fv = (FeatureVector)instances.get(i).getData();
+      assertEquals(((Label)instances.get(i).getTarget()).getIndex(), prob.y[i], 0.0);
+      assertEquals(fv.numLocations(), prob.x[i].length);
+      for(int l=0; l<fv.numLocations(); l++) {
+        svm_node node = prob.x[i][l];
+        assertEquals(fv.indexAtLocation(l), node.index);
+        assertEquals(fv.valueAtLocation(l), node.value, 0.0);
+        if(node.value == 1.0) {
+          nrUnit++;
+          if(unitNodes.containsKey(node.index)) {
+            assertTrue(unitNodes.get(node.index) == node);
+          } else {
+            unitNodes.put(node.index, node);
+          }
+        }
+      }
+    }
+    // many of the values in this dataset are 1.0
+    assertTrue(nrUnit > prob.l);
+    assertTrue(unitNodes.size() <= instances.getDataAlphabet().size());
+  }
   
+  @Test
+  public void testLibSVMRelease1() throws MalformedURLException, ResourceInstantiationException {
+    // releasing the mallet instances gives the same problem and leaves no instances
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    FeatureInfo featureInfo = new FeatureSpecification(configFile).getFeatureInfo();
+    CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(featureInfo, ScalingMethod.NONE,TargetType.NOMINAL);
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    crm.add(instanceAS, null, doc.getAnnotations(), null, "class", TargetType.NOMINAL, null);
+    crm.addScaling(ScalingMethod.MEANVARIANCE_ALL_FEATURES);
+    svm_problem expected = CorpusRepresentationLibSVM.getFromMallet(crm);
+    svm_problem prob = CorpusRepresentationLibSVM.getFromMallet(crm, true);
+    assertEquals(0, crm.getRepresentationMallet().size());
+    assertEquals(expected.l, prob.l);
+    for(int i=0; i<prob.l; i++) {
+      assertEquals(expected.y[i], prob.y[i], 0.0);
+      assertEquals(expected.x[i].length, prob.x[i].length);
+      for(int l=0; l<prob.x[i].length; l++) {
+        assertEquals(expected.x[i][l].index, prob.x[i][l].index);
+        assertEquals(expected.x[i][l].value, prob.x[i][l].value, 0.0);
+      }
+    }
+  }
   
 }
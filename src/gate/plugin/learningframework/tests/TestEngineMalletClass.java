@@ -1,28 +1,47 @@
 
 package gate.plugin.learningframework.tests;
 
+import cc.mallet.classify.Classifier;
 import cc.mallet.pipe.Pipe;
 import gate.Annotation;
+import cc.mallet.types.Alphabet;
 import gate.AnnotationSet;
 import gate.Document;
 import gate.creole.ResourceInstantiationException;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.InstanceList;
 import gate.plugin.learningframework.GateClassification;
+import gate.plugin.learningframework.InstanceStorage;
 import gate.plugin.learningframework.ScalingMethod;
+import gate.plugin.learningframework.SharedTrainingData;
+import gate.plugin.learningframework.TrainFromCorpus;
+import gate.plugin.learningframework.data.CorpusRepresentationLibSVM;
 import gate.plugin.learningframework.data.CorpusRepresentationMallet;
+import gate.plugin.learningframework.data.CorpusRepresentationMalletMultiSpec;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
+import gate.plugin.learningframework.data.CorpusRepresentationWeka;
 import gate.plugin.learningframework.engines.AlgorithmClassification;
 import gate.plugin.learningframework.engines.Engine;
+import gate.plugin.learningframework.engines.Info;
 import gate.plugin.learningframework.features.FeatureInfo;
 import gate.plugin.learningframework.features.FeatureSpecification;
 import gate.plugin.learningframework.features.TargetType;
+import gate.plugin.learningframework.mallet.CompactInstanceList;
+import gate.plugin.learningframework.mallet.DiskInstanceList;
+import gate.plugin.learningframework.mallet.FeatureStatistics;
+import gate.plugin.learningframework.mallet.FrozenAlphabet;
 import gate.plugin.learningframework.mallet.LFPipe;
 import gate.util.GateException;
+import gate.util.GateRuntimeException;
 import java.io.File;
 import org.junit.Test;
 import org.junit.BeforeClass;
 import static gate.plugin.learningframework.tests.Utils.*;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.List;
+import libsvm.svm_problem;
+import weka.core.Instances;
 import static org.junit.Assert.*;
 
 /**
@@ -67,6 +86,10 @@ public class TestEngineMalletClass {
     // Now check if we can restore the engine and thus the corpus representation
     Engine engine2 = Engine.loadEngine(new File("."), "");
     System.err.println("RESTORED engine is "+engine2);
+    // the classifier uses the frozen data alphabet of the loaded pipe
+    Alphabet loadedAlph = engine2.getCorpusRepresentationMallet().getPipe().getDataAlphabet();
+    assertTrue(loadedAlph instanceof FrozenAlphabet);
+    assertSame(loadedAlph, ((Classifier)engine2.getModel()).getAlphabet());
     
     // check if the corpusRepresentation has been restored correctly
     CorpusRepresentationMallet crm2 = engine2.getCorpusRepresentationMallet();
@@ -106,4 +129,317 @@ public class TestEngineMalletClass {
     assertEquals(0.9630, acc, 0.01);
   }
   
+  @Test
+  public void testEngineMalletClassCompact1() throws MalformedURLException, ResourceInstantiationException {
+    // a MaxEnt model does not use features which never occur in the training data, removing
+    // those from the model must not change the classifications
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    FeatureSpecification spec = new FeatureSpecification(configFile);
+    FeatureInfo featureInfo = spec.getFeatureInfo();
+    CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(featureInfo, ScalingMethod.NONE,TargetType.NOMINAL);
+    Engine engine = Engine.createEngine(AlgorithmClassification.MALLET_CL_MAX_ENT, "", crm);
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    AnnotationSet inputAS = doc.getAnnotations();
+    crm.add(instanceAS, null, inputAS, null, "class", TargetType.NOMINAL, null);
+    crm.getPipe().getDataAlphabet().lookupIndex("notInAnyInstance");
+    int sizeBefore = crm.getPipe().getDataAlphabet().size();
+    engine.trainModel("");
+    List<GateClassification> gcs1 = engine.classify(instanceAS, inputAS, null, "");
+    
+    int removed = engine.compactModel();
+    assertTrue(removed >= 1);
+    assertEquals(sizeBefore - removed, crm.getPipe().getDataAlphabet().size());
+    assertFalse(crm.getPipe().getDataAlphabet().contains("notInAnyInstance"));
+    assertEquals(crm.getPipe().getDataAlphabet().size(), engine.getInfo().nrTrainingDimensions);
+    List<GateClassification> gcs2 = engine.classify(instanceAS, inputAS, null, "");
+    assertEquals(gcs1.size(), gcs2.size());
+    for(int i=0; i<gcs1.size(); i++) {
+      assertEquals(gcs1.get(i).getClassAssigned(), gcs2.get(i).getClassAssigned());
+      assertEquals(gcs1.get(i).getConfidenceScore(), gcs2.get(i).getConfidenceScore(), 0.000001);
+    }
+    // nothing left to remove
+    assertEquals(0, engine.compactModel());
+  }
+  
+  @Test
+  public void testEngineMalletClassCompactC45() throws Exception {
+    // a C45 tree only uses the features it splits on, removing all others from the model
+    // must not change the classifications, also after saving and loading the model
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    FeatureInfo featureInfo = new FeatureSpecification(configFile).getFeatureInfo();
+    CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(featureInfo, ScalingMethod.NONE,TargetType.NOMINAL);
+    Engine engine = Engine.createEngine(AlgorithmClassification.MALLET_CL_C45, "", crm);
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    AnnotationSet inputAS = doc.getAnnotations();
+    crm.add(instanceAS, null, inputAS, null, "class", TargetType.NOMINAL, null);
+    int sizeBefore = crm.getPipe().getDataAlphabet().size();
+    engine.trainModel("");
+    List<GateClassification> gcs1 = engine.classify(instanceAS, inputAS, null, "");
+    
+    int removed = engine.compactModel();
+    assertTrue(removed >= 1);
+    assertEquals(sizeBefore - removed, crm.getPipe().getDataAlphabet().size());
+    List<GateClassification> gcs2 = engine.classify(instanceAS, inputAS, null, "");
+    File dir = java.nio.file.Files.createTempDirectory("lf-test").toFile();
+    engine.saveEngine(dir);
+    Engine engine2 = Engine.loadEngine(dir, "");
+    List<GateClassification> gcs3 = engine2.classify(instanceAS, inputAS, null, "");
+    assertEquals(gcs1.size(), gcs2.size());
+    assertEquals(gcs1.size(), gcs3.size());
+    for(int i=0; i<gcs1.size(); i++) {
+      assertEquals(gcs1.get(i).getClassAssigned(), gcs2.get(i).getClassAssigned());
+      assertEquals(gcs1.get(i).getConfidenceScore(), gcs2.get(i).getConfidenceScore(), 0.000001);
+      assertEquals(gcs1.get(i).getClassAssigned(), gcs3.get(i).getClassAssigned());
+    }
+    assertEquals(0, engine.compactModel());
+  }
+  
+  @Test
+  public void testEngineMalletClassCompactStorage1() throws MalformedURLException, ResourceInstantiationException {
+    checkRowStorage(InstanceStorage.COMPACT, CompactInstanceList.class);
+  }
+  
+  @Test
+  public void testEngineMalletClassDiskStorage1() throws MalformedURLException, ResourceInstantiationException {
+    checkRowStorage(InstanceStorage.DISK, DiskInstanceList.class);
+  }
+  
+  private void checkRowStorage(InstanceStorage storage, Class<?> listClass) throws MalformedURLException, ResourceInstantiationException {
+    // keeping the instances in a RowInstanceList gives the same instances, except for 
+    // the precision of the values, and the same model
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    AnnotationSet inputAS = doc.getAnnotations();
+    CorpusRepresentationMalletTarget crm1 = new CorpusRepresentationMalletTarget(
+            new FeatureSpecification(configFile).getFeatureInfo(), ScalingMethod.NONE,TargetType.NOMINAL);
+    crm1.add(instanceAS, null, inputAS, null, "class", TargetType.NOMINAL, null);
+    CorpusRepresentationMalletTarget crm2 = new CorpusRepresentationMalletTarget(
+            new FeatureSpecification(configFile).getFeatureInfo(), ScalingMethod.NONE,TargetType.NOMINAL, 
+            storage);
+    crm2.add(instanceAS, null, inputAS, null, "class", TargetType.NOMINAL, null);
+    InstanceList insts1 = crm1.getRepresentationMallet();
+    InstanceList insts2 = crm2.getRepresentationMallet();
+    assertEquals(listClass, insts2.getClass());
+    assertEquals(insts1.size(), insts2.size());
+    for(int i=0; i<insts1.size(); i++) {
+      FeatureVector fv1 = (FeatureVector)insts1.get(i).getData();
+      FeatureVector fv2 = (FeatureVector)insts2.get(i).getData();
+      assertArrayEquals(fv1.getIndices(), fv2.getIndices());
+      for(int l=0; l<fv1.numLocations(); l++) {
+        assertEquals(fv1.valueAtLocation(l), fv2.valueAtLocation(l), 0.00001);
+      }
+      assertEquals(insts1.get(i).getTarget().toString(), insts2.get(i).getTarget().toString());
+      assertSame(crm2.getPipe().getDataAlphabet(), fv2.getAlphabet());
+    }
+    insts2.setInstanceWeight(3, 2.0);
+    assertEquals(2.0, insts2.getInstanceWeight(3), 0.0);
+    assertEquals(2.0, insts2.getInstanceWeight(insts2.get(3)), 0.0);
+    assertEquals(1.0, insts2.getInstanceWeight(4), 0.0);
+    insts2.setInstanceWeight(3, 1.0);
+    // the conversions read the compact list directly
+    svm_problem prob1 = CorpusRepresentationLibSVM.getFromMallet(crm1);
+    svm_problem prob2 = CorpusRepresentationLibSVM.getFromMallet(crm2);
+    assertEquals(prob1.l, prob2.l);
+    Instances wekaInsts1 = CorpusRepresentationWeka.getFromMallet(crm1);
+    Instances wekaInsts2 = CorpusRepresentationWeka.getFromMallet(crm2);
+    assertEquals(wekaInsts1.numInstances(), wekaInsts2.numInstances());
+    for(int i=0; i<prob1.l; i++) {
+      assertEquals(prob1.y[i], prob2.y[i], 0.0);
+      assertEquals(prob1.x[i].length, prob2.x[i].length);
+      assertEquals(wekaInsts1.instance(i).classValue(), wekaInsts2.instance(i).classValue(), 0.0);
+      assertEquals(wekaInsts1.instance(i).numValues(), wekaInsts2.instance(i).numValues());
+    }
+    
+    Engine engine1 = Engine.createEngine(AlgorithmClassification.MALLET_CL_MAX_ENT, "", crm1);
+    engine1.trainModel("");
+    Engine engine2 = Engine.createEngine(AlgorithmClassification.MALLET_CL_MAX_ENT, "", crm2);
+    engine2.trainModel("");
+    List<GateClassification> gcs1 = engine1.classify(instanceAS, inputAS, null, "");
+    List<GateClassification> gcs2 = engine2.classify(instanceAS, inputAS, null, "");
+    assertEquals(gcs1.size(), gcs2.size());
+    for(int i=0; i<gcs1.size(); i++) {
+      assertEquals(gcs1.get(i).getClassAssigned(), gcs2.get(i).getClassAssigned());
+    }
+  }
+  
+  @Test
+  public void testTrainFromCorpus1() throws Exception {
+    // a saved and loaded corpus has the same instances and a model trained from it
+    // gives the same classifications
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    AnnotationSet inputAS = doc.getAnnotations();
+    CorpusRepresentationMalletTarget crm1 = new CorpusRepresentationMalletTarget(
+            new FeatureSpecification(configFile).getFeatureInfo(), ScalingMethod.NONE,TargetType.NOMINAL);
+    crm1.add(instanceAS, null, inputAS, null, "class", TargetType.NOMINAL, null);
+    crm1.getRepresentationMallet().setInstanceWeight(2, 3.0);
+    File dir = File.createTempFile("lf-corpus", "");
+    dir.delete();
+    dir.mkdir();
+    Info info = new Info();
+    info.targetFeature = "class";
+    info.nrTrainingDocuments = 1;
+    crm1.saveCorpus(dir, info);
+    Info info2 = new Info();
+    CorpusRepresentationMalletTarget crm2 = CorpusRepresentationMalletTarget.loadCorpus(dir, InstanceStorage.COMPACT, info2);
+    assertEquals("class", info2.targetFeature);
+    assertNull(info2.trainingCorpusName);
+    assertEquals(1, info2.nrTrainingDocuments);
+    InstanceList insts1 = crm1.getRepresentationMallet();
+    InstanceList insts2 = crm2.getRepresentationMallet();
+    assertEquals(CompactInstanceList.class, insts2.getClass());
+    assertEquals(insts1.size(), insts2.size());
+    assertEquals(insts1.getDataAlphabet().size(), insts2.getDataAlphabet().size());
+    for(int i=0; i<insts1.size(); i++) {
+      FeatureVector fv1 = (FeatureVector)insts1.get(i).getData();
+      FeatureVector fv2 = (FeatureVector)insts2.get(i).getData();
+      assertArrayEquals(fv1.getIndices(), fv2.getIndices());
+      for(int l=0; l<fv1.numLocations(); l++) {
+        assertEquals(fv1.valueAtLocation(l), fv2.valueAtLocation(l), 0.00001);
+      }
+      assertEquals(insts1.get(i).getTarget().toString(), insts2.get(i).getTarget().toString());
+      assertEquals(insts1.getInstanceWeight(i), insts2.getInstanceWeight(i), 0.0);
+    }
+    
+    Engine engine1 = Engine.createEngine(AlgorithmClassification.MALLET_CL_C45, "", crm1);
+    engine1.trainModel("");
+    TrainFromCorpus.train(dir, AlgorithmClassification.MALLET_CL_C45, "", ScalingMethod.NONE, InstanceStorage.MALLET, dir);
+    Engine engine2 = Engine.loadEngine(dir, "");
+    assertEquals("class", engine2.getInfo().targetFeature);
+    List<GateClassification> gcs1 = engine1.classify(instanceAS, inputAS, null, "");
+    List<GateClassification> gcs2 = engine2.classify(instanceAS, inputAS, null, "");
+    assertEquals(gcs1.size(), gcs2.size());
+    for(int i=0; i<gcs1.size(); i++) {
+      assertEquals(gcs1.get(i).getClassAssigned(), gcs2.get(i).getClassAssigned());
+    }
+    for(File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+  
+  @Test
+  public void testMultiSpec1() throws Exception {
+    // the instances for each feature specification are the same as when extracted separately
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    String spec2 = "<ML-CONFIG>"+
+            "<ATTRIBUTE><FEATURE>a05</FEATURE><DATATYPE>numeric</DATATYPE></ATTRIBUTE>"+
+            "<ATTRIBUTE><FEATURE>a03</FEATURE><DATATYPE>numeric</DATATYPE></ATTRIBUTE>"+
+            "<ATTRIBUTE><FEATURE>a34</FEATURE><DATATYPE>numeric</DATATYPE></ATTRIBUTE>"+
+            "</ML-CONFIG>";
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    AnnotationSet inputAS = doc.getAnnotations();
+    List<FeatureInfo> infos = new ArrayList<FeatureInfo>();
+    infos.add(new FeatureSpecification(configFile).getFeatureInfo());
+    infos.add(new FeatureSpecification(spec2).getFeatureInfo());
+    CorpusRepresentationMalletMultiSpec multi = new CorpusRepresentationMalletMultiSpec(infos, "Mention",
+            TargetType.NOMINAL, ScalingMethod.NONE, InstanceStorage.MALLET, null);
+    multi.add(instanceAS, null, inputAS, "class", TargetType.NOMINAL, null);
+    assertEquals(34, multi.getFeatureInfo().getAttributes().size());
+    List<CorpusRepresentationMalletTarget> crms = multi.getRepresentations();
+    assertEquals(2, crms.size());
+    assertEquals(3, crms.get(1).getRepresentationMallet().getDataAlphabet().size());
+    for(int s=0; s<2; s++) {
+      CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(
+              s == 0 ? new FeatureSpecification(configFile).getFeatureInfo() : new FeatureSpecification(spec2).getFeatureInfo(), 
+              ScalingMethod.NONE,TargetType.NOMINAL);
+      crm.add(instanceAS, null, inputAS, null, "class", TargetType.NOMINAL, null);
+      InstanceList insts1 = crm.getRepresentationMallet();
+      InstanceList insts2 = crms.get(s).getRepresentationMallet();
+      assertEquals(insts1.size(), insts2.size());
+      assertEquals(insts1.getDataAlphabet().size(), insts2.getDataAlphabet().size());
+      for(int i=0; i<insts1.size(); i++) {
+        FeatureVector fv1 = (FeatureVector)insts1.get(i).getData();
+        FeatureVector fv2 = (FeatureVector)insts2.get(i).getData();
+        assertEquals(fv1.numLocations(), fv2.numLocations());
+        for(int l=0; l<fv1.numLocations(); l++) {
+          Object name = insts1.getDataAlphabet().lookupObject(fv1.indexAtLocation(l));
+          assertEquals(fv1.valueAtLocation(l), fv2.value(insts2.getDataAlphabet().lookupIndex(name, false)), 0.0);
+        }
+        assertEquals(insts1.get(i).getTarget().toString(), insts2.get(i).getTarget().toString());
+      }
+    }
+    // attributes which create the same feature names cannot be combined
+    infos.add(new FeatureSpecification("<ML-CONFIG><ATTRIBUTE><FEATURE>a03</FEATURE>"+
+            "<DATATYPE>nominal</DATATYPE></ATTRIBUTE></ML-CONFIG>").getFeatureInfo());
+    try {
+      new CorpusRepresentationMalletMultiSpec(infos, "Mention", TargetType.NOMINAL, 
+              ScalingMethod.NONE, InstanceStorage.MALLET, null);
+      fail("Expected an exception for conflicting attributes");
+    } catch (GateRuntimeException ex) {
+      // expected
+    }
+  }
+  
+  @Test
+  public void testMergeDuplicates1() throws Exception {
+    // the instances extracted by two duplicates, each for part of the documents, merged 
+    // are the same as those extracted by a single PR
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    AnnotationSet inputAS = doc.getAnnotations();
+    AnnotationSet part1 = doc.getAnnotations("part1");
+    AnnotationSet part2 = doc.getAnnotations("part2");
+    List<Annotation> anns = instanceAS.inDocumentOrder();
+    for(int i=0; i<anns.size(); i++) {
+      Annotation ann = anns.get(i);
+      (i < anns.size()/2 ? part1 : part2).add(ann.getStartNode(), ann.getEndNode(), ann.getType(), ann.getFeatures());
+    }
+    CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(
+            new FeatureSpecification(configFile).getFeatureInfo(), ScalingMethod.MEANVARIANCE_ALL_FEATURES,TargetType.NOMINAL);
+    crm.add(instanceAS, null, inputAS, null, "class", TargetType.NOMINAL, null);
+    // the second part is extracted first, so the alphabets have a different order
+    CorpusRepresentationMalletTarget crm1 = new CorpusRepresentationMalletTarget(
+            new FeatureSpecification(configFile).getFeatureInfo(), ScalingMethod.MEANVARIANCE_ALL_FEATURES,TargetType.NOMINAL);
+    crm1.add(part2, null, inputAS, null, "class", TargetType.NOMINAL, null);
+    CorpusRepresentationMalletTarget crm2 = new CorpusRepresentationMalletTarget(
+            new FeatureSpecification(configFile).getFeatureInfo(), ScalingMethod.MEANVARIANCE_ALL_FEATURES,TargetType.NOMINAL);
+    crm2.add(part1, null, inputAS, null, "class", TargetType.NOMINAL, null);
+    int size1 = crm2.getRepresentationMallet().size();
+    SharedTrainingData shared = new SharedTrainingData();
+    shared.register();
+    shared.register();
+    assertFalse(shared.finish(crm1));
+    assertTrue(shared.finish(crm2));
+    CorpusRepresentationMalletTarget merged = shared.merge();
+    assertNotNull(merged);
+    InstanceList insts1 = crm.getRepresentationMallet();
+    InstanceList insts2 = merged.getRepresentationMallet();
+    assertEquals(insts1.size(), insts2.size());
+    Alphabet alph1 = insts1.getDataAlphabet();
+    Alphabet alph2 = insts2.getDataAlphabet();
+    assertEquals(alph1.size(), alph2.size());
+    // the instances of the larger part come first
+    int offset = merged == crm1 ? size1 : 0;
+    for(int i=0; i<insts1.size(); i++) {
+      FeatureVector fv1 = (FeatureVector)insts1.get(i).getData();
+      FeatureVector fv2 = (FeatureVector)insts2.get((i + insts1.size() - offset) % insts1.size()).getData();
+      assertEquals(fv1.numLocations(), fv2.numLocations());
+      for(int l=0; l<fv1.numLocations(); l++) {
+        Object name = alph1.lookupObject(fv1.indexAtLocation(l));
+        assertEquals(fv1.valueAtLocation(l), fv2.value(alph2.lookupIndex(name, false)), 0.0);
+      }
+      assertEquals(insts1.get(i).getTarget().toString(), 
+              insts2.get((i + insts1.size() - offset) % insts1.size()).getTarget().toString());
+    }
+    FeatureStatistics stats1 = crm.getFeatureStatistics();
+    FeatureStatistics stats2 = merged.getFeatureStatistics();
+    assertEquals(stats1.getNrInstances(), stats2.getNrInstances());
+    for(int i=0; i<alph1.size(); i++) {
+      int j = alph2.lookupIndex(alph1.lookupObject(i), false);
+      assertEquals(stats1.getMean(i), stats2.getMean(j), 1e-9);
+      assertEquals(stats1.getVariance(i), stats2.getVariance(j), 1e-9);
+    }
+    // the next run starts from scratch
+    assertFalse(shared.finish(null));
+    assertTrue(shared.finish(null));
+    assertNull(shared.merge());
+  }
+  
 }
@@ -2,31 +2,41 @@
 package gate.plugin.learningframework.tests;
 
 import cc.mallet.pipe.Pipe;
+import cc.mallet.types.FeatureVector;
 import gate.Annotation;
 import gate.AnnotationSet;
 import gate.Document;
 import gate.creole.ResourceInstantiationException;
 import gate.plugin.learningframework.GateClassification;
+import gate.plugin.learningframework.InstanceStorage;
 import gate.plugin.learningframework.ScalingMethod;
 import gate.plugin.learningframework.data.CorpusRepresentationMallet;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
+import gate.plugin.learningframework.data.CorpusRepresentationWeka;
+import gate.plugin.learningframework.data.WekaMalletInstance;
 import gate.plugin.learningframework.engines.AlgorithmClassification;
 import gate.plugin.learningframework.engines.AlgorithmRegression;
 import gate.plugin.learningframework.engines.Engine;
 import gate.plugin.learningframework.features.FeatureInfo;
 import gate.plugin.learningframework.features.FeatureSpecification;
 import gate.plugin.learningframework.features.TargetType;
+import gate.plugin.learningframework.mallet.DiskInstanceList;
 import gate.plugin.learningframework.mallet.LFPipe;
 import static gate.plugin.learningframework.tests.Utils.loadDocument;
 import gate.util.GateException;
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.List;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import org.junit.Test;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import org.junit.BeforeClass;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+import weka.core.SparseInstance;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -186,4 +196,83 @@ public class TestEngineWeka {
   }
 
   
+  @Test
+  public void testEngineWekaClassDiskStorage1() throws MalformedURLException, ResourceInstantiationException, IOException {
+    // an updateable classifier is trained incrementally from the instances on disk and 
+    // gives the same classifications as when trained from a weka dataset
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    AnnotationSet inputAS = doc.getAnnotations();
+    CorpusRepresentationMalletTarget crm1 = new CorpusRepresentationMalletTarget(
+            new FeatureSpecification(configFile).getFeatureInfo(), ScalingMethod.NONE,TargetType.NOMINAL);
+    crm1.add(instanceAS, null, inputAS, null, "class", TargetType.NOMINAL, null);
+    CorpusRepresentationMalletTarget crm2 = new CorpusRepresentationMalletTarget(
+            new FeatureSpecification(configFile).getFeatureInfo(), ScalingMethod.NONE,TargetType.NOMINAL, 
+            InstanceStorage.DISK);
+    crm2.add(instanceAS, null, inputAS, null, "class", TargetType.NOMINAL, null);
+    assertTrue(crm2.getRepresentationMallet() instanceof DiskInstanceList);
+    Engine engine1 = Engine.createEngine(AlgorithmClassification.WEKA_CL_IBK, "", crm1);
+    engine1.trainModel("");
+    Engine engine2 = Engine.createEngine(AlgorithmClassification.WEKA_CL_IBK, "", crm2);
+    engine2.trainModel("");
+    // the engines can only classify after loading
+    File dir1 = java.nio.file.Files.createTempDirectory("lf-test").toFile();
+    File dir2 = java.nio.file.Files.createTempDirectory("lf-test").toFile();
+    engine1.saveEngine(dir1);
+    engine2.saveEngine(dir2);
+    engine1 = Engine.loadEngine(dir1, "");
+    engine2 = Engine.loadEngine(dir2, "");
+    List<GateClassification> gcs1 = engine1.classify(instanceAS, inputAS, null, "");
+    List<GateClassification> gcs2 = engine2.classify(instanceAS, inputAS, null, "");
+    assertEquals(gcs1.size(), gcs2.size());
+    for(int i=0; i<gcs1.size(); i++) {
+      assertEquals(gcs1.get(i).getClassAssigned(), gcs2.get(i).getClassAssigned());
+    }
+    ((DiskInstanceList)crm2.getRepresentationMallet()).close();
+    assertFalse(((DiskInstanceList)crm2.getRepresentationMallet()).getFile().exists());
+  }
+  
+  @Test
+  public void testWekaMalletInstance1() throws Exception {
+    // the weka instances which share the arrays of the mallet instances have the same values 
+    // as normal sparse instances, give the same model and changing them does not change 
+    // the mallet instances
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    FeatureInfo featureInfo = new FeatureSpecification(configFile).getFeatureInfo();
+    CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(featureInfo, ScalingMethod.NONE, TargetType.NOMINAL);
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    crm.add(instanceAS, null, doc.getAnnotations(), null, "class", TargetType.NOMINAL, null);
+    Instances view = CorpusRepresentationWeka.getFromMallet(crm);
+    Instances copy = new Instances(view, view.numInstances());
+    for(int i=0; i<view.numInstances(); i++) {
+      assertTrue(view.instance(i) instanceof WekaMalletInstance);
+      SparseInstance sparse = ((WekaMalletInstance)view.instance(i)).toSparseInstance();
+      assertEquals(view.instance(i).numValues(), sparse.numValues());
+      for(int a=0; a<view.numAttributes(); a++) {
+        assertEquals(sparse.value(a), view.instance(i).value(a), 0.0);
+      }
+      assertEquals(sparse.toString(), view.instance(i).toString());
+      copy.add(sparse);
+    }
+    assertEquals(crm.getRepresentationMallet().size(), view.numInstances());
+    J48 j48view = new J48();
+    j48view.buildClassifier(view);
+    J48 j48copy = new J48();
+    j48copy.buildClassifier(copy);
+    assertEquals(j48copy.toString(), j48view.toString());
+    
+    FeatureVector fv = (FeatureVector)crm.getRepresentationMallet().get(0).getData();
+    double before = fv.valueAtLocation(0);
+    weka.core.Instance inst = (weka.core.Instance)view.instance(0).copy();
+    inst.setValue(fv.indexAtLocation(0), before + 1.0);
+    inst.setClassMissing();
+    assertEquals(before + 1.0, inst.value(fv.indexAtLocation(0)), 0.0);
+    assertTrue(inst.classIsMissing());
+    assertEquals(before, fv.valueAtLocation(0), 0.0);
+    assertEquals(before, view.instance(0).value(fv.indexAtLocation(0)), 0.0);
+    assertFalse(view.instance(0).classIsMissing());
+  }
+  
 }
@@ -0,0 +1,214 @@
+package gate.plugin.learningframework.tests;
+
+import gate.AnnotationSet;
+import gate.Document;
+import gate.creole.ResourceInstantiationException;
+import gate.plugin.learningframework.Exporter;
+import gate.plugin.learningframework.ScalingMethod;
+import gate.plugin.learningframework.data.CorpusRepresentationLibSVM;
+import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
+import gate.plugin.learningframework.data.CorpusRepresentationWeka;
+import gate.plugin.learningframework.data.ExportWriter;
+import gate.plugin.learningframework.data.StreamingExporter;
+import gate.plugin.learningframework.features.FeatureSpecification;
+import gate.plugin.learningframework.features.TargetType;
+import static gate.plugin.learningframework.tests.Utils.loadDocument;
+import gate.util.GateException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import weka.core.Instances;
+import weka.core.converters.AbstractFileSaver;
+import weka.core.converters.ArffLoader;
+import weka.core.converters.ArffSaver;
+import weka.core.converters.LibSVMSaver;
+import weka.core.converters.SVMLightSaver;
+
+/**
+ *
+ * @author Johann Petrak
+ */
+public class TestExport {
+
+  @BeforeClass
+  public static void init() throws GateException {
+    gate.Gate.init();
+    // load the plugin
+    gate.Utils.loadPlugin(new File("."));
+  }
+  
+  @Test
+  public void testStreamingExport1() throws MalformedURLException, ResourceInstantiationException, IOException {
+    // writing the instances in several parts gives the same as the normal export
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    AnnotationSet inputAS = doc.getAnnotations();
+    CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(
+            new FeatureSpecification(configFile).getFeatureInfo(), ScalingMethod.NONE,TargetType.NOMINAL);
+    crm.add(instanceAS, null, inputAS, null, "class", TargetType.NOMINAL, null);
+    File dir1 = Files.createTempDirectory("lf-test").toFile();
+    new CorpusRepresentationLibSVM(crm).export(dir1, null);
+    Instances wekaInsts = CorpusRepresentationWeka.getFromMallet(crm);
+    
+    File dir2 = Files.createTempDirectory("lf-test").toFile();
+    StreamingExporter libsvm = StreamingExporter.create(Exporter.EXPORTER_LIBSVM_CLASS, dir2, null, crm.getPipe());
+    StreamingExporter arff = StreamingExporter.create(Exporter.EXPORTER_WEKA_CLASS, dir2, null, crm.getPipe());
+    libsvm.add(crm.getRepresentationMallet());
+    arff.add(crm.getRepresentationMallet());
+    libsvm.close();
+    arff.close();
+    
+    List<String> lines1 = Files.readAllLines(new File(dir1, "data.libsvm").toPath(), java.nio.charset.StandardCharsets.UTF_8);
+    List<String> lines2 = Files.readAllLines(new File(dir2, "data.libsvm").toPath(), java.nio.charset.StandardCharsets.UTF_8);
+    assertEquals(lines1, lines2);
+    
+    assertFalse(new File(dir2, "data.arff.body").exists());
+    ArffLoader loader = new ArffLoader();
+    loader.setFile(new File(dir2, "data.arff"));
+    Instances loaded = loader.getDataSet();
+    assertEquals(wekaInsts.numInstances(), loaded.numInstances());
+    assertEquals(wekaInsts.numAttributes(), loaded.numAttributes());
+    int last = wekaInsts.numAttributes() - 1;
+    // the class is the last attribute, as for the normal export
+    loaded.setClassIndex(last);
+    assertEquals(wekaInsts.classIndex(), last);
+    for(int a=0; a<=last; a++) {
+      assertEquals(wekaInsts.attribute(a).name(), loaded.attribute(a).name());
+    }
+    for(int i=0; i<wekaInsts.numInstances(); i++) {
+      assertEquals(wekaInsts.instance(i).stringValue(last), loaded.instance(i).stringValue(last));
+      for(int a=0; a<last; a++) {
+        assertEquals(wekaInsts.instance(i).value(a), loaded.instance(i).value(a), 0.0);
+      }
+    }
+    // the compressed file has the same lines
+    StreamingExporter arffGz = StreamingExporter.create(Exporter.EXPORTER_WEKA_CLASS, dir2, "-gzip", crm.getPipe());
+    arffGz.add(crm.getRepresentationMallet());
+    arffGz.close();
+    assertEquals(readLines(new File(dir2, "data.arff")), readLines(new File(dir2, "data.arff.gz")));
+  }
+  
+  @Test
+  public void testExportFormats1() throws MalformedURLException, ResourceInstantiationException, IOException {
+    // the export gives the same files as the Weka savers, also when compressed or sharded
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    AnnotationSet inputAS = doc.getAnnotations();
+    CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(
+            new FeatureSpecification(configFile).getFeatureInfo(), ScalingMethod.NONE,TargetType.NOMINAL);
+    crm.add(instanceAS, null, inputAS, null, "class", TargetType.NOMINAL, null);
+    CorpusRepresentationWeka crw = new CorpusRepresentationWeka(crm);
+    String[] formats = new String[]{"arff", "libsvm", "svmlight"};
+    AbstractFileSaver[] savers = new AbstractFileSaver[]{new ArffSaver(), new LibSVMSaver(), new SVMLightSaver()};
+    File dir = Files.createTempDirectory("lf-test").toFile();
+    for(int f=0; f<formats.length; f++) {
+      String format = formats[f];
+      File saved = new File(dir, "saved."+format);
+      savers[f].setInstances(crw.getRepresentationWeka());
+      savers[f].setFile(saved);
+      savers[f].writeBatch();
+      String parms = format.equals("arff") ? "" : "-format "+format;
+      crw.export(dir, parms);
+      List<String> expected = Files.readAllLines(saved.toPath(), StandardCharsets.UTF_8);
+      assertEquals(format, expected, readLines(new File(dir, "data."+format)));
+      crw.export(dir, parms+" -gzip -shards 3");
+      List<String> sharded = new ArrayList<String>();
+      for(int s=0; s<3; s++) {
+        List<String> lines = readLines(new File(dir, "data-"+s+"."+format+".gz"));
+        if(format.equals("arff")) {
+          // each shard has the header, up to and including the @data line and an empty line 
+          int data = lines.indexOf("@data");
+          assertEquals(expected.subList(0, data+1), lines.subList(0, data+1));
+          lines = lines.subList(data+1, lines.size());
+          if(s == 0) {
+            sharded.addAll(expected.subList(0, data+1));
+          }
+        }
+        sharded.addAll(lines);
+      }
+      assertEquals(format, removeEmpty(expected), removeEmpty(sharded));
+    }
+    new CorpusRepresentationLibSVM(crm).export(dir, "-gzip -shards 2");
+    new CorpusRepresentationLibSVM(crm).export(dir, null);
+    List<String> lines = readLines(new File(dir, "data-0.libsvm.gz"));
+    lines.addAll(readLines(new File(dir, "data-1.libsvm.gz")));
+    assertEquals(readLines(new File(dir, "data.libsvm")), lines);
+    assertEquals(crm.getRepresentationMallet().size(), lines.size());
+  }
+  
+  @Test
+  public void testExportWriter1() throws IOException {
+    // doubles are written like Double.toString when that gives the shortest representation
+    File file = File.createTempFile("lf-test", ".txt");
+    ExportWriter out = new ExportWriter(file, false);
+    Random rand = new Random(1);
+    List<Double> values = new ArrayList<Double>();
+    double[] fixed = new double[]{0.0, -0.0, 1.0, -1.0, 0.5, 0.001, 0.1, 0.3, 1.0/3, 2.0/3, 
+      1e-4, 1e7, 9999999.5, 123.456, 0.00123, -42.0, Double.NaN, Double.POSITIVE_INFINITY, 1e300};
+    for(double v : fixed) {
+      values.add(v);
+    }
+    for(int i=0; i<10000; i++) {
+      values.add(rand.nextDouble());
+      values.add(rand.nextInt(100000) / 100.0);
+      values.add((rand.nextDouble() - 0.5) * Math.pow(10, rand.nextInt(20) - 6));
+    }
+    for(double v : values) {
+      out.writeDouble(v);
+      out.write('\n');
+    }
+    out.close();
+    List<String> lines = readLines(file);
+    assertEquals(values.size(), lines.size());
+    for(int i=0; i<values.size(); i++) {
+      double v = values.get(i);
+      String written = lines.get(i);
+      assertEquals(written, v, Double.parseDouble(written), 0.0);
+      String expected = Double.toString(v);
+      if(!written.equals(expected)) {
+        // older JDKs sometimes give more digits than needed
+        assertTrue(written+" vs "+expected, written.length() < expected.length());
+      }
+    }
+    file.delete();
+  }
+  
+  private static List<String> readLines(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    if(file.getName().endsWith(".gz")) {
+      in = new GZIPInputStream(in);
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    List<String> lines = new ArrayList<String>();
+    String line;
+    while((line = reader.readLine()) != null) {
+      lines.add(line);
+    }
+    reader.close();
+    return lines;
+  }
+  
+  private static List<String> removeEmpty(List<String> lines) {
+    List<String> ret = new ArrayList<String>();
+    for(String line : lines) {
+      if(!line.isEmpty()) ret.add(line);
+    }
+    return ret;
+  }
+  
+}
@@ -15,14 +15,27 @@ import gate.Document;
 import gate.Factory;
 import gate.Gate;
 import gate.creole.ResourceInstantiationException;
+import gate.plugin.learningframework.ScalingMethod;
+import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
+import gate.plugin.learningframework.data.DocumentProjection;
 import gate.plugin.learningframework.features.Attribute;
+import gate.plugin.learningframework.features.AttributeValueIndex;
+import gate.plugin.learningframework.features.ExtractionContext;
 import gate.plugin.learningframework.features.FeatureExtraction;
+import gate.plugin.learningframework.features.FeatureExtractor;
 import gate.plugin.learningframework.features.FeatureInfo;
 import gate.plugin.learningframework.features.FeatureSpecification;
+import gate.plugin.learningframework.features.Ngram;
+import gate.plugin.learningframework.features.NgramIndex;
 import gate.plugin.learningframework.features.SimpleAttribute;
+import gate.plugin.learningframework.features.TargetType;
+import gate.plugin.learningframework.mallet.FeatureVectorBuilder;
+import gate.plugin.learningframework.mallet.HashingAlphabet;
+import gate.plugin.learningframework.mallet.PruningAlphabet;
 import static gate.plugin.learningframework.tests.Utils.*;
 import gate.util.GateException;
 import gate.util.GateRuntimeException;
+import java.io.File;
 import java.util.List;
 import org.junit.After;
 import org.junit.Test;
@@ -494,5 +507,603 @@ public class TestFeatureExtraction {
     assertEquals(1.0,((FeatureVector)inst.getData()).value("myAttList#0=tok6"),EPS);
     assertEquals(1.0,((FeatureVector)inst.getData()).value("myAttList#1=tok7"),EPS);
   }
+
+  @Test
+  public void extractStructuredKeys1() {
+    // the same attribute object is used for extraction with two different alphabets and 
+    // with the growth of the alphabet stopped and restarted: the indices remembered for the
+    // attribute must never leak from one alphabet to the other
+    String spec = "<ROOT>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>feature1</FEATURE><DATATYPE>nominal</DATATYPE></ATTRIBUTE>"+
+            "<ATTRIBUTELIST><TYPE>theType</TYPE><FEATURE>feature1</FEATURE><DATATYPE>nominal</DATATYPE><FROM>0</FROM><TO>1</TO></ATTRIBUTELIST>"+
+            "</ROOT>";
+    FeatureInfo fi = new FeatureSpecification(spec).getFeatureInfo();
+    List<Attribute> as = fi.getAttributes();
+    assertEquals(0,as.get(0).attrId);
+    assertEquals(1,as.get(1).attrId);
+    assertEquals(2,as.get(1).nrSlots());
+    Annotation instAnn = addAnn(doc, "", 0, 2, "theType", gate.Utils.featureMap("feature1","val1"));
+    addAnn(doc, "", 2, 4, "theType", gate.Utils.featureMap("feature1","val1"));
+
+    Instance inst = newInstance();
+    inst.getAlphabet().lookupIndex("someOtherFeature");
+    FeatureExtraction.extractFeature(inst, as.get(0), doc.getAnnotations(), instAnn);
+    FeatureExtraction.extractFeature(inst, as.get(1), doc.getAnnotations(), instAnn);
+    assertEquals(4,inst.getAlphabet().size());
+    assertEquals(1,inst.getAlphabet().lookupIndex("A:theType:feature1=val1"));
+    assertEquals(2,inst.getAlphabet().lookupIndex("L0:theType:feature1=val1"));
+    assertEquals(3,inst.getAlphabet().lookupIndex("L1:theType:feature1=val1"));
+    assertEquals(3,((FeatureVector)inst.getData()).numLocations());
+    
+    Instance inst2 = newInstance();
+    inst2.getAlphabet().stopGrowth();
+    FeatureExtraction.extractFeature(inst2, as.get(0), doc.getAnnotations(), instAnn);
+    assertEquals(0,inst2.getAlphabet().size());
+    assertEquals(0,((FeatureVector)inst2.getData()).numLocations());
+    inst2.getAlphabet().startGrowth();
+    FeatureExtraction.extractFeature(inst2, as.get(0), doc.getAnnotations(), instAnn);
+    assertEquals(1,inst2.getAlphabet().size());
+    assertEquals(0,inst2.getAlphabet().lookupIndex("A:theType:feature1=val1"));
+    assertEquals(1.0,((FeatureVector)inst2.getData()).value("A:theType:feature1=val1"),EPS);
+    
+    // a copy of the feature info keeps the ids but must not share what was remembered
+    FeatureInfo fi2 = new FeatureInfo(fi);
+    assertEquals(1,fi2.getAttributes().get(1).attrId);
+    Instance inst3 = newInstance();
+    FeatureExtraction.extractFeature(inst3, fi2.getAttributes().get(0), doc.getAnnotations(), instAnn);
+    assertEquals(0,inst3.getAlphabet().lookupIndex("A:theType:feature1=val1"));
+  }
+
+  @Test
+  public void extractHashing1() {
+    String spec = "<ROOT>"+
+            "<HASHING><BUCKETS>2^20</BUCKETS></HASHING>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>feature1</FEATURE><DATATYPE>nominal</DATATYPE></ATTRIBUTE>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>feature2</FEATURE><DATATYPE>nominal</DATATYPE></ATTRIBUTE>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>numfeature1</FEATURE><DATATYPE>numeric</DATATYPE></ATTRIBUTE>"+
+            "</ROOT>";
+    FeatureInfo fi = new FeatureSpecification(spec).getFeatureInfo();
+    List<Attribute> as = fi.getAttributes();
+    Alphabet a = fi.newDataAlphabet();
+    assertTrue(a instanceof HashingAlphabet);
+    assertEquals(1024*1024,a.size());
+    Instance inst = new Instance(new AugmentableFeatureVector(a),null,null,null);
+    Annotation instAnn = addAnn(doc, "", 0, 0, "theType", gate.Utils.featureMap("feature1","val1"));
+    instAnn.getFeatures().put("feature2", "val1");
+    instAnn.getFeatures().put("numfeature1", 2.5);
+    for(Attribute att : as) {
+      FeatureExtraction.extractFeature(inst, att, doc.getAnnotations(), instAnn);
+    }
+    // the alphabet does not grow, but the same value for different attributes gives
+    // different features
+    assertEquals(1024*1024,a.size());
+    FeatureVector fv = (FeatureVector)inst.getData();
+    assertEquals(3,fv.numLocations());
+    HashingAlphabet ha = (HashingAlphabet)a;
+    assertEquals(3,ha.getNrBucketsUsed());
+    assertEquals(3,ha.getEstimatedNrFeatures());
+    assertEquals(0,ha.getEstimatedNrCollisions());
+    int idx = ha.bucket(ha.hash(as.get(2).attrId, 0, null));
+    assertEquals(2.5,fv.value(idx),EPS);
+    assertEquals("hash:"+idx,a.lookupObject(idx));
+    assertEquals(idx,a.lookupIndex("hash:"+idx));
+    assertEquals(-1,a.lookupIndex("feature1",false));
+    assertFalse(a.contains("feature1"));
+    
+    // extracting the same features again for another instance gives the same indices
+    Instance inst2 = new Instance(new AugmentableFeatureVector(a),null,null,null);
+    for(Attribute att : as) {
+      FeatureExtraction.extractFeature(inst2, att, doc.getAnnotations(), instAnn);
+    }
+    FeatureVector fv2 = (FeatureVector)inst2.getData();
+    assertEquals(3,fv2.numLocations());
+    for(int i=0; i<3; i++) {
+      assertEquals(fv.indexAtLocation(i),fv2.indexAtLocation(i));
+    }
+    assertEquals(3,ha.getNrBucketsUsed());
+  }
+
+  @Test
+  public void extractList3() {
+    // overlapping annotations and several instances extracted with the same context: 
+    // the list elements must be the same as we would get from inputAS.get(type,centre,docSize) 
+    // and inputAS.get(type,0,centre) in document order
+    String spec = "<ROOT>"+
+            "<ATTRIBUTELIST><TYPE>theType</TYPE><FEATURE>theFeature</FEATURE><DATATYPE>nominal</DATATYPE><FROM>-2</FROM><TO>1</TO></ATTRIBUTELIST>"+
+            "</ROOT>";
+    List<Attribute> as = new FeatureSpecification(spec).getFeatureInfo().getAttributes();
+    addAnn(doc,"",0,2,"theType",gate.Utils.featureMap("theFeature","a"));
+    addAnn(doc,"",2,4,"theType",gate.Utils.featureMap("theFeature","b"));
+    addAnn(doc,"",3,6,"theType",gate.Utils.featureMap("theFeature","c"));
+    addAnn(doc,"",4,6,"theType",gate.Utils.featureMap("theFeature","d"));
+    Annotation instAnn1 = addAnn(doc, "", 4, 4, "instanceType", gate.Utils.featureMap());
+    Annotation instAnn2 = addAnn(doc, "", 0, 1, "instanceType", gate.Utils.featureMap());
+    ExtractionContext ctx = new ExtractionContext(doc.getAnnotations());
+    
+    Instance inst = newInstance();
+    FeatureExtraction.extractFeature(inst, as.get(0), ctx, instAnn1);
+    assertEquals(4,((FeatureVector)inst.getData()).numLocations());
+    assertEquals(1.0,((FeatureVector)inst.getData()).value("L-2:theType:theFeature=b"),EPS);
+    assertEquals(1.0,((FeatureVector)inst.getData()).value("L-1:theType:theFeature=c"),EPS);
+    assertEquals(1.0,((FeatureVector)inst.getData()).value("L0:theType:theFeature=c"),EPS);
+    assertEquals(1.0,((FeatureVector)inst.getData()).value("L1:theType:theFeature=d"),EPS);
+    
+    Instance inst2 = newInstance();
+    FeatureExtraction.extractFeature(inst2, as.get(0), ctx, instAnn2);
+    assertEquals(2,((FeatureVector)inst2.getData()).numLocations());
+    assertEquals(1.0,((FeatureVector)inst2.getData()).value("L0:theType:theFeature=a"),EPS);
+    assertEquals(1.0,((FeatureVector)inst2.getData()).value("L1:theType:theFeature=b"),EPS);
+  }
  
+  @Test
+  public void extractOverlapping1() {
+    // the source annotation for simple attributes is the first longest overlapping annotation,
+    // n-grams use the contained annotations in document order
+    String spec = "<ROOT>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>theFeature</FEATURE><DATATYPE>nominal</DATATYPE></ATTRIBUTE>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>other</FEATURE><DATATYPE>nominal</DATATYPE></ATTRIBUTE>"+
+            "<NGRAM><TYPE>theType</TYPE><FEATURE>theFeature</FEATURE><NUMBER>2</NUMBER></NGRAM>"+
+            "</ROOT>";
+    List<Attribute> as = new FeatureSpecification(spec).getFeatureInfo().getAttributes();
+    addAnn(doc,"",0,3,"theType",gate.Utils.featureMap("theFeature","a","other","x"));
+    addAnn(doc,"",3,6,"theType",gate.Utils.featureMap("theFeature","b","other","y"));
+    addAnn(doc,"",4,5,"theType",gate.Utils.featureMap("theFeature","c","other","z"));
+    addAnn(doc,"",7,8,"theType",gate.Utils.featureMap("theFeature","d","other","w"));
+    Annotation instAnn1 = addAnn(doc, "", 2, 5, "instanceType", gate.Utils.featureMap());
+    Annotation instAnn2 = addAnn(doc, "", 3, 7, "instanceType", gate.Utils.featureMap());
+    Annotation instAnn3 = addAnn(doc, "", 6, 7, "instanceType", gate.Utils.featureMap());
+    ExtractionContext ctx = new ExtractionContext(doc.getAnnotations());
+
+    Instance inst = newInstance();
+    FeatureExtraction.extractFeature(inst, as.get(0), ctx, instAnn1);
+    FeatureExtraction.extractFeature(inst, as.get(1), ctx, instAnn1);
+    FeatureExtraction.extractFeature(inst, as.get(2), ctx, instAnn1);
+    assertEquals(2,((FeatureVector)inst.getData()).numLocations());
+    assertEquals(1.0,((FeatureVector)inst.getData()).value("A:theType:theFeature=a"),EPS);
+    assertEquals(1.0,((FeatureVector)inst.getData()).value("A:theType:other=x"),EPS);
+
+    Instance inst2 = newInstance();
+    FeatureExtraction.extractFeature(inst2, as.get(0), ctx, instAnn2);
+    FeatureExtraction.extractFeature(inst2, as.get(2), ctx, instAnn2);
+    assertEquals(2,((FeatureVector)inst2.getData()).numLocations());
+    assertEquals(1.0,((FeatureVector)inst2.getData()).value("A:theType:theFeature=b"),EPS);
+    assertEquals(1.0,((FeatureVector)inst2.getData()).value("N2:theType:theFeature=b_c"),EPS);
+
+    // nothing overlaps, nothing gets extracted
+    Instance inst3 = newInstance();
+    FeatureExtraction.extractFeature(inst3, as.get(0), ctx, instAnn3);
+    assertEquals(0,((FeatureVector)inst3.getData()).numLocations());
+  }
+  
+  @Test
+  public void extractList4() {
+    // the coded values of the annotations get re-used for all the windows they appear in,
+    // but must end up at the correct position for each instance
+    String spec = "<ROOT>"+
+            "<ATTRIBUTELIST><TYPE>theType</TYPE><FEATURE>theFeature</FEATURE><DATATYPE>numeric</DATATYPE><MISSINGVALUETREATMENT>ignore_instance</MISSINGVALUETREATMENT><FROM>-1</FROM><TO>1</TO></ATTRIBUTELIST>"+
+            "</ROOT>";
+    List<Attribute> as = new FeatureSpecification(spec).getFeatureInfo().getAttributes();
+    addAnn(doc,"",0,1,"theType",gate.Utils.featureMap("theFeature",1.0));
+    addAnn(doc,"",1,2,"theType",gate.Utils.featureMap("theFeature","2.5"));
+    addAnn(doc,"",2,3,"theType",gate.Utils.featureMap());
+    Annotation instAnn1 = addAnn(doc, "", 0, 1, "instanceType", gate.Utils.featureMap());
+    Annotation instAnn2 = addAnn(doc, "", 1, 2, "instanceType", gate.Utils.featureMap());
+    Annotation instAnn3 = addAnn(doc, "", 2, 3, "instanceType", gate.Utils.featureMap());
+    ExtractionContext ctx = new ExtractionContext(doc.getAnnotations());
+    
+    Instance inst1 = newInstance();
+    FeatureExtraction.extractFeature(inst1, as.get(0), ctx, instAnn1);
+    assertEquals(2,((FeatureVector)inst1.getData()).numLocations());
+    assertEquals(1.0,((FeatureVector)inst1.getData()).value("L0:theType:theFeature"),EPS);
+    assertEquals(2.5,((FeatureVector)inst1.getData()).value("L1:theType:theFeature"),EPS);
+    assertEquals(false,inst1.getProperty(FeatureExtraction.PROP_IGNORE_HAS_MV));
+    
+    Instance inst2 = newInstance();
+    FeatureExtraction.extractFeature(inst2, as.get(0), ctx, instAnn2);
+    assertEquals(2,((FeatureVector)inst2.getData()).numLocations());
+    assertEquals(1.0,((FeatureVector)inst2.getData()).value("L-1:theType:theFeature"),EPS);
+    assertEquals(2.5,((FeatureVector)inst2.getData()).value("L0:theType:theFeature"),EPS);
+
+    Instance inst3 = newInstance();
+    FeatureExtraction.extractFeature(inst3, as.get(0), ctx, instAnn3);
+    assertEquals(1,((FeatureVector)inst3.getData()).numLocations());
+    assertEquals(2.5,((FeatureVector)inst3.getData()).value("L-1:theType:theFeature"),EPS);
+    assertEquals(true,inst3.getProperty(FeatureExtraction.PROP_HAVE_MV));
+    assertEquals(true,inst3.getProperty(FeatureExtraction.PROP_IGNORE_HAS_MV));
+  }
+  
+  @Test
+  public void extractCompiled1() {
+    // the compiled extractors for a feature info give the same features as extracting each
+    // attribute on its own
+    String spec = "<ROOT>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>theFeature</FEATURE><DATATYPE>nominal</DATATYPE><CODEAS>number</CODEAS></ATTRIBUTE>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>num</FEATURE><DATATYPE>numeric</DATATYPE><MISSINGVALUETREATMENT>keep</MISSINGVALUETREATMENT></ATTRIBUTE>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>flag</FEATURE><DATATYPE>bool</DATATYPE></ATTRIBUTE>"+
+            "</ROOT>";
+    FeatureInfo fi = new FeatureSpecification(spec).getFeatureInfo();
+    FeatureExtractor[] extractors = FeatureExtractor.compile(fi);
+    assertEquals(3, extractors.length);
+    addAnn(doc,"",0,2,"theType",gate.Utils.featureMap("theFeature","x","flag","true"));
+    Annotation instAnn = addAnn(doc, "", 0, 2, "instanceType", gate.Utils.featureMap());
+    ExtractionContext ctx = new ExtractionContext(doc.getAnnotations());
+    Instance inst = newInstance();
+    ctx.getFeatureVectorBuilder().reset(((FeatureVector)inst.getData()).getAlphabet());
+    for(FeatureExtractor extractor : extractors) {
+      extractor.extract(ctx, instAnn);
+    }
+    FeatureVector fv = ctx.getFeatureVectorBuilder().toFeatureVector();
+    Instance inst2 = newInstance();
+    for(Attribute att : fi.getAttributes()) {
+      FeatureExtraction.extractFeature(inst2, att, ctx, instAnn);
+    }
+    assertEquals(3, fv.numLocations());
+    assertEquals(0.0, fv.value("A:theType:theFeature"), EPS);
+    assertTrue(Double.isNaN(fv.value("A:theType:num")));
+    assertEquals(1.0, fv.value("A:theType:flag"), EPS);
+    assertEquals(fv.toString(), inst2.getData().toString());
+  }
+  
+  @Test
+  public void featureVectorBuilder1() {
+    // the builder sorts the indices and sums the values for duplicate indices, and
+    // can get re-used after a reset
+    FeatureVectorBuilder fvb = new FeatureVectorBuilder();
+    Alphabet a = new Alphabet();
+    fvb.reset(a);
+    for(int i = 99; i >= 0; i--) {
+      fvb.add(i % 40, 1.0);
+    }
+    FeatureVector fv = fvb.toFeatureVector();
+    assertEquals(40, fv.numLocations());
+    for(int i = 0; i < 40; i++) {
+      assertEquals(i, fv.indexAtLocation(i));
+      assertEquals(i < 20 ? 3.0 : 2.0, fv.valueAtLocation(i), EPS);
+    }
+    fvb.reset(a);
+    fvb.add(7, 0.5);
+    fvb.add(3, 0.0);
+    fv = fvb.toFeatureVector();
+    assertEquals(2, fv.numLocations());
+    assertEquals(3, fv.indexAtLocation(0));
+    assertEquals(0.5, fv.value(7), EPS);
+  }
+  
+  @Test
+  public void extractMissing1() {
+    // once an attribute has a missing value, the status stays set for the instance, even if
+    // later attributes do have a value
+    String spec = "<ROOT>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>f1</FEATURE><DATATYPE>nominal</DATATYPE><MISSINGVALUETREATMENT>ignore_instance</MISSINGVALUETREATMENT></ATTRIBUTE>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>f2</FEATURE><DATATYPE>nominal</DATATYPE></ATTRIBUTE>"+
+            "</ROOT>";
+    FeatureInfo fi = new FeatureSpecification(spec).getFeatureInfo();
+    FeatureExtractor[] extractors = FeatureExtractor.compile(fi);
+    addAnn(doc,"",0,2,"theType",gate.Utils.featureMap("f2","x"));
+    addAnn(doc,"",2,4,"theType",gate.Utils.featureMap("f1","y","f2","z"));
+    Annotation instAnn1 = addAnn(doc, "", 0, 2, "instanceType", gate.Utils.featureMap());
+    Annotation instAnn2 = addAnn(doc, "", 2, 4, "instanceType", gate.Utils.featureMap());
+    ExtractionContext ctx = new ExtractionContext(doc.getAnnotations());
+    ctx.getFeatureVectorBuilder().reset(new Alphabet());
+    ctx.resetInstanceStatus();
+    for(FeatureExtractor extractor : extractors) {
+      extractor.extract(ctx, instAnn1);
+    }
+    assertTrue(ctx.instanceHasMV());
+    assertTrue(ctx.ignoreInstance());
+    ctx.getFeatureVectorBuilder().reset(new Alphabet());
+    ctx.resetInstanceStatus();
+    for(FeatureExtractor extractor : extractors) {
+      extractor.extract(ctx, instAnn2);
+    }
+    assertFalse(ctx.instanceHasMV());
+    assertFalse(ctx.ignoreInstance());
+    
+    // the same for the properties set by the methods which take an instance
+    Instance inst = newInstance();
+    FeatureExtraction.extractFeature(inst, fi.getAttributes().get(0), ctx, instAnn1);
+    FeatureExtraction.extractFeature(inst, fi.getAttributes().get(1), ctx, instAnn1);
+    assertTrue(FeatureExtraction.instanceHasMV(inst));
+    assertTrue(FeatureExtraction.ignoreInstanceWithMV(inst));
+  }
+  
+  @Test
+  public void extractNgram3() {
+    // n-grams which are identified by token ids must give the same features as the n-grams
+    // created from the strings, also when the alphabet cannot grow any more
+    String spec = "<ROOT>"+
+            "<NGRAM><TYPE>theType</TYPE><FEATURE>theFeature</FEATURE><NUMBER>3</NUMBER></NGRAM>"+
+            "<NGRAM><TYPE>theType</TYPE><FEATURE>theFeature</FEATURE><NUMBER>4</NUMBER></NGRAM>"+
+            "</ROOT>";
+    List<Attribute> as = new FeatureSpecification(spec).getFeatureInfo().getAttributes();
+    String[] toks = new String[]{"a","b","","a","b","a","b","c"};
+    for(int i=0; i<toks.length; i++) {
+      addAnn(doc,"",i,i+1,"theType",gate.Utils.featureMap("theFeature",toks[i]));
+    }
+    Annotation instAnn1 = addAnn(doc, "", 0, 8, "instanceType", gate.Utils.featureMap());
+    Annotation instAnn2 = addAnn(doc, "", 4, 8, "instanceType", gate.Utils.featureMap());
+    ExtractionContext ctx = new ExtractionContext(doc.getAnnotations());
+    
+    Instance inst = newInstance();
+    FeatureExtraction.extractFeature(inst, as.get(0), ctx, instAnn1);
+    FeatureExtraction.extractFeature(inst, as.get(1), ctx, instAnn1);
+    FeatureVector fv = (FeatureVector)inst.getData();
+    assertEquals(6, fv.numLocations());
+    assertEquals(2.0, fv.value("N3:theType:theFeature=a_b_a"), EPS);
+    assertEquals(2.0, fv.value("N3:theType:theFeature=b_a_b"), EPS);
+    assertEquals(1.0, fv.value("N3:theType:theFeature=a_b_c"), EPS);
+    assertEquals(2.0, fv.value("N4:theType:theFeature=a_b_a_b"), EPS);
+    assertEquals(1.0, fv.value("N4:theType:theFeature=b_a_b_a"), EPS);
+    assertEquals(1.0, fv.value("N4:theType:theFeature=b_a_b_c"), EPS);
+    
+    inst.getDataAlphabet().stopGrowth();
+    Instance inst2 = new Instance(new AugmentableFeatureVector(inst.getDataAlphabet()),null,null,null);
+    FeatureExtraction.extractFeature(inst2, as.get(0), ctx, instAnn2);
+    fv = (FeatureVector)inst2.getData();
+    assertEquals(2, fv.numLocations());
+    assertEquals(1.0, fv.value("N3:theType:theFeature=b_a_b"), EPS);
+    assertEquals(1.0, fv.value("N3:theType:theFeature=a_b_c"), EPS);
+  }
+  
+  @Test
+  public void extractNgramText1() throws ResourceInstantiationException {
+    // without a FEATURE, the grams are the cleaned text of the annotations, which the 
+    // context only gets once per annotation
+    String spec = "<ROOT>"+
+            "<NGRAM><TYPE>theType</TYPE><NUMBER>1</NUMBER></NGRAM>"+
+            "<NGRAM><TYPE>theType</TYPE><NUMBER>2</NUMBER></NGRAM>"+
+            "</ROOT>";
+    List<Attribute> as = new FeatureSpecification(spec).getFeatureInfo().getAttributes();
+    Document tdoc = Factory.newDocument("the  cat\nthe cat");
+    try {
+      Annotation tok1 = addAnn(tdoc,"",0,3,"theType",gate.Utils.featureMap());
+      // this one includes the extra space before the word
+      addAnn(tdoc,"",4,8,"theType",gate.Utils.featureMap());
+      addAnn(tdoc,"",9,12,"theType",gate.Utils.featureMap());
+      addAnn(tdoc,"",13,16,"theType",gate.Utils.featureMap());
+      Annotation instAnn = addAnn(tdoc, "", 0, 16, "instanceType", gate.Utils.featureMap());
+      ExtractionContext ctx = new ExtractionContext(tdoc.getAnnotations());
+      Instance inst = newInstance();
+      FeatureExtraction.extractFeature(inst, as.get(0), ctx, instAnn);
+      FeatureExtraction.extractFeature(inst, as.get(1), ctx, instAnn);
+      FeatureVector fv = (FeatureVector)inst.getData();
+      assertEquals(4, fv.numLocations());
+      assertEquals(2.0, fv.value("N1:theType:=the"), EPS);
+      assertEquals(2.0, fv.value("N1:theType:=cat"), EPS);
+      assertEquals(2.0, fv.value("N2:theType:=the_cat"), EPS);
+      assertEquals(1.0, fv.value("N2:theType:=cat_the"), EPS);
+      assertSame(ctx.getCleanText(tok1), ctx.getCleanText(tok1));
+    } finally {
+      Factory.deleteResource(tdoc);
+    }
+  }
+  
+  @Test
+  public void extractPruned1() {
+    // with a minimum frequency of 3, a feature only gets added to the alphabet on its third 
+    // occurrence
+    String spec = "<ROOT>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>theFeature</FEATURE><DATATYPE>nominal</DATATYPE></ATTRIBUTE>"+
+            "</ROOT>";
+    FeatureInfo fi = new FeatureSpecification(spec).getFeatureInfo();
+    fi.setMinFeatureFrequency(3);
+    CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(fi, ScalingMethod.NONE, TargetType.NOMINAL);
+    assertTrue(crm.getPipe().getDataAlphabet() instanceof PruningAlphabet);
+    String[] values = new String[] { "a", "b", "a", "c", "a", "b", "a" };
+    for(int i=0; i<values.length; i++) {
+      addAnn(doc, "", i, i+1, "theType", gate.Utils.featureMap("theFeature", values[i], "class", "x"));
+    }
+    crm.add(doc.getAnnotations().get("theType"), null, doc.getAnnotations(), null, "class", TargetType.NOMINAL, null);
+    Alphabet a = crm.getRepresentationMallet().getDataAlphabet();
+    assertEquals(7, crm.getRepresentationMallet().size());
+    assertEquals(1, a.size());
+    assertTrue(a.contains("A:theType:theFeature=a"));
+    // b and c were kept out
+    assertEquals(2, ((PruningAlphabet)a).getEstimatedNrPruned());
+    int nrWithA = 0;
+    for(Instance inst : crm.getRepresentationMallet()) {
+      nrWithA += ((FeatureVector)inst.getData()).numLocations();
+    }
+    assertEquals(2, nrWithA);
+    
+    // a feature which is in the alphabet but not used by any instance gets removed
+    for(int i=0; i<3; i++) {
+      a.lookupIndex("A:theType:theFeature=unused");
+    }
+    assertEquals(1, a.lookupIndex("A:theType:theFeature=unused"));
+    assertEquals(2, a.size());
+    assertEquals(1, crm.compactDataAlphabet());
+    Alphabet compacted = crm.getRepresentationMallet().getDataAlphabet();
+    assertSame(compacted, crm.getPipe().getDataAlphabet());
+    assertEquals(1, compacted.size());
+    assertEquals(0, compacted.lookupIndex("A:theType:theFeature=a", false));
+    assertEquals(7, crm.getRepresentationMallet().size());
+    FeatureVector fv = (FeatureVector)crm.getRepresentationMallet().get(6).getData();
+    assertSame(compacted, fv.getAlphabet());
+    assertEquals(1.0, fv.value("A:theType:theFeature=a"), EPS);
+    assertEquals(0, crm.compactDataAlphabet());
+  }
+  
+  @Test
+  public void extractSorted1() {
+    // after sorting, the features are ordered by the number of instances they occur in
+    String spec = "<ROOT>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>theFeature</FEATURE><DATATYPE>nominal</DATATYPE></ATTRIBUTE>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>otherFeature</FEATURE><DATATYPE>nominal</DATATYPE></ATTRIBUTE>"+
+            "</ROOT>";
+    FeatureInfo fi = new FeatureSpecification(spec).getFeatureInfo();
+    CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(fi, ScalingMethod.NONE, TargetType.NOMINAL);
+    String[] values = new String[] { "b", "a", "a", "c", "a", "c" };
+    for(int i=0; i<values.length; i++) {
+      addAnn(doc, "", i, i+1, "theType", gate.Utils.featureMap("theFeature", values[i], "otherFeature", "z", "class", "x"));
+    }
+    crm.add(doc.getAnnotations().get("theType"), null, doc.getAnnotations(), null, "class", TargetType.NOMINAL, null);
+    Alphabet a = crm.getRepresentationMallet().getDataAlphabet();
+    assertEquals(4, a.size());
+    assertEquals(0, a.lookupIndex("A:theType:theFeature=b", false));
+    assertTrue(crm.sortFeaturesByFrequency());
+    Alphabet sorted = crm.getRepresentationMallet().getDataAlphabet();
+    assertSame(sorted, crm.getPipe().getDataAlphabet());
+    assertEquals(4, sorted.size());
+    assertEquals(0, sorted.lookupIndex("A:theType:otherFeature=z", false));
+    assertEquals(1, sorted.lookupIndex("A:theType:theFeature=a", false));
+    assertEquals(2, sorted.lookupIndex("A:theType:theFeature=c", false));
+    assertEquals(3, sorted.lookupIndex("A:theType:theFeature=b", false));
+    assertEquals(6, crm.getRepresentationMallet().size());
+    FeatureVector fv = (FeatureVector)crm.getRepresentationMallet().get(0).getData();
+    assertSame(sorted, fv.getAlphabet());
+    assertEquals(2, fv.numLocations());
+    assertEquals(0, fv.indexAtLocation(0));
+    assertEquals(3, fv.indexAtLocation(1));
+    assertEquals(1.0, fv.value("A:theType:theFeature=b"), EPS);
+    assertEquals(1.0, fv.value("A:theType:otherFeature=z"), EPS);
+    assertFalse(crm.sortFeaturesByFrequency());
+  }
+  
+  @Test
+  public void extractProjection1() throws Exception {
+    // a document read from its projection gives the same instances as the original document
+    String spec = "<ROOT>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>theFeature</FEATURE><DATATYPE>nominal</DATATYPE></ATTRIBUTE>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>num</FEATURE><DATATYPE>numeric</DATATYPE></ATTRIBUTE>"+
+            "<NGRAM><TYPE>Token</TYPE><FEATURE>string</FEATURE><NUMBER>2</NUMBER></NGRAM>"+
+            "<NGRAM><TYPE>Word</TYPE><NUMBER>1</NUMBER></NGRAM>"+
+            "</ROOT>";
+    FeatureInfo fi = new FeatureSpecification(spec).getFeatureInfo();
+    String[] values = new String[] { "b", "a", "a", "c", "a", "c" };
+    // the n-grams without a feature use the text, which is kept for the Word annotations
+    doc.edit(0L, 15L, new gate.corpora.DocumentContentImpl("w0w1w2w3w4w5 xx"));
+    for(int i=0; i<values.length; i++) {
+      addAnn(doc, "", i*2, i*2+2, "theType", gate.Utils.featureMap("theFeature", values[i], "num", i, 
+              "class", "x"+(i%2), "unused", "z"));
+      addAnn(doc, "", i*2, i*2+1, "Token", gate.Utils.featureMap("string", "t"+i));
+      addAnn(doc, "", i*2+1, i*2+2, "Token", gate.Utils.featureMap("string", "u"+i));
+      addAnn(doc, "", i*2, i*2+2, "Other", gate.Utils.featureMap());
+      addAnn(doc, "", i*2, i*2+2, "Word", gate.Utils.featureMap());
+    }
+    DocumentProjection projection = new DocumentProjection(null);
+    projection.addAttributes(fi, "theType");
+    projection.addType("theType", "class");
+    assertEquals(3, projection.getTypes().size());
+    assertEquals(1, projection.getTextTypes().size());
+    File file = File.createTempFile("lf-projection", DocumentProjection.EXTENSION);
+    projection.write(doc, file);
+    Document projected = DocumentProjection.read(file);
+    file.delete();
+    try {
+      assertEquals(doc.getName(), projected.getName());
+      assertEquals(doc.getContent().size(), projected.getContent().size());
+      assertEquals("w0w1w2w3w4w5   ", projected.getContent().getContent(0L, 15L).toString());
+      assertEquals(0, projected.getAnnotations().get("Other").size());
+      Annotation ann = projected.getAnnotations().get("theType").inDocumentOrder().get(1);
+      assertEquals(doc.getAnnotations().get("theType").inDocumentOrder().get(1).getId(), ann.getId());
+      assertEquals(1, ann.getFeatures().get("num"));
+      assertFalse(ann.getFeatures().containsKey("unused"));
+      CorpusRepresentationMalletTarget crm1 = new CorpusRepresentationMalletTarget(fi, ScalingMethod.NONE, TargetType.NOMINAL);
+      crm1.add(doc.getAnnotations().get("theType"), null, doc.getAnnotations(), null, "class", TargetType.NOMINAL, null);
+      CorpusRepresentationMalletTarget crm2 = new CorpusRepresentationMalletTarget(
+              new FeatureSpecification(spec).getFeatureInfo(), ScalingMethod.NONE, TargetType.NOMINAL);
+      crm2.add(projected.getAnnotations().get("theType"), null, projected.getAnnotations(), null, "class", TargetType.NOMINAL, null);
+      assertEquals(values.length, crm2.getRepresentationMallet().size());
+      assertTrue(crm2.getRepresentationMallet().getDataAlphabet().size() > 0);
+      assertEquals(crm1.getRepresentationMallet().getDataAlphabet().toString(), crm2.getRepresentationMallet().getDataAlphabet().toString());
+      for(int i=0; i<values.length; i++) {
+        Instance inst1 = crm1.getRepresentationMallet().get(i);
+        Instance inst2 = crm2.getRepresentationMallet().get(i);
+        assertEquals(inst1.getData().toString(), inst2.getData().toString());
+        assertEquals(inst1.getTarget().toString(), inst2.getTarget().toString());
+      }
+    } finally {
+      Factory.deleteResource(projected);
+    }
+  }
+  
+  @Test
+  public void valueIndexPerThread1() throws Exception {
+    // the attributes of a loaded model can be shared by several threads, each of which
+    // must use its own index
+    String spec = "<ROOT>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE><FEATURE>feature1</FEATURE><DATATYPE>nominal</DATATYPE></ATTRIBUTE>"+
+            "</ROOT>";
+    final Attribute att = new FeatureSpecification(spec).getFeatureInfo().getAttributes().get(0);
+    final Alphabet alph = new Alphabet();
+    AttributeValueIndex index = att.getValueIndex(alph, "theType");
+    index.put(0, "x", 3);
+    assertSame(index, att.getValueIndex(alph, "theType"));
+    final AttributeValueIndex[] other = new AttributeValueIndex[1];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        other[0] = att.getValueIndex(alph, "theType");
+      }
+    };
+    thread.start();
+    thread.join();
+    assertNotNull(other[0]);
+    assertNotSame(index, other[0]);
+    assertEquals(AttributeValueIndex.UNKNOWN, other[0].get(0, "x"));
+    assertEquals(3, index.get(0, "x"));
+  }
+  
+  @Test
+  public void ngramIndexPerThread1() throws Exception {
+    String spec = "<ROOT>"+
+            "<NGRAM><TYPE>theType</TYPE><FEATURE>feature1</FEATURE><NUMBER>2</NUMBER></NGRAM>"+
+            "</ROOT>";
+    final Ngram ng = (Ngram)new FeatureSpecification(spec).getFeatureInfo().getAttributes().get(0);
+    final Alphabet alph = new Alphabet();
+    NgramIndex index = ng.getNgramIndex(alph, "theType");
+    int idA = index.tokenId("a");
+    assertTrue(idA > 0);
+    assertSame(index, ng.getNgramIndex(alph, "theType"));
+    final NgramIndex[] other = new NgramIndex[1];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        other[0] = ng.getNgramIndex(alph, "theType");
+      }
+    };
+    thread.start();
+    thread.join();
+    assertNotNull(other[0]);
+    assertNotSame(index, other[0]);
+    assertEquals(idA, other[0].tokenId("b"));
+    assertEquals(idA+1, index.tokenId("b"));
+  }
+  
+  @Test
+  public void ngramIndexContexts1() {
+    // token ids only last for one context, except for the tokens of n-grams in the alphabet
+    String spec = "<ROOT>"+
+            "<NGRAM><TYPE>theType</TYPE><FEATURE>feature1</FEATURE><NUMBER>2</NUMBER></NGRAM>"+
+            "</ROOT>";
+    Ngram ng = (Ngram)new FeatureSpecification(spec).getFeatureInfo().getAttributes().get(0);
+    NgramIndex index = ng.getNgramIndex(new Alphabet(), "theType");
+    index.checkForContext(1);
+    int idA = index.tokenId("a");
+    int idB = index.tokenId("b");
+    int idC = index.tokenId("c");
+    long keyAB = NgramIndex.shift(NgramIndex.shift(0, idA, 2), idB, 2);
+    long keyBC = NgramIndex.shift(NgramIndex.shift(0, idB, 2), idC, 2);
+    index.put(keyAB, 5);
+    index.put(keyBC, NgramIndex.NOT_IN_ALPHABET);
+    assertEquals(5, index.get(keyAB));
+    assertEquals(NgramIndex.NOT_IN_ALPHABET, index.get(keyBC));
+    // in the next context, "a" and "b" have known ids and "c" gets a new document id
+    index.checkForContext(2);
+    assertEquals(NgramIndex.UNKNOWN, index.get(keyBC));
+    int newIdA = index.tokenId("a");
+    int newIdB = index.tokenId("b");
+    assertTrue(newIdA != idA);
+    assertEquals("a", index.token(newIdA));
+    assertEquals("b", index.token(newIdB));
+    assertEquals(idA, index.tokenId("d"));
+    assertEquals("d", index.token(idA));
+    long newKeyAB = NgramIndex.shift(NgramIndex.shift(0, newIdA, 2), newIdB, 2);
+    index.put(newKeyAB, 5);
+    index.checkForContext(3);
+    assertEquals(newIdA, index.tokenId("a"));
+    assertEquals(5, index.get(newKeyAB));
+  }
+  
 }
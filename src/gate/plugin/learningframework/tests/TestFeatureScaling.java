@@ -1,6 +1,7 @@
 
 package gate.plugin.learningframework.tests;
 
+import cc.mallet.pipe.Noop;
 import cc.mallet.pipe.Pipe;
 import cc.mallet.types.Instance;
 import gate.Annotation;
@@ -8,6 +9,7 @@ import gate.AnnotationSet;
 import gate.Document;
 import gate.creole.ResourceInstantiationException;
 import gate.plugin.learningframework.GateClassification;
+import gate.plugin.learningframework.InstanceStorage;
 import gate.plugin.learningframework.ScalingMethod;
 import gate.plugin.learningframework.data.CorpusRepresentationMallet;
 import gate.plugin.learningframework.data.CorpusRepresentationMalletTarget;
@@ -18,12 +20,19 @@ import gate.plugin.learningframework.engines.EngineWeka;
 import gate.plugin.learningframework.features.FeatureInfo;
 import gate.plugin.learningframework.features.FeatureSpecification;
 import gate.plugin.learningframework.features.TargetType;
+import gate.plugin.learningframework.mallet.FeatureStatistics;
+import gate.plugin.learningframework.mallet.FeatureVector2NormalizedFeatureVector;
 import gate.plugin.learningframework.mallet.LFPipe;
+import gate.plugin.learningframework.mallet.ScalingInstanceList;
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.InstanceList;
 import static gate.plugin.learningframework.tests.Utils.loadDocument;
 import gate.util.GateException;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.util.List;
+import java.util.Random;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 import static org.junit.Assert.assertNotNull;
@@ -141,4 +150,151 @@ public class TestFeatureScaling {
     
   }
   
+  @Test
+  public void testFeatureStatistics1() {
+    // compare the statistics collected from the sparse vectors, in one or in several parts
+    // which get merged, with the ones calculated from all the values directly
+    Random rand = new Random(1);
+    Alphabet alph = new Alphabet();
+    int nrFeatures = 5;
+    for(int i=0; i<nrFeatures; i++) {
+      alph.lookupIndex("f"+i);
+    }
+    int nrInstances = 200;
+    double[][] data = new double[nrInstances][nrFeatures];
+    FeatureStatistics all = new FeatureStatistics();
+    FeatureStatistics part1 = new FeatureStatistics();
+    FeatureStatistics part2 = new FeatureStatistics();
+    for(int i=0; i<nrInstances; i++) {
+      List<Integer> indices = new java.util.ArrayList<Integer>();
+      List<Double> values = new java.util.ArrayList<Double>();
+      for(int f=0; f<nrFeatures; f++) {
+        // feature 4 is never present
+        if(f < 4 && rand.nextDouble() < 0.3 * (f+1)) {
+          data[i][f] = 100.0 * f + rand.nextGaussian() * (f+1);
+          indices.add(f);
+          values.add(data[i][f]);
+        }
+      }
+      int[] ind = new int[indices.size()];
+      double[] vals = new double[indices.size()];
+      for(int j=0; j<ind.length; j++) {
+        ind[j] = indices.get(j);
+        vals[j] = values.get(j);
+      }
+      FeatureVector fv = new FeatureVector(alph, ind, vals);
+      all.add(fv);
+      if(i < 70) part1.add(fv); else part2.add(fv);
+    }
+    part1.merge(part2);
+    assertEquals(nrInstances, all.getNrInstances());
+    assertEquals(nrInstances, part1.getNrInstances());
+    for(int f=0; f<nrFeatures; f++) {
+      double sum = 0.0;
+      double maxAbs = 0.0;
+      for(int i=0; i<nrInstances; i++) {
+        sum += data[i][f];
+        maxAbs = Math.max(maxAbs, Math.abs(data[i][f]));
+      }
+      double mean = sum / nrInstances;
+      double m2 = 0.0;
+      for(int i=0; i<nrInstances; i++) {
+        m2 += (data[i][f] - mean) * (data[i][f] - mean);
+      }
+      double variance = m2 / nrInstances;
+      for(FeatureStatistics stats : new FeatureStatistics[]{all, part1}) {
+        assertEquals("mean of f"+f, mean, stats.getMean(f), 1e-9);
+        assertEquals("variance of f"+f, variance, stats.getVariance(f), 1e-6);
+        assertEquals("maxabs of f"+f, maxAbs, stats.getMaxAbs(f), 0.0);
+      }
+    }
+  }
+  
+  @Test
+  public void testScalingStorage1() throws MalformedURLException, ResourceInstantiationException {
+    // the scaled values must be the same for all kinds of instance storage and for scaling
+    // with the statistics collected while adding or after adding the instances
+    File configFile = new File("tests/cl-ionosphere/feats.xml");
+    FeatureSpecification spec = new FeatureSpecification(configFile);
+    Document doc = loadDocument(new File("tests/cl-ionosphere/ionosphere_gate.xml"));
+    AnnotationSet instanceAS = doc.getAnnotations().get("Mention");
+    AnnotationSet inputAS = doc.getAnnotations();
+    for(ScalingMethod sm : new ScalingMethod[]{ScalingMethod.MEANVARIANCE_ALL_FEATURES, 
+            ScalingMethod.VARIANCE_ALL_FEATURES, ScalingMethod.MAXABS_ALL_FEATURES}) {
+      InstanceList expected = null;
+      for(InstanceStorage storage : new InstanceStorage[]{InstanceStorage.MALLET, InstanceStorage.COMPACT}) {
+        for(ScalingMethod initial : new ScalingMethod[]{ScalingMethod.NONE, sm}) {
+          CorpusRepresentationMalletTarget crm = new CorpusRepresentationMalletTarget(spec.getFeatureInfo(), initial, TargetType.NOMINAL, storage);
+          crm.add(instanceAS, null, inputAS, null, "class", TargetType.NOMINAL, null);
+          crm.addScaling(sm);
+          InstanceList instances = crm.getRepresentationMallet();
+          if(expected == null) {
+            expected = instances;
+            continue;
+          }
+          assertEquals(expected.size(), instances.size());
+          for(int i=0; i<instances.size(); i++) {
+            FeatureVector fv1 = (FeatureVector)expected.get(i).getData();
+            FeatureVector fv2 = (FeatureVector)instances.get(i).getData();
+            assertEquals(fv1.numLocations(), fv2.numLocations());
+            for(int l=0; l<fv1.numLocations(); l++) {
+              assertEquals(fv1.indexAtLocation(l), fv2.indexAtLocation(l));
+              // compact storage keeps the values as floats
+              assertEquals(sm+"/"+storage+" instance "+i, fv1.valueAtLocation(l), fv2.valueAtLocation(l), 1e-5);
+              if(sm == ScalingMethod.MAXABS_ALL_FEATURES) {
+                assertTrue(Math.abs(fv2.valueAtLocation(l)) <= 1.0);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testScalingInstanceList1() {
+    // lazily scaling the instances when they are read must give the same vectors as scaling
+    // all of them in place, whatever way and however often they are read
+    Random rand = new Random(1);
+    Alphabet alph = new Alphabet();
+    for(int f=0; f<3; f++) {
+      alph.lookupIndex("f"+f);
+    }
+    Pipe pipe = new Noop(alph, null);
+    InstanceList expected = new InstanceList(pipe);
+    ScalingInstanceList instances = new ScalingInstanceList(pipe);
+    FeatureStatistics stats = new FeatureStatistics();
+    for(int i=0; i<20; i++) {
+      double[] vals = new double[]{rand.nextGaussian(), 10.0 + rand.nextGaussian(), 5.0 * i};
+      FeatureVector fv = new FeatureVector(alph, new int[]{0, 1, 2}, vals);
+      stats.add(fv);
+      expected.add(new Instance(new FeatureVector(alph, new int[]{0, 1, 2}, vals.clone()), null, null, null));
+      instances.add(new Instance(fv, null, null, null));
+    }
+    FeatureVector2NormalizedFeatureVector normalizer = 
+            FeatureVector2NormalizedFeatureVector.fromStatistics(stats, ScalingMethod.MEANVARIANCE_ALL_FEATURES, alph);
+    for(Instance inst : expected) {
+      normalizer.pipe(inst);
+    }
+    instances.setScaling(normalizer);
+    // read some of the instances before all others
+    instances.get(3);
+    instances.get(7);
+    for(Instance inst : instances) {
+      assertNotNull(inst);
+    }
+    expected.shuffle(new Random(2));
+    instances.shuffle(new Random(2));
+    expected.remove(5);
+    instances.remove(5);
+    assertEquals(expected.size(), instances.size());
+    for(int i=0; i<instances.size(); i++) {
+      FeatureVector fv1 = (FeatureVector)expected.get(i).getData();
+      FeatureVector fv2 = (FeatureVector)instances.get(i).getData();
+      for(int l=0; l<3; l++) {
+        assertEquals("instance "+i, fv1.valueAtLocation(l), fv2.valueAtLocation(l), 1e-9);
+      }
+    }
+  }
+  
 }
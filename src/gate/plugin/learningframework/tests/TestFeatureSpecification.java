@@ -60,6 +60,32 @@ public class TestFeatureSpecification {
     FeatureInfo fi2 = fs.getFeatureInfo();
     assertFalse(fi == fi2);
     
-  }  
+  }
+
+  @Test
+  public void hashingSpecParsing1() {
+    String spec = "<ROOT>"+
+            "<HASHING buckets=\"2^10\" signed=\"true\"/>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE></ATTRIBUTE>"+
+            "</ROOT>";
+    FeatureInfo fi = new FeatureSpecification(spec).getFeatureInfo();
+    assertEquals(1,fi.getAttributes().size());
+    assertEquals(1024,fi.getHashingBuckets());
+    assertTrue(fi.getHashingSigned());
+    
+    spec = "<ROOT>"+
+            "<HASHING><BUCKETS>1000</BUCKETS></HASHING>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE></ATTRIBUTE>"+
+            "</ROOT>";
+    fi = new FeatureSpecification(spec).getFeatureInfo();
+    assertEquals(1000,fi.getHashingBuckets());
+    assertFalse(fi.getHashingSigned());
+    
+    spec = "<ROOT>"+
+            "<ATTRIBUTE><TYPE>theType</TYPE></ATTRIBUTE>"+
+            "</ROOT>";
+    fi = new FeatureSpecification(spec).getFeatureInfo();
+    assertEquals(0,fi.getHashingBuckets());
+  }
  
 }
@@ -8,6 +8,8 @@ package gate.plugin.learningframework.tests;
 
 import gate.plugin.learningframework.engines.Info;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -30,4 +32,29 @@ public class TestInfo {
     System.err.println("Info2="+info2);
     assertEquals(info, info2);
   }
+  
+  @Test
+  public void testInfoHashing1() throws IOException {
+    // the hashing fields are only written if hashing is used
+    Info info = new Info();
+    info.engineClass = "theEngineClass";
+    File directory = new File("/tmp/testInfo");
+    directory.mkdir();
+    info.save(directory);
+    String saved = new String(Files.readAllBytes(new File(directory, Info.FILENAME_INFO).toPath()), "UTF-8");
+    assertFalse(saved.contains("hashing"));
+    assertNull(Info.load(directory).hashingBuckets);
+    info.hashingBuckets = 1024;
+    info.hashingSigned = true;
+    info.hashingBucketsUsed = 100;
+    info.hashingEstimatedFeatures = 120L;
+    info.hashingEstimatedCollisions = 20L;
+    info.save(directory);
+    Info info2 = Info.load(directory);
+    assertEquals(Integer.valueOf(1024), info2.hashingBuckets);
+    assertEquals(Boolean.TRUE, info2.hashingSigned);
+    assertEquals(Integer.valueOf(100), info2.hashingBucketsUsed);
+    assertEquals(Long.valueOf(120L), info2.hashingEstimatedFeatures);
+    assertEquals(Long.valueOf(20L), info2.hashingEstimatedCollisions);
+  }
 }
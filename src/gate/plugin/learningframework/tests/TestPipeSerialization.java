@@ -9,6 +9,8 @@ package gate.plugin.learningframework.tests;
 import cc.mallet.pipe.Noop;
 import cc.mallet.pipe.Pipe;
 import cc.mallet.types.Alphabet;
+import cc.mallet.types.AugmentableFeatureVector;
+import cc.mallet.types.FeatureVector;
 import cc.mallet.types.Instance;
 import cc.mallet.types.LabelAlphabet;
 import gate.Annotation;
@@ -18,7 +20,9 @@ import gate.plugin.learningframework.features.Attribute;
 import gate.plugin.learningframework.features.FeatureExtraction;
 import gate.plugin.learningframework.features.FeatureInfo;
 import gate.plugin.learningframework.features.FeatureSpecification;
+import gate.plugin.learningframework.features.Ngram;
 import gate.plugin.learningframework.features.SimpleAttribute;
+import gate.plugin.learningframework.mallet.FrozenAlphabet;
 import gate.plugin.learningframework.mallet.LFPipe;
 import org.junit.Test;
 import static gate.plugin.learningframework.tests.Utils.newDocument;
@@ -94,4 +98,70 @@ public class TestPipeSerialization {
     // is the alphabet identical to what we originally had
     assertEquals(valuealphabet,((SimpleAttribute)pipe2.getFeatureInfo().getAttributes().get(0)).alphabet);
   }
+  
+  // Test if a pipe with an n-gram attribute saved by an earlier version can still be loaded
+  // and used
+  @Test
+  public void testLoadNgramPipe1() throws ResourceInstantiationException, IOException, ClassNotFoundException {
+    ObjectInputStream ois = new ObjectInputStream(new FileInputStream(new File("tests/pipes/ngram-1.pipe")));
+    LFPipe pipe = (LFPipe) ois.readObject();
+    ois.close();
+    List<Attribute> attrs = pipe.getFeatureInfo().getAttributes();
+    assertEquals(2, attrs.size());
+    assertEquals(Ngram.class, attrs.get(1).getClass());
+    Ngram ng = (Ngram)attrs.get(1);
+    Document doc = newDocument();
+    Annotation instAnn = addAnn(doc,"",0,10,"theType",gate.Utils.featureMap("feature1","val1"));
+    addAnn(doc,"",0,1,"Token",gate.Utils.featureMap("string","a"));
+    addAnn(doc,"",2,3,"Token",gate.Utils.featureMap("string","b"));
+    Instance inst = new Instance(new AugmentableFeatureVector(pipe.getDataAlphabet()),null,null,null);
+    FeatureExtraction.extractFeature(inst, ng, doc.getAnnotations(), instAnn);
+    FeatureVector fv = (FeatureVector)inst.getData();
+    assertEquals(1, fv.numLocations());
+    assertEquals(1.0, fv.value("N2:Token:string=a_b"), 0.0);
+  }
+  
+  // Test if the data alphabet of a pipe can be replaced by a frozen alphabet with the 
+  // same entries
+  @Test
+  public void testFreezeDataAlphabet1() {
+    Pipe tmppipe = new Noop(new Alphabet(),new LabelAlphabet());
+    List<Pipe> pipes = new ArrayList<Pipe>();
+    pipes.add(tmppipe);
+    LFPipe pipe = new LFPipe(pipes);
+    Alphabet alph = pipe.getDataAlphabet();
+    String[] names = new String[] { "A:Token:string=the", "A:Token:string=caf\u00e9", 
+      "N2:Token:string=\u00fcber_\u4e2d\u6587", "A:Token:string=\ud83d\ude00", "", 
+      "L-1:Token:category=NN" };
+    for(String name : names) {
+      alph.lookupIndex(name);
+    }
+    for(int i=0; i<1000; i++) {
+      alph.lookupIndex("A:Token:string=w"+i);
+    }
+    assertTrue(pipe.freezeDataAlphabet());
+    Alphabet frozen = pipe.getDataAlphabet();
+    assertTrue(frozen instanceof FrozenAlphabet);
+    // the contained pipe must use the same alphabet
+    assertSame(frozen, tmppipe.getDataAlphabet());
+    assertEquals(alph.size(), frozen.size());
+    for(int i=0; i<alph.size(); i++) {
+      assertEquals(alph.lookupObject(i), frozen.lookupObject(i));
+      assertEquals(i, frozen.lookupIndex(alph.lookupObject(i)));
+    }
+    assertTrue(frozen.contains("A:Token:string=caf\u00e9"));
+    assertFalse(frozen.contains("A:Token:string=cafe"));
+    assertFalse(frozen.contains("A:Token:string=w1000"));
+    // a frozen alphabet never grows
+    assertTrue(frozen.growthStopped());
+    frozen.startGrowth();
+    assertTrue(frozen.growthStopped());
+    assertEquals(-1, frozen.lookupIndex("A:Token:string=new", true));
+    assertEquals(alph.size(), frozen.size());
+    // freezing again does nothing
+    assertFalse(pipe.freezeDataAlphabet());
+    assertSame(frozen, pipe.getDataAlphabet());
+    Alphabet cloned = (Alphabet)frozen.clone();
+    assertEquals(1, cloned.lookupIndex("A:Token:string=caf\u00e9"));
+  }
 }